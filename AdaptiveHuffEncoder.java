@@ -0,0 +1,302 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Compresses a stream in one pass as a series of segments, starting a new segment, with its
+ * own table, only where the statistics of the data change enough that a fresh table saves
+ * more than its header costs. Inputs that change character, like bundles of different files
+ * or logs with binary sections, get a table for each part, while homogeneous data stays one
+ * segment instead of paying for a header every fixed number of bytes. The output is an
+ * ordinary stream of segments, uncompressed like any other.
+ * <P>
+ * The input is read in probes of PROBE_SIZE bytes, each counted once. The probes since a
+ * candidate split point are kept as the tail of the current segment, at most WINDOW_PROBES
+ * of them, and when the tail is full its oldest probe joins the head, so the candidate
+ * trails the input by a window. After each probe the size of the segment coded whole is
+ * estimated and compared with the head and tail coded as two segments, from the entropy of
+ * their histograms and the size of the table each would need, and the head is written as a
+ * segment of its own when splitting saves bits and would save fewer a probe later, so
+ * splits land near where the data changes rather than as soon as the change is seen.
+ * Each decision looks at a few histograms, never at the data, so its cost does not depend
+ * on the size of the segment. The data of the current segment is buffered, at most the
+ * segment limit, and each segment is coded from the buffer with the plan its histogram
+ * gives.
+ * <P>
+ * Every segment has a checksum. An adaptive encoder is not thread-safe.
+ */
+public class AdaptiveHuffEncoder implements IHuffConstants {
+    /** The number of bytes counted between split decisions. */
+    public static final int PROBE_SIZE = 1 << 16;
+    /** The most probes after a candidate split point. */
+    public static final int WINDOW_PROBES = 16;
+    /** The default largest segment, in bytes. */
+    public static final int DEFAULT_MAX_SEGMENT = 1 << 24;
+
+    private final HuffEncoder ENCODER;
+    private final int MAX_SEGMENT;
+    private final long[] headCounts;
+    private final long[] tailCounts;
+    private final long[] bothCounts;
+    private final long[] nextHeadCounts;
+    private final long[] nextTailCounts;
+    // the counts and length of each probe in the tail, oldest first from firstProbe
+    private final int[][] probeCounts;
+    private final int[] probeLengths;
+
+    // the data of the current segment, the head then the tail, grown up to MAX_SEGMENT
+    private byte[] data;
+    private int headerFormat;
+    private int headBytes;
+    private int tailBytes;
+    private int firstProbe;
+    private int probes;
+    private int segments;
+
+    /**
+     * Create an adaptive encoder coding segments of up to DEFAULT_MAX_SEGMENT bytes with
+     * encoder.
+     *
+     * @param encoder the encoder the segments are coded with
+     */
+    public AdaptiveHuffEncoder(HuffEncoder encoder) {
+        this(encoder, DEFAULT_MAX_SEGMENT);
+    }
+
+    /**
+     * Create an adaptive encoder.
+     *
+     * @param encoder the encoder the segments are coded with
+     * @param maxSegment the most bytes in a segment, and the largest the buffer holding the
+     *        current one grows to, at least PROBE_SIZE * (WINDOW_PROBES + 1)
+     */
+    public AdaptiveHuffEncoder(HuffEncoder encoder, int maxSegment) {
+        if (encoder == null || maxSegment < PROBE_SIZE * (WINDOW_PROBES + 1)) {
+            throw new IllegalArgumentException("encoder cannot be null and maxSegment must be "
+                    + "at least " + PROBE_SIZE * (WINDOW_PROBES + 1));
+        }
+        ENCODER = encoder;
+        MAX_SEGMENT = maxSegment;
+        data = new byte[PROBE_SIZE * (WINDOW_PROBES + 1)];
+        headCounts = new long[ALPH_SIZE];
+        tailCounts = new long[ALPH_SIZE];
+        bothCounts = new long[ALPH_SIZE];
+        nextHeadCounts = new long[ALPH_SIZE];
+        nextTailCounts = new long[ALPH_SIZE];
+        probeCounts = new int[WINDOW_PROBES][ALPH_SIZE];
+        probeLengths = new int[WINDOW_PROBES];
+    }
+
+    /**
+     * Compress a stream as segments split where its statistics change. Neither stream is
+     * closed, but all bits are flushed to out.
+     *
+     * @param in the stream being compressed
+     * @param out the stream the segments are written to
+     * @param headerFormat STORE_COUNTS, STORE_TREE, STORE_SPARSE, STORE_RAW, or
+     *        STORE_AUTO for the smallest for each segment
+     * @param metrics where the phases of coding each segment are reported
+     * @return the number of bits written, not counting padding of the last byte
+     * @throws IOException if an error occurs while reading from the input or writing to the
+     *         output
+     */
+    public long compress(InputStream in, OutputStream out, int headerFormat,
+            HuffMetrics metrics) throws IOException {
+        if (headerFormat != STORE_COUNTS && headerFormat != STORE_TREE
+                && headerFormat != STORE_SPARSE && headerFormat != STORE_RAW
+                && headerFormat != STORE_AUTO) {
+            throw new IllegalArgumentException("unsupported header format " + headerFormat);
+        }
+        this.headerFormat = headerFormat;
+        Arrays.fill(headCounts, 0);
+        Arrays.fill(tailCounts, 0);
+        headBytes = 0;
+        tailBytes = 0;
+        firstProbe = 0;
+        probes = 0;
+        segments = 0;
+
+        long bitsWritten = 0;
+        while (true) {
+            if (headBytes + tailBytes + PROBE_SIZE > MAX_SEGMENT) {
+                // the buffer is full: the head is written whether or not splitting pays
+                bitsWritten = writeHead(out, bitsWritten, metrics);
+            }
+            int length = readProbe(in, headBytes + tailBytes);
+            if (length == 0) {
+                break;
+            }
+            addProbe(length);
+            if (headBytes > 0 && splitHere()) {
+                bitsWritten = writeHead(out, bitsWritten, metrics);
+            }
+            if (probes == WINDOW_PROBES) {
+                joinOldestProbe();
+            }
+        }
+        // the candidates left in the tail are tried in turn
+        while (probes > 0) {
+            if (headBytes > 0 && splitHere()) {
+                bitsWritten = writeHead(out, bitsWritten, metrics);
+            }
+            joinOldestProbe();
+        }
+        // the rest is one segment, as is an empty input
+        if (headBytes > 0 || segments == 0) {
+            bitsWritten = writeHead(out, bitsWritten, metrics);
+        }
+        return bitsWritten;
+    }
+
+    /**
+     * Get the number of segments written by the last call to <code>compress</code>.
+     *
+     * @return the segments, at least 1
+     */
+    public int getSegments() {
+        return segments;
+    }
+
+    /**
+     * Read up to PROBE_SIZE bytes into the buffer.
+     *
+     * @param at the index in the buffer the probe starts at
+     * @return the number of bytes read, less than PROBE_SIZE only at the end of the input
+     */
+    private int readProbe(InputStream in, int at) throws IOException {
+        if (at + PROBE_SIZE > data.length) {
+            data = Arrays.copyOf(data, Math.min(MAX_SEGMENT, 2 * data.length));
+        }
+        int length = 0;
+        while (length < PROBE_SIZE) {
+            int read = in.read(data, at + length, PROBE_SIZE - length);
+            if (read == -1) {
+                break;
+            }
+            length += read;
+        }
+        return length;
+    }
+
+    /**
+     * Count the probe just read and add it to the tail.
+     */
+    private void addProbe(int length) {
+        int slot = (firstProbe + probes) % WINDOW_PROBES;
+        int[] counts = probeCounts[slot];
+        Arrays.fill(counts, 0);
+        byte[] bytes = data;
+        int from = headBytes + tailBytes;
+        for (int i = from; i < from + length; i++) {
+            counts[bytes[i] & 0xFF]++;
+        }
+        for (int k = 0; k < ALPH_SIZE; k++) {
+            tailCounts[k] += counts[k];
+        }
+        probeLengths[slot] = length;
+        tailBytes += length;
+        probes++;
+    }
+
+    /**
+     * Move the oldest probe of the tail into the head, moving the candidate split point on.
+     */
+    private void joinOldestProbe() {
+        int[] counts = probeCounts[firstProbe];
+        for (int k = 0; k < ALPH_SIZE; k++) {
+            headCounts[k] += counts[k];
+            tailCounts[k] -= counts[k];
+        }
+        headBytes += probeLengths[firstProbe];
+        tailBytes -= probeLengths[firstProbe];
+        firstProbe = (firstProbe + 1) % WINDOW_PROBES;
+        probes--;
+    }
+
+    /**
+     * Tells us if the head should be written as a segment: coding the head and tail as two
+     * segments is estimated to be smaller than as one, and moving the split point on by a
+     * probe would save no more.
+     */
+    private boolean splitHere() {
+        for (int k = 0; k < ALPH_SIZE; k++) {
+            bothCounts[k] = headCounts[k] + tailCounts[k];
+        }
+        double whole = estimateBits(bothCounts);
+        double saved = whole - estimateBits(headCounts) - estimateBits(tailCounts);
+        if (saved <= 0) {
+            return false;
+        } else if (probes < 2) {
+            return true;
+        }
+        int[] oldest = probeCounts[firstProbe];
+        for (int k = 0; k < ALPH_SIZE; k++) {
+            nextHeadCounts[k] = headCounts[k] + oldest[k];
+            nextTailCounts[k] = tailCounts[k] - oldest[k];
+        }
+        return saved >= whole - estimateBits(nextHeadCounts) - estimateBits(nextTailCounts);
+    }
+
+    /**
+     * Estimate the size of data with the given counts coded as a segment of its own: the
+     * entropy of the counts, the table the header format needs for them, and the magic
+     * number, header format, checksum and padding of a segment.
+     *
+     * @return the estimated bits of the segment
+     */
+    private double estimateBits(long[] counts) {
+        long total = 0;
+        long max = 0;
+        int values = 0;
+        double sum = 0;
+        for (long count : counts) {
+            if (count > 0) {
+                total += count;
+                max = Math.max(max, count);
+                values++;
+                sum += count * Math.log(count);
+            }
+        }
+        double codeBits = total == 0 ? 0 : (total * Math.log(total) - sum) / Math.log(2);
+        // the sparse table lists each value and its count; a tree has a leaf of 10 bits for
+        // each value and PSEUDO_EOF and a bit for each internal node
+        long sparse = CompressionPlan.SPARSE_COUNT_BITS + CompressionPlan.SPARSE_WIDTH_BITS
+                + values * (BITS_PER_WORD + Long.SIZE - Long.numberOfLeadingZeros(max));
+        long tree = BITS_PER_INT + (values + 1) * (BITS_PER_WORD + 2L) - 1;
+        long counted = (long) BITS_PER_INT * ALPH_SIZE;
+        double raw = BITS_PER_WORD + total * BITS_PER_WORD;
+        double bits;
+        if (headerFormat == STORE_SPARSE) {
+            bits = sparse + codeBits;
+        } else if (headerFormat == STORE_TREE) {
+            bits = tree + codeBits;
+        } else if (headerFormat == STORE_COUNTS) {
+            bits = counted + codeBits;
+        } else if (headerFormat == STORE_RAW) {
+            bits = raw;
+        } else {
+            bits = Math.min(Math.min(sparse, tree) + codeBits, raw);
+        }
+        return bits + BITS_PER_INT * 3 + BITS_PER_WORD;
+    }
+
+    /**
+     * Code the head as a segment and move the tail to the front of the buffer.
+     *
+     * @param bitsWritten the bits written before the segment
+     * @return the bits written with the segment, not counting padding of its last byte
+     */
+    private long writeHead(OutputStream out, long bitsWritten, HuffMetrics metrics)
+            throws IOException {
+        CompressionPlan plan = new CompressionPlan(headCounts, headerFormat, metrics)
+                .withChecksum();
+        long bits = ENCODER.compress(plan, data, 0, headBytes, out, metrics);
+        System.arraycopy(data, headBytes, data, 0, tailBytes);
+        Arrays.fill(headCounts, 0);
+        headBytes = 0;
+        segments++;
+        // the segment before this one was padded to a byte
+        return (bitsWritten + BITS_PER_WORD - 1) / BITS_PER_WORD * BITS_PER_WORD + bits;
+    }
+}
@@ -0,0 +1,195 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * A bounded ring buffer connecting a thread that writes bytes to a thread that reads them.
+ * Unlike <code>PipedInputStream</code> a blocked reader or writer is woken as soon as the
+ * other side makes progress instead of polling once a second, and reads and writes copy
+ * whole chunks, so a pipe keeps up with an encoder feeding a decoder. Memory use is fixed
+ * at the capacity however much data goes through.
+ * <P>
+ * Closing the output ends the data; the reader sees end of input once it has read what was
+ * written. Closing the input makes further writes fail, so a writer never blocks forever on
+ * a reader that gave up.
+ */
+public class BytePipe {
+    /** The default capacity of a pipe in bytes. */
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+
+    private final byte[] BUFFER;
+    private final InputStream INPUT;
+    private final OutputStream OUTPUT;
+    private int readPosition;
+    private int size;
+    private long bytesWritten;
+    private boolean outputClosed;
+    private boolean inputClosed;
+
+    /**
+     * Create a pipe with the default capacity.
+     */
+    public BytePipe() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a pipe holding at most capacity unread bytes.
+     *
+     * @param capacity the size of the ring buffer, > 0
+     */
+    public BytePipe(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        BUFFER = new byte[capacity];
+        INPUT = new PipeInputStream();
+        OUTPUT = new PipeOutputStream();
+    }
+
+    /**
+     * Get the end of the pipe bytes are read from, by one thread.
+     *
+     * @return the input stream
+     */
+    public InputStream getInputStream() {
+        return INPUT;
+    }
+
+    /**
+     * Get the end of the pipe bytes are written to, by one thread.
+     *
+     * @return the output stream
+     */
+    public OutputStream getOutputStream() {
+        return OUTPUT;
+    }
+
+    /**
+     * Get the number of bytes written to the pipe so far.
+     *
+     * @return the byte count
+     */
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Copy bytes into the ring buffer, waiting for space as needed.
+     */
+    private synchronized void put(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            while (size == BUFFER.length && !inputClosed) {
+                await();
+            }
+            if (inputClosed) {
+                throw new IOException("pipe closed by reader");
+            } else if (outputClosed) {
+                throw new IOException("pipe closed");
+            }
+            int writePosition = (readPosition + size) % BUFFER.length;
+            int n = Math.min(len, Math.min(BUFFER.length - size, BUFFER.length - writePosition));
+            System.arraycopy(b, off, BUFFER, writePosition, n);
+            size += n;
+            bytesWritten += n;
+            off += n;
+            len -= n;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Copy bytes out of the ring buffer, waiting for at least one.
+     *
+     * @return the number of bytes copied, or -1 at the end of the data
+     */
+    private synchronized int take(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (size == 0 && !outputClosed && !inputClosed) {
+            await();
+        }
+        if (inputClosed) {
+            throw new IOException("pipe closed");
+        } else if (size == 0) {
+            return -1;
+        }
+        int n = Math.min(len, Math.min(size, BUFFER.length - readPosition));
+        System.arraycopy(BUFFER, readPosition, b, off, n);
+        readPosition = (readPosition + n) % BUFFER.length;
+        size -= n;
+        notifyAll();
+        return n;
+    }
+
+    /**
+     * Wait for the other side of the pipe to make progress.
+     *
+     * @throws InterruptedIOException if the thread is interrupted
+     */
+    private void await() throws InterruptedIOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting on pipe");
+        }
+    }
+
+    private synchronized void closeOutput() {
+        outputClosed = true;
+        notifyAll();
+    }
+
+    private synchronized void closeInput() {
+        inputClosed = true;
+        notifyAll();
+    }
+
+    private class PipeInputStream extends InputStream {
+        private final byte[] single = new byte[1];
+
+        @Override
+        public int read() throws IOException {
+            return take(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (off < 0 || len < 0 || len > b.length - off) {
+                throw new IndexOutOfBoundsException();
+            }
+            return take(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            closeInput();
+        }
+    }
+
+    private class PipeOutputStream extends OutputStream {
+        private final byte[] single = new byte[1];
+
+        @Override
+        public void write(int b) throws IOException {
+            single[0] = (byte) b;
+            put(single, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (off < 0 || len < 0 || len > b.length - off) {
+                throw new IndexOutOfBoundsException();
+            }
+            put(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            closeOutput();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A reversible transform of a byte stream run before the values are counted and coded, and
+ * undone after they are decoded, so data with runs or local structure that an order-0
+ * Huffman code cannot see is first turned into data with a skewed histogram. Transforms are
+ * chained, each applied to the output of the one before it, and the chain used is recorded
+ * in the header of a stream with TRANSFORM_FLAG by the id of each stage.
+ * <P>
+ * A transform works on streaming buffers: a <code>Coder</code> is handed the data a buffer
+ * at a time and writes what it produces to the next stage, keeping only the little state
+ * it needs between buffers, so no stage holds a copy of the whole stream.
+ */
+public interface ByteTransform {
+    /** Replaces each run of 3 to 257 equal bytes by the first 2 and a count of the rest. */
+    public static final ByteTransform RUN_LENGTH = new RunLengthTransform();
+
+    /** Replaces each byte by its position in a list of bytes in order of last use. */
+    public static final ByteTransform MOVE_TO_FRONT = new MoveToFrontTransform();
+
+    /** Replaces each byte by its difference from the byte before it. */
+    public static final ByteTransform DELTA = new DeltaTransform();
+
+    /**
+     * Get the transform with an id, as read from a header.
+     *
+     * @param id the id stored in a header
+     * @return the transform, or null if there is no transform with that id
+     */
+    public static ByteTransform forId(int id) {
+        for (ByteTransform transform : new ByteTransform[] {RUN_LENGTH, MOVE_TO_FRONT, DELTA}) {
+            if (transform.getId() == id) {
+                return transform;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the id stored in a header for this transform.
+     *
+     * @return the id, 1 to 255
+     */
+    public int getId();
+
+    /**
+     * Create the state of the forward transform for one stream.
+     *
+     * @return a coder applying the transform
+     */
+    public Coder newEncoder();
+
+    /**
+     * Create the state of the inverse transform for one stream.
+     *
+     * @return a coder undoing the transform
+     */
+    public Coder newDecoder();
+
+    /**
+     * One direction of a transform over one stream. A coder is not thread-safe.
+     */
+    public interface Coder {
+        /**
+         * Transform the next bytes of the stream.
+         *
+         * @param b the bytes
+         * @param off the index in b of the first byte
+         * @param len the number of bytes
+         * @param out where the transformed bytes are written
+         * @throws IOException if out cannot be written
+         */
+        public void update(byte[] b, int off, int len, OutputStream out) throws IOException;
+
+        /**
+         * Write anything held back at the end of the stream.
+         *
+         * @param out where the transformed bytes are written
+         * @throws IOException if out cannot be written
+         */
+        public void finish(OutputStream out) throws IOException;
+    }
+}
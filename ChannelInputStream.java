@@ -0,0 +1,70 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a range of a file channel with positional reads, leaving the channel's own position
+ * alone, so any number of these streams can read the same channel from different threads.
+ * Closing the stream does not close the channel.
+ */
+public class ChannelInputStream extends InputStream {
+    private final FileChannel CHANNEL;
+    private final long END;
+    private long position;
+
+    /**
+     * Create a stream reading from position to the end of the channel.
+     *
+     * @param channel the channel read
+     * @param position the position of the first byte read
+     */
+    public ChannelInputStream(FileChannel channel, long position) {
+        this(channel, position, Long.MAX_VALUE);
+    }
+
+    /**
+     * Create a stream reading length bytes of the channel starting at position.
+     *
+     * @param channel the channel read
+     * @param position the position of the first byte read
+     * @param length the most bytes read
+     */
+    public ChannelInputStream(FileChannel channel, long position, long length) {
+        if (channel == null || position < 0 || length < 0) {
+            throw new IllegalArgumentException("bad channel range");
+        }
+        CHANNEL = channel;
+        this.position = position;
+        END = length > Long.MAX_VALUE - position ? Long.MAX_VALUE : position + length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= END) {
+            return -1;
+        }
+        len = (int) Math.min(len, END - position);
+        int read = CHANNEL.read(ByteBuffer.wrap(b, off, len), position);
+        if (read > 0) {
+            position += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = Math.max(0, Math.min(n, Math.min(END, CHANNEL.size()) - position));
+        position += skipped;
+        return skipped;
+    }
+}
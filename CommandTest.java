@@ -0,0 +1,88 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+public class CommandTest {
+    public static void main(String[] args) throws IOException {
+
+        //A file of text, large enough for several chunks to be compressed at once
+        Random random = new Random(3);
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 2 * HuffCommand.CHUNK_SIZE + 1000) {
+            text.append("the quick brown fox ").append(random.nextInt(1000)).append(" jumps\n");
+        }
+        byte[] original = text.toString().getBytes();
+        Path file = Files.createTempFile("CommandTest", ".txt");
+        Files.write(file, original);
+        String name = file.toString();
+
+        //Compressing to standard output and uncompressing that should give back the file
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        boolean ok = run(new String[] {"c", "-c", name}, InputStream.nullInputStream(),
+                compressed) == HuffCommand.EXIT_OK;
+        ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+        ok &= run(new String[] {"d"}, new ByteArrayInputStream(compressed.toByteArray()),
+                uncompressed) == HuffCommand.EXIT_OK;
+        System.out.println("Standard output round trips: "
+                + (ok && Arrays.equals(uncompressed.toByteArray(), original)));
+
+        //Standard output that cannot be written, e.g., a full disk, should fail every command
+        //that writes to it, though a PrintStream swallows the error
+        byte[] hf = compressed.toByteArray();
+        Files.write(Path.of(name + HuffCommand.SUFFIX), hf);
+        boolean failed = true;
+        for (String threads : new String[] {"1", "4"}) {
+            failed &= run(new String[] {"c", "-T", threads, "-c", name},
+                    InputStream.nullInputStream(), new FullOutputStream())
+                    == HuffCommand.EXIT_FAILED;
+            failed &= run(new String[] {"c", "-T", threads}, new ByteArrayInputStream(original),
+                    new FullOutputStream()) == HuffCommand.EXIT_FAILED;
+        }
+        failed &= run(new String[] {"d", "-c", name + HuffCommand.SUFFIX},
+                InputStream.nullInputStream(), new FullOutputStream())
+                == HuffCommand.EXIT_FAILED;
+        failed &= run(new String[] {"d"}, new ByteArrayInputStream(hf), new FullOutputStream())
+                == HuffCommand.EXIT_FAILED;
+        failed &= run(new String[] {"l", name + HuffCommand.SUFFIX},
+                InputStream.nullInputStream(), new FullOutputStream())
+                == HuffCommand.EXIT_FAILED;
+        System.out.println("Unwritable standard output fails: " + failed);
+
+        Files.delete(Path.of(name + HuffCommand.SUFFIX));
+        Files.delete(file);
+    }
+
+    /**
+     * Run the tool with the given standard input and output, discarding what it reports on
+     * standard error.
+     */
+    private static int run(String[] args, InputStream stdin, OutputStream stdout) {
+        PrintStream out = new PrintStream(stdout);
+        int status = HuffCommand.run(args, stdin, out,
+                new PrintStream(OutputStream.nullOutputStream()));
+        out.flush();
+        return status;
+    }
+
+    /**
+     * A stream every write to fails, as one to /dev/full does.
+     */
+    private static class FullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            throw new IOException("No space left on device");
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            throw new IOException("No space left on device");
+        }
+    }
+}
@@ -0,0 +1,305 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * Predicts how well a large input compresses by reading a few chunks of it instead of every
+ * byte. The input is split into as many equal strata as there are samples and one chunk is
+ * read at a random place in each. The chunks are counted into one histogram, the plan built
+ * from it gives the code length of each value, and the average bits per byte of the coded
+ * chunks, scaled to the whole input, is the prediction.
+ * <P>
+ * How much the chunks differ from each other gives the confidence bound: the standard error
+ * of the mean bits per byte over the chunks, with the finite population correction, times the
+ * z value for the confidence level. The bound does not cover values that never occur in the
+ * sampled chunks, so inputs whose rare values are clustered compress a little worse than
+ * predicted. An input no larger than the sample is read whole and the prediction is exact.
+ */
+public class CompressibilityEstimator implements IHuffConstants {
+    /** The default number of chunks sampled. */
+    public static final int DEFAULT_SAMPLES = 64;
+    /** The default size of each chunk sampled, in bytes. */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 16;
+    /** The z value for a two-sided 95% confidence bound. */
+    public static final double Z_95 = 1.96;
+
+    private final int SAMPLES;
+    private final int CHUNK_SIZE;
+    private final double Z;
+    private final long SEED;
+
+    /**
+     * A predicted compressed size with its confidence bound.
+     */
+    public static final class Estimate {
+        private final long SIZE;
+        private final long SAMPLED_BYTES;
+        private final double BITS_PER_BYTE;
+        private final double MARGIN;
+        private final int HEADER_BITS;
+        private final boolean EXACT;
+
+        private Estimate(long size, long sampledBytes, double bitsPerByte, double margin,
+                int headerBits, boolean exact) {
+            SIZE = size;
+            SAMPLED_BYTES = sampledBytes;
+            BITS_PER_BYTE = bitsPerByte;
+            MARGIN = margin;
+            HEADER_BITS = headerBits;
+            EXACT = exact;
+        }
+
+        /**
+         * Get the size of the input.
+         *
+         * @return the size in bytes
+         */
+        public long getSize() {
+            return SIZE;
+        }
+
+        /**
+         * Get the number of bytes read to make the estimate.
+         *
+         * @return the bytes sampled
+         */
+        public long getSampledBytes() {
+            return SAMPLED_BYTES;
+        }
+
+        /**
+         * Tells us if the whole input was read, so the prediction is exact.
+         *
+         * @return true if every byte was sampled
+         */
+        public boolean isExact() {
+            return EXACT;
+        }
+
+        /**
+         * Get the predicted number of bits each byte of the input is coded with.
+         *
+         * @return the mean bits per byte of the sampled chunks
+         */
+        public double getBitsPerByte() {
+            return BITS_PER_BYTE;
+        }
+
+        /**
+         * Get the predicted size of the compressed stream.
+         *
+         * @return the size in bytes, including the header
+         */
+        public long getPredictedBytes() {
+            return bytes(BITS_PER_BYTE);
+        }
+
+        /**
+         * Get the low end of the confidence bound on the compressed size.
+         *
+         * @return the size in bytes
+         */
+        public long getLowerBound() {
+            return bytes(Math.max(0, BITS_PER_BYTE - MARGIN));
+        }
+
+        /**
+         * Get the high end of the confidence bound on the compressed size.
+         *
+         * @return the size in bytes
+         */
+        public long getUpperBound() {
+            return bytes(BITS_PER_BYTE + MARGIN);
+        }
+
+        /**
+         * Tells us if compressing is likely to save space, i.e., even the high end of the
+         * confidence bound is smaller than the input.
+         *
+         * @return true if compression is predicted to help
+         */
+        public boolean isCompressible() {
+            return getUpperBound() < SIZE;
+        }
+
+        /**
+         * Convert bits per byte to the size of the whole compressed stream.
+         */
+        private long bytes(double bitsPerByte) {
+            double bits = BITS_PER_INT * 2 + HEADER_BITS + bitsPerByte * SIZE;
+            return (long) Math.ceil(bits / BITS_PER_WORD);
+        }
+
+        public String toString() {
+            return String.format("%d bytes, sampled %d: predicted %d bytes (%d to %d), "
+                    + "%.3f bits per byte%s", SIZE, SAMPLED_BYTES, getPredictedBytes(),
+                    getLowerBound(), getUpperBound(), BITS_PER_BYTE, EXACT ? ", exact" : "");
+        }
+    }
+
+    /**
+     * Reads a chunk of the input at an offset.
+     */
+    private interface ChunkReader {
+        void read(long offset, byte[] chunk, int length) throws IOException;
+    }
+
+    /**
+     * Create an estimator with the default number and size of samples and a 95% bound.
+     */
+    public CompressibilityEstimator() {
+        this(DEFAULT_SAMPLES, DEFAULT_CHUNK_SIZE, Z_95, 0);
+    }
+
+    /**
+     * Create an estimator.
+     *
+     * @param samples the number of chunks read, > 1 so the chunks can be compared
+     * @param chunkSize the number of bytes in each chunk, > 0
+     * @param z the number of standard errors in the confidence bound, >= 0, e.g., Z_95
+     * @param seed the seed for choosing where in each stratum its chunk is read, so an
+     *        estimate can be repeated
+     */
+    public CompressibilityEstimator(int samples, int chunkSize, double z, long seed) {
+        if (samples <= 1 || chunkSize <= 0 || !(z >= 0)) {
+            throw new IllegalArgumentException("samples must be > 1, chunkSize > 0 and z >= 0");
+        }
+        SAMPLES = samples;
+        CHUNK_SIZE = chunkSize;
+        Z = z;
+        SEED = seed;
+    }
+
+    /**
+     * Estimate how well a file compresses.
+     *
+     * @param file the file
+     * @return the estimate
+     * @throws IOException if the file cannot be read
+     */
+    public Estimate estimate(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return estimate(channel);
+        }
+    }
+
+    /**
+     * Estimate how well the contents of a file compress. Reads do not move the channel's
+     * position.
+     *
+     * @param channel the open file
+     * @return the estimate
+     * @throws IOException if the file cannot be read
+     */
+    public Estimate estimate(FileChannel channel) throws IOException {
+        return estimate(channel.size(), (offset, chunk, length) ->
+                SeekIndex.readFully(channel, ByteBuffer.wrap(chunk, 0, length), offset));
+    }
+
+    /**
+     * Estimate how well the remaining bytes of a buffer, e.g., a mapped file, compress. The
+     * buffer's position is not changed.
+     *
+     * @param buffer the data
+     * @return the estimate
+     */
+    public Estimate estimate(ByteBuffer buffer) {
+        ByteBuffer data = buffer.slice();
+        try {
+            return estimate(data.remaining(), (offset, chunk, length) -> {
+                data.position((int) offset);
+                data.get(chunk, 0, length);
+            });
+        } catch (IOException e) {
+            throw new IllegalStateException("buffers cannot fail to read", e);
+        }
+    }
+
+    /**
+     * Sample the strata of an input, count the chunks and predict the coded size.
+     *
+     * @param size the size of the input
+     * @param reader reads the chunks
+     * @return the estimate
+     * @throws IOException if a chunk cannot be read
+     */
+    private Estimate estimate(long size, ChunkReader reader) throws IOException {
+        boolean exact = size <= (long) SAMPLES * CHUNK_SIZE;
+        int chunks = exact ? (int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE) : SAMPLES;
+        long stratum = exact ? CHUNK_SIZE : size / SAMPLES;
+        Random random = new Random(SEED);
+
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int[][] chunkCounts = new int[chunks][ALPH_SIZE];
+        int[] lengths = new int[chunks];
+        int[] counts = new int[ALPH_SIZE];
+        long sampledBytes = 0;
+        for (int i = 0; i < chunks; i++) {
+            long start = i * stratum;
+            int length = (int) Math.min(CHUNK_SIZE, size - start);
+            if (!exact) {
+                // a random place within the stratum that leaves room for the whole chunk
+                start += (long) (random.nextDouble() * (stratum - length + 1));
+            }
+            reader.read(start, chunk, length);
+            for (int j = 0; j < length; j++) {
+                chunkCounts[i][chunk[j] & 0xFF]++;
+            }
+            for (int k = 0; k < ALPH_SIZE; k++) {
+                counts[k] += chunkCounts[i][k];
+            }
+            lengths[i] = length;
+            sampledBytes += length;
+        }
+
+        CompressionPlan plan = new CompressionPlan(counts, STORE_AUTO);
+        if (sampledBytes == 0) {
+            return new Estimate(size, 0, 0, 0, plan.getHeaderBits(), true);
+        }
+
+        // the mean and variance of the bits per byte of the chunks coded with the plan
+        long totalBits = 0;
+        double sumOfSquares = 0;
+        for (int i = 0; i < chunks; i++) {
+            long bits = 0;
+            for (int k = 0; k < ALPH_SIZE; k++) {
+                bits += (long) chunkCounts[i][k] * plan.getCodeLength(k);
+            }
+            double bitsPerByte = (double) bits / lengths[i];
+            totalBits += bits;
+            sumOfSquares += bitsPerByte * bitsPerByte;
+        }
+        // chunks are the same size unless the whole input was read, when the margin is 0
+        double mean = (double) totalBits / sampledBytes;
+        double margin = 0;
+        if (!exact) {
+            double variance = Math.max(0, (sumOfSquares - chunks * mean * mean) / (chunks - 1));
+            double correction = 1 - (double) sampledBytes / size;
+            margin = Z * Math.sqrt(variance / chunks * correction);
+        }
+        // the code for PSEUDO_EOF is part of the header bits since it does not grow with size
+        return new Estimate(size, sampledBytes, mean, margin,
+                plan.getHeaderBits() + plan.getCodeLength(PSEUDO_EOF), exact);
+    }
+
+    /**
+     * Print an estimate for each file named on the command line.
+     *
+     * @param args the files
+     * @throws IOException if a file cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: CompressibilityEstimator file...");
+            System.exit(2);
+        }
+        CompressibilityEstimator estimator = new CompressibilityEstimator();
+        for (String name : args) {
+            System.out.println(name + ": " + estimator.estimate(Paths.get(name)));
+        }
+    }
+}
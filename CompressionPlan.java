@@ -0,0 +1,638 @@
+import java.util.Arrays;
+
+/**
+ * Everything needed to compress one stream, computed once by preprocessing: the counts of
+ * each value, the tree and codes built from them, the header format and the number of bits
+ * compression will save. A plan is immutable, so it can be handed to any number of threads
+ * and encoders at once.
+ * <P>
+ * Counts are longs so any size of input can be planned. The tree is built from weights equal
+ * to the counts unless the total is over 2^30 or a code would be longer than
+ * MAX_CODE_LENGTH bits; then the counts are halved, keeping every value that occurs at a
+ * weight of at least 1, until neither is true. The weights are what STORE_COUNTS and
+ * STORE_SPARSE headers hold, so a decoder rebuilds the same tree. Inputs small enough to need
+ * no scaling get exactly the tree they always did.
+ */
+public final class CompressionPlan implements IHuffConstants {
+    /** The number of bits holding the number of values in a STORE_SPARSE header. */
+    static final int SPARSE_COUNT_BITS = BITS_PER_WORD + 1;
+    /** The number of bits holding the width of the counts in a STORE_SPARSE header. */
+    static final int SPARSE_WIDTH_BITS = 5;
+
+    /** The longest code a plan assigns, the most bits an encoder writes at once. */
+    public static final int MAX_CODE_LENGTH = 32;
+
+    // the largest total weight of a tree, so the sums in its nodes fit in an int
+    private static final long MAX_TOTAL_WEIGHT = 1 << 30;
+
+    private final long[] COUNTS;
+    private final int[] FREQS; // the weights the tree is built from
+    private final HuffTree TREE;
+    private final int[] CODE_VALUES;
+    private final int[] CODE_LENGTHS;
+    private final int HEADER_FORMAT;
+    private final int FLAGS;
+    private final int INDEX_INTERVAL;
+    private final ByteTransform[] TRANSFORMS;
+    private final long INPUT_BYTES;
+    private final long BITS_SAVED;
+
+    /**
+     * Build a plan from the counts of each value in a stream.
+     *
+     * @param freqs the number of times each value 0 to ALPH_SIZE - 1 occurs
+     * @param headerFormat STORE_COUNTS, STORE_TREE, STORE_SPARSE, STORE_RAW, or STORE_AUTO for
+     *        the one giving the smallest stream
+     */
+    public CompressionPlan(int[] freqs, int headerFormat) {
+        this(freqs, headerFormat, HuffMetrics.DEFAULT);
+    }
+
+    /**
+     * Build a plan from the counts of each value in a stream, reporting the time spent
+     * building the tree and codes.
+     *
+     * @param freqs the number of times each value 0 to ALPH_SIZE - 1 occurs
+     * @param headerFormat STORE_COUNTS, STORE_TREE, STORE_SPARSE, STORE_RAW, or STORE_AUTO for
+     *        the one giving the smallest stream
+     * @param metrics where the tree build and code generation phases are reported
+     */
+    public CompressionPlan(int[] freqs, int headerFormat, HuffMetrics metrics) {
+        this(toCounts(freqs), headerFormat, metrics);
+    }
+
+    /**
+     * Build a plan from the counts of each value in a stream of any size.
+     *
+     * @param counts the number of times each value 0 to ALPH_SIZE - 1 occurs, copied by the
+     *        plan
+     * @param headerFormat STORE_COUNTS, STORE_TREE, STORE_SPARSE, STORE_RAW, or STORE_AUTO for
+     *        the one giving the smallest stream
+     */
+    public CompressionPlan(long[] counts, int headerFormat) {
+        this(counts, headerFormat, HuffMetrics.DEFAULT);
+    }
+
+    /**
+     * Build a plan from the counts of each value in a stream, reporting the time spent
+     * building the tree and codes.
+     *
+     * @param counts the number of times each value 0 to ALPH_SIZE - 1 occurs, copied by the
+     *        plan
+     * @param headerFormat STORE_COUNTS, STORE_TREE, STORE_SPARSE, STORE_RAW, or STORE_AUTO for
+     *        the one giving the smallest stream
+     * @param metrics where the tree build and code generation phases are reported
+     */
+    public CompressionPlan(long[] counts, int headerFormat, HuffMetrics metrics) {
+        if (counts == null || counts.length != ALPH_SIZE) {
+            throw new IllegalArgumentException("counts must hold a count for each of the "
+                    + ALPH_SIZE + " values");
+        }
+        if (headerFormat != STORE_COUNTS && headerFormat != STORE_TREE
+                && headerFormat != STORE_SPARSE && headerFormat != STORE_RAW
+                && headerFormat != STORE_AUTO) {
+            throw new IllegalArgumentException("unsupported header format " + headerFormat);
+        }
+
+        COUNTS = counts.clone();
+        for (long count : COUNTS) {
+            if (count < 0) {
+                throw new IllegalArgumentException("counts cannot be negative");
+            }
+        }
+        CODE_VALUES = new int[ALPH_SIZE + 1]; // plus 1 for PEOF
+        CODE_LENGTHS = new int[ALPH_SIZE + 1];
+
+        long start = metrics.start();
+        FREQS = scaledWeights(COUNTS);
+        HuffTree tree;
+        if (headerFormat == STORE_RAW) {
+            tree = HuffTree.createRaw(rarestValue());
+        } else {
+            tree = new HuffTree(FREQS);
+            while (tree.getHeight() > MAX_CODE_LENGTH) {
+                halve(FREQS);
+                tree = new HuffTree(FREQS);
+            }
+        }
+        metrics.end(HuffPhase.TREE_BUILD, start, 0, 0);
+
+        start = metrics.start();
+        tree.fillCodes(CODE_VALUES, CODE_LENGTHS);
+        if (headerFormat == STORE_AUTO) {
+            headerFormat = cheapestFormat(tree);
+            if (headerFormat == STORE_RAW) {
+                tree = HuffTree.createRaw(rarestValue());
+                tree.fillCodes(CODE_VALUES, CODE_LENGTHS);
+            }
+        }
+        metrics.end(HuffPhase.CODE_GENERATION, start, 0, 0);
+        TREE = tree;
+        HEADER_FORMAT = headerFormat;
+        FLAGS = 0;
+        INDEX_INTERVAL = 0;
+        TRANSFORMS = new ByteTransform[0];
+        INPUT_BYTES = getOriginalBytes();
+        BITS_SAVED = calculateSavedBits();
+    }
+
+    /**
+     * Copy a plan, changing its optional features.
+     *
+     * @param plan the plan to copy
+     * @param flags the optional features, a combination of the flag constants
+     * @param indexInterval the bytes between seek index entries, if INDEX_FLAG is set
+     * @param transforms the transforms the counted data went through
+     * @param inputBytes the number of bytes before the transforms
+     */
+    private CompressionPlan(CompressionPlan plan, int flags, int indexInterval,
+            ByteTransform[] transforms, long inputBytes) {
+        COUNTS = plan.COUNTS;
+        FREQS = plan.FREQS;
+        TREE = plan.TREE;
+        CODE_VALUES = plan.CODE_VALUES;
+        CODE_LENGTHS = plan.CODE_LENGTHS;
+        HEADER_FORMAT = plan.HEADER_FORMAT;
+        FLAGS = flags;
+        INDEX_INTERVAL = indexInterval;
+        TRANSFORMS = transforms;
+        INPUT_BYTES = inputBytes;
+        BITS_SAVED = calculateSavedBits();
+    }
+
+    /**
+     * Copy int counts to longs.
+     *
+     * @param freqs the counts
+     * @return the same counts as longs
+     */
+    private static long[] toCounts(int[] freqs) {
+        if (freqs == null) {
+            throw new IllegalArgumentException("freqs cannot be null");
+        }
+        long[] counts = new long[freqs.length];
+        for (int i = 0; i < freqs.length; i++) {
+            counts[i] = freqs[i];
+        }
+        return counts;
+    }
+
+    /**
+     * Divide the counts by the smallest power of 2 that brings their total, with PEOF, to at
+     * most MAX_TOTAL_WEIGHT, rounding up so no value that occurs gets a weight of 0.
+     *
+     * @param counts the counts of each value
+     * @return the weights to build the tree from
+     */
+    private static int[] scaledWeights(long[] counts) {
+        long total = 1;
+        for (long count : counts) {
+            total += count;
+        }
+        int shift = 0;
+        while ((total >>> shift) > MAX_TOTAL_WEIGHT) {
+            shift++;
+        }
+        long round = (1L << shift) - 1;
+        int[] weights = new int[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            weights[i] = (int) ((counts[i] + round) >>> shift);
+        }
+        return weights;
+    }
+
+    /**
+     * Halve the weights, rounding up so no value that occurs gets a weight of 0. Evening out
+     * the weights shortens the longest codes; at worst every weight becomes 1 and the tree is
+     * balanced.
+     *
+     * @param weights the weights of each value, changed in place
+     */
+    private static void halve(int[] weights) {
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = (weights[i] + 1) >>> 1;
+        }
+    }
+
+    /**
+     * Work out which header format gives the smallest stream, from the counts alone. Every
+     * format but STORE_RAW codes the data with the Huffman tree, so they differ only in their
+     * header; STORE_RAW has no table but about 8 bits per value.
+     *
+     * @param huffmanTree the tree built from the counts, whose codes are in CODE_LENGTHS
+     * @return the cheapest of STORE_COUNTS, STORE_TREE, STORE_SPARSE and STORE_RAW
+     */
+    private int cheapestFormat(HuffTree huffmanTree) {
+        int best = STORE_COUNTS;
+        long bestBits = formatBits(STORE_COUNTS, huffmanTree);
+        for (int format : new int[] {STORE_TREE, STORE_SPARSE}) {
+            long bits = formatBits(format, huffmanTree);
+            if (bits < bestBits) {
+                best = format;
+                bestBits = bits;
+            }
+        }
+        long huffmanBits = bestBits + getDataBits();
+        // the raw tree codes every value in 8 bits but the rarest, which with PEOF gets 9
+        long rawBits = formatBits(STORE_RAW, null) + getOriginalBytes() * BITS_PER_WORD
+                + COUNTS[rarestValue()] + BITS_PER_WORD + 1;
+        return rawBits < huffmanBits ? STORE_RAW : best;
+    }
+
+    /**
+     * Find the value that occurs least, the one STORE_RAW codes with an extra bit.
+     *
+     * @return the lowest of the values with the smallest count
+     */
+    private int rarestValue() {
+        int rarest = 0;
+        for (int i = 1; i < ALPH_SIZE; i++) {
+            if (COUNTS[i] < COUNTS[rarest]) {
+                rarest = i;
+            }
+        }
+        return rarest;
+    }
+
+    /**
+     * Get the number of bits a header format uses to store the table for the counts.
+     *
+     * @param format STORE_COUNTS, STORE_TREE, STORE_SPARSE or STORE_RAW
+     * @param tree the tree stored by STORE_TREE
+     * @return the bits following the header format constant, not counting the length
+     */
+    private int formatBits(int format, HuffTree tree) {
+        if (format == STORE_TREE) {
+            // the size of the tree is stored in a 32 bit int before the tree
+            return BITS_PER_INT + tree.bitsOfTreeRepresentation(FREQS);
+        } else if (format == STORE_SPARSE) {
+            int values = 0;
+            int max = 0;
+            for (int freq : FREQS) {
+                if (freq > 0) {
+                    values++;
+                    max = Math.max(max, freq);
+                }
+            }
+            return values == 0 ? SPARSE_COUNT_BITS
+                    : SPARSE_COUNT_BITS + SPARSE_WIDTH_BITS + values * (BITS_PER_WORD + width(max));
+        } else if (format == STORE_RAW) {
+            return BITS_PER_WORD;
+        }
+        // each number 0 to ALPHSIZE is stored as a 32 bit int
+        return BITS_PER_INT * ALPH_SIZE;
+    }
+
+    /**
+     * Get the number of bits needed to store a positive count.
+     *
+     * @param count the count, > 0
+     * @return the bits in count without leading zeros
+     */
+    private static int width(int count) {
+        return Integer.SIZE - Integer.numberOfLeadingZeros(count);
+    }
+
+    /**
+     * Get a plan that also writes a seek index with an entry every interval bytes of the
+     * original data, so <code>HuffRandomAccess</code> can decode any range by starting at the
+     * nearest entry.
+     *
+     * @param interval the number of original bytes between entries, > 0
+     * @return a plan like this one that writes a seek index
+     */
+    public CompressionPlan withSeekIndex(int interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("index interval must be positive");
+        }
+        return new CompressionPlan(this, FLAGS | INDEX_FLAG, interval, TRANSFORMS,
+                INPUT_BYTES);
+    }
+
+    /**
+     * Get a plan that also stores the length of the original data in the header, so a
+     * decoder can tell the size before decoding and detect data that was cut short.
+     *
+     * @return a plan like this one that stores the length
+     */
+    public CompressionPlan withLength() {
+        return new CompressionPlan(this, FLAGS | LENGTH_FLAG, INDEX_INTERVAL, TRANSFORMS,
+                INPUT_BYTES);
+    }
+
+    /**
+     * Get a plan that also writes a CRC32C of the original data after the codes, so
+     * uncompressing or verifying detects corruption.
+     *
+     * @return a plan like this one that writes a checksum
+     */
+    public CompressionPlan withChecksum() {
+        return new CompressionPlan(this, FLAGS | CHECKSUM_FLAG, INDEX_INTERVAL, TRANSFORMS,
+                INPUT_BYTES);
+    }
+
+    /**
+     * Get a plan recording that the counts are of data that went through transforms, so the
+     * header names them and the bits saved are measured against the data before them.
+     * Only the code counting the transformed data, e.g.,
+     * <code>HuffEncoder.preprocess</code>, knows this is true.
+     *
+     * @param transforms the transforms, the first applied first; not empty
+     * @param inputBytes the number of bytes before the transforms
+     * @return a plan like this one that records the transforms
+     */
+    CompressionPlan withTransforms(ByteTransform[] transforms, long inputBytes) {
+        if (transforms.length == 0 || transforms.length > ALPH_SIZE - 1) {
+            throw new IllegalArgumentException("a plan can record 1 to " + (ALPH_SIZE - 1)
+                    + " transforms");
+        }
+        return new CompressionPlan(this, FLAGS | TRANSFORM_FLAG, INDEX_INTERVAL,
+                transforms.clone(), inputBytes);
+    }
+
+    /**
+     * Find out how many bits will be saved by compression
+     *
+     * @return the number of bits saved
+     */
+    private long calculateSavedBits() {
+        return INPUT_BYTES * BITS_PER_WORD - getCompressedBits();
+    }
+
+    /**
+     * Get the exact number of bits compress will write, not counting padding of the last byte.
+     *
+     * @return the bits for the magic number, header format, header, data and PEOF, and the
+     *         padded checksum and seek index if the plan writes them
+     */
+    public long getCompressedBits() {
+        long bits = BITS_PER_INT * 2 + getHeaderBits() + getDataBits();
+        if ((FLAGS & (CHECKSUM_FLAG | INDEX_FLAG)) != 0) {
+            // the trailer starts on a byte boundary
+            bits = (bits + BITS_PER_WORD - 1) / BITS_PER_WORD * BITS_PER_WORD;
+        }
+        if ((FLAGS & CHECKSUM_FLAG) != 0) {
+            bits += BITS_PER_INT;
+        }
+        if ((FLAGS & INDEX_FLAG) != 0) {
+            bits += SeekIndex.sizeInBytes(getIndexEntries()) * BITS_PER_WORD;
+        }
+        return bits;
+    }
+
+    /**
+     * Get the number of entries in the seek index, one for each multiple of the interval
+     * before the end of the data.
+     *
+     * @return the number of entries, 0 if there is no index
+     */
+    public int getIndexEntries() {
+        if ((FLAGS & INDEX_FLAG) == 0) {
+            return 0;
+        }
+        return (int) ((getOriginalBytes() + INDEX_INTERVAL - 1) / INDEX_INTERVAL);
+    }
+
+    /**
+     * Get the number of original bytes between seek index entries.
+     *
+     * @return the interval, 0 if there is no index
+     */
+    public int getIndexInterval() {
+        return INDEX_INTERVAL;
+    }
+
+    /**
+     * Get the number of bits used by the header that follows the header format constant.
+     *
+     * @return the bits needed to store the length and transforms, if the plan stores them,
+     *         and the counts or tree
+     */
+    public int getHeaderBits() {
+        // the length is stored as two 32 bit ints
+        int bits = (FLAGS & LENGTH_FLAG) != 0 ? BITS_PER_INT * 2 : 0;
+        if ((FLAGS & TRANSFORM_FLAG) != 0) {
+            bits += BITS_PER_WORD * (1 + TRANSFORMS.length);
+        }
+        return bits + formatBits(HEADER_FORMAT, TREE);
+    }
+
+    /**
+     * Get the number of bits used by the codes of the data, including the PEOF code.
+     *
+     * @return the bits needed to store the data
+     */
+    public long getDataBits() {
+        long bits = CODE_LENGTHS[PSEUDO_EOF];
+        for (int i = 0; i < ALPH_SIZE; i++) {
+            bits += COUNTS[i] * CODE_LENGTHS[i];
+        }
+        return bits;
+    }
+
+    /**
+     * Write the header format constant and the header (counts or tree) for this plan.
+     *
+     * @param bitsOut the BitOutputStream to write to
+     * @return the number of bits written
+     */
+    public int writeHeader(BitOutputStream bitsOut) {
+        bitsOut.writeBits(BITS_PER_INT, HEADER_FORMAT | FLAGS);
+        int totalBitsWritten = BITS_PER_INT;
+        if ((FLAGS & LENGTH_FLAG) != 0) {
+            long length = getOriginalBytes();
+            bitsOut.writeBits(BITS_PER_INT, (int) (length >>> BITS_PER_INT));
+            bitsOut.writeBits(BITS_PER_INT, (int) length);
+            totalBitsWritten += BITS_PER_INT * 2;
+        }
+        if ((FLAGS & TRANSFORM_FLAG) != 0) {
+            bitsOut.writeBits(BITS_PER_WORD, TRANSFORMS.length);
+            for (ByteTransform transform : TRANSFORMS) {
+                bitsOut.writeBits(BITS_PER_WORD, transform.getId());
+            }
+            totalBitsWritten += BITS_PER_WORD * (1 + TRANSFORMS.length);
+        }
+
+        if (HEADER_FORMAT == STORE_TREE) {
+            bitsOut.writeBits(BITS_PER_INT, TREE.bitsOfTreeRepresentation(FREQS));
+            // the size is stored in a 32 bit int
+            totalBitsWritten += BITS_PER_INT + TREE.writeTree(bitsOut);
+        } else if (HEADER_FORMAT == STORE_SPARSE) {
+            totalBitsWritten += writeSparseCounts(bitsOut);
+        } else if (HEADER_FORMAT == STORE_RAW) {
+            // the value sharing its code with PEOF is the 0 branch below the 8 bit prefix
+            int shared = CODE_VALUES[PSEUDO_EOF] >>> 1;
+            bitsOut.writeBits(BITS_PER_WORD, shared);
+            totalBitsWritten += BITS_PER_WORD;
+        } else {
+            // write the counts for each value 0 to ALPH_SIZE
+            for (int i = 0; i < ALPH_SIZE; i++) {
+                bitsOut.writeBits(BITS_PER_INT, FREQS[i]);
+            }
+            totalBitsWritten += BITS_PER_INT * ALPH_SIZE;
+        }
+
+        return totalBitsWritten;
+    }
+
+    /**
+     * Write the values that occur and their counts in the smallest width that holds them all.
+     *
+     * @param bitsOut the BitOutputStream to write to
+     * @return the number of bits written
+     */
+    private int writeSparseCounts(BitOutputStream bitsOut) {
+        int values = 0;
+        int max = 0;
+        for (int freq : FREQS) {
+            if (freq > 0) {
+                values++;
+                max = Math.max(max, freq);
+            }
+        }
+        bitsOut.writeBits(SPARSE_COUNT_BITS, values);
+        if (values == 0) {
+            return SPARSE_COUNT_BITS;
+        }
+        int width = width(max);
+        bitsOut.writeBits(SPARSE_WIDTH_BITS, width);
+        for (int i = 0; i < ALPH_SIZE; i++) {
+            if (FREQS[i] > 0) {
+                bitsOut.writeBits(BITS_PER_WORD, i);
+                bitsOut.writeBits(width, FREQS[i]);
+            }
+        }
+        return SPARSE_COUNT_BITS + SPARSE_WIDTH_BITS + values * (BITS_PER_WORD + width);
+    }
+
+    /**
+     * Get the number of bytes in the stream the plan was built from, after any transforms.
+     *
+     * @return the sum of the counts
+     */
+    public long getOriginalBytes() {
+        long total = 0;
+        for (long count : COUNTS) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Get the number of bytes of input the plan was built for, before any transforms.
+     *
+     * @return the bytes read from the input, the same as <code>getOriginalBytes</code> if
+     *         the plan has no transforms
+     */
+    public long getInputBytes() {
+        return INPUT_BYTES;
+    }
+
+    /**
+     * Get the transforms the data goes through before it is coded.
+     *
+     * @return the transforms, the first applied first, empty if there are none
+     */
+    public ByteTransform[] getTransforms() {
+        return TRANSFORMS.clone();
+    }
+
+    /**
+     * Get the number of times a value occurs in the stream.
+     *
+     * @param value a value 0 to ALPH_SIZE - 1
+     * @return the count of value
+     */
+    public long getFrequency(int value) {
+        return COUNTS[value];
+    }
+
+    /**
+     * Get a copy of the counts of each value.
+     *
+     * @return the counts of the values 0 to ALPH_SIZE - 1
+     */
+    public long[] getFrequencies() {
+        return Arrays.copyOf(COUNTS, COUNTS.length);
+    }
+
+    /**
+     * Get a copy of the weights the tree was built from, which are the counts unless they
+     * had to be scaled down, and are what STORE_COUNTS and STORE_SPARSE headers store.
+     *
+     * @return the weights of the values 0 to ALPH_SIZE - 1
+     */
+    public int[] getWeights() {
+        return Arrays.copyOf(FREQS, FREQS.length);
+    }
+
+    /**
+     * Get the tree the codes were built from.
+     *
+     * @return the tree
+     */
+    public HuffTree getTree() {
+        return TREE;
+    }
+
+    /**
+     * Get the code of a value, right aligned.
+     *
+     * @param value a value 0 to PSEUDO_EOF
+     * @return the bits of the code
+     */
+    public int getCodeValue(int value) {
+        return CODE_VALUES[value];
+    }
+
+    /**
+     * Get the number of bits in the code of a value.
+     *
+     * @param value a value 0 to PSEUDO_EOF
+     * @return the code length, 0 if the value does not occur
+     */
+    public int getCodeLength(int value) {
+        return CODE_LENGTHS[value];
+    }
+
+    /**
+     * Copy the code tables into caller-owned arrays, e.g., those of a reusable encoder, so the
+     * hot loop indexes plain arrays.
+     *
+     * @param values filled with the code of each value, length > PSEUDO_EOF
+     * @param lengths filled with the number of bits in each code, length > PSEUDO_EOF
+     */
+    public void copyCodes(int[] values, int[] lengths) {
+        System.arraycopy(CODE_VALUES, 0, values, 0, CODE_VALUES.length);
+        System.arraycopy(CODE_LENGTHS, 0, lengths, 0, CODE_LENGTHS.length);
+    }
+
+    /**
+     * Get the header format of this plan.
+     *
+     * @return STORE_COUNTS, STORE_TREE, STORE_SPARSE or STORE_RAW, never STORE_AUTO
+     */
+    public int getHeaderFormat() {
+        return HEADER_FORMAT;
+    }
+
+    /**
+     * Tells us if this plan writes an optional feature.
+     *
+     * @param flag one of the flag constants, e.g., INDEX_FLAG
+     * @return true if the flag is set
+     */
+    public boolean hasFlag(int flag) {
+        return (FLAGS & flag) != 0;
+    }
+
+    /**
+     * Get the number of bits saved by compressing with this plan, counting all bits written
+     * including the magic number, the header format, the header and the data.
+     *
+     * @return the bits saved, negative if the compressed stream is larger
+     */
+    public long getBitsSaved() {
+        return BITS_SAVED;
+    }
+}
@@ -0,0 +1,339 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Shows how close Huffman coding gets to the best possible for an input, to decide which
+ * inputs are worth compressing and how. The input is read once and only counted, as a
+ * whole and in blocks of a fixed size; a plan is built from each histogram and its code
+ * lengths compared with the Shannon entropy of the counts. Nothing is coded, so a report
+ * costs little more than the histogram pass of <code>preprocess</code>.
+ * <P>
+ * The entropy is the fewest bits per byte any code for single bytes can average. A Huffman
+ * code averages less than one bit more, and less still the more even the counts; inputs
+ * whose blocks have much lower entropy than the whole gain from a table for each block,
+ * and inputs with an entropy near 8 only gain from modelling more than single bytes, e.g.,
+ * with STORE_LZ or a transform.
+ */
+public final class CompressionReport implements IHuffConstants {
+    /** The default number of bytes in each block reported. */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+    private final Section WHOLE;
+    private final List<Section> BLOCKS;
+    private final int BLOCK_SIZE;
+
+    /**
+     * The statistics of one range of the input, coded with its own plan.
+     */
+    public static final class Section {
+        private final long OFFSET;
+        private final long BYTES;
+        private final int DISTINCT_VALUES;
+        private final double ENTROPY;
+        private final long CODE_BITS;
+        private final long HEADER_BITS;
+        private final int HEADER_FORMAT;
+        private final int[] LENGTH_COUNTS;
+
+        /**
+         * Work out the statistics of a range from its counts.
+         *
+         * @param offset the position of the range in the input
+         * @param counts the count of each value in the range
+         */
+        private Section(long offset, long[] counts) {
+            CompressionPlan plan = new CompressionPlan(counts, STORE_AUTO);
+            long bytes = plan.getOriginalBytes();
+            int distinct = 0;
+            double entropy = 0;
+            long codeBits = 0;
+            int[] lengthCounts = new int[CompressionPlan.MAX_CODE_LENGTH + 1];
+            for (int value = 0; value < ALPH_SIZE; value++) {
+                long count = counts[value];
+                if (count == 0) {
+                    continue;
+                }
+                double p = (double) count / bytes;
+                entropy -= p * Math.log(p);
+                int length = plan.getCodeLength(value);
+                codeBits += count * length;
+                lengthCounts[length]++;
+                distinct++;
+            }
+            OFFSET = offset;
+            BYTES = bytes;
+            DISTINCT_VALUES = distinct;
+            ENTROPY = entropy / Math.log(2);
+            CODE_BITS = codeBits;
+            // everything but the codes of the bytes: magic number, header format, header
+            // and PSEUDO_EOF
+            HEADER_BITS = plan.getCompressedBits() - codeBits;
+            HEADER_FORMAT = plan.getHeaderFormat();
+            LENGTH_COUNTS = lengthCounts;
+        }
+
+        /**
+         * Get the position of the range in the input.
+         *
+         * @return the offset in bytes
+         */
+        public long getOffset() {
+            return OFFSET;
+        }
+
+        /**
+         * Get the size of the range.
+         *
+         * @return the number of bytes
+         */
+        public long getBytes() {
+            return BYTES;
+        }
+
+        /**
+         * Get the number of different values in the range.
+         *
+         * @return 0 to ALPH_SIZE
+         */
+        public int getDistinctValues() {
+            return DISTINCT_VALUES;
+        }
+
+        /**
+         * Get the Shannon entropy of the counts, the fewest bits per byte a code for single
+         * bytes can average.
+         *
+         * @return the entropy in bits per byte, 0 for an empty range
+         */
+        public double getEntropy() {
+            return ENTROPY;
+        }
+
+        /**
+         * Get the average length of the Huffman codes of the bytes, weighted by their counts.
+         *
+         * @return the bits per byte of the coded data, not counting the header, 0 for an
+         *         empty range
+         */
+        public double getAverageCodeLength() {
+            return BYTES == 0 ? 0 : (double) CODE_BITS / BYTES;
+        }
+
+        /**
+         * Get how much of the best possible the codes achieve, the entropy over the average
+         * code length.
+         *
+         * @return 0 to 1, 1 for a range with at most one different value
+         */
+        public double getEfficiency() {
+            return CODE_BITS == 0 ? 1 : ENTROPY * BYTES / CODE_BITS;
+        }
+
+        /**
+         * Get the number of bits of the codes of the bytes.
+         *
+         * @return the coded data bits, not counting PSEUDO_EOF
+         */
+        public long getCodeBits() {
+            return CODE_BITS;
+        }
+
+        /**
+         * Get the number of bits a stream of the range holds besides the codes of its bytes.
+         *
+         * @return the bits of the magic number, header format, header and PSEUDO_EOF
+         */
+        public long getHeaderBits() {
+            return HEADER_BITS;
+        }
+
+        /**
+         * Get the size of the range compressed on its own.
+         *
+         * @return the header and code bits, not counting padding of the last byte
+         */
+        public long getCompressedBits() {
+            return HEADER_BITS + CODE_BITS;
+        }
+
+        /**
+         * Get the header format that gives the smallest stream for the range.
+         *
+         * @return STORE_COUNTS, STORE_TREE, STORE_SPARSE or STORE_RAW
+         */
+        public int getHeaderFormat() {
+            return HEADER_FORMAT;
+        }
+
+        /**
+         * Get how many values have codes of each length.
+         *
+         * @return an array whose element n is the number of values coded with n bits, for n
+         *         up to CompressionPlan.MAX_CODE_LENGTH; element 0 counts a value coded
+         *         with no bits, which only happens in a range of one different value
+         */
+        public int[] getCodeLengthCounts() {
+            return LENGTH_COUNTS.clone();
+        }
+
+        public String toString() {
+            return String.format("%d bytes at %d, %d values: entropy %.3f, coded %.3f bits "
+                    + "per byte (%.1f%%), header %d bits", BYTES, OFFSET, DISTINCT_VALUES,
+                    ENTROPY, getAverageCodeLength(), 100 * getEfficiency(), HEADER_BITS);
+        }
+    }
+
+    private CompressionReport(Section whole, List<Section> blocks, int blockSize) {
+        WHOLE = whole;
+        BLOCKS = Collections.unmodifiableList(blocks);
+        BLOCK_SIZE = blockSize;
+    }
+
+    /**
+     * Count a file as a whole and in blocks.
+     *
+     * @param file the file
+     * @param blockSize the number of bytes in each block, > 0
+     * @return the report
+     * @throws IOException if the file cannot be read
+     */
+    public static CompressionReport analyze(Path file, int blockSize) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return analyze(in, blockSize);
+        }
+    }
+
+    /**
+     * Count a stream as a whole and in blocks. The stream is read to the end but not closed.
+     *
+     * @param in the data
+     * @param blockSize the number of bytes in each block, > 0; the last block may be shorter
+     * @return the report
+     * @throws IOException if the stream cannot be read
+     */
+    public static CompressionReport analyze(InputStream in, int blockSize) throws IOException {
+        if (in == null || blockSize <= 0) {
+            throw new IllegalArgumentException("Input stream cannot be null and blockSize "
+                    + "must be > 0");
+        }
+        byte[] buffer = new byte[FastBitInputStream.DEFAULT_BUFFER_SIZE];
+        long[] counts = new long[ALPH_SIZE];
+        int[] blockCounts = new int[ALPH_SIZE];
+        long[] blockTotals = new long[ALPH_SIZE];
+        List<Section> blocks = new ArrayList<>();
+        long offset = 0;
+        int inBlock = 0;
+        int read;
+        while ((read = in.read(buffer, 0, buffer.length)) != -1) {
+            for (int i = 0; i < read; ) {
+                int end = i + Math.min(read - i, blockSize - inBlock);
+                inBlock += end - i;
+                for (; i < end; i++) {
+                    blockCounts[buffer[i] & 0xFF]++;
+                }
+                if (inBlock == blockSize) {
+                    blocks.add(endBlock(offset, blockCounts, blockTotals, counts));
+                    offset += inBlock;
+                    inBlock = 0;
+                }
+            }
+        }
+        if (inBlock > 0) {
+            blocks.add(endBlock(offset, blockCounts, blockTotals, counts));
+        }
+        return new CompressionReport(new Section(0, counts), blocks, blockSize);
+    }
+
+    /**
+     * Build the section of a block, add its counts to the whole and clear them.
+     */
+    private static Section endBlock(long offset, int[] blockCounts, long[] blockTotals,
+            long[] counts) {
+        for (int k = 0; k < ALPH_SIZE; k++) {
+            blockTotals[k] = blockCounts[k];
+            counts[k] += blockCounts[k];
+            blockCounts[k] = 0;
+        }
+        return new Section(offset, blockTotals);
+    }
+
+    /**
+     * Get the statistics of the whole input, coded with one plan.
+     *
+     * @return the whole input
+     */
+    public Section getWhole() {
+        return WHOLE;
+    }
+
+    /**
+     * Get the statistics of each block, in order.
+     *
+     * @return the blocks, none for an empty input
+     */
+    public List<Section> getBlocks() {
+        return BLOCKS;
+    }
+
+    /**
+     * Get the number of bytes in each block but the last.
+     *
+     * @return the block size
+     */
+    public int getBlockSize() {
+        return BLOCK_SIZE;
+    }
+
+    /**
+     * Get the size of the input coded as one segment for each block, each with its own
+     * plan, to compare with the whole input coded with one.
+     *
+     * @return the sum of the compressed bits of the blocks
+     */
+    public long getBlockCompressedBits() {
+        long bits = 0;
+        for (Section block : BLOCKS) {
+            bits += block.getCompressedBits();
+        }
+        return bits;
+    }
+
+    /**
+     * Describe the whole input, its code lengths and, if there are several, its blocks, one
+     * per line.
+     *
+     * @return the report
+     */
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        report.append(WHOLE).append(String.format("%n"));
+        report.append("code lengths:");
+        int[] lengthCounts = WHOLE.getCodeLengthCounts();
+        for (int length = 0; length < lengthCounts.length; length++) {
+            if (lengthCounts[length] > 0) {
+                report.append(' ').append(length).append('x').append(lengthCounts[length]);
+            }
+        }
+        report.append(String.format("%n"));
+        if (BLOCKS.size() > 1) {
+            report.append(String.format("%d blocks of %d: %d bytes coded per block, %d as "
+                    + "a whole%n", BLOCKS.size(), BLOCK_SIZE,
+                    (getBlockCompressedBits() + BITS_PER_WORD - 1) / BITS_PER_WORD,
+                    (WHOLE.getCompressedBits() + BITS_PER_WORD - 1) / BITS_PER_WORD));
+            report.append(String.format("%14s %12s %6s %8s %7s %7s %8s%n", "offset", "bytes",
+                    "values", "entropy", "coded", "eff", "header"));
+            for (Section block : BLOCKS) {
+                report.append(String.format("%14d %12d %6d %8.3f %7.3f %6.1f%% %8d%n",
+                        block.getOffset(), block.getBytes(), block.getDistinctValues(),
+                        block.getEntropy(), block.getAverageCodeLength(),
+                        100 * block.getEfficiency(), block.getHeaderBits()));
+            }
+        }
+        return report.toString().stripTrailing();
+    }
+}
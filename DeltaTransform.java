@@ -0,0 +1,61 @@
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Byte delta coding: each byte is replaced by its difference from the byte before it, modulo
+ * 256, the first by its difference from 0. Slowly changing values such as sensor samples
+ * become a few small differences clustered around 0.
+ */
+public final class DeltaTransform implements ByteTransform {
+    /** The id of this transform in a header. */
+    public static final int ID = 3;
+
+    public int getId() {
+        return ID;
+    }
+
+    public Coder newEncoder() {
+        return new DeltaCoder(true);
+    }
+
+    public Coder newDecoder() {
+        return new DeltaCoder(false);
+    }
+
+    private static final class DeltaCoder implements Coder {
+        private final boolean ENCODE;
+        private final byte[] BUFFER = new byte[FastBitOutputStream.DEFAULT_BUFFER_SIZE];
+        private int previous;
+
+        DeltaCoder(boolean encode) {
+            ENCODE = encode;
+        }
+
+        public void update(byte[] b, int off, int len, OutputStream out) throws IOException {
+            byte[] buffer = BUFFER;
+            while (len > 0) {
+                int n = Math.min(len, buffer.length);
+                int last = previous;
+                if (ENCODE) {
+                    for (int i = 0; i < n; i++) {
+                        int value = b[off + i];
+                        buffer[i] = (byte) (value - last);
+                        last = value;
+                    }
+                } else {
+                    for (int i = 0; i < n; i++) {
+                        last += b[off + i];
+                        buffer[i] = (byte) last;
+                    }
+                }
+                previous = last;
+                out.write(buffer, 0, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        public void finish(OutputStream out) {
+        }
+    }
+}
@@ -1,12 +1,34 @@
 
 import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
-import javax.swing.ProgressMonitorInputStream;
 import javax.swing.UIManager;
 
+/**
+ * Compare two files byte by byte. Both files are memory-mapped and compared in large chunks
+ * on all cores with <code>ByteBuffer.mismatch</code>, so comparing is limited by the disk
+ * rather than by the comparison.
+ * <pre>
+ * java Diff file1 file2
+ * </pre>
+ * prints the sizes, the offset of the first difference and the number of differing bytes,
+ * and exits with 0 if the files are the same and 1 if they differ. With no arguments the
+ * files are chosen with a file chooser.
+ */
 public class Diff {
+    // the number of bytes each thread maps and compares at a time
+    private static final int CHUNK_SIZE = 1 << 26;
 
     protected static JFileChooser ourChooser = new JFileChooser(".");
 
@@ -15,48 +37,120 @@ public class Diff {
                 JOptionPane.INFORMATION_MESSAGE);
     }
 
-    public static void doDiffer(File[] files, DiffStats ds) {
-        final int BITS_PER_BYTE = 1;
-        try {
-            ProgressMonitorInputStream stream1 =
-                new ProgressMonitorInputStream(
-                        null,
-                        "reading " + files[0].getName(),
-                        new FileInputStream(files[0]));
-            ProgressMonitorInputStream stream2 =
-                new ProgressMonitorInputStream(
-                        null,
-                        "reading " + files[1].getName(),
-                        new FileInputStream(files[1]));
-            BitInputStream b1 = new BitInputStream(stream1);
-            BitInputStream b2 = new BitInputStream(stream2);
-            ds.file1Size = files[0].length();
-            ds.file2Size = files[1].length();
-            int x = b1.readBits(BITS_PER_BYTE);
-            int y = b2.readBits(BITS_PER_BYTE);
-            int bytesRead = 1;
-            while (x != -1 && y != -1) {
-                if (x != y) {
-                    ds.totalDifferences++;
-                    if (ds.firstDiff == -1)
-                        ds.firstDiff = bytesRead;
+    /**
+     * Compare two files using one thread per core.
+     *
+     * @param file1 the first file
+     * @param file2 the second file
+     * @return the sizes of the files and where and how much they differ
+     * @throws IOException if either file cannot be read
+     */
+    public static DiffStats compare(Path file1, Path file2) throws IOException {
+        return compare(file1, file2, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Compare two files. The bytes both files have are compared; bytes past the end of the
+     * shorter file are not counted as differences, but the sizes show them.
+     *
+     * @param file1 the first file
+     * @param file2 the second file
+     * @param threads the number of chunks compared at once, > 0
+     * @return the sizes of the files and where and how much they differ
+     * @throws IOException if either file cannot be read
+     */
+    public static DiffStats compare(Path file1, Path file2, int threads) throws IOException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        DiffStats ds = new DiffStats();
+        try (FileChannel c1 = FileChannel.open(file1, StandardOpenOption.READ);
+                FileChannel c2 = FileChannel.open(file2, StandardOpenOption.READ)) {
+            ds.file1Size = c1.size();
+            ds.file2Size = c2.size();
+            long common = Math.min(ds.file1Size, ds.file2Size);
+
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<long[]>> chunks = new ArrayList<>();
+                for (long start = 0; start < common; start += CHUNK_SIZE) {
+                    final long from = start;
+                    final int length = (int) Math.min(CHUNK_SIZE, common - start);
+                    chunks.add(executor.submit(() -> compareChunk(c1, c2, from, length)));
+                }
+                // chunks are in order, so the first chunk with a difference has the first one
+                for (Future<long[]> chunk : chunks) {
+                    long[] result = chunk.get();
+                    if (ds.firstDiff == -1) {
+                        ds.firstDiff = result[0];
+                    }
+                    ds.totalDifferences += result[1];
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while comparing");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
                 }
-                x = b1.readBits(BITS_PER_BYTE);
-                y = b2.readBits(BITS_PER_BYTE);
-                bytesRead++;
+                throw new IOException(e.getCause());
+            } finally {
+                executor.shutdownNow();
             }
-            bytesRead--; // last read didn't work
-            b1.close();
-            b2.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(null,"trouble reading","Diff Error",
-                    JOptionPane.ERROR_MESSAGE);
         }
+        return ds;
+    }
 
+    /**
+     * Map the same region of both files and find the differences in it.
+     *
+     * @param c1 the first file
+     * @param c2 the second file
+     * @param from the offset of the region
+     * @param length the length of the region, which both files have
+     * @return the offset of the first difference in the region, or -1 if there is none, and
+     *         the number of differing bytes
+     * @throws IOException if either file cannot be mapped
+     */
+    private static long[] compareChunk(FileChannel c1, FileChannel c2, long from, int length)
+            throws IOException {
+        MappedByteBuffer b1 = c1.map(FileChannel.MapMode.READ_ONLY, from, length);
+        MappedByteBuffer b2 = c2.map(FileChannel.MapMode.READ_ONLY, from, length);
+        long firstDiff = -1;
+        long differences = 0;
+        int position = 0;
+        while (position < length) {
+            // mismatch compares the remaining bytes from the current positions
+            b1.position(position);
+            b2.position(position);
+            int mismatch = b1.mismatch(b2);
+            if (mismatch == -1) {
+                break;
+            }
+            position += mismatch;
+            if (firstDiff == -1) {
+                firstDiff = from + position;
+            }
+            // count a run of differences directly rather than restarting mismatch per byte
+            while (position < length && b1.get(position) != b2.get(position)) {
+                differences++;
+                position++;
+            }
+        }
+        return new long[] {firstDiff, differences};
     }
 
-    public static void main(String[] args){
+    public static void main(String[] args) throws IOException {
+        if (args.length == 2) {
+            DiffStats ds = compare(new File(args[0]).toPath(), new File(args[1]).toPath());
+            System.out.println("Results of comparing files: ");
+            System.out.println(ds);
+            System.exit(ds.isSame() ? 0 : 1);
+        } else if (args.length != 0) {
+            System.err.println("usage: Diff [file1 file2]");
+            System.exit(2);
+        }
+
         setLookAndFeel();
         ourChooser.setMultiSelectionEnabled(true);
         ourChooser.setDialogTitle("Diff: choose two files");
@@ -67,10 +161,16 @@ public class Diff {
                     JOptionPane.showMessageDialog(null,"Choose Two Files",
                             "Diff Error", JOptionPane.ERROR_MESSAGE);
                 } else {
-                    DiffStats ds = new DiffStats();
-                    doDiffer(files, ds);
-                    System.out.println("Results of comparing files: ");
-                    System.out.println(ds);
+                    try {
+                        DiffStats ds = compare(files[0].toPath(), files[1].toPath());
+                        System.out.println("Results of comparing files: ");
+                        System.out.println(ds);
+                        showMessage(ds.toString());
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        JOptionPane.showMessageDialog(null,"trouble reading","Diff Error",
+                                JOptionPane.ERROR_MESSAGE);
+                    }
                 }
         }
     }
@@ -85,21 +185,70 @@ public class Diff {
         }
     }
 
-    private static class DiffStats {
+    /**
+     * The result of comparing two files.
+     */
+    public static class DiffStats {
         private long file1Size;
         private long file2Size;
-        private int firstDiff;
-        private int totalDifferences;
+        private long firstDiff;
+        private long totalDifferences;
 
         private DiffStats() {
             firstDiff = -1;
         }
 
+        /**
+         * Get the size of the first file.
+         *
+         * @return the size in bytes
+         */
+        public long getFile1Size() {
+            return file1Size;
+        }
+
+        /**
+         * Get the size of the second file.
+         *
+         * @return the size in bytes
+         */
+        public long getFile2Size() {
+            return file2Size;
+        }
+
+        /**
+         * Get the offset of the first byte that differs in the files.
+         *
+         * @return the offset, or -1 if the bytes both files have are the same
+         */
+        public long getFirstDiff() {
+            return firstDiff;
+        }
+
+        /**
+         * Get the number of bytes that differ, among the bytes both files have.
+         *
+         * @return the number of differing bytes
+         */
+        public long getTotalDifferences() {
+            return totalDifferences;
+        }
+
+        /**
+         * Tells us if the files are identical.
+         *
+         * @return true if the files have the same size and bytes
+         */
+        public boolean isSame() {
+            return file1Size == file2Size && firstDiff == -1;
+        }
+
         public String toString() {
             String result =  "file 1 size in bytes: " + file1Size + "\n"
                    + "file 2 size in bytes: " + file2Size + "\n";
             if (firstDiff == -1) {
-                result += "All bytes in files the same\n";
+                result += file1Size == file2Size ? "All bytes in files the same\n"
+                        : "All bytes in the shorter file the same\n";
             } else {
                 result += "number of bytes different: " + totalDifferences + "\n";
                 result += "first difference occured after " + firstDiff + " bytes.\n";
@@ -1,39 +1,41 @@
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 import javax.swing.JFileChooser;
 
+/**
+ * Prints every bit of a file, 8 to a group and 32 to a line. The file is named on the
+ * command line, or chosen in a dialog if none is named. For a report of the segments of a
+ * compressed file, or dumps of parts of a large one, use <code>HuffInspector</code>.
+ */
 public class ExplicitBitOutputWriter {
 
     public static void main(String[] args) {
 
 
         // get the file
-        JFileChooser chooser = new JFileChooser(".");
-        int retval = chooser.showOpenDialog(null);
         File f = null;
-        chooser.requestFocusInWindow();
-        if (retval == JFileChooser.APPROVE_OPTION)
-            f = chooser.getSelectedFile();
-        // first line is assumed to be the topic!
-        // load the phrases
+        if (args.length > 0) {
+            f = new File(args[0]);
+        } else {
+            JFileChooser chooser = new JFileChooser(".");
+            int retval = chooser.showOpenDialog(null);
+            chooser.requestFocusInWindow();
+            if (retval == JFileChooser.APPROVE_OPTION)
+                f = chooser.getSelectedFile();
+        }
+        if (f == null) {
+            return;
+        }
 
-        
-        try{
-            BitInputStream bitsIn = new BitInputStream(f);
-            int bit = bitsIn.readBits(1);
-            int count = 1;
-            while(bit != -1) {
-                System.out.print(bit);
-                if(count % 8 == 0 && count % 32 != 0)
-                    System.out.print(" ");
-                else if(count % 32 == 0)
-                    System.out.println();
-                count++;  
-                bit = bitsIn.readBits(1);
-                
-            }
-            bitsIn.close();
+        // each line is built and written whole through a buffer, not printed a bit at a time
+        OutputStream out = new BufferedOutputStream(System.out, 1 << 16);
+        try (InputStream in = new FileInputStream(f)) {
+            HuffInspector.dumpBits(in, 0, Long.MAX_VALUE, 32, false, out);
         }
         catch(IOException e) {
             System.out.println("problem reading: " + e);
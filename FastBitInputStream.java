@@ -0,0 +1,231 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A buffered, reusable replacement for <code>BitInputStream</code>. Bytes are pulled
+ * from the underlying stream in large chunks into a private buffer and bits are served
+ * from a 64-bit register, so reading a code costs a shift and a mask instead of a
+ * call to <code>InputStream.read()</code> per byte.
+ * <P>
+ * An instance owns its buffer and can be attached to a new source with
+ * <code>attach</code>, which lets a decoding context reuse it for every stream it
+ * processes without allocating.
+ */
+public class FastBitInputStream extends BitInputStream {
+    /** The default number of bytes read from the source at a time. */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private final byte[] BUFFER;
+    private InputStream source;
+    private int position;
+    private int limit;
+    protected long bitBuffer; // the low bitCount bits are unread, higher bits are stale
+    protected int bitCount;
+    protected long bytesConsumed;
+
+    /**
+     * Create a stream with a buffer of the given size that is not yet attached to a source.
+     *
+     * @param bufferSize the number of bytes read from the source at a time, > 0
+     */
+    public FastBitInputStream(int bufferSize) {
+        super((InputStream) null);
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("buffer size must be positive");
+        }
+        BUFFER = new byte[bufferSize];
+    }
+
+    /**
+     * Create a stream with no buffer, for subclasses that fill the bit register from
+     * somewhere other than an <code>InputStream</code> by overriding <code>fill</code>.
+     */
+    protected FastBitInputStream() {
+        super((InputStream) null);
+        BUFFER = null;
+    }
+
+    /**
+     * Create a stream reading from in with the default buffer size.
+     *
+     * @param in the stream bits are read from
+     */
+    public FastBitInputStream(InputStream in) {
+        this(DEFAULT_BUFFER_SIZE);
+        attach(in);
+    }
+
+    /**
+     * Start reading bits from a new source, discarding any state left from the previous
+     * one. The previous source is not closed.
+     *
+     * @param in the stream bits are read from
+     * @return this stream
+     */
+    public final FastBitInputStream attach(InputStream in) {
+        source = in;
+        position = 0;
+        limit = 0;
+        bitBuffer = 0;
+        bitCount = 0;
+        bytesConsumed = 0;
+        return this;
+    }
+
+    /**
+     * Forget the current source without closing it so it can be collected.
+     */
+    public void detach() {
+        attach(null);
+    }
+
+    /**
+     * Returns the number of bits requested as rightmost bits in returned value, returns -1 if
+     * not enough bits available to satisfy the request.
+     *
+     * @param howManyBits is the number of bits to read and return, 1 to 32
+     * @return the value read, only rightmost <code>howManyBits</code> are valid, returns -1 if
+     *         not enough bits left
+     */
+    @Override
+    public int readBits(int howManyBits) throws IOException {
+        if (bitCount < howManyBits && !fill(howManyBits)) {
+            return -1;
+        }
+        bitCount -= howManyBits;
+        return (int) ((bitBuffer >>> bitCount) & ((1L << howManyBits) - 1));
+    }
+
+    /**
+     * Read 32 bits as an int. Unlike <code>readBits(32)</code> the end of the input cannot be
+     * confused with a value whose bits are all ones.
+     *
+     * @return the value read
+     * @throws EOFException if fewer than 32 bits are left
+     * @throws IOException if the source cannot be read
+     */
+    public int readInt() throws IOException {
+        if (bitCount < Integer.SIZE && !fill(Integer.SIZE)) {
+            throw new EOFException("Error reading compressed file. \nunexpected end of input.");
+        }
+        bitCount -= Integer.SIZE;
+        return (int) (bitBuffer >>> bitCount);
+    }
+
+    /**
+     * Look at the next bits without reading them, e.g., to find a code in a table indexed by
+     * the longest code's worth of bits. Past the end of the input the bits are 0.
+     *
+     * @param howManyBits the number of bits to look at, 1 to 32
+     * @return the bits, the next bit to be read highest
+     * @throws IOException if the source cannot be read
+     */
+    public int peekBits(int howManyBits) throws IOException {
+        if (bitCount < howManyBits && !fill(howManyBits)) {
+            return (int) ((bitBuffer << (howManyBits - bitCount)) & ((1L << howManyBits) - 1));
+        }
+        return (int) ((bitBuffer >>> (bitCount - howManyBits)) & ((1L << howManyBits) - 1));
+    }
+
+    /**
+     * Read bits already looked at with <code>peekBits</code> and discard them.
+     *
+     * @param howManyBits the number of bits, at most the number looked at
+     * @throws EOFException if fewer bits than that are left
+     */
+    public void skipBits(int howManyBits) throws EOFException {
+        if (howManyBits > bitCount) {
+            throw new EOFException("Error reading compressed file. \nunexpected end of input.");
+        }
+        bitCount -= howManyBits;
+    }
+
+    /**
+     * Tells us if every bit of the source has been read.
+     *
+     * @return true if no bits are left
+     * @throws IOException if the source cannot be read
+     */
+    public boolean atEnd() throws IOException {
+        return bitCount == 0 && !fill(1);
+    }
+
+    /**
+     * Read a single bit.
+     *
+     * @return 0 or 1, or -1 if the input is exhausted
+     * @throws IOException if the source cannot be read
+     */
+    public int readBit() throws IOException {
+        if (bitCount == 0 && !fill(1)) {
+            return -1;
+        }
+        bitCount--;
+        return (int) (bitBuffer >>> bitCount) & 1;
+    }
+
+    /**
+     * Discard any bits left in the current byte so the next read starts on a byte boundary.
+     */
+    public void alignToByte() {
+        bitCount -= bitCount % 8;
+    }
+
+    /**
+     * Get the number of bits consumed from the source since it was attached.
+     *
+     * @return the bit position of the next bit to be read
+     */
+    public long getBitPosition() {
+        return bytesConsumed * 8 - bitCount;
+    }
+
+    /**
+     * Top up the bit register so it holds at least the requested number of bits.
+     *
+     * @param needed the number of bits required, at most 57
+     * @return true if enough bits are available, false if the source ran out first
+     * @throws IOException if the source cannot be read
+     */
+    protected boolean fill(int needed) throws IOException {
+        while (bitCount <= 56) {
+            if (position == limit) {
+                if (source == null) {
+                    break;
+                }
+                int read;
+                try {
+                    read = source.read(BUFFER, 0, BUFFER.length);
+                } catch (IOException ioe) {
+                    throw new IOException("bitreading trouble " + ioe, ioe);
+                }
+                if (read <= 0) {
+                    break;
+                }
+                position = 0;
+                limit = read;
+            }
+            bitBuffer = (bitBuffer << 8) | (BUFFER[position++] & 0xFF);
+            bitCount += 8;
+            bytesConsumed++;
+        }
+        return bitCount >= needed;
+    }
+
+    /**
+     * Closes the input stream.
+     *
+     * @throws RuntimeException if the close fails
+     */
+    @Override
+    public void close() {
+        try {
+            if (source != null) {
+                source.close();
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException("error closing bit stream " + ioe, ioe);
+        }
+    }
+}
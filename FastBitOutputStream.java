@@ -0,0 +1,181 @@
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A buffered, reusable replacement for <code>BitOutputStream</code>. Bits are packed into a
+ * 64-bit register and whole bytes are collected in a private buffer that is written to the
+ * underlying stream in large chunks.
+ * <P>
+ * An instance owns its buffer and can be attached to a new sink with <code>attach</code>,
+ * which lets an encoding context reuse it for every stream it writes without allocating.
+ * As with <code>BitOutputStream</code>, clients must call <code>flush</code> or
+ * <code>close</code> when finished writing or not all bits will be written.
+ */
+public class FastBitOutputStream extends BitOutputStream {
+    /** The default number of bytes collected before writing to the sink. */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private final byte[] BUFFER;
+    private OutputStream sink;
+    private int position;
+    protected long bitBuffer; // the low bitCount bits are pending, higher bits are stale
+    protected int bitCount;
+    protected long bitsWritten;
+
+    /**
+     * Create a stream with a buffer of the given size that is not yet attached to a sink.
+     *
+     * @param bufferSize the number of bytes collected before writing to the sink, > 0
+     */
+    public FastBitOutputStream(int bufferSize) {
+        super((OutputStream) null);
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("buffer size must be positive");
+        }
+        BUFFER = new byte[bufferSize];
+    }
+
+    /**
+     * Create a stream with no buffer, for subclasses that store whole bytes somewhere other
+     * than an <code>OutputStream</code> by overriding <code>writeBits</code> and
+     * <code>flush</code>.
+     */
+    protected FastBitOutputStream() {
+        super((OutputStream) null);
+        BUFFER = null;
+    }
+
+    /**
+     * Create a stream writing through to out with the default buffer size.
+     *
+     * @param out the stream bits are written to
+     */
+    public FastBitOutputStream(OutputStream out) {
+        this(DEFAULT_BUFFER_SIZE);
+        attach(out);
+    }
+
+    /**
+     * Start writing bits to a new sink, discarding any unflushed state left from the previous
+     * one. The previous sink is neither flushed nor closed.
+     *
+     * @param out the stream bits are written to
+     * @return this stream
+     */
+    public final FastBitOutputStream attach(OutputStream out) {
+        sink = out;
+        position = 0;
+        bitBuffer = 0;
+        bitCount = 0;
+        bitsWritten = 0;
+        return this;
+    }
+
+    /**
+     * Forget the current sink without flushing or closing it so it can be collected.
+     */
+    public void detach() {
+        attach(null);
+    }
+
+    /**
+     * Write specified number of bits from value.
+     *
+     * @param howManyBits is number of bits to write (0-32)
+     * @param value is source of bits, rightmost bits are written
+     * @throws RuntimeException if there's an I/O problem writing bits
+     */
+    @Override
+    public void writeBits(int howManyBits, int value) {
+        bitBuffer = (bitBuffer << howManyBits) | (value & ((1L << howManyBits) - 1));
+        bitCount += howManyBits;
+        bitsWritten += howManyBits;
+        while (bitCount >= 8) {
+            bitCount -= 8;
+            BUFFER[position++] = (byte) (bitBuffer >>> bitCount);
+            if (position == BUFFER.length) {
+                drain();
+            }
+        }
+    }
+
+    /**
+     * Write the low 8 bits of b.
+     */
+    @Override
+    public void write(int b) {
+        writeBits(8, b);
+    }
+
+    /**
+     * Pad the current byte with zero bits so the next write starts on a byte boundary.
+     */
+    public void alignToByte() {
+        // subclasses may hold more than a byte of pending bits
+        int padding = -bitCount & 7;
+        if (padding > 0) {
+            writeBits(padding, 0);
+        }
+    }
+
+    /**
+     * Get the number of bits written since the sink was attached, not counting padding added
+     * by <code>flush</code>.
+     *
+     * @return the bit position of the next bit to be written
+     */
+    public long getBitsWritten() {
+        return bitsWritten;
+    }
+
+    /**
+     * Flushes bits not yet written, padding the last byte with zeros, and flushes the sink.
+     *
+     * @throws RuntimeException if there's a problem writing bits
+     */
+    @Override
+    public void flush() {
+        long written = bitsWritten;
+        alignToByte();
+        bitsWritten = written;
+        drain();
+        try {
+            if (sink != null) {
+                sink.flush();
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException("error on flush " + ioe, ioe);
+        }
+    }
+
+    /**
+     * Flushes bits not yet written and closes the sink.
+     *
+     * @throws RuntimeException if close fails
+     */
+    @Override
+    public void close() {
+        flush();
+        try {
+            if (sink != null) {
+                sink.close();
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException("error closing BitOutputStream " + ioe, ioe);
+        }
+    }
+
+    /**
+     * Write the collected whole bytes to the sink.
+     */
+    private void drain() {
+        if (position > 0) {
+            try {
+                sink.write(BUFFER, 0, position);
+            } catch (IOException ioe) {
+                throw new RuntimeException("error writing bits " + ioe, ioe);
+            }
+            position = 0;
+        }
+    }
+}
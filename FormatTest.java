@@ -0,0 +1,348 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+public class FormatTest implements IHuffConstants {
+    public static void main(String[] args) throws IOException {
+
+        //Data sets: empty, one value, one value many times, text, and a bundle of parts whose
+        //statistics differ
+        Random random = new Random(7);
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 100000) {
+            text.append("the quick brown fox ").append(random.nextInt(1000)).append(" jumps\n");
+        }
+        ByteArrayOutputStream bundle = new ByteArrayOutputStream();
+        for (int part = 0; part < 6; part++) {
+            byte[] b = new byte[400000];
+            if (part % 3 == 0) {
+                random.nextBytes(b);
+            } else if (part % 3 == 1) {
+                for (int i = 0; i < b.length; i++) {
+                    b[i] = (byte) ('0' + random.nextInt(10));
+                }
+            } else {
+                for (int i = 0; i < b.length; i++) {
+                    b[i] = (byte) (random.nextInt(10) == 0 ? random.nextInt(4) : 0);
+                }
+            }
+            bundle.write(b);
+        }
+        byte[][] data = {new byte[0], {7}, new byte[5000], text.toString().getBytes(),
+                bundle.toByteArray()};
+        int[] formats = {STORE_COUNTS, STORE_TREE, STORE_SPARSE, STORE_RAW, STORE_AUTO};
+        SimpleHuffProcessor processor = new SimpleHuffProcessor();
+        Path file = Files.createTempFile("FormatTest", ".hf");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        CompressionPlan plan;
+
+        //A file with a seek index should round trip and give back any range through
+        //HuffRandomAccess
+        boolean indexRoundTrips = true;
+        boolean rangesMatch = true;
+        for (byte[] d : data) {
+            for (int format : formats) {
+                for (int interval : new int[] {7, 4096}) {
+                    plan = processor.preprocess(new ByteArrayInputStream(d), format)
+                            .withSeekIndex(interval);
+                    out.reset();
+                    processor.compress(plan, new ByteArrayInputStream(d), out, true);
+                    indexRoundTrips &= decodes(out.toByteArray(), d);
+                    Files.write(file, out.toByteArray());
+                    try (HuffRandomAccess access = new HuffRandomAccess(file)) {
+                        for (int k = 0; k < 20; k++) {
+                            int offset = random.nextInt(d.length + 1);
+                            int length = random.nextInt(10000);
+                            rangesMatch &= Arrays.equals(access.read(offset, length),
+                                    Arrays.copyOfRange(d, offset,
+                                            Math.min(d.length, offset + length)));
+                        }
+                    }
+                }
+            }
+        }
+        System.out.println("Indexed segments round trip: " + indexRoundTrips);
+        System.out.println("Random access ranges match: " + rangesMatch);
+
+        //An index whose count is too large, for its size or for any index, should be
+        //rejected as soon as the data runs out
+        plan = processor.preprocess(new ByteArrayInputStream(data[3]), STORE_TREE)
+                .withSeekIndex(1000);
+        out.reset();
+        processor.compress(plan, new ByteArrayInputStream(data[3]), out, true);
+        boolean badCount = true;
+        for (int count : new int[] {1 << 20, Integer.MAX_VALUE}) {
+            ByteBuffer badIndex = ByteBuffer.wrap(out.toByteArray());
+            // the count starts the index, whose size is just before the magic number that
+            // ends it
+            int size = badIndex.getInt(badIndex.capacity() - 2 * Integer.BYTES);
+            badIndex.putInt(badIndex.capacity() - size, count);
+            badCount &= rejects(badIndex.array());
+        }
+        System.out.println("Corrupt index count rejected: " + badCount);
+
+        //An indexed segment followed by another should decode as both
+        plan = processor.preprocess(new ByteArrayInputStream(data[3]), STORE_TREE)
+                .withSeekIndex(1000);
+        out.reset();
+        processor.compress(plan, new ByteArrayInputStream(data[3]), out, true);
+        plan = processor.preprocess(new ByteArrayInputStream(data[2]), STORE_TREE);
+        processor.compress(plan, new ByteArrayInputStream(data[2]), out, true);
+        expected.reset();
+        expected.write(data[3]);
+        expected.write(data[2]);
+        System.out.println("Indexed and plain segments round trip: "
+                + decodes(out.toByteArray(), expected.toByteArray()));
+
+        //Appending to a file with a seek index should be refused, since it would hide the
+        //index, and leave the file as it was
+        plan = processor.preprocess(new ByteArrayInputStream(data[3]), STORE_TREE)
+                .withSeekIndex(1000);
+        processor.compress(plan, new ByteArrayInputStream(data[3]), Files.newOutputStream(file),
+                true);
+        long size = Files.size(file);
+        boolean appendRejected;
+        try {
+            processor.append(processor.preprocess(new ByteArrayInputStream(data[2]), STORE_TREE),
+                    new ByteArrayInputStream(data[2]), file);
+            appendRejected = false;
+        } catch (IOException e) {
+            appendRejected = Files.size(file) == size;
+        }
+        System.out.println("Append to an indexed file rejected: " + appendRejected);
+
+        //Segments with a length, a checksum or both should round trip, alone and appended
+        //one after another to a file
+        boolean flagsRoundTrip = true;
+        Files.delete(file);
+        expected.reset();
+        for (byte[] d : data) {
+            for (int format : formats) {
+                plan = processor.preprocess(new ByteArrayInputStream(d), format);
+                for (CompressionPlan p : new CompressionPlan[] {plan.withLength(),
+                        plan.withChecksum(), plan.withLength().withChecksum()}) {
+                    out.reset();
+                    processor.compress(p, new ByteArrayInputStream(d), out, true);
+                    flagsRoundTrip &= decodes(out.toByteArray(), d);
+                }
+                processor.append(plan, new ByteArrayInputStream(d), file);
+                expected.write(d);
+            }
+        }
+        System.out.println("Length and checksum segments round trip: " + flagsRoundTrip);
+        System.out.println("Appended segments round trip: "
+                + decodes(Files.readAllBytes(file), expected.toByteArray()));
+
+        //A corrupt checksum, a wrong length or a segment cut short should be rejected
+        plan = processor.preprocess(new ByteArrayInputStream(data[3]), STORE_TREE)
+                .withLength().withChecksum();
+        out.reset();
+        processor.compress(plan, new ByteArrayInputStream(data[3]), out, true);
+        byte[] good = out.toByteArray();
+        byte[] badChecksum = good.clone();
+        badChecksum[badChecksum.length - 1] ^= 1;
+        System.out.println("Corrupt checksum rejected: " + rejects(badChecksum));
+        boolean wrongLength = true;
+        for (byte delta : new byte[] {-1, 1}) {
+            byte[] badLength = good.clone();
+            // the magic number, the format and then the length, the low byte last
+            badLength[4 * Integer.BYTES - 1] += delta;
+            wrongLength &= rejects(badLength);
+        }
+        // a length far past what the codes could hold, which must fail before it is allocated
+        ByteBuffer hugeLength = ByteBuffer.wrap(good.clone());
+        hugeLength.putInt(3 * Integer.BYTES, 1 << 28);
+        wrongLength &= rejects(hugeLength.array());
+        System.out.println("Wrong length rejected: " + wrongLength);
+        System.out.println("Truncated segment rejected: "
+                + rejects(Arrays.copyOf(good, good.length / 2)));
+
+        //Every chain of transforms should be undone, alone or with a checksum, and segments
+        //with different chains one after another should each be undone with their own
+        ByteTransform[][] chains = {{ByteTransform.RUN_LENGTH}, {ByteTransform.MOVE_TO_FRONT},
+            {ByteTransform.DELTA}, {ByteTransform.DELTA, ByteTransform.RUN_LENGTH},
+            {ByteTransform.RUN_LENGTH, ByteTransform.RUN_LENGTH}};
+        boolean transformsRoundTrip = true;
+        ByteArrayOutputStream chained = new ByteArrayOutputStream();
+        expected.reset();
+        for (byte[] d : data) {
+            for (ByteTransform[] chain : chains) {
+                plan = processor.preprocess(new ByteArrayInputStream(d), STORE_AUTO, chain);
+                for (CompressionPlan p : new CompressionPlan[] {plan, plan.withChecksum()}) {
+                    out.reset();
+                    processor.compress(p, new ByteArrayInputStream(d), out, true);
+                    transformsRoundTrip &= decodes(out.toByteArray(), d);
+                }
+            }
+            plan = processor.preprocess(new ByteArrayInputStream(d), STORE_AUTO,
+                    chains[d.length % chains.length]);
+            processor.compress(plan, new ByteArrayInputStream(d), chained, true);
+            plan = processor.preprocess(new ByteArrayInputStream(d), STORE_TREE);
+            processor.compress(plan, new ByteArrayInputStream(d), chained, true);
+            expected.write(d);
+            expected.write(d);
+        }
+        System.out.println("Transforms round trip: " + transformsRoundTrip);
+        System.out.println("Transformed segments round trip: "
+                + decodes(chained.toByteArray(), expected.toByteArray()));
+
+        //A transform that does not exist should be rejected
+        plan = processor.preprocess(new ByteArrayInputStream(data[3]), STORE_TREE,
+                ByteTransform.DELTA);
+        out.reset();
+        processor.compress(plan, new ByteArrayInputStream(data[3]), out, true);
+        byte[] unknown = out.toByteArray();
+        // the magic number, the format, the number of transforms and then their ids
+        unknown[2 * Integer.BYTES + 1] = 77;
+        System.out.println("Unknown transform rejected: " + rejects(unknown));
+
+        //LZ segments should round trip at every level, including blocks of text repeated
+        //from further back than the window, and between Huffman segments
+        byte[][] lzData = Arrays.copyOf(data, data.length + 1);
+        byte[] repeats = new byte[3 * LzHuffEncoder.WINDOW_SIZE + 999];
+        for (int i = 0; i < repeats.length; i++) {
+            repeats[i] = data[3][i / 1000 % 40 * 1000 + i % 1000];
+        }
+        lzData[data.length] = repeats;
+        LzHuffEncoder lz = new LzHuffEncoder();
+        boolean lzRoundTrips = true;
+        ByteArrayOutputStream mixed = new ByteArrayOutputStream();
+        expected.reset();
+        for (byte[] d : lzData) {
+            for (int level : new int[] {LzHuffEncoder.MIN_LEVEL, LzHuffEncoder.DEFAULT_LEVEL,
+                    LzHuffEncoder.MAX_LEVEL}) {
+                out.reset();
+                long bits = lz.compress(new ByteArrayInputStream(d), out, level);
+                lzRoundTrips &= (bits + BITS_PER_WORD - 1) / BITS_PER_WORD == out.size()
+                        && decodes(out.toByteArray(), d);
+            }
+            lz.compress(new ByteArrayInputStream(d), mixed, LzHuffEncoder.DEFAULT_LEVEL);
+            plan = processor.preprocess(new ByteArrayInputStream(d), STORE_SPARSE);
+            processor.compress(plan, new ByteArrayInputStream(d), mixed, true);
+            expected.write(d);
+            expected.write(d);
+        }
+        System.out.println("LZ segments round trip: " + lzRoundTrips);
+        System.out.println("LZ and Huffman segments round trip: "
+                + decodes(mixed.toByteArray(), expected.toByteArray()));
+
+        //An LZ segment always has a checksum, so damage to it should be rejected
+        out.reset();
+        lz.compress(new ByteArrayInputStream(repeats), out, LzHuffEncoder.DEFAULT_LEVEL);
+        byte[] damaged = out.toByteArray();
+        damaged[damaged.length - 1] ^= 1;
+        System.out.println("Corrupt LZ checksum rejected: " + rejects(damaged));
+
+        //Adaptive coding should split the bundle where its statistics change, and every data
+        //set should come back whole
+        boolean adaptiveRoundTrips = true;
+        boolean bundleSplit = false;
+        AdaptiveHuffEncoder adaptive = new AdaptiveHuffEncoder(new HuffEncoder(),
+                AdaptiveHuffEncoder.PROBE_SIZE * (AdaptiveHuffEncoder.WINDOW_PROBES + 1));
+        for (byte[] d : data) {
+            for (int format : formats) {
+                out.reset();
+                long bits = adaptive.compress(new ByteArrayInputStream(d), out, format,
+                        HuffMetrics.DEFAULT);
+                adaptiveRoundTrips &= (bits + BITS_PER_WORD - 1) / BITS_PER_WORD == out.size()
+                        && decodes(out.toByteArray(), d);
+                bundleSplit |= d == data[4] && adaptive.getSegments() > 1;
+            }
+            out.reset();
+            processor.compressAdaptive(new ByteArrayInputStream(d), out, STORE_AUTO);
+            adaptiveRoundTrips &= decodes(out.toByteArray(), d);
+        }
+        System.out.println("Adaptive segments round trip: " + adaptiveRoundTrips);
+        System.out.println("Bundle split into segments: " + bundleSplit);
+
+        //Fibonacci counts, which give the deepest tree for their total, totalling about
+        //2.97e9 so they must be scaled: every header should give the decoder the encoder's
+        //tree, with no code longer than MAX_CODE_LENGTH
+        long[] fibonacci = new long[ALPH_SIZE];
+        fibonacci[0] = 1;
+        fibonacci[1] = 1;
+        long total = 2;
+        for (int i = 2; i < 45; i++) {
+            fibonacci[i] = fibonacci[i - 1] + fibonacci[i - 2];
+            total += fibonacci[i];
+        }
+        boolean sameTrees = total > 1L << 31;
+        for (int format : formats) {
+            plan = new CompressionPlan(fibonacci, format);
+            out.reset();
+            FastBitOutputStream bitsOut = new FastBitOutputStream(out);
+            bitsOut.writeBits(BITS_PER_INT, MAGIC_NUMBER);
+            plan.writeHeader(bitsOut);
+            bitsOut.flush();
+            HuffTree tree = HuffHeader.read(new FastBitInputStream(
+                    new ByteArrayInputStream(out.toByteArray())), new int[ALPH_SIZE]).getTree();
+            int[] values = new int[ALPH_SIZE + 1];
+            int[] lengths = new int[ALPH_SIZE + 1];
+            int[] decodedValues = new int[ALPH_SIZE + 1];
+            int[] decodedLengths = new int[ALPH_SIZE + 1];
+            plan.copyCodes(values, lengths);
+            tree.fillCodes(decodedValues, decodedLengths);
+            sameTrees &= Arrays.equals(values, decodedValues)
+                    && Arrays.equals(lengths, decodedLengths)
+                    && Arrays.stream(lengths).max().getAsInt()
+                            <= CompressionPlan.MAX_CODE_LENGTH;
+        }
+        System.out.println("Scaled Fibonacci trees match: " + sameTrees);
+        Files.delete(file);
+    }
+
+    /**
+     * Tells us if decoding compressed data throws an IOException, whether it is pushed to a
+     * stream, pulled from a HuffInputStream or decoded from a buffer.
+     */
+    private static boolean rejects(byte[] compressed) {
+        boolean rejected = true;
+        try {
+            new SimpleHuffProcessor().uncompress(new ByteArrayInputStream(compressed),
+                    OutputStream.nullOutputStream());
+            rejected = false;
+        } catch (IOException e) {
+            // expected
+        }
+        try (HuffInputStream in = new HuffInputStream(new ByteArrayInputStream(compressed))) {
+            in.transferTo(OutputStream.nullOutputStream());
+            rejected = false;
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            new HuffDecoder().uncompress(ByteBuffer.wrap(compressed),
+                    OutputStream.nullOutputStream(), HuffMetrics.DEFAULT);
+            rejected = false;
+        } catch (IOException e) {
+            // expected
+        }
+        return rejected;
+    }
+
+    /**
+     * Tells us if compressed data decodes to the original pushed to a stream, pulled from a
+     * HuffInputStream and decoded from a buffer.
+     */
+    private static boolean decodes(byte[] compressed, byte[] original) throws IOException {
+        ByteArrayOutputStream pushed = new ByteArrayOutputStream();
+        long bits = new SimpleHuffProcessor().uncompress(new ByteArrayInputStream(compressed),
+                pushed);
+        byte[] pulled;
+        try (HuffInputStream in = new HuffInputStream(new ByteArrayInputStream(compressed))) {
+            pulled = in.readAllBytes();
+        }
+        ByteArrayOutputStream buffered = new ByteArrayOutputStream();
+        new HuffDecoder().uncompress(ByteBuffer.wrap(compressed), buffered, HuffMetrics.DEFAULT);
+        return bits == original.length * 8L && Arrays.equals(pushed.toByteArray(), original)
+                && Arrays.equals(pulled, original)
+                && Arrays.equals(buffered.toByteArray(), original);
+    }
+}
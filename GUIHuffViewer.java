@@ -1,16 +1,16 @@
 import java.awt.BorderLayout;
 import java.awt.Font;
 import java.awt.event.ActionEvent;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.AbstractAction;
 import javax.swing.BorderFactory;
@@ -27,7 +27,8 @@ import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.ProgressMonitor;
-import javax.swing.ProgressMonitorInputStream;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 
 /**
  * The GUI/View for Huffman coding assignment. Clients communicate
@@ -44,18 +45,14 @@ public class GUIHuffViewer extends JFrame implements IHuffViewer {
     
     private static String HUFF_SUFFIX = ".hf";
     private static String UNHUFF_SUFFIX = ".unhf";   
-    private boolean myFast = true;
     
     
     protected JTextArea myOutput;
     protected IHuffProcessor myModel;
     protected String myTitle;
     protected JTextField myMessage;
-    protected File myFile;
     private boolean myForce;
     private int myHeaderFormat;
-    private Thread myFirstFileThread;
-    private boolean myFirstReadingDone;
     
     protected static JFileChooser ourChooser = 
         new JFileChooser(System.getProperties().getProperty("user.dir"));
@@ -109,6 +106,11 @@ public class GUIHuffViewer extends JFrame implements IHuffViewer {
 
     }
 
+    /**
+     * Choose a file and count it in the background, showing the bits compression would save.
+     *
+     * @return the chosen file, or null if none was chosen
+     */
     protected File doRead() {
 
         int retval = ourChooser.showOpenDialog(null);
@@ -116,45 +118,16 @@ public class GUIHuffViewer extends JFrame implements IHuffViewer {
             return null;
         }
         showMessage("reading/initializing");
-        
-       
-        
-        myFile = ourChooser.getSelectedFile();
-        ProgressMonitorInputStream temp = null;
-        if (myFast){
-            temp = getMonitorableStream(getFastByteReader(myFile),"counting/reading bits ...");
-        }
-        else {
-            temp = getMonitorableStream(myFile,"counting/reading bits ...");
-        }
-        final ProgressMonitorInputStream pmis = temp;
-        final ProgressMonitor progress = pmis.getProgressMonitor();
-        try {
-          
-           
-            myFirstFileThread = new Thread() {
-                public void run() {
-                    try {
-                        myFirstReadingDone = false;
-                        int saved = myModel.preprocessCompress(pmis, myHeaderFormat);
-                        showMessage("saved: "+ saved +" bits");
-                        myFirstReadingDone = true;
-                    } catch (IOException e) {
-                        showError("reading exception\n "+e);
-                        //e.printStackTrace();
-                    }
-                    if (progress.isCanceled()) {
-                        showError("reading cancelled");
-                    }
-                }
-            };
-            myFirstFileThread.start();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        File ret = myFile;
-        myFile = null;
-        return ret;
+
+        final File file = ourChooser.getSelectedFile();
+        final int headerFormat = myHeaderFormat;
+        new HuffTask("counting/reading bits ...", file.length(), null) {
+            protected String work() throws IOException {
+                CompressionPlan plan = myModel.preprocess(monitor(file), headerFormat);
+                return "saved: " + plan.getBitsSaved() + " bits";
+            }
+        }.execute();
+        return file;
     }
 
     protected JMenu makeOptionsMenu() {
@@ -166,14 +139,7 @@ public class GUIHuffViewer extends JFrame implements IHuffViewer {
                 myForce = !myForce;
             }
         });
-        JCheckBoxMenuItem fast = new JCheckBoxMenuItem(new AbstractAction(
-        "Slow Reading") {
-            public void actionPerformed(ActionEvent ev) {
-                myFast = !myFast;
-            }
-        });
         menu.add(force);
-        menu.add(fast);
         return menu;
 
     }
@@ -208,6 +174,19 @@ public class GUIHuffViewer extends JFrame implements IHuffViewer {
 
         group.add(treeHeaderButton);
         headerMenu.add(treeHeaderButton);
+
+        // create the radio button for letting the plan pick the smallest format
+        JRadioButtonMenuItem autoHeaderButton
+            = new JRadioButtonMenuItem();
+        autoHeaderButton.setSelected(false);
+        autoHeaderButton.setAction(new AbstractAction("Use Smallest Header (auto)") {
+            public void actionPerformed(ActionEvent ev) {
+                myHeaderFormat = IHuffProcessor.STORE_AUTO;
+            }
+        });
+
+        group.add(autoHeaderButton);
+        headerMenu.add(autoHeaderButton);
         return headerMenu;
     }
 
@@ -249,179 +228,240 @@ public class GUIHuffViewer extends JFrame implements IHuffViewer {
     }
 
     private void doDecode() {
-        File file = null;
         showMessage("uncompressing");
-        try {
-            int retval = ourChooser.showOpenDialog(null);
-            if (retval != JFileChooser.APPROVE_OPTION) {
-                return;
-            }
-            file = ourChooser.getSelectedFile();
-            String name = file.getName();
-            String uname = name;
-            if (name.endsWith(HUFF_SUFFIX)) {
-                uname = name.substring(0,name.length() - HUFF_SUFFIX.length()) + UNHUFF_SUFFIX;
-            }
-            else {
-                uname = name + UNHUFF_SUFFIX;
-            }
-            String newName = JOptionPane.showInputDialog(this,
-                    "Name of uncompressed file", uname);
-            if (newName == null) {
-                return;
-            }
-            String path = file.getCanonicalPath();
-
-            int pos = path.lastIndexOf(name);
-            newName = path.substring(0, pos) + newName;
-            final File newFile = new File(newName);
-            ProgressMonitorInputStream temp = null;
-            if (myFast){
-                temp = getMonitorableStream(getFastByteReader(file),"uncompressing bits ...");
-            }
-            else {
-                temp = getMonitorableStream(file, "uncompressing bits...");
-            }
-            final ProgressMonitorInputStream stream = temp;
-                
-            final ProgressMonitor progress = stream.getProgressMonitor();
-            final OutputStream out = new FileOutputStream(newFile);
-            Thread fileReaderThread = new Thread() {
-                public void run() {
-                    try {
-                        myModel.uncompress(stream, out);
-                    } catch (IOException e) {
-                        
-                        cleanUp(newFile);
-                        showError("could not uncompress\n "+e);
-                        //e.printStackTrace();
-                    }
-                    if (progress.isCanceled()) {
-                        cleanUp(newFile);
-                        showError("reading cancelled");
-                    }
-                }
-            };
-            fileReaderThread.start();
-        } catch (FileNotFoundException e) {
-            showError("could not open " + file.getName());
-            e.printStackTrace();
-        } catch (IOException e) {
-            showError("IOException, uncompression halted from viewer");
-            e.printStackTrace();
+        int retval = ourChooser.showOpenDialog(null);
+        if (retval != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        final File file = ourChooser.getSelectedFile();
+        String name = file.getName();
+        String uname = name;
+        if (name.endsWith(HUFF_SUFFIX)) {
+            uname = name.substring(0,name.length() - HUFF_SUFFIX.length()) + UNHUFF_SUFFIX;
+        }
+        else {
+            uname = name + UNHUFF_SUFFIX;
+        }
+        String newName = JOptionPane.showInputDialog(this,
+                "Name of uncompressed file", uname);
+        if (newName == null) {
+            return;
         }
+        final File newFile = siblingFile(file, newName);
+        if (newFile == null) {
+            return;
+        }
+
+        new HuffTask("uncompressing bits ...", file.length(), newFile) {
+            protected String work() throws IOException {
+                long bits;
+                try (InputStream in = monitor(file);
+                        OutputStream out = new FileOutputStream(newFile)) {
+                    bits = myModel.uncompress(in, out);
+                }
+                if (bits == -1) {
+                    throw new IOException("not a compressed file");
+                }
+                return "uncompressed " + file.getName() + " to " + newFile.getName();
+            }
+        }.execute();
     }
 
     private void doSave() {
-        myFile = doRead();
-        if (myFile == null){
+        int retval = ourChooser.showOpenDialog(null);
+        if (retval != JFileChooser.APPROVE_OPTION) {
             return;
         }
-       
-        String name = myFile.getName();
+        final File source = ourChooser.getSelectedFile();
+
+        String name = source.getName();
         showMessage("compressing " + name);
         String newName = JOptionPane.showInputDialog(this,
                 "Name of compressed file", name + HUFF_SUFFIX);
         if (newName == null) {
             return;
         }
-        String path = null;
-        try {
-            path = myFile.getCanonicalPath();
-        } catch (IOException e) {
-            showError("trouble with file canonicalizing");
+        final File file = siblingFile(source, newName);
+        if (file == null) {
             return;
         }
-        int pos = path.lastIndexOf(name);
-        newName = path.substring(0, pos) + newName;
-        final File file = new File(newName);
-        try {
-            final FileOutputStream out = new FileOutputStream(file);
-            ProgressMonitorInputStream  temp = null;
-            if (myFast){
-                temp = getMonitorableStream(getFastByteReader(myFile),"compressing bits...");
-            }
-            else {
-                temp = getMonitorableStream(myFile,"compressing bits ...");
-            }
-            final ProgressMonitorInputStream pmis = temp; 
-            final ProgressMonitor progress = pmis.getProgressMonitor();
-            Thread fileWriterThread = new Thread() {
-                public void run() {
-                    try {
-                        while (! myFirstReadingDone){
-                            try {
-                                sleep(100);
-                            } catch (InterruptedException e) {
-                                // what to do?
-                                showError("Trouble in Thread " + e);
-                            }
-                        }
-                        myModel.compress(pmis, out, myForce);
-                    } catch (IOException e) {
-                        showError("compression exception\n " + e);
-                        cleanUp(file);
-                        //e.printStackTrace();
-                    }
-                    if (progress.isCanceled()) {
-                        showError("compression cancelled");
-                        cleanUp(file);
-                    }
+
+        final int headerFormat = myHeaderFormat;
+        final boolean force = myForce;
+        // the file is read twice, once to count and once to compress
+        new HuffTask("compressing bits ...", source.length() * 2, file) {
+            protected String work() throws IOException {
+                CompressionPlan plan = myModel.preprocess(monitor(source), headerFormat);
+                setBase(source.length());
+                long bits;
+                try (InputStream in = monitor(source);
+                        OutputStream out = new FileOutputStream(file)) {
+                    bits = myModel.compress(plan, in, out, force);
                 }
-            };
-            fileWriterThread.start();
-        } catch (FileNotFoundException e) {
-            showError("could not open " + file.getName());
-            e.printStackTrace();
+                if (bits == 0 && !force) {
+                    discard();
+                    return "not compressed, no bits saved";
+                }
+                return "saved: " + plan.getBitsSaved() + " bits";
+            }
+        }.execute();
+    }
+
+    /**
+     * Get a file with the given name in the same directory as file.
+     *
+     * @param file the file whose directory is used
+     * @param name the name of the new file
+     * @return the new file, or null if file's path cannot be found
+     */
+    private File siblingFile(File file, String name) {
+        try {
+            return new File(file.getCanonicalFile().getParentFile(), name);
+        } catch (IOException e) {
+            showError("trouble with file canonicalizing");
+            return null;
         }
-        myFile = null;
     }
 
-    private void cleanUp(File f) {
-        if (!f.delete()) {
-            showError("trouble deleting " + f.getName());
-        } else {
-            // do something here?
+    /**
+     * Delete a file a job wrote, without touching Swing, so a worker can call it.
+     *
+     * @param f the file
+     * @return the error to show, or null if f was deleted or never written
+     */
+    private static String cleanUp(File f) {
+        if (f.exists() && !f.delete()) {
+            return "trouble deleting " + f.getName();
         }
+        return null;
     }
 
-    private ProgressMonitorInputStream getMonitorableStream(InputStream stream, String message) {
+    /**
+     * A compress or uncompress job run off the event dispatch thread. Reading goes through a
+     * <code>ProgressInputStream</code> which publishes the byte count a few times per second;
+     * the counts are coalesced into a <code>ProgressMonitor</code> on the event dispatch
+     * thread. Pressing Cancel in the monitor stops the job: the next read of its input fails,
+     * stopping the model mid-stream. The worker is not cancelled, so <code>done</code> runs
+     * only once the worker has closed its streams and deleted any partial output.
+     */
+    private abstract class HuffTask extends SwingWorker<String, Long> {
+        private final ProgressMonitor progress;
+        private final long total;
+        private final int scale;
+        private final File output;
+        private volatile long base;
+        // set on the event dispatch thread when Cancel is pressed
+        private volatile boolean stopped;
+        // set by the job when its output should not be kept though it succeeded
+        private volatile boolean discarded;
+        // set by the worker when the output could not be deleted, shown by done
+        private volatile String cleanUpError;
+
+        /**
+         * Create a job whose progress is shown in a monitor.
+         *
+         * @param message the message shown in the monitor
+         * @param total the number of bytes the job reads
+         * @param output the file the job writes, deleted if the job fails or is cancelled, or
+         *        null if it writes none
+         */
+        HuffTask(String message, long total, File output) {
+            this.output = output;
+            this.total = Math.max(total, 1);
+            // the monitor takes int progress, so large files are shown in coarser units
+            this.scale = (int) Math.max(1, this.total / Integer.MAX_VALUE + 1);
+            progress = new ProgressMonitor(GUIHuffViewer.this, message, null, 0,
+                    (int) (this.total / scale));
+            progress.setMillisToDecideToPopup(100);
+            progress.setMillisToPopup(100);
+        }
 
-           
-            final ProgressMonitorInputStream pmis = new ProgressMonitorInputStream(
-                    this, message, stream);
+        /**
+         * Open a file for the job to read, reporting progress and honoring cancellation.
+         *
+         * @param file the file to read
+         * @return the stream to read file through
+         * @throws IOException if the file cannot be opened
+         */
+        protected InputStream monitor(File file) throws IOException {
+            return new ProgressInputStream(new FileInputStream(file),
+                    bytes -> publish(base + bytes), () -> stopped || isCancelled());
+        }
 
-            ProgressMonitor progress = pmis.getProgressMonitor();
-            progress.setMillisToDecideToPopup(1);
-            progress.setMillisToPopup(1);
+        /**
+         * Set the number of bytes already read by earlier passes of the job.
+         *
+         * @param bytes the bytes read before the stream now being monitored
+         */
+        protected void setBase(long bytes) {
+            base = bytes;
+        }
 
-            return pmis;
-    }
-    
-    
-    
-    private ProgressMonitorInputStream getMonitorableStream(File file,
-            String message) {
-        try {
-            FileInputStream stream = new FileInputStream(file);
-            if (stream == null){
-                System.out.println("null on "+file.getCanonicalPath());
+        /**
+         * Have the output deleted once the job returns, e.g., when it saves nothing.
+         */
+        protected void discard() {
+            discarded = true;
+        }
+
+        /**
+         * Do the job on the worker thread, closing every stream it opens before it returns.
+         *
+         * @return the message shown when the job is done
+         * @throws IOException if the job fails or is stopped
+         */
+        protected abstract String work() throws IOException;
+
+        @Override
+        protected final String doInBackground() throws IOException {
+            boolean completed = false;
+            try {
+                String result = work();
+                completed = true;
+                return result;
+            } finally {
+                // the job's streams are closed, so its partial output can be deleted
+                if (output != null && (!completed || discarded || isCancelled())) {
+                    cleanUpError = cleanUp(output);
+                }
             }
-            final ProgressMonitorInputStream pmis = new ProgressMonitorInputStream(
-                    this, message, stream);
+        }
 
-            ProgressMonitor progress = pmis.getProgressMonitor();
-            progress.setMillisToDecideToPopup(1);
-            progress.setMillisToPopup(1);
+        @Override
+        protected void process(List<Long> chunks) {
+            // only the latest count matters
+            if (progress.isCanceled()) {
+                stopped = true;
+            } else {
+                long bytes = chunks.get(chunks.size() - 1);
+                progress.setProgress((int) (bytes / scale));
+                progress.setNote(String.format("%,d of %,d bytes", bytes, total));
+            }
+        }
 
-            return pmis;
-        } catch (IOException e) {
-            showError("could not open " + file.getName());
-            e.printStackTrace();
-            return null;
+        @Override
+        protected void done() {
+            progress.close();
+            try {
+                showMessage(get());
+            } catch (CancellationException e) {
+                showMessage("cancelled");
+            } catch (InterruptedException e) {
+                showError("interrupted");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof InterruptedIOException) {
+                    showMessage("cancelled");
+                } else {
+                    showError("could not complete\n " + cause);
+                }
+            }
+            if (cleanUpError != null) {
+                showError(cleanUpError);
+            }
         }
     }
-    
+
     /**
      * Clear the text area, e.g., for a new message.
      */
@@ -437,7 +477,7 @@ public class GUIHuffViewer extends JFrame implements IHuffViewer {
      * @param s is string to be displayed
      */
     public void update(String s) {
-        myOutput.append(s+"\n");
+        onEventThread(() -> myOutput.append(s+"\n"));
     }
 
     /**
@@ -446,7 +486,7 @@ public class GUIHuffViewer extends JFrame implements IHuffViewer {
      * @param s is the message displayed
      */
     public void showMessage(String s) {
-        myMessage.setText(s);
+        onEventThread(() -> myMessage.setText(s));
     }
 
     /**
@@ -455,26 +495,21 @@ public class GUIHuffViewer extends JFrame implements IHuffViewer {
      * @param s is the error-message displayed
      */
     public void showError(String s) {
-        JOptionPane.showMessageDialog(this, s, "Huff info",
-                JOptionPane.INFORMATION_MESSAGE);
+        onEventThread(() -> JOptionPane.showMessageDialog(this, s, "Huff info",
+                JOptionPane.INFORMATION_MESSAGE));
     }
-    
-    private ByteArrayInputStream getFastByteReader(File f){
-        ByteBuffer buffer = null;
-         try {
-             FileChannel channel = new FileInputStream(f).getChannel();
-             buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
-             byte[] barray = new byte[buffer.limit()];
-           
-             if (barray.length != channel.size()){               
-                 showError(String.format("Reading %s error: lengths differ %d %ld\n",f.getName(),barray.length,channel.size()));
-             }
-             buffer.get(barray);
-             return new ByteArrayInputStream(barray);
-         } catch (IOException e) {
-             e.printStackTrace();
-         }
-         return null;
+
+    /**
+     * Run an action on the event dispatch thread, now if this is that thread, so Swing
+     * components are never touched from a worker.
+     *
+     * @param action the action touching Swing components
+     */
+    private void onEventThread(Runnable action) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            action.run();
+        } else {
+            SwingUtilities.invokeLater(action);
+        }
     }
-         
 }
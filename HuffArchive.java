@@ -0,0 +1,608 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A single file holding many compressed entries, with a central directory of their names,
+ * sizes and offsets at the end. Entries are compressed in parallel, and extracting one entry
+ * reads only the directory and that entry's bytes.
+ * <P>
+ * Each entry is either a complete compressed stream with its own header, or, in a
+ * <em>solid</em> archive, just the codes of its data, all coded with one table built from
+ * the counts of every entry and stored once. Solid archives save the header of each entry,
+ * which dominates for small files. Every entry ends with a CRC32C of its data, so an archive
+ * can be verified, in parallel, without writing anything. The layout is:
+ * <pre>
+ * ARCHIVE_MAGIC
+ * entry data, each starting on a byte boundary
+ * shared table (solid only): MAGIC_NUMBER, header format and header with no data
+ * directory: int entry count, int flags, long table offset, long table length,
+ *            then per entry its UTF-8 name, long size, long offset and long compressed length
+ * long directory offset, ARCHIVE_MAGIC
+ * </pre>
+ * An open archive may be read by any number of threads at once.
+ */
+public class HuffArchive implements IHuffConstants, Closeable {
+    // directory flag marking a solid archive
+    private static final int SOLID = 1;
+    // the directory offset and ARCHIVE_MAGIC
+    private static final int TRAILER_BYTES = Long.BYTES + Integer.BYTES;
+    // files and entries up to this size are read whole and coded as a block, larger ones
+    // are streamed
+    private static final int MAX_BLOCK_BYTES = 1 << 26;
+
+    private final FileChannel CHANNEL;
+    private final List<Entry> ENTRIES;
+    private final Map<String, Entry> ENTRIES_BY_NAME;
+    private final HuffHeader SHARED_HEADER;
+    private final HuffContextPool POOL;
+
+    /**
+     * One file stored in an archive.
+     */
+    public static final class Entry {
+        private final String NAME;
+        private final long SIZE;
+        private final long OFFSET;
+        private final long COMPRESSED_SIZE;
+
+        private Entry(String name, long size, long offset, long compressedSize) {
+            NAME = name;
+            SIZE = size;
+            OFFSET = offset;
+            COMPRESSED_SIZE = compressedSize;
+        }
+
+        /**
+         * Get the name of the entry, with '/' separating directories.
+         *
+         * @return the name
+         */
+        public String getName() {
+            return NAME;
+        }
+
+        /**
+         * Get the size of the entry's original data.
+         *
+         * @return the uncompressed size in bytes
+         */
+        public long getSize() {
+            return SIZE;
+        }
+
+        /**
+         * Get the position in the archive of the entry's compressed data.
+         *
+         * @return the offset in bytes
+         */
+        public long getOffset() {
+            return OFFSET;
+        }
+
+        /**
+         * Get the size of the entry's compressed data.
+         *
+         * @return the compressed size in bytes
+         */
+        public long getCompressedSize() {
+            return COMPRESSED_SIZE;
+        }
+
+        public String toString() {
+            return String.format("%s %d -> %d", NAME, SIZE, COMPRESSED_SIZE);
+        }
+    }
+
+    /**
+     * Open an archive and read its directory.
+     *
+     * @param file the archive
+     * @throws IOException if the file cannot be read or is not an archive
+     */
+    public HuffArchive(Path file) throws IOException {
+        CHANNEL = FileChannel.open(file, StandardOpenOption.READ);
+        POOL = new HuffContextPool();
+        try {
+            long size = CHANNEL.size();
+            if (size < Integer.BYTES + TRAILER_BYTES) {
+                throw notAnArchive();
+            }
+            ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES);
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES);
+            SeekIndex.readFully(CHANNEL, magic, 0);
+            SeekIndex.readFully(CHANNEL, trailer, size - TRAILER_BYTES);
+            long directoryOffset = trailer.getLong(0);
+            if (magic.getInt(0) != ARCHIVE_MAGIC || trailer.getInt(Long.BYTES) != ARCHIVE_MAGIC
+                    || directoryOffset < Integer.BYTES || directoryOffset > size - TRAILER_BYTES) {
+                throw notAnArchive();
+            }
+
+            DataInputStream directory = new DataInputStream(new BufferedInputStream(
+                    new ChannelInputStream(CHANNEL, directoryOffset,
+                            size - TRAILER_BYTES - directoryOffset)));
+            int count = directory.readInt();
+            int flags = directory.readInt();
+            long tableOffset = directory.readLong();
+            long tableLength = directory.readLong();
+            if ((flags & SOLID) != 0 && !inData(tableOffset, tableLength, directoryOffset)) {
+                throw notAnArchive();
+            }
+            List<Entry> entries = new ArrayList<>(Math.max(0, Math.min(count, 1 << 16)));
+            Map<String, Entry> byName = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                Entry entry = new Entry(directory.readUTF(), directory.readLong(),
+                        directory.readLong(), directory.readLong());
+                // extract reads an entry's compressed bytes without checking them again
+                if (entry.getSize() < 0 || !inData(entry.getOffset(), entry.getCompressedSize(),
+                        directoryOffset)) {
+                    throw notAnArchive();
+                }
+                entries.add(entry);
+                byName.put(entry.getName(), entry);
+            }
+            ENTRIES = Collections.unmodifiableList(entries);
+            ENTRIES_BY_NAME = byName;
+
+            if ((flags & SOLID) != 0) {
+                HuffHeader table = HuffHeader.read(new FastBitInputStream(4096).attach(
+                        new ChannelInputStream(CHANNEL, tableOffset, tableLength)),
+                        new int[ALPH_SIZE]);
+                if (table == null) {
+                    throw notAnArchive();
+                }
+                SHARED_HEADER = table;
+            } else {
+                SHARED_HEADER = null;
+            }
+        } catch (IOException | RuntimeException e) {
+            CHANNEL.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Tells us if a range of bytes lies between the magic number and the directory.
+     *
+     * @param offset the position of the first byte
+     * @param length the number of bytes
+     * @param directoryOffset the position of the directory
+     * @return true if the range is in the data of the archive
+     */
+    private static boolean inData(long offset, long length, long directoryOffset) {
+        return offset >= Integer.BYTES && length >= 0 && length <= directoryOffset - offset;
+    }
+
+    /**
+     * Create the exception for a file that is not a well formed archive.
+     *
+     * @return the exception to throw
+     */
+    private static IOException notAnArchive() {
+        return new IOException("Error reading archive. \nmissing or malformed directory.");
+    }
+
+    /**
+     * Get the entries in the order they were added.
+     *
+     * @return the entries
+     */
+    public List<Entry> getEntries() {
+        return ENTRIES;
+    }
+
+    /**
+     * Find an entry by name.
+     *
+     * @param name the name of the entry
+     * @return the entry, or null if there is none with that name
+     */
+    public Entry getEntry(String name) {
+        return ENTRIES_BY_NAME.get(name);
+    }
+
+    /**
+     * Tells us if the entries share one code table.
+     *
+     * @return true if the archive is solid
+     */
+    public boolean isSolid() {
+        return SHARED_HEADER != null;
+    }
+
+    /**
+     * Uncompress one entry, reading only its own bytes of the archive.
+     *
+     * @param entry an entry of this archive
+     * @param out the stream the entry's data is written to, flushed but not closed
+     * @return the number of bytes written
+     * @throws IOException if the entry is malformed or cannot be written
+     */
+    public long extract(Entry entry, OutputStream out) throws IOException {
+        HuffDecoder decoder = POOL.acquireDecoder();
+        try {
+            long bits;
+            if (entry.getCompressedSize() <= MAX_BLOCK_BYTES) {
+                // read the entry whole and decode it as a block
+                ByteBuffer codes = ByteBuffer.allocate((int) entry.getCompressedSize());
+                SeekIndex.readFully(CHANNEL, codes, entry.getOffset());
+                codes.flip();
+                bits = SHARED_HEADER == null
+                        ? decoder.uncompress(codes, out, HuffMetrics.DEFAULT)
+                        : decoder.uncompressData(SHARED_HEADER, codes, entry.getSize(), out);
+            } else {
+                InputStream in = new ChannelInputStream(CHANNEL, entry.getOffset(),
+                        entry.getCompressedSize());
+                bits = SHARED_HEADER == null ? decoder.uncompress(in, out)
+                        : decoder.uncompressData(SHARED_HEADER, in, out);
+            }
+            if (bits == -1) {
+                throw new IOException("Error reading archive. \nentry " + entry.getName()
+                        + " did not start with the huff magic number.");
+            }
+            return bits / BITS_PER_WORD;
+        } finally {
+            POOL.release(decoder);
+        }
+    }
+
+    /**
+     * Decode every entry without writing its data, on up to threads threads at once, to check
+     * that it matches its checksum and size.
+     *
+     * @param threads the number of threads verifying entries, > 0
+     * @return the entries that failed, in archive order, each with the reason; empty if the
+     *         archive is intact
+     * @throws IOException if interrupted while waiting for the entries
+     */
+    public Map<Entry, IOException> verify(int threads) throws IOException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<IOException>> results = new ArrayList<>();
+            for (Entry entry : ENTRIES) {
+                results.add(executor.submit(() -> verify(entry)));
+            }
+            Map<Entry, IOException> failures = new LinkedHashMap<>();
+            for (int i = 0; i < ENTRIES.size(); i++) {
+                IOException failure = await(results.get(i));
+                if (failure != null) {
+                    failures.put(ENTRIES.get(i), failure);
+                }
+            }
+            return failures;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Decode one entry without writing its data.
+     *
+     * @param entry an entry of this archive
+     * @return null if the entry is intact, otherwise the reason it is not
+     */
+    private IOException verify(Entry entry) {
+        try {
+            long size = extract(entry, OutputStream.nullOutputStream());
+            if (size != entry.getSize()) {
+                return new IOException("Error reading archive. \nentry " + entry.getName()
+                        + " holds " + size + " bytes, the directory says " + entry.getSize());
+            }
+            return null;
+        } catch (IOException e) {
+            return e;
+        }
+    }
+
+    /**
+     * Close the archive.
+     *
+     * @throws IOException if closing fails
+     */
+    public void close() throws IOException {
+        CHANNEL.close();
+    }
+
+    /**
+     * Compress files into a new archive, replacing any existing file. Entries are compressed
+     * on up to threads threads at once and written in the order given, holding at most a
+     * few compressed entries per thread in memory.
+     *
+     * @param archive the archive to create
+     * @param files the name to store each file under, in order
+     * @param solid true to code every entry with one table built from all of them
+     * @param headerFormat STORE_COUNTS, STORE_TREE, STORE_SPARSE, STORE_RAW, or
+     *        STORE_AUTO for the smallest
+     * @param threads the number of threads compressing entries, > 0
+     * @return the entries written
+     * @throws IOException if a file cannot be read or the archive cannot be written
+     */
+    public static List<Entry> create(Path archive, Map<String, Path> files, boolean solid,
+            int headerFormat, int threads) throws IOException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        List<String> names = new ArrayList<>(files.keySet());
+        List<Path> paths = new ArrayList<>(files.values());
+        HuffContextPool pool = new HuffContextPool(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CompressionPlan shared = null;
+            long[] sizes = new long[paths.size()];
+            if (solid) {
+                long[] counts = new long[ALPH_SIZE];
+                countAll(executor, pool, paths, counts, sizes);
+                shared = new CompressionPlan(counts, headerFormat).withChecksum();
+            }
+            return write(archive, names, paths, sizes, shared, headerFormat, executor, pool,
+                    threads * 2);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(archive);
+            throw e;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Count every file in parallel into one histogram.
+     *
+     * @param executor runs the counting
+     * @param pool lends encoders to the counting threads
+     * @param paths the files
+     * @param counts the histogram the counts of all files are added to
+     * @param sizes filled with the size of each file
+     * @throws IOException if a file cannot be read
+     */
+    private static void countAll(ExecutorService executor, HuffContextPool pool,
+            List<Path> paths, long[] counts, long[] sizes) throws IOException {
+        List<Future<long[]>> futures = new ArrayList<>();
+        for (int i = 0; i < paths.size(); i++) {
+            final int index = i;
+            futures.add(executor.submit(() -> {
+                long[] fileCounts = new long[ALPH_SIZE];
+                HuffEncoder encoder = pool.acquireEncoder();
+                try (InputStream in = Files.newInputStream(paths.get(index))) {
+                    sizes[index] = encoder.count(in, fileCounts);
+                } finally {
+                    pool.release(encoder);
+                }
+                return fileCounts;
+            }));
+        }
+        for (Future<long[]> future : futures) {
+            long[] fileCounts = await(future);
+            for (int k = 0; k < ALPH_SIZE; k++) {
+                counts[k] += fileCounts[k];
+            }
+        }
+    }
+
+    /**
+     * Compress the files in parallel and write them, the table and the directory in order.
+     *
+     * @return the entries written
+     */
+    private static List<Entry> write(Path archive, List<String> names, List<Path> paths,
+            long[] sizes, CompressionPlan shared, int headerFormat, ExecutorService executor,
+            HuffContextPool pool, int window) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        List<Future<byte[]>> pending = new ArrayList<>();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(archive), 1 << 16))) {
+            out.writeInt(ARCHIVE_MAGIC);
+            long offset = Integer.BYTES;
+
+            for (int i = 0; i < paths.size() && i < window; i++) {
+                pending.add(submit(executor, pool, paths, sizes, i, shared, headerFormat));
+            }
+            for (int i = 0; i < paths.size(); i++) {
+                byte[] data = await(pending.get(i));
+                pending.set(i, null); // let the compressed bytes be collected once written
+                if (i + window < paths.size()) {
+                    pending.add(submit(executor, pool, paths, sizes, i + window, shared,
+                            headerFormat));
+                }
+                out.write(data);
+                entries.add(new Entry(names.get(i), sizes[i], offset, data.length));
+                offset += data.length;
+            }
+
+            long tableOffset = offset;
+            long tableLength = 0;
+            if (shared != null) {
+                ByteArrayOutputStream table = new ByteArrayOutputStream();
+                FastBitOutputStream bitsOut = new FastBitOutputStream(table);
+                bitsOut.writeBits(BITS_PER_INT, MAGIC_NUMBER);
+                shared.writeHeader(bitsOut);
+                bitsOut.flush();
+                table.writeTo(out);
+                tableLength = table.size();
+                offset += tableLength;
+            }
+
+            out.writeInt(entries.size());
+            out.writeInt(shared == null ? 0 : SOLID);
+            out.writeLong(tableOffset);
+            out.writeLong(tableLength);
+            for (Entry entry : entries) {
+                out.writeUTF(entry.getName());
+                out.writeLong(entry.getSize());
+                out.writeLong(entry.getOffset());
+                out.writeLong(entry.getCompressedSize());
+            }
+            out.writeLong(offset);
+            out.writeInt(ARCHIVE_MAGIC);
+        }
+        return entries;
+    }
+
+    /**
+     * Start compressing one file into memory.
+     *
+     * @return the compressed bytes of the file, when done
+     */
+    private static Future<byte[]> submit(ExecutorService executor, HuffContextPool pool,
+            List<Path> paths, long[] sizes, int index, CompressionPlan shared,
+            int headerFormat) {
+        Callable<byte[]> task = () -> {
+            Path path = paths.get(index);
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            HuffEncoder encoder = pool.acquireEncoder();
+            try {
+                byte[] bytes = Files.size(path) <= MAX_BLOCK_BYTES ? Files.readAllBytes(path)
+                        : null;
+                if (shared != null && bytes != null) {
+                    encoder.compressData(shared, bytes, 0, bytes.length, data);
+                } else if (shared != null) {
+                    try (InputStream in = Files.newInputStream(path)) {
+                        encoder.compressData(shared, in, data);
+                    }
+                } else if (bytes != null) {
+                    CompressionPlan plan = encoder.preprocess(new ByteArrayInputStream(bytes),
+                            headerFormat).withChecksum();
+                    encoder.compress(plan, bytes, 0, bytes.length, data, HuffMetrics.DEFAULT);
+                    sizes[index] = plan.getOriginalBytes();
+                } else {
+                    CompressionPlan plan;
+                    try (InputStream in = Files.newInputStream(path)) {
+                        plan = encoder.preprocess(in, headerFormat).withChecksum();
+                    }
+                    try (InputStream in = Files.newInputStream(path)) {
+                        encoder.compress(plan, in, data);
+                    }
+                    sizes[index] = plan.getOriginalBytes();
+                }
+            } finally {
+                pool.release(encoder);
+            }
+            return data.toByteArray();
+        };
+        return executor.submit(task);
+    }
+
+    /**
+     * Wait for a task, rethrowing its failure.
+     *
+     * @param future the task
+     * @return the result of the task
+     * @throws IOException if the task failed with one or was interrupted
+     */
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while compressing entries", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Create, list or extract an archive from the command line.
+     * <pre>
+     * HuffArchive c [-solid] archive file...
+     * HuffArchive t archive
+     * HuffArchive v archive
+     * HuffArchive x archive [name...]
+     * </pre>
+     *
+     * @param args the command and its arguments
+     * @throws IOException if an archive or file cannot be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 2 && args[0].equals("c")
+                && (args.length > 2 || !args[1].equals("-solid"))) {
+            boolean solid = args[1].equals("-solid");
+            int first = solid ? 2 : 1;
+            Map<String, Path> files = new LinkedHashMap<>();
+            for (int i = first + 1; i < args.length; i++) {
+                files.put(args[i].replace('\\', '/'), Paths.get(args[i]));
+            }
+            for (Entry entry : create(Paths.get(args[first]), files, solid, STORE_AUTO,
+                    Runtime.getRuntime().availableProcessors())) {
+                System.out.println(entry);
+            }
+        } else if (args.length == 2 && args[0].equals("t")) {
+            try (HuffArchive archive = new HuffArchive(Paths.get(args[1]))) {
+                for (Entry entry : archive.getEntries()) {
+                    System.out.println(entry);
+                }
+            }
+        } else if (args.length == 2 && args[0].equals("v")) {
+            try (HuffArchive archive = new HuffArchive(Paths.get(args[1]))) {
+                Map<Entry, IOException> failures = archive.verify(
+                        Runtime.getRuntime().availableProcessors());
+                for (Map.Entry<Entry, IOException> failure : failures.entrySet()) {
+                    System.out.println(failure.getKey().getName() + ": "
+                            + failure.getValue().getMessage().replace('\n', ' '));
+                }
+                System.out.println(archive.getEntries().size() - failures.size() + " of "
+                        + archive.getEntries().size() + " entries OK");
+                if (!failures.isEmpty()) {
+                    System.exit(1);
+                }
+            }
+        } else if (args.length >= 2 && args[0].equals("x")) {
+            try (HuffArchive archive = new HuffArchive(Paths.get(args[1]))) {
+                for (Entry entry : archive.getEntries()) {
+                    boolean wanted = args.length == 2;
+                    for (int i = 2; i < args.length && !wanted; i++) {
+                        wanted = args[i].equals(entry.getName());
+                    }
+                    Path target = Paths.get(entry.getName()).normalize();
+                    if (target.isAbsolute() || target.startsWith("..")) {
+                        System.err.println("skipping unsafe name " + entry.getName());
+                    } else if (wanted) {
+                        if (target.getParent() != null) {
+                            Files.createDirectories(target.getParent());
+                        }
+                        try (OutputStream out = Files.newOutputStream(target)) {
+                            archive.extract(entry, out);
+                        }
+                    }
+                }
+            }
+        } else {
+            System.err.println("usage: HuffArchive c [-solid] archive file...\n"
+                    + "       HuffArchive t archive\n"
+                    + "       HuffArchive v archive\n"
+                    + "       HuffArchive x archive [name...]");
+            System.exit(2);
+        }
+    }
+}
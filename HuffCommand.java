@@ -0,0 +1,801 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * The command line tool, for scripts and pipelines where the GUI cannot run.
+ * <pre>
+ * java HuffCommand compress   [options] [file...]   (or c)
+ * java HuffCommand uncompress [options] [file...]   (or d)
+ * java HuffCommand test       [options] [file...]   (or t)
+ * java HuffCommand list       [options] [file...]   (or l)
+ * java HuffCommand analyze    [options] [file...]   (or a)
+ *
+ *   -T threads  compress or check this many files at once; a single file or standard
+ *               input is compressed this many chunks at once (default: all cores)
+ *   -H format   counts, tree, sparse, raw or auto (default: auto)
+ *   -L level    replace repeated strings before coding, as STORE_LZ segments, with effort
+ *               1 (fastest) to 9 (smallest); -H is then ignored
+ *   -f          overwrite existing files, write output that is larger than the input and
+ *               write compressed data to a terminal
+ *   -c          write to standard output instead of files
+ *   -r          include the files in directories named, recursively
+ *   -a          split each chunk into segments where its statistics change, with
+ *               AdaptiveHuffEncoder
+ *   -B bytes    the size of the blocks analyze reports on (default: 1048576)
+ * </pre>
+ * Files can be named by glob patterns, e.g., <code>'logs/**.txt'</code>, for shells that
+ * do not expand them. With no files, or the name <code>-</code>, standard input is read and
+ * the result written to standard output. Compressing <code>name</code> writes
+ * <code>name.hf</code> and uncompressing it writes <code>name</code> back; the input is
+ * kept. <code>test</code> and <code>list</code> also accept <code>HuffArchive</code>
+ * archives. <code>analyze</code> reports the entropy, code lengths and header overhead of
+ * uncompressed files, as a whole and in blocks, as given by <code>CompressionReport</code>.
+ * <P>
+ * The input is compressed in chunks of CHUNK_SIZE bytes, each a segment with its own table,
+ * length and checksum, so memory use does not grow with the input, standard input needs no
+ * second pass, and the chunks of a large file are compressed in parallel. Compressing
+ * several files to standard output gives one stream that uncompresses to all of them.
+ * <P>
+ * The exit status is 0 if every file succeeded, 1 if any failed and 2 for a usage error.
+ */
+public class HuffCommand implements IHuffConstants {
+    /** The suffix of compressed files. */
+    public static final String SUFFIX = ".hf";
+    /** The number of bytes compressed as one segment. */
+    public static final int CHUNK_SIZE = 1 << 24;
+
+    /** Every file succeeded. */
+    public static final int EXIT_OK = 0;
+    /** At least one file failed. */
+    public static final int EXIT_FAILED = 1;
+    /** The command line was malformed. */
+    public static final int EXIT_USAGE = 2;
+
+    // the most bytes read ahead to list the header of a stream
+    private static final int HEADER_LIMIT = 1 << 16;
+
+    private static final String USAGE =
+            "usage: HuffCommand compress|uncompress|test|list|analyze [-T threads] "
+            + "[-H format] [-L level] [-f] [-c] [-r] [-a] [-B bytes] [file...]";
+
+    // the level passed for -L when compressing without LZ
+    private static final int NO_LZ = 0;
+
+    private final SimpleHuffProcessor PROCESSOR;
+    private final int THREADS;
+    private final int HEADER_FORMAT;
+    private final int LZ_LEVEL;
+    private final int BLOCK_SIZE;
+    private final boolean ADAPTIVE;
+    private final boolean FORCE;
+    private final boolean TO_STDOUT;
+    private final InputStream STDIN;
+    private final PrintStream STDOUT;
+    private final PrintStream STDERR;
+
+    private HuffCommand(int threads, int headerFormat, int lzLevel, int blockSize,
+            boolean adaptive, boolean force, boolean toStdout, InputStream stdin,
+            PrintStream stdout, PrintStream stderr) {
+        PROCESSOR = new SimpleHuffProcessor(new HuffContextPool(threads));
+        THREADS = threads;
+        HEADER_FORMAT = headerFormat;
+        LZ_LEVEL = lzLevel;
+        BLOCK_SIZE = blockSize;
+        ADAPTIVE = adaptive;
+        FORCE = force;
+        TO_STDOUT = toStdout;
+        STDIN = stdin;
+        STDOUT = stdout;
+        STDERR = stderr;
+    }
+
+    /**
+     * Run the tool.
+     *
+     * @param args the command, options and files
+     * @param stdin read when no files are named
+     * @param stdout written with -c or when no files are named, and for list and test
+     * @param stderr where errors are reported
+     * @return EXIT_OK, EXIT_FAILED or EXIT_USAGE
+     */
+    public static int run(String[] args, InputStream stdin, PrintStream stdout,
+            PrintStream stderr) {
+        if (args.length == 0) {
+            stderr.println(USAGE);
+            return EXIT_USAGE;
+        }
+        String command = args[0];
+        int threads = Runtime.getRuntime().availableProcessors();
+        int headerFormat = STORE_AUTO;
+        int lzLevel = NO_LZ;
+        int blockSize = CompressionReport.DEFAULT_BLOCK_SIZE;
+        boolean adaptive = false;
+        boolean force = false;
+        boolean toStdout = false;
+        boolean recursive = false;
+        List<String> names = new ArrayList<>();
+        try {
+            boolean options = true;
+            for (int i = 1; i < args.length; i++) {
+                String arg = args[i];
+                if (!options || !arg.startsWith("-") || arg.equals("-")) {
+                    names.add(arg);
+                } else if (arg.equals("--")) {
+                    options = false;
+                } else if (arg.equals("-T") && i + 1 < args.length) {
+                    threads = Integer.parseInt(args[++i]);
+                    if (threads <= 0) {
+                        throw new IllegalArgumentException("threads must be positive");
+                    }
+                } else if (arg.equals("-H") && i + 1 < args.length) {
+                    headerFormat = headerFormat(args[++i]);
+                } else if (arg.equals("-L") && i + 1 < args.length) {
+                    lzLevel = Integer.parseInt(args[++i]);
+                    if (lzLevel < LzHuffEncoder.MIN_LEVEL || lzLevel > LzHuffEncoder.MAX_LEVEL) {
+                        throw new IllegalArgumentException("level must be "
+                                + LzHuffEncoder.MIN_LEVEL + " to " + LzHuffEncoder.MAX_LEVEL);
+                    }
+                } else if (arg.equals("-B") && i + 1 < args.length) {
+                    blockSize = Integer.parseInt(args[++i]);
+                    if (blockSize <= 0) {
+                        throw new IllegalArgumentException("block size must be positive");
+                    }
+                } else if (arg.equals("-f")) {
+                    force = true;
+                } else if (arg.equals("-c")) {
+                    toStdout = true;
+                } else if (arg.equals("-r")) {
+                    recursive = true;
+                } else if (arg.equals("-a")) {
+                    adaptive = true;
+                } else {
+                    throw new IllegalArgumentException("unknown option " + arg);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            stderr.println(e.getMessage());
+            stderr.println(USAGE);
+            return EXIT_USAGE;
+        }
+
+        HuffCommand tool = new HuffCommand(threads, headerFormat, lzLevel, blockSize,
+                adaptive, force, toStdout, stdin, stdout, stderr);
+        switch (command) {
+            case "c":
+            case "compress":
+                return tool.each(names, recursive, false, tool::compress);
+            case "d":
+            case "uncompress":
+                return tool.each(names, recursive, true, tool::uncompress);
+            case "t":
+            case "test":
+                return tool.each(names, recursive, true, tool::test);
+            case "l":
+            case "list":
+                stdout.printf("%14s %14s %7s  %-8s %s%n", "compressed", "uncompressed", "ratio",
+                        "format", "name");
+                return tool.each(names, recursive, true, tool::list);
+            case "a":
+            case "analyze":
+                return tool.each(names, recursive, false, tool::analyze);
+            default:
+                stderr.println("unknown command " + command);
+                stderr.println(USAGE);
+                return EXIT_USAGE;
+        }
+    }
+
+    /**
+     * Get the header format named on the command line.
+     *
+     * @param name counts, tree, sparse, raw or auto
+     * @return the STORE_ constant
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    private static int headerFormat(String name) {
+        switch (name) {
+            case "counts":
+                return STORE_COUNTS;
+            case "tree":
+                return STORE_TREE;
+            case "sparse":
+                return STORE_SPARSE;
+            case "raw":
+                return STORE_RAW;
+            case "auto":
+                return STORE_AUTO;
+            default:
+                throw new IllegalArgumentException("unknown header format " + name);
+        }
+    }
+
+    /**
+     * Get the name of a header format.
+     *
+     * @param headerFormat a STORE_ constant without flags
+     * @return the name used by -H, or lz
+     */
+    private static String formatName(int headerFormat) {
+        if (headerFormat == STORE_LZ) {
+            return "lz";
+        }
+        for (String name : new String[] {"counts", "tree", "sparse", "raw"}) {
+            if (headerFormat(name) == headerFormat) {
+                return name;
+            }
+        }
+        return Integer.toHexString(headerFormat);
+    }
+
+    /**
+     * The work done for one file or for standard input.
+     */
+    private interface FileOperation {
+        String apply(Path file, int threads) throws IOException;
+    }
+
+    /**
+     * Apply an operation to every file named, in parallel if there are several, and report
+     * each outcome in the order the files were named.
+     *
+     * @param names the names and patterns on the command line, empty for standard input
+     * @param recursive true to include the files in directories
+     * @param compressed true to take only files ending in SUFFIX from directories
+     * @param operation the work for one file, given null for standard input
+     * @return EXIT_OK if every file succeeded, otherwise EXIT_FAILED
+     */
+    private int each(List<String> names, boolean recursive, boolean compressed,
+            FileOperation operation) {
+        boolean failed = false;
+        List<Path> files = new ArrayList<>();
+        boolean stdin = names.isEmpty();
+        for (String name : names) {
+            if (name.equals("-")) {
+                stdin = true;
+            } else {
+                try {
+                    failed |= !expand(name, recursive, compressed, files);
+                } catch (IOException e) {
+                    STDERR.println(name + ": " + message(e));
+                    failed = true;
+                }
+            }
+        }
+
+        List<String> taskNames = new ArrayList<>();
+        List<Callable<String>> tasks = new ArrayList<>();
+        // a file run alone gets every thread for its chunks, otherwise files get one each
+        int threadsPerFile = files.size() + (stdin ? 1 : 0) == 1 || TO_STDOUT ? THREADS : 1;
+        if (stdin) {
+            taskNames.add("(stdin)");
+            tasks.add(() -> operation.apply(null, threadsPerFile));
+        }
+        for (Path file : files) {
+            taskNames.add(file.toString());
+            tasks.add(() -> operation.apply(file, threadsPerFile));
+        }
+        // with -c the outputs are written one after another, so files run in order
+        int parallel = TO_STDOUT || threadsPerFile > 1 ? 1 : THREADS;
+        ExecutorService executor = Executors.newFixedThreadPool(parallel);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (Callable<String> task : tasks) {
+                results.add(executor.submit(task));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    String report = results.get(i).get();
+                    if (report != null) {
+                        STDOUT.println(report);
+                    }
+                } catch (ExecutionException e) {
+                    STDERR.println(taskNames.get(i) + ": " + message(e.getCause()));
+                    failed = true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed = true;
+        } finally {
+            executor.shutdownNow();
+        }
+        // the reports are lost if standard output cannot be written, which a file written
+        // to it has already reported
+        if (STDOUT.checkError() && !failed) {
+            STDERR.println("error writing to standard output");
+            failed = true;
+        }
+        return failed ? EXIT_FAILED : EXIT_OK;
+    }
+
+    /**
+     * Add the files a command line name stands for.
+     *
+     * @param name a file, directory or glob pattern
+     * @param recursive true to include the files in directories
+     * @param compressed true to take only files ending in SUFFIX from directories
+     * @param files the list added to
+     * @return false if the name was reported as an error
+     * @throws IOException if a directory cannot be read
+     */
+    private boolean expand(String name, boolean recursive, boolean compressed,
+            List<Path> files) throws IOException {
+        Path path = Paths.get(name);
+        if (Files.isDirectory(path)) {
+            if (!recursive) {
+                STDERR.println(name + ": is a directory, use -r to include its files");
+                return false;
+            }
+            walk(path, null, compressed, files);
+            return true;
+        } else if (Files.exists(path) || !isPattern(name)) {
+            if (!Files.exists(path)) {
+                STDERR.println(name + ": no such file");
+                return false;
+            }
+            files.add(path);
+            return true;
+        }
+
+        // a pattern: walk from the directory before the first wildcard
+        String separators = "/" + (FileSystems.getDefault().getSeparator().equals("\\")
+                ? "\\" : "");
+        int wildcard = 0;
+        while (!isPattern(name.substring(0, wildcard + 1))) {
+            wildcard++;
+        }
+        int slash = -1;
+        for (int i = 0; i < wildcard; i++) {
+            if (separators.indexOf(name.charAt(i)) >= 0) {
+                slash = i;
+            }
+        }
+        Path base = Paths.get(slash < 0 ? "" : name.substring(0, slash + 1));
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + name);
+        int before = files.size();
+        walk(base, matcher, false, files);
+        if (files.size() == before) {
+            STDERR.println(name + ": no files match");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Add the regular files below a directory, in name order.
+     */
+    private static void walk(Path directory, PathMatcher matcher, boolean compressed,
+            List<Path> files) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.filter(Files::isRegularFile)
+                    .filter(p -> matcher == null || matcher.matches(p))
+                    .filter(p -> !compressed || p.toString().endsWith(SUFFIX))
+                    .sorted()
+                    .forEach(files::add);
+        }
+    }
+
+    private static boolean isPattern(String name) {
+        for (char c : new char[] {'*', '?', '[', '{'}) {
+            if (name.indexOf(c) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compress a file to name.hf, or to standard output, or standard input to standard
+     * output.
+     *
+     * @param file the file, or null for standard input
+     * @param threads the number of chunks compressed at once
+     * @return the report for the file, or null for standard input
+     * @throws IOException if the file cannot be compressed
+     */
+    private String compress(Path file, int threads) throws IOException {
+        if (file == null || TO_STDOUT) {
+            if (!FORCE && System.console() != null && STDOUT == System.out) {
+                throw new IOException("compressed data not written to a terminal, "
+                        + "use -f to force");
+            }
+            try (InputStream in = file == null ? STDIN : Files.newInputStream(file);
+                    OutputStream out = new UnclosedOutputStream(STDOUT)) {
+                compress(in, out, threads);
+            }
+            return null;
+        }
+
+        if (file.toString().endsWith(SUFFIX)) {
+            throw new IOException("already has the " + SUFFIX + " suffix");
+        }
+        Path target = Paths.get(file + SUFFIX);
+        checkTarget(target);
+        long size = Files.size(file);
+        long compressed;
+        try (InputStream in = Files.newInputStream(file);
+                OutputStream out = Files.newOutputStream(target)) {
+            compressed = compress(in, out, threads);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+        if (!FORCE && compressed >= size && size > 0) {
+            Files.delete(target);
+            return String.format("%s: not compressed, %d bytes would not shrink, "
+                    + "use -f to force", file, size);
+        }
+        return String.format("%s: %d -> %d bytes (%.1f%%)", file, size, compressed,
+                size == 0 ? 100.0 : 100.0 * compressed / size);
+    }
+
+    /**
+     * Compress a stream as a series of segments of CHUNK_SIZE bytes, compressing up to
+     * threads chunks at once and writing them in order. Neither stream is closed.
+     *
+     * @param in the data
+     * @param out where the segments are written
+     * @param threads the number of chunks compressed at once
+     * @return the number of bytes written
+     * @throws IOException if the data cannot be read or written
+     */
+    private long compress(InputStream in, OutputStream out, int threads) throws IOException {
+        long written = 0;
+        if (threads == 1) {
+            byte[] chunk = new byte[CHUNK_SIZE];
+            int read = in.readNBytes(chunk, 0, CHUNK_SIZE);
+            do {
+                byte[] segment = compressChunk(chunk, read);
+                out.write(segment);
+                written += segment.length;
+                read = in.readNBytes(chunk, 0, CHUNK_SIZE);
+            } while (read > 0);
+            return written;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            // at most threads chunks are compressed or waiting to be written at once
+            Deque<Future<byte[]>> pending = new ArrayDeque<>();
+            boolean first = true;
+            while (true) {
+                byte[] chunk = new byte[CHUNK_SIZE];
+                int read = in.readNBytes(chunk, 0, CHUNK_SIZE);
+                if (read == 0 && !first) {
+                    break;
+                }
+                first = false;
+                pending.add(executor.submit(() -> compressChunk(chunk, read)));
+                if (pending.size() == threads) {
+                    written += writeSegment(pending.poll(), out);
+                }
+            }
+            while (!pending.isEmpty()) {
+                written += writeSegment(pending.poll(), out);
+            }
+            return written;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Compress one chunk as a segment with its own table, length and checksum, as a
+     * STORE_LZ segment with its own blocks and checksum, or as segments with their own
+     * tables and checksums split where the chunk's statistics change.
+     *
+     * @param chunk the data
+     * @param length the number of bytes of chunk used
+     * @return the compressed segment
+     * @throws IOException never, the streams are in memory
+     */
+    private byte[] compressChunk(byte[] chunk, int length) throws IOException {
+        if (LZ_LEVEL != NO_LZ) {
+            ByteArrayOutputStream segment = new ByteArrayOutputStream(length / 2 + 64);
+            PROCESSOR.compressLz(new ByteArrayInputStream(chunk, 0, length), segment,
+                    LZ_LEVEL);
+            return segment.toByteArray();
+        } else if (ADAPTIVE) {
+            ByteArrayOutputStream segments = new ByteArrayOutputStream(length / 2 + 64);
+            PROCESSOR.compressAdaptive(new ByteArrayInputStream(chunk, 0, length), segments,
+                    HEADER_FORMAT);
+            return segments.toByteArray();
+        }
+        CompressionPlan plan = PROCESSOR.preprocess(new ByteArrayInputStream(chunk, 0, length),
+                HEADER_FORMAT).withLength().withChecksum();
+        ByteArrayOutputStream segment = new ByteArrayOutputStream(
+                (int) (plan.getCompressedBits() / BITS_PER_WORD + 1));
+        PROCESSOR.compress(plan, chunk, 0, length, segment, true);
+        return segment.toByteArray();
+    }
+
+    /**
+     * Wait for a compressed chunk and write it.
+     *
+     * @return the number of bytes written
+     */
+    private static long writeSegment(Future<byte[]> segment, OutputStream out)
+            throws IOException {
+        try {
+            byte[] bytes = segment.get();
+            out.write(bytes);
+            return bytes.length;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while compressing");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Uncompress name.hf to name, or to standard output, or standard input to standard
+     * output.
+     *
+     * @param file the file, or null for standard input
+     * @param threads unused, a stream is decoded in order
+     * @return the report for the file, or null for standard output
+     * @throws IOException if the file cannot be uncompressed
+     */
+    private String uncompress(Path file, int threads) throws IOException {
+        if (file == null || TO_STDOUT) {
+            try (InputStream in = file == null ? STDIN : Files.newInputStream(file)) {
+                if (PROCESSOR.uncompress(in, new UnclosedOutputStream(STDOUT)) == -1) {
+                    throw notCompressed();
+                }
+            }
+            return null;
+        }
+
+        String name = file.toString();
+        if (!name.endsWith(SUFFIX)) {
+            throw new IOException("does not have the " + SUFFIX + " suffix");
+        }
+        Path target = Paths.get(name.substring(0, name.length() - SUFFIX.length()));
+        checkTarget(target);
+        long bits;
+        try {
+            bits = PROCESSOR.uncompress(Files.newInputStream(file),
+                    Files.newOutputStream(target));
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+        if (bits == -1) {
+            Files.deleteIfExists(target);
+            throw notCompressed();
+        }
+        return String.format("%s: %d -> %d bytes", file, Files.size(file), bits / BITS_PER_WORD);
+    }
+
+    /**
+     * Report how close coding a file, as a whole and in blocks, gets to its entropy.
+     *
+     * @param file the file, or null for standard input
+     * @param threads unused, a file is counted in one pass
+     * @return the report for the file
+     * @throws IOException if the file cannot be read
+     */
+    private String analyze(Path file, int threads) throws IOException {
+        String name = file == null ? "(stdin)" : file.toString();
+        try (InputStream in = file == null ? STDIN : Files.newInputStream(file)) {
+            return name + ": " + CompressionReport.analyze(in, BLOCK_SIZE);
+        }
+    }
+
+    /**
+     * Check a compressed file or archive by decoding it without writing anything.
+     *
+     * @param file the file, or null for standard input
+     * @param threads the number of archive entries checked at once
+     * @return the report for the file
+     * @throws IOException if the file is malformed or does not match its checksums
+     */
+    private String test(Path file, int threads) throws IOException {
+        String name = file == null ? "(stdin)" : file.toString();
+        if (file != null && isArchive(file)) {
+            try (HuffArchive archive = new HuffArchive(file)) {
+                int entries = archive.getEntries().size();
+                Map<HuffArchive.Entry, IOException> failures = archive.verify(threads);
+                if (!failures.isEmpty()) {
+                    StringBuilder failed = new StringBuilder();
+                    failures.forEach((entry, e) -> failed.append("\n  ").append(entry.getName())
+                            .append(": ").append(message(e)));
+                    throw new IOException(failures.size() + " of " + entries
+                            + " entries failed" + failed);
+                }
+                return name + ": OK, " + entries + " entries";
+            }
+        }
+        try (InputStream in = file == null ? STDIN : Files.newInputStream(file)) {
+            long bytes = PROCESSOR.verify(in);
+            if (bytes == -1) {
+                throw notCompressed();
+            }
+            return name + ": OK, " + bytes + " bytes";
+        }
+    }
+
+    /**
+     * Describe a compressed file, decoding it to learn its size, or the entries of an
+     * archive.
+     *
+     * @param file the file, or null for standard input
+     * @param threads unused
+     * @return the line for the file, or the lines for the entries of an archive
+     * @throws IOException if the file is malformed
+     */
+    private String list(Path file, int threads) throws IOException {
+        String name = file == null ? "(stdin)" : file.toString();
+        if (file != null && isArchive(file)) {
+            StringBuilder lines = new StringBuilder();
+            try (HuffArchive archive = new HuffArchive(file)) {
+                for (HuffArchive.Entry entry : archive.getEntries()) {
+                    lines.append(line(entry.getCompressedSize(), entry.getSize(),
+                            archive.isSolid() ? "solid" : "entry",
+                            name + ":" + entry.getName()));
+                }
+            }
+            return lines.toString().stripTrailing();
+        }
+        // read the first header through a buffer that can be rewound, then decode it all
+        CountingInputStream counted = new CountingInputStream(
+                file == null ? STDIN : Files.newInputStream(file));
+        InputStream in = new BufferedInputStream(counted, HEADER_LIMIT);
+        in.mark(HEADER_LIMIT);
+        HuffHeader header = HuffHeader.read(new FastBitInputStream(HEADER_LIMIT / 16).attach(in),
+                new int[ALPH_SIZE]);
+        if (header == null) {
+            in.close();
+            throw notCompressed();
+        }
+        in.reset();
+        long size = PROCESSOR.verify(in);
+        return line(counted.count, size, formatName(header.getHeaderFormat()), name)
+                .stripTrailing();
+    }
+
+    private static String line(long compressed, long size, String format, String name) {
+        return String.format("%14d %14d %6.1f%%  %-8s %s%n", compressed, size,
+                size == 0 ? 100.0 : 100.0 * compressed / size, format, name);
+    }
+
+    /**
+     * Tells us if a file starts with ARCHIVE_MAGIC.
+     */
+    private static boolean isArchive(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            return in.readInt() == ARCHIVE_MAGIC;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Refuse to replace an existing file unless forced.
+     */
+    private void checkTarget(Path target) throws IOException {
+        if (!FORCE && Files.exists(target)) {
+            throw new IOException(target + " already exists, use -f to overwrite");
+        }
+    }
+
+    private static IOException notCompressed() {
+        return new IOException("not a compressed file, it does not start with the huff "
+                + "magic number");
+    }
+
+    /**
+     * Get the message of a failure on one line.
+     */
+    private static String message(Throwable e) {
+        String message = e.getMessage() == null ? e.toString() : e.getMessage();
+        return message.replace("Error reading compressed file. \n", "").replace('\n', ' ')
+                .trim();
+    }
+
+    /**
+     * Counts the bytes read through it.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+
+    /**
+     * Passes writes through but not close, so the processor cannot close standard output.
+     * A PrintStream swallows write errors, so each write checks for one and throws it, and
+     * output to a full disk or a closed pipe fails instead of exiting 0.
+     */
+    private static class UnclosedOutputStream extends FilterOutputStream {
+        private final PrintStream OUT;
+
+        UnclosedOutputStream(PrintStream out) {
+            super(out);
+            OUT = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            OUT.write(b);
+            checkError();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            OUT.write(b, off, len);
+            checkError();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // checkError flushes first
+            checkError();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+
+        private void checkError() throws IOException {
+            if (OUT.checkError()) {
+                throw new IOException("error writing to standard output");
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.in, System.out, System.err));
+    }
+}
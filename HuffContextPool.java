@@ -0,0 +1,80 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A thread-safe pool of idle encoders and decoders. Borrowing a context and returning it
+ * when done lets many threads compress and uncompress concurrently while the buffers of each
+ * context are reused instead of reallocated for every stream. When the pool is empty a new
+ * context is created; when it is full a returned context is dropped.
+ */
+public class HuffContextPool {
+    /** The default number of idle contexts of each kind kept by a pool. */
+    public static final int DEFAULT_MAX_IDLE = Runtime.getRuntime().availableProcessors() * 2;
+
+    private final BlockingQueue<HuffEncoder> idleEncoders;
+    private final BlockingQueue<HuffDecoder> idleDecoders;
+
+    /**
+     * Create a pool that keeps up to <code>DEFAULT_MAX_IDLE</code> contexts of each kind.
+     */
+    public HuffContextPool() {
+        this(DEFAULT_MAX_IDLE);
+    }
+
+    /**
+     * Create a pool that keeps up to maxIdle contexts of each kind.
+     *
+     * @param maxIdle the most idle encoders, and the most idle decoders, kept, > 0
+     */
+    public HuffContextPool(int maxIdle) {
+        if (maxIdle <= 0) {
+            throw new IllegalArgumentException("maxIdle must be positive");
+        }
+        idleEncoders = new ArrayBlockingQueue<>(maxIdle);
+        idleDecoders = new ArrayBlockingQueue<>(maxIdle);
+    }
+
+    /**
+     * Borrow an encoder. It must be returned with <code>release</code> and not used after.
+     *
+     * @return an encoder used by no other thread
+     */
+    public HuffEncoder acquireEncoder() {
+        HuffEncoder encoder = idleEncoders.poll();
+        return encoder == null ? new HuffEncoder() : encoder;
+    }
+
+    /**
+     * Return a borrowed encoder to the pool, dropping any buffer it grew for a large block.
+     *
+     * @param encoder the encoder, not used again by the caller
+     */
+    public void release(HuffEncoder encoder) {
+        if (encoder != null) {
+            encoder.trim();
+            idleEncoders.offer(encoder);
+        }
+    }
+
+    /**
+     * Borrow a decoder. It must be returned with <code>release</code> and not used after.
+     *
+     * @return a decoder used by no other thread
+     */
+    public HuffDecoder acquireDecoder() {
+        HuffDecoder decoder = idleDecoders.poll();
+        return decoder == null ? new HuffDecoder() : decoder;
+    }
+
+    /**
+     * Return a borrowed decoder to the pool, dropping any buffer it grew for a large block.
+     *
+     * @param decoder the decoder, not used again by the caller
+     */
+    public void release(HuffDecoder decoder) {
+        if (decoder != null) {
+            decoder.trim();
+            idleDecoders.offer(decoder);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Decodes a buffer of codes into a buffer of known length with no bit stream in between, the
+ * counterpart of <code>HuffEncodeKernel</code>. Since the number of values is known, e.g.,
+ * from a header with LENGTH_FLAG, the loop filling the output has no test for PSEUDO_EOF;
+ * the code after the last value is checked once at the end.
+ * <P>
+ * Codes are found by looking up the next TABLE_BITS bits of the input in a table built from
+ * the tree, so a code no longer than that costs one load from the input and one from the
+ * table; longer codes continue down the tree a bit at a time from where the table left
+ * off. The input is read 8 bytes at a time until the last 8 bytes, which are read one at a
+ * time so the input need not be padded.
+ * <P>
+ * A kernel holds only its tables and can be shared by threads.
+ */
+public final class HuffDecodeKernel implements IHuffConstants {
+    /** The number of bits looked up in the table at once. */
+    public static final int TABLE_BITS = 11;
+
+    // for each TABLE_BITS bit prefix the value of the code it starts with, shifted left 8
+    // bits and or'ed with the code's length, or if the code is longer than the prefix the
+    // internal node the prefix leads to, shifted left 8 bits, with length 0
+    private final int[] TABLE;
+    // the flattened tree, see HuffTree.fillDecodeTable
+    private final int[] TREE;
+    private final boolean EMPTY;
+
+    /**
+     * Create a kernel decoding codes of a tree.
+     *
+     * @param tree the tree the data was coded with
+     * @throws IllegalArgumentException if the tree has a code longer than
+     *         <code>CompressionPlan.MAX_CODE_LENGTH</code>, which no plan makes, or a leaf
+     *         with no value
+     */
+    public HuffDecodeKernel(HuffTree tree) {
+        TREE = new int[2 * (ALPH_SIZE + 1)];
+        TABLE = new int[1 << TABLE_BITS];
+        EMPTY = tree.fillDecodeTable(TREE) == 0;
+        if (EMPTY) {
+            return;
+        }
+        if (depth(TREE, 0) > CompressionPlan.MAX_CODE_LENGTH) {
+            throw new IllegalArgumentException("codes can be at most "
+                    + CompressionPlan.MAX_CODE_LENGTH + " bits");
+        }
+        for (int prefix = 0; prefix < TABLE.length; prefix++) {
+            int node = 0;
+            int length = 0;
+            while (true) {
+                int bit = (prefix >>> (TABLE_BITS - 1 - length)) & 1;
+                int next = TREE[2 * node + bit];
+                length++;
+                if (next < 0) {
+                    TABLE[prefix] = (~next << 8) | length;
+                    break;
+                } else if (length == TABLE_BITS) {
+                    TABLE[prefix] = next << 8;
+                    break;
+                }
+                node = next;
+            }
+        }
+    }
+
+    /**
+     * Get the length of the longest code below an internal node of a flattened tree.
+     *
+     * @throws IllegalArgumentException if the tree has a leaf with no value, e.g., one read
+     *         from a truncated header, which the flattened tree cannot tell from the root
+     */
+    private static int depth(int[] tree, int node) {
+        int depth = 0;
+        for (int bit = 0; bit < 2; bit++) {
+            int child = tree[2 * node + bit];
+            if (child == 0) {
+                throw new IllegalArgumentException("the tree has a leaf with no value");
+            } else if (child > 0) {
+                depth = Math.max(depth, depth(tree, child));
+            }
+        }
+        return 1 + depth;
+    }
+
+    /**
+     * Decode exactly dst.length values.
+     *
+     * @see #decode(ByteBuffer, ByteBuffer)
+     * @param src the codes, from its position
+     * @param dst filled with the decoded values
+     * @return the number of bits read, including the PSEUDO_EOF code
+     * @throws IOException if the codes end early or are not followed by PSEUDO_EOF
+     */
+    public long decode(ByteBuffer src, byte[] dst) throws IOException {
+        return decode(src, ByteBuffer.wrap(dst));
+    }
+
+    /**
+     * Decode exactly dst.remaining() values from the codes starting at the position of src,
+     * and check that the code after them is PSEUDO_EOF. The position of src moves to the
+     * byte boundary after PSEUDO_EOF, e.g., to a checksum, and that of dst to its limit.
+     *
+     * @param src the codes, as written by <code>HuffEncodeKernel</code> or
+     *        <code>HuffEncoder.compressData</code>
+     * @param dst filled with the decoded values
+     * @return the number of bits read, including the PSEUDO_EOF code
+     * @throws IOException if the codes end early or are not followed by PSEUDO_EOF, i.e.,
+     *         there are fewer or more values than dst has room for
+     */
+    public long decode(ByteBuffer src, ByteBuffer dst) throws IOException {
+        return decode(src, 0, dst);
+    }
+
+    /**
+     * Decode exactly dst.remaining() values from the codes starting a few bits into the byte
+     * at the position of src, e.g., after the last bits of a header that does not end on a
+     * byte boundary, and check that the code after them is PSEUDO_EOF. The position of src
+     * moves to the byte boundary after PSEUDO_EOF and that of dst to its limit.
+     *
+     * @param src the codes, from skipBits bits into the byte at its position
+     * @param skipBits the number of bits of the first byte before the codes, 0 to 7
+     * @param dst filled with the decoded values
+     * @return the number of bits read after the skipped bits, including the PSEUDO_EOF code
+     * @throws IOException if the codes end early or are not followed by PSEUDO_EOF
+     */
+    public long decode(ByteBuffer src, int skipBits, ByteBuffer dst) throws IOException {
+        if (skipBits < 0 || skipBits >= BITS_PER_WORD) {
+            throw new IllegalArgumentException("bad number of bits to skip " + skipBits);
+        }
+        int j = dst.position();
+        int end = dst.limit();
+        if (EMPTY) {
+            // a tree that is a single leaf can only hold PSEUDO_EOF, coded in no bits
+            if (j < end) {
+                throw truncated();
+            }
+            src.position(src.position() + (skipBits + BITS_PER_WORD - 1) / BITS_PER_WORD);
+            return 0;
+        }
+        ByteBuffer in = src.order() == ByteOrder.BIG_ENDIAN ? src
+                : src.duplicate().order(ByteOrder.BIG_ENDIAN);
+        int base = src.position();
+        int size = src.limit() - base;
+        // the values decoded or'ed together, to find PSEUDO_EOF among them after the loop
+        int seen = 0;
+        long bitPosition = skipBits;
+
+        // while 8 bytes can be read at the current byte no code can run past the input
+        int fastEnd = size - Long.BYTES;
+        while (j < end && (bitPosition >>> 3) <= fastEnd) {
+            long window = in.getLong(base + (int) (bitPosition >>> 3)) << (bitPosition & 7);
+            int entry = lookup(window);
+            seen |= entry;
+            dst.put(j++, (byte) (entry >>> 8));
+            bitPosition += entry & 0xFF;
+        }
+        // the last few bytes, checking each code against the bits left
+        long bits = (long) size * BITS_PER_WORD;
+        while (j < end) {
+            int entry = lookup(window(in, base, size, bitPosition));
+            bitPosition += entry & 0xFF;
+            if (bitPosition > bits) {
+                throw truncated();
+            }
+            seen |= entry;
+            dst.put(j++, (byte) (entry >>> 8));
+        }
+        if ((seen & (PSEUDO_EOF << 8)) != 0) {
+            throw new IOException("Error reading compressed file. \n"
+                    + "PSEUDO_EOF before the end of the data, the data is corrupt.");
+        }
+
+        int entry = lookup(window(in, base, size, bitPosition));
+        bitPosition += entry & 0xFF;
+        if (bitPosition > bits) {
+            throw truncated();
+        } else if (entry >>> 8 != PSEUDO_EOF) {
+            throw new IOException("Error reading compressed file. \n"
+                    + "no PSEUDO_EOF after the end of the data, the data is corrupt.");
+        }
+        src.position(base + (int) ((bitPosition + BITS_PER_WORD - 1) / BITS_PER_WORD));
+        dst.position(end);
+        return bitPosition - skipBits;
+    }
+
+    /**
+     * Find the code at the start of a window of bits.
+     *
+     * @param window at least MAX_CODE_LENGTH bits, the code first
+     * @return the value of the code shifted left 8 bits, or'ed with its length
+     */
+    private int lookup(long window) {
+        int entry = TABLE[(int) (window >>> (Long.SIZE - TABLE_BITS))];
+        if ((entry & 0xFF) != 0) {
+            return entry;
+        }
+        // a long code: continue down the tree from the node the prefix leads to
+        int node = entry >>> 8;
+        int length = TABLE_BITS;
+        do {
+            node = TREE[2 * node + (int) ((window >>> (Long.SIZE - 1 - length)) & 1)];
+            length++;
+        } while (node >= 0);
+        return (~node << 8) | length;
+    }
+
+    /**
+     * Read the bits starting at a bit position near the end of the input, padded with zeros.
+     *
+     * @param in the input read big-endian
+     * @param base the index of the first byte of the codes
+     * @param size the number of bytes of codes
+     * @param bitPosition the bit position of the next code
+     * @return the bits at bitPosition, the first in the highest bit
+     */
+    private static long window(ByteBuffer in, int base, int size, long bitPosition) {
+        int index = (int) (bitPosition >>> 3);
+        long window = 0;
+        for (int k = 0; k < Long.BYTES; k++) {
+            window <<= 8;
+            if (index + k < size) {
+                window |= in.get(base + index + k) & 0xFF;
+            }
+        }
+        return window << (bitPosition & 7);
+    }
+
+    private static IOException truncated() {
+        return new IOException("Error reading compressed file. \n"
+                + "unexpected end of input. No PSEUDO_EOF value.");
+    }
+}
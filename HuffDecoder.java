@@ -0,0 +1,506 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+/**
+ * A reusable decompression context. A decoder owns the count array, multi-symbol decode table
+ * and I/O buffers it needs, so reusing it allocates no buffers beyond the tree rebuilt from
+ * each header. A decoder is not thread-safe; a thread should borrow one from a
+ * <code>HuffContextPool</code> for each call and return it afterwards.
+ */
+public class HuffDecoder implements IHuffConstants {
+    // the most bytes a segment decoded as a block can hold, so they fit an array
+    private static final int MAX_BLOCK_BYTES = 1 << 28;
+    // the largest block buffer a decoder keeps once it is returned to a pool
+    private static final int MAX_IDLE_BLOCK_BYTES = 1 << 20;
+
+    private final int[] freqs;
+    private final MultiSymbolTable decodeTable;
+    private final byte[] writeBuffer;
+    private final FastBitInputStream streamBitsIn;
+    private final CRC32C checksum;
+    // the decoded bytes of a block, grown as needed and then reused
+    private byte[] blockBuffer;
+    // created the first time a STORE_LZ segment is decoded
+    private LzHuffDecoder lzDecoder;
+
+    // streamBitsIn, or the caller's stream the bits being read come from
+    private FastBitInputStream bitsIn;
+
+    /**
+     * Create a decoder with default buffer sizes.
+     */
+    public HuffDecoder() {
+        freqs = new int[ALPH_SIZE];
+        decodeTable = new MultiSymbolTable();
+        writeBuffer = new byte[FastBitOutputStream.DEFAULT_BUFFER_SIZE];
+        streamBitsIn = new FastBitInputStream(FastBitInputStream.DEFAULT_BUFFER_SIZE);
+        checksum = new CRC32C();
+        blockBuffer = new byte[0];
+    }
+
+    /**
+     * Drop a block buffer grown past what an idle decoder should hold, so a decoder kept by
+     * a <code>HuffContextPool</code> after decoding one large block does not pin its buffer.
+     */
+    void trim() {
+        if (blockBuffer.length > MAX_IDLE_BLOCK_BYTES) {
+            blockBuffer = new byte[0];
+        }
+    }
+
+    /**
+     * Uncompress a previously compressed stream in, writing the uncompressed data to out.
+     * Neither stream is closed, but out is flushed.
+     *
+     * @param in the previously compressed data
+     * @param out the stream the uncompressed data is written to
+     * @return the number of bits written to out, or -1 if in does not start with the magic
+     *         number
+     * @throws IOException if the data is malformed or an error occurs while reading from the
+     *         input or writing to the output
+     */
+    public long uncompress(InputStream in, OutputStream out) throws IOException {
+        return uncompress(in, out, HuffMetrics.DEFAULT);
+    }
+
+    /**
+     * Uncompress a previously compressed stream in, writing the uncompressed data to out and
+     * reporting the decode phase. If the stream holds several segments the data of each is
+     * written in order. Neither stream is closed, but out is flushed.
+     *
+     * @param in the previously compressed data
+     * @param out the stream the uncompressed data is written to
+     * @param metrics where the decode phase is reported
+     * @return the number of bits written to out, or -1 if in does not start with the magic
+     *         number
+     * @throws IOException if the data is malformed or an error occurs while reading from the
+     *         input or writing to the output
+     */
+    public long uncompress(InputStream in, OutputStream out, HuffMetrics metrics)
+            throws IOException {
+        bitsIn = streamBitsIn.attach(in);
+        try {
+            return uncompress(out, metrics);
+        } finally {
+            bitsIn.detach();
+        }
+    }
+
+    /**
+     * Uncompress previously compressed data held whole in a buffer, e.g., an archive entry
+     * read into memory or a mapped file, from its position to its limit, writing the data
+     * to out and reporting the decode phase. A segment whose header stores its length and
+     * that has no transforms or seek index is decoded by a <code>HuffDecodeKernel</code>
+     * straight from the buffer into an array of exactly that length, with no test for
+     * PSEUDO_EOF per value; other segments are decoded as from a stream. The position of src
+     * does not move. out is flushed but not closed.
+     *
+     * @param src the previously compressed data
+     * @param out the stream the uncompressed data is written to
+     * @param metrics where the decode phase is reported
+     * @return the number of bits written to out, or -1 if src does not start with the magic
+     *         number
+     * @throws IOException if the data is malformed or an error occurs while writing to the
+     *         output
+     */
+    public long uncompress(ByteBuffer src, OutputStream out, HuffMetrics metrics)
+            throws IOException {
+        long start = metrics.start();
+        int position = src.position();
+        long bitsWritten = 0;
+        try {
+            do {
+                bitsIn = streamBitsIn.attach(new BufferInputStream(src, position));
+                HuffHeader header = HuffHeader.read(bitsIn, freqs);
+                if (header == null && position == src.position()) {
+                    return -1;
+                } else if (header == null) {
+                    throw new IOException("Error reading compressed file. \n"
+                            + "data after the end of the stream is not a segment.");
+                }
+                HuffDecodeKernel kernel = blockKernel(header, header.getOriginalLength());
+                if (kernel != null) {
+                    // the codes start right after the header, which may end inside a byte
+                    long headerBits = bitsIn.getBitPosition();
+                    ByteBuffer codes = src.duplicate();
+                    codes.position(position + (int) (headerBits / BITS_PER_WORD));
+                    bitsWritten += decodeBlock(header, kernel, codes,
+                            (int) (headerBits % BITS_PER_WORD),
+                            (int) header.getOriginalLength(), out);
+                    position = codes.position();
+                } else {
+                    bitsWritten += decodeSegment(header, out);
+                    // the next segment, if any, starts on a byte boundary
+                    bitsIn.alignToByte();
+                    position += (int) (bitsIn.getBitPosition() / BITS_PER_WORD);
+                }
+            } while (position < src.limit());
+        } finally {
+            bitsIn.detach();
+        }
+        metrics.end(HuffPhase.DECODE, start, position - src.position(),
+                bitsWritten / BITS_PER_WORD);
+        return bitsWritten;
+    }
+
+    /**
+     * Uncompress the data read from a bit stream the caller owns, e.g., one that reads bits
+     * from somewhere other than an <code>InputStream</code>. The bit stream is left attached
+     * to wherever it reads from and out is not closed.
+     *
+     * @param in the bit stream the previously compressed data is read from
+     * @param out the stream the uncompressed data is written to
+     * @param metrics where the decode phase is reported
+     * @return the number of bits written to out, or -1 if the data does not start with the
+     *         magic number
+     * @throws IOException if the data is malformed or an error occurs while writing to the
+     *         output
+     */
+    long uncompress(FastBitInputStream in, OutputStream out, HuffMetrics metrics)
+            throws IOException {
+        bitsIn = in;
+        try {
+            return uncompress(out, metrics);
+        } finally {
+            bitsIn = null;
+        }
+    }
+
+    /**
+     * Uncompress the stream bitsIn is attached to.
+     *
+     * @param out the stream the uncompressed data is written to
+     * @param metrics where the decode phase is reported
+     * @return the number of bits written to out, or -1 if the input does not start with the
+     *         magic number
+     * @throws IOException if the data is malformed or an error occurs while reading from the
+     *         input or writing to the output
+     */
+    private long uncompress(OutputStream out, HuffMetrics metrics) throws IOException {
+        long start = metrics.start();
+        HuffHeader header = HuffHeader.read(bitsIn, freqs);
+        if (header == null) {
+            return -1;
+        }
+        long bitsWritten = 0;
+        while (true) {
+            bitsWritten += decodeSegment(header, out);
+            // the next segment, if any, starts on a byte boundary
+            bitsIn.alignToByte();
+            if (bitsIn.atEnd()) {
+                break;
+            }
+            header = HuffHeader.read(bitsIn, freqs);
+            if (header == null) {
+                throw new IOException("Error reading compressed file. \n"
+                        + "data after the end of the stream is not a segment.");
+            }
+        }
+        metrics.end(HuffPhase.DECODE, start,
+                (bitsIn.getBitPosition() + BITS_PER_WORD - 1) / BITS_PER_WORD,
+                bitsWritten / BITS_PER_WORD);
+        return bitsWritten;
+    }
+
+    /**
+     * Decode one segment whose header has been read, skipping its seek index if it has one.
+     *
+     * @param header the header of the segment
+     * @param out the stream the uncompressed data is written to
+     * @return the number of bits written
+     * @throws IOException if the segment is malformed or the data cannot be written
+     */
+    private long decodeSegment(HuffHeader header, OutputStream out) throws IOException {
+        long bitsWritten = decodeData(header, out);
+        if (header.hasFlag(INDEX_FLAG)) {
+            bitsIn.alignToByte();
+            SeekIndex.skip(bitsIn);
+        }
+        return bitsWritten;
+    }
+
+    /**
+     * Decode the codes following a header, check their length if the header has it, and
+     * undo the header's transforms, if any, on the way to out.
+     *
+     * @param header the header the data was coded with
+     * @param out the stream the uncompressed data is written to
+     * @return the number of bits written to out
+     * @throws IOException if the data is malformed or cannot be written
+     */
+    private long decodeData(HuffHeader header, OutputStream out) throws IOException {
+        if (header.getHeaderFormat() == STORE_LZ) {
+            return decodeLz(header, out);
+        }
+        decodeTable.fill(header.getTree());
+        ByteTransform[] transforms = header.getTransforms();
+        TransformOutputStream undo = transforms.length == 0 ? null
+                : TransformOutputStream.decoding(transforms, out);
+        long bitsDecoded = decode(undo == null ? out : undo, header.hasFlag(CHECKSUM_FLAG));
+        if (header.hasFlag(LENGTH_FLAG)
+                && bitsDecoded != header.getOriginalLength() * BITS_PER_WORD) {
+            throw new IOException("Error reading compressed file. \n"
+                    + "decoded " + bitsDecoded / BITS_PER_WORD + " bytes, the header says "
+                    + header.getOriginalLength() + ".");
+        }
+        if (undo == null) {
+            return bitsDecoded;
+        }
+        undo.finish();
+        out.flush();
+        return undo.getBytesWritten() * BITS_PER_WORD;
+    }
+
+    /**
+     * Decode the blocks of a STORE_LZ segment and check its checksum and length.
+     *
+     * @param header the header of the segment
+     * @param out the stream the uncompressed data is written to
+     * @return the number of bits written to out
+     * @throws IOException if the data is malformed or cannot be written
+     */
+    private long decodeLz(HuffHeader header, OutputStream out) throws IOException {
+        if (lzDecoder == null) {
+            lzDecoder = new LzHuffDecoder();
+        }
+        long bytesWritten = lzDecoder.decode(bitsIn, out);
+        out.flush();
+        if (header.hasFlag(CHECKSUM_FLAG)) {
+            bitsIn.alignToByte();
+            if (bitsIn.readInt() != lzDecoder.getChecksum()) {
+                throw new IOException("Error reading compressed file. \n"
+                        + "checksum mismatch, the data is corrupt.");
+            }
+        }
+        if (header.hasFlag(LENGTH_FLAG) && bytesWritten != header.getOriginalLength()) {
+            throw new IOException("Error reading compressed file. \n"
+                    + "decoded " + bytesWritten + " bytes, the header says "
+                    + header.getOriginalLength() + ".");
+        }
+        return bytesWritten * BITS_PER_WORD;
+    }
+
+    /**
+     * Decode codes with no magic number or header, as written by
+     * <code>HuffEncoder.compressData</code>, until PSEUDO_EOF, and check the checksum after
+     * them if the header has one. Neither stream is closed, but out is flushed.
+     *
+     * @param header the header stored elsewhere that the data was coded with
+     * @param in the codes
+     * @param out the stream the uncompressed data is written to
+     * @return the number of bits written to out
+     * @throws IOException if the data ends before PSEUDO_EOF, does not match its checksum or
+     *         cannot be written
+     */
+    public long uncompressData(HuffHeader header, InputStream in, OutputStream out)
+            throws IOException {
+        bitsIn = streamBitsIn.attach(in);
+        try {
+            return decodeData(header, out);
+        } finally {
+            bitsIn.detach();
+        }
+    }
+
+    /**
+     * Decode codes with no magic number or header held whole in a buffer, from its position
+     * to its limit, as <code>uncompressData</code> does for a stream, when the number of
+     * values they hold is known, e.g., from the directory of an archive. The codes are
+     * decoded by a <code>HuffDecodeKernel</code> unless the header has transforms. The
+     * position of src does not move. out is flushed but not closed.
+     *
+     * @param header the header stored elsewhere that the data was coded with
+     * @param src the codes
+     * @param length the number of bytes the codes decode to
+     * @param out the stream the uncompressed data is written to
+     * @return the number of bits written to out
+     * @throws IOException if the codes do not hold exactly length values followed by
+     *         PSEUDO_EOF, do not match their checksum or cannot be written
+     */
+    public long uncompressData(HuffHeader header, ByteBuffer src, long length, OutputStream out)
+            throws IOException {
+        HuffDecodeKernel kernel = blockKernel(header, length);
+        if (kernel == null) {
+            return uncompressData(header, new BufferInputStream(src, src.position()), out);
+        }
+        return decodeBlock(header, kernel, src.duplicate(), 0, (int) length, out);
+    }
+
+    /**
+     * Decode a previously compressed stream without keeping the data, to check that it is
+     * complete and, if it has a checksum, that it is intact. The stream is not closed.
+     *
+     * @param in the previously compressed data
+     * @return the number of bytes the data uncompresses to, or -1 if in does not start with
+     *         the magic number
+     * @throws IOException if the data is malformed, does not match its checksum or cannot be
+     *         read
+     */
+    public long verify(InputStream in) throws IOException {
+        long bitsWritten = uncompress(in, OutputStream.nullOutputStream());
+        return bitsWritten == -1 ? -1 : bitsWritten / BITS_PER_WORD;
+    }
+
+    /**
+     * Get a kernel decoding the codes following a header as a block of known length, if
+     * they can be: they are Huffman codes of the data itself, with no transforms to undo or
+     * seek index after them, no longer than any plan makes, and the data fits an array.
+     *
+     * @param header the header the data was coded with
+     * @param length the number of bytes the data holds, or -1 if not known
+     * @return the kernel, or null if the codes must be decoded as a stream
+     */
+    private static HuffDecodeKernel blockKernel(HuffHeader header, long length) {
+        if (length < 0 || length > MAX_BLOCK_BYTES || header.getHeaderFormat() == STORE_LZ
+                || header.hasFlag(TRANSFORM_FLAG) || header.hasFlag(INDEX_FLAG)) {
+            return null;
+        }
+        try {
+            return new HuffDecodeKernel(header.getTree());
+        } catch (IllegalArgumentException e) {
+            // a tree deeper than any plan makes, left to the table
+            return null;
+        }
+    }
+
+    /**
+     * Decode exactly length values with a <code>HuffDecodeKernel</code>, check the
+     * PSEUDO_EOF code after them and the checksum if the header has one, and write them to
+     * out. The position of codes moves past the checksum, or past the byte holding the end
+     * of PSEUDO_EOF if there is none.
+     *
+     * @param header the header the data was coded with
+     * @param kernel the kernel for the header's tree
+     * @param codes the codes, from skipBits bits into the byte at its position
+     * @param skipBits the number of bits of the first byte before the codes, 0 to 7
+     * @param length the number of values
+     * @param out the stream the values are written to
+     * @return the number of bits written to out
+     * @throws IOException if the codes are malformed, hold fewer bits than length, do not match
+     *         their checksum or cannot be written
+     */
+    private long decodeBlock(HuffHeader header, HuffDecodeKernel kernel, ByteBuffer codes,
+            int skipBits, int length, OutputStream out) throws IOException {
+        // the tree has PSEUDO_EOF besides any value, so each value takes at least one bit
+        if (length > (long) codes.remaining() * BITS_PER_WORD - skipBits) {
+            throw new IOException("Error reading compressed file. \n"
+                    + "unexpected end of input.");
+        }
+        if (blockBuffer.length < length) {
+            blockBuffer = new byte[Math.min(Math.max(length, 2 * blockBuffer.length),
+                    MAX_BLOCK_BYTES)];
+        }
+        kernel.decode(codes, skipBits,
+                ByteBuffer.wrap(blockBuffer, 0, length));
+        if (header.hasFlag(CHECKSUM_FLAG)) {
+            if (codes.remaining() < Integer.BYTES) {
+                throw new IOException("Error reading compressed file. \n"
+                        + "unexpected end of input.");
+            }
+            checksum.reset();
+            checksum.update(blockBuffer, 0, length);
+            if (codes.getInt() != (int) checksum.getValue()) {
+                throw new IOException("Error reading compressed file. \n"
+                        + "checksum mismatch, the data is corrupt.");
+            }
+        }
+        out.write(blockBuffer, 0, length);
+        out.flush();
+        return (long) length * BITS_PER_WORD;
+    }
+
+    /**
+     * Decode values with the decode table until PSEUDO_EOF, several per lookup where their
+     * codes are short, writing them through the buffer to out.
+     *
+     * If the data has a checksum it is read after PSEUDO_EOF and compared with the CRC32C of
+     * the values decoded, leaving the input at the next byte boundary.
+     *
+     * @param out the stream the uncompressed data is written to
+     * @param hasChecksum true if a checksum follows PSEUDO_EOF
+     * @return the number of bits written
+     * @throws IOException if the data ends before PSEUDO_EOF, does not match its checksum or
+     *         cannot be written
+     */
+    private long decode(OutputStream out, boolean hasChecksum) throws IOException {
+        checksum.reset();
+        long bytesWritten = 0;
+        while (true) {
+            int decoded = decodeTable.decode(bitsIn, writeBuffer, 0, writeBuffer.length);
+            int position = decoded < 0 ? ~decoded : decoded;
+            if (hasChecksum) {
+                checksum.update(writeBuffer, 0, position);
+            }
+            out.write(writeBuffer, 0, position);
+            bytesWritten += position;
+            if (decoded < 0) {
+                break;
+            }
+        }
+        out.flush();
+
+        if (hasChecksum) {
+            bitsIn.alignToByte();
+            if (bitsIn.readInt() != (int) checksum.getValue()) {
+                throw new IOException("Error reading compressed file. \n"
+                        + "checksum mismatch, the data is corrupt.");
+            }
+        }
+        return bytesWritten * BITS_PER_WORD;
+    }
+
+    /**
+     * Walk a flattened tree from the root to a leaf, reading one bit per branch.
+     *
+     * @param bitsIn the stream positioned at the start of a code
+     * @param decodeTable the table filled by <code>HuffTree.fillDecodeTable</code> for a tree
+     *        with at least one internal node
+     * @return the value of the leaf reached, possibly PSEUDO_EOF
+     * @throws IOException if the data ends in the middle of a code
+     */
+    static int decodeSymbol(FastBitInputStream bitsIn, int[] decodeTable) throws IOException {
+        int node = 0;
+        do {
+            int bit = bitsIn.readBit();
+            if (bit == -1) {
+                throw new IOException("Error reading compressed file. "
+                        + "\n unexpected end of input. No PSEUDO_EOF value.");
+            }
+            node = decodeTable[2 * node + bit];
+        } while (node >= 0);
+        return ~node;
+    }
+
+    /**
+     * Reads a buffer from a position to its limit without moving the buffer's own position.
+     */
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer BUFFER;
+
+        BufferInputStream(ByteBuffer buffer, int position) {
+            BUFFER = buffer.duplicate();
+            BUFFER.position(position);
+        }
+
+        @Override
+        public int read() {
+            return BUFFER.hasRemaining() ? BUFFER.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!BUFFER.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, BUFFER.remaining());
+            BUFFER.get(b, off, n);
+            return n;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Codes a whole buffer into another with no bit stream in between. The input is read 8
+ * bytes at a time and the codes are packed into a 64-bit register that is stored 8 bytes at
+ * a time, so the cost per value is a table load, a shift and an or, and the rare store.
+ * <P>
+ * The output is the codes of the data followed by the PSEUDO_EOF code, padded with zero bits
+ * to a whole byte: the same bits <code>HuffEncoder.compressData</code> writes for a plan
+ * without a checksum, so it is decoded by <code>HuffDecoder.uncompressData</code> given the
+ * plan's header. The exact size of the output is known from the histogram before coding, so
+ * the output buffer can be allocated once at the size it needs. <code>HuffEncoder</code>
+ * codes blocks held in memory with a kernel, e.g., the chunks of <code>HuffCommand</code>,
+ * the segments of <code>AdaptiveHuffEncoder</code> and the entries of a
+ * <code>HuffArchive</code>, continuing from the last bits of the header.
+ * <P>
+ * A kernel holds only its code table and can be shared by threads.
+ */
+public final class HuffEncodeKernel implements IHuffConstants {
+    // the length in the table of a value with no code, longer than the register so it is
+    // caught where the register fills, off the path most values take
+    private static final int NO_CODE = 0xFF;
+
+    // the code of each value shifted left 8 bits, or'ed with its length
+    private final long[] TABLE;
+
+    /**
+     * Create a kernel coding with the codes of a plan.
+     *
+     * @param plan the plan whose codes are used
+     */
+    public HuffEncodeKernel(CompressionPlan plan) {
+        TABLE = new long[ALPH_SIZE + 1];
+        for (int k = 0; k <= ALPH_SIZE; k++) {
+            int length = plan.getCodeLength(k);
+            // PSEUDO_EOF has no bits when it is the only leaf, the code of empty data
+            TABLE[k] = length == 0 ? (k == PSEUDO_EOF ? 0 : NO_CODE)
+                    : (plan.getCodeValue(k) & ((1L << length) - 1)) << 8 | length;
+        }
+    }
+
+    /**
+     * Get the exact number of bytes the data with the given histogram is coded in.
+     *
+     * @param counts the number of times each of the ALPH_SIZE values occurs in the data; every
+     *        value that occurs must have a code
+     * @return the size of the output of <code>encode</code> in bytes
+     * @throws IllegalArgumentException if a value that occurs has no code
+     */
+    public long getEncodedBytes(long[] counts) {
+        return (getEncodedBits(counts) + BITS_PER_WORD - 1) / BITS_PER_WORD;
+    }
+
+    /**
+     * Get the exact number of bits the data with the given histogram is coded in, not
+     * counting padding of the last byte.
+     *
+     * @param counts the number of times each of the ALPH_SIZE values occurs in the data; every
+     *        value that occurs must have a code
+     * @return the bits of the codes of the data and PSEUDO_EOF
+     * @throws IllegalArgumentException if a value that occurs has no code
+     */
+    public long getEncodedBits(long[] counts) {
+        long bits = TABLE[PSEUDO_EOF] & 0xFF;
+        for (int k = 0; k < ALPH_SIZE; k++) {
+            int length = (int) TABLE[k] & 0xFF;
+            if (length == NO_CODE && counts[k] != 0) {
+                throw noCode(k);
+            }
+            bits += counts[k] * length;
+        }
+        return bits;
+    }
+
+    /**
+     * Code the remaining bytes of src followed by PSEUDO_EOF into dst, padding the last byte
+     * with zero bits. The position of src moves to its limit and that of dst past the last
+     * byte written. The byte orders of the buffers do not matter.
+     *
+     * @param src the data, whose every value must have a code
+     * @param dst where the codes are written, with at least
+     *        <code>getEncodedBytes</code> bytes remaining
+     * @return the number of bits written, not counting padding of the last byte
+     * @throws BufferOverflowException if dst is too small
+     * @throws IllegalArgumentException if a value in src has no code
+     */
+    public long encode(ByteBuffer src, ByteBuffer dst) {
+        return encode(src, dst, 0, 0);
+    }
+
+    /**
+     * Code the remaining bytes of src followed by PSEUDO_EOF into dst after a few leading
+     * bits, e.g., the last bits of a header that does not end on a byte boundary, padding the
+     * last byte with zero bits. The position of src moves to its limit and that of dst past
+     * the last byte written.
+     *
+     * @param src the data, whose every value must have a code
+     * @param dst where the bits are written, with room for the leading bits and
+     *        <code>getEncodedBits</code> more
+     * @param lead the leading bits, rightmost bits are written
+     * @param leadBits the number of leading bits, 0 to 7
+     * @return the number of bits written, including the leading bits but not padding of the
+     *         last byte
+     * @throws BufferOverflowException if dst is too small
+     * @throws IllegalArgumentException if a value in src has no code, in which case the
+     *         positions of the buffers do not move
+     */
+    public long encode(ByteBuffer src, ByteBuffer dst, int lead, int leadBits) {
+        if (leadBits < 0 || leadBits >= BITS_PER_WORD) {
+            throw new IllegalArgumentException("bad number of leading bits " + leadBits);
+        }
+        ByteBuffer in = bigEndian(src);
+        ByteBuffer out = bigEndian(dst);
+        long[] table = TABLE;
+        int from = src.position();
+        int end = src.limit();
+        int position = dst.position();
+        int limit = dst.limit();
+
+        // the low 64 - free bits of register are pending, higher bits are stale
+        long register = lead & ((1 << leadBits) - 1);
+        int free = Long.SIZE - leadBits;
+        int i = from;
+        for (; i + Long.BYTES <= end; i += Long.BYTES) {
+            long eight = in.getLong(i);
+            for (int shift = Long.SIZE - 8; shift >= 0; shift -= 8) {
+                long entry = table[(int) (eight >>> shift) & 0xFF];
+                int length = (int) entry & 0xFF;
+                long code = entry >>> 8;
+                if (length < free) {
+                    register = (register << length) | code;
+                    free -= length;
+                } else {
+                    // the register fills: store it with the leading bits of the code
+                    if (length == NO_CODE) {
+                        throw noCode((int) (eight >>> shift) & 0xFF);
+                    }
+                    int rest = length - free;
+                    if (limit - position < Long.BYTES) {
+                        throw new BufferOverflowException();
+                    }
+                    out.putLong(position, (register << free) | (code >>> rest));
+                    position += Long.BYTES;
+                    register = code;
+                    free = Long.SIZE - rest;
+                }
+            }
+        }
+        // the last few values, then PSEUDO_EOF
+        for (; i <= end; i++) {
+            int value = i == end ? PSEUDO_EOF : in.get(i) & 0xFF;
+            long entry = table[value];
+            int length = (int) entry & 0xFF;
+            long code = entry >>> 8;
+            if (length < free) {
+                register = (register << length) | code;
+                free -= length;
+            } else {
+                if (length == NO_CODE) {
+                    throw noCode(value);
+                }
+                int rest = length - free;
+                if (limit - position < Long.BYTES) {
+                    throw new BufferOverflowException();
+                }
+                out.putLong(position, (register << free) | (code >>> rest));
+                position += Long.BYTES;
+                register = code;
+                free = Long.SIZE - rest;
+            }
+        }
+
+        // store the pending bits a byte at a time, the last padded with zeros
+        int pending = Long.SIZE - free;
+        long bitsWritten = (long) (position - dst.position()) * BITS_PER_WORD + pending;
+        if (pending > 0) {
+            if (limit - position < (pending + 7) / 8) {
+                throw new BufferOverflowException();
+            }
+            long left = register << free;
+            for (int shift = Long.SIZE - 8; pending > 0; shift -= 8, pending -= 8) {
+                out.put(position++, (byte) (left >>> shift));
+            }
+        }
+        src.position(end);
+        dst.position(position);
+        return bitsWritten;
+    }
+
+    private static IllegalArgumentException noCode(int value) {
+        return new IllegalArgumentException("value " + value + " has no code in the plan");
+    }
+
+    /**
+     * Get a view of a buffer that reads and writes multi-byte values big-endian.
+     */
+    private static ByteBuffer bigEndian(ByteBuffer buffer) {
+        return buffer.order() == ByteOrder.BIG_ENDIAN ? buffer
+                : buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+    }
+}
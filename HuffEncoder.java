@@ -0,0 +1,591 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * A reusable compression context. An encoder owns the histogram, code tables and I/O buffers
+ * it needs, so after construction counting and compressing a stream allocates no arrays.
+ * An encoder is not thread-safe; a thread should borrow one from a
+ * <code>HuffContextPool</code> for each call and return it afterwards.
+ */
+public class HuffEncoder implements IHuffConstants {
+    // the longest pair of codes the pair table holds, so a pair's code and length fit an int
+    private static final int MAX_PAIR_LENGTH = Integer.SIZE - 8;
+    // the fewest bytes coded at once that pay for building the pair table
+    private static final int MIN_PAIR_BYTES = 1 << 14;
+    // the most bytes coded as a block, so the codes of a block, at most 32 bits a value,
+    // fit an array
+    private static final int MAX_BLOCK_BYTES = 1 << 28;
+    // the largest block buffer an encoder keeps once it is returned to a pool
+    private static final int MAX_IDLE_BLOCK_BYTES = 1 << 20;
+    private static final byte[] NO_PREFIX = new byte[0];
+
+    private final long[] histogram;
+    private final int[] codeValues;
+    private final int[] codeLengths;
+    private final byte[] readBuffer;
+    private final FastBitOutputStream streamBitsOut;
+    private final CRC32C checksum;
+    // the magic number and header of a block, before the block's codes are added to them
+    private final ByteArrayOutputStream headerBytes;
+
+    // streamBitsOut, or the caller's stream the bits being written go to
+    private FastBitOutputStream bitsOut;
+    // for each pair of values, the first in the high byte, their codes one after the other
+    // shifted left 8 bits and or'ed with their total length, or 0 if that is longer than
+    // MAX_PAIR_LENGTH or either value has no code; null until a run is long enough to use
+    // it, so encoders that only code small runs never allocate its 256 KB
+    private int[] pairCodes;
+    // true once pairCodes holds the pairs of the codes being written
+    private boolean pairsFilled;
+
+    // the coded bytes of a block, grown as needed and then reused
+    private byte[] blockBuffer;
+    // the kernel of the plan blocks were last coded with, so the chunks of one plan share it
+    private CompressionPlan kernelPlan;
+    private HuffEncodeKernel kernel;
+
+    // seek index entries of the stream being compressed, grown as needed and then reused
+    private long[] indexOffsets;
+    private long[] indexBitOffsets;
+    private int indexCount;
+
+    /**
+     * Create an encoder with default buffer sizes.
+     */
+    public HuffEncoder() {
+        histogram = new long[ALPH_SIZE];
+        codeValues = new int[ALPH_SIZE + 1];
+        codeLengths = new int[ALPH_SIZE + 1];
+        readBuffer = new byte[FastBitInputStream.DEFAULT_BUFFER_SIZE];
+        streamBitsOut = new FastBitOutputStream(FastBitOutputStream.DEFAULT_BUFFER_SIZE);
+        checksum = new CRC32C();
+        headerBytes = new ByteArrayOutputStream();
+        blockBuffer = new byte[0];
+        indexOffsets = new long[64];
+        indexBitOffsets = new long[64];
+    }
+
+    /**
+     * Drop a block buffer grown past what an idle encoder should hold, and the cached kernel
+     * with its plan, so an encoder kept by a <code>HuffContextPool</code> after coding one
+     * large block does not pin its buffer.
+     */
+    void trim() {
+        if (blockBuffer.length > MAX_IDLE_BLOCK_BYTES) {
+            blockBuffer = new byte[0];
+        }
+        kernelPlan = null;
+        kernel = null;
+    }
+
+    /**
+     * Count the values in a stream and build the plan for compressing it. The stream is read
+     * to the end but not closed.
+     *
+     * @param in the stream which could be subsequently compressed
+     * @param headerFormat STORE_COUNTS, STORE_TREE, STORE_SPARSE, STORE_RAW, or
+     *        STORE_AUTO for the smallest
+     * @return the plan for compressing the stream
+     * @throws IOException if an error occurs while reading from the input
+     */
+    public CompressionPlan preprocess(InputStream in, int headerFormat) throws IOException {
+        return preprocess(in, headerFormat, HuffMetrics.DEFAULT);
+    }
+
+    /**
+     * Count the values in a stream and build the plan for compressing it, reporting the
+     * histogram, tree build and code generation phases. The stream is read to the end but not
+     * closed.
+     *
+     * @param in the stream which could be subsequently compressed
+     * @param headerFormat STORE_COUNTS, STORE_TREE, STORE_SPARSE, STORE_RAW, or
+     *        STORE_AUTO for the smallest
+     * @param metrics where phases are reported
+     * @return the plan for compressing the stream
+     * @throws IOException if an error occurs while reading from the input
+     */
+    public CompressionPlan preprocess(InputStream in, int headerFormat, HuffMetrics metrics)
+            throws IOException {
+        long start = metrics.start();
+        long bytesRead = 0;
+        Arrays.fill(histogram, 0);
+        int read = in.read(readBuffer, 0, readBuffer.length);
+        while (read != -1) {
+            for (int i = 0; i < read; i++) {
+                histogram[readBuffer[i] & 0xFF]++;
+            }
+            bytesRead += read;
+            read = in.read(readBuffer, 0, readBuffer.length);
+        }
+        metrics.end(HuffPhase.HISTOGRAM, start, bytesRead, 0);
+
+        return new CompressionPlan(histogram, headerFormat, metrics);
+    }
+
+    /**
+     * Count the values in a stream after it goes through a chain of transforms and build the
+     * plan for compressing the transformed data, which records the chain so
+     * <code>compress</code> applies it again and uncompressing undoes it. The stream is read
+     * to the end but not closed.
+     *
+     * @param in the stream which could be subsequently compressed
+     * @param headerFormat STORE_COUNTS, STORE_TREE, STORE_SPARSE, STORE_RAW, or
+     *        STORE_AUTO for the smallest
+     * @param transforms the transforms, the first applied first; if empty the data is
+     *        counted as is
+     * @param metrics where phases are reported
+     * @return the plan for compressing the stream
+     * @throws IOException if an error occurs while reading from the input
+     */
+    public CompressionPlan preprocess(InputStream in, int headerFormat,
+            ByteTransform[] transforms, HuffMetrics metrics) throws IOException {
+        if (transforms.length == 0) {
+            return preprocess(in, headerFormat, metrics);
+        }
+        TransformInputStream transformed = new TransformInputStream(in, transforms);
+        return preprocess(transformed, headerFormat, metrics)
+                .withTransforms(transforms, transformed.getBytesRead());
+    }
+
+    /**
+     * Add the counts of the values in a stream to a histogram, e.g., to build one plan shared
+     * by several streams. The stream is read to the end but not closed.
+     *
+     * @param in the stream to count
+     * @param counts the histogram of ALPH_SIZE counts added to
+     * @return the number of bytes read
+     * @throws IOException if an error occurs while reading from the input
+     */
+    public long count(InputStream in, long[] counts) throws IOException {
+        long bytesRead = 0;
+        int read = in.read(readBuffer, 0, readBuffer.length);
+        while (read != -1) {
+            for (int i = 0; i < read; i++) {
+                counts[readBuffer[i] & 0xFF]++;
+            }
+            bytesRead += read;
+            read = in.read(readBuffer, 0, readBuffer.length);
+        }
+        return bytesRead;
+    }
+
+    /**
+     * Write only the codes of a stream followed by the PSEUDO_EOF code, with no magic number
+     * or header, for data whose header is stored elsewhere, e.g., the entries of a solid
+     * archive. If the plan has a checksum it follows, byte aligned. Neither stream is closed,
+     * but all bits are flushed to out.
+     *
+     * @param plan a plan whose tree has a code for every value in the stream
+     * @param in the stream being compressed
+     * @param out the stream the codes are written to
+     * @return the number of bits written, not counting padding of the last byte
+     * @throws IOException if an error occurs while reading from the input or writing to the
+     *         output
+     * @throws IllegalArgumentException if a value in the data has no code in the plan
+     */
+    public long compressData(CompressionPlan plan, InputStream in, OutputStream out)
+            throws IOException {
+        plan.copyCodes(codeValues, codeLengths);
+        pairsFilled = false;
+        in = transformed(plan, in);
+        bitsOut = streamBitsOut.attach(out);
+        checksum.reset();
+        try {
+            int read = in.read(readBuffer, 0, readBuffer.length);
+            while (read != -1) {
+                encode(0, read);
+                checksum.update(readBuffer, 0, read);
+                read = in.read(readBuffer, 0, readBuffer.length);
+            }
+            bitsOut.writeBits(codeLengths[PSEUDO_EOF], codeValues[PSEUDO_EOF]);
+            if (plan.hasFlag(CHECKSUM_FLAG)) {
+                writeChecksum();
+            }
+            long totalBitsWritten = bitsOut.getBitsWritten();
+            bitsOut.flush();
+            return totalBitsWritten;
+        } finally {
+            bitsOut.detach();
+        }
+    }
+
+    /**
+     * Write only the codes of a block of data held in memory followed by the PSEUDO_EOF
+     * code, as <code>compressData</code> does for a stream, and the checksum if the plan has
+     * one. The codes are written by a <code>HuffEncodeKernel</code> into a buffer sized
+     * exactly from the block's histogram, then to out in one write. out is flushed but not
+     * closed.
+     *
+     * @param plan a plan whose tree has a code for every value in the block
+     * @param data the array holding the block
+     * @param off the index of the first byte of the block
+     * @param len the number of bytes in the block
+     * @param out the stream the codes are written to
+     * @return the number of bits written, not counting padding of the last byte
+     * @throws IOException if an error occurs while writing to the output
+     * @throws IllegalArgumentException if a value in the data has no code in the plan
+     */
+    public long compressData(CompressionPlan plan, byte[] data, int off, int len,
+            OutputStream out) throws IOException {
+        if (plan.hasFlag(TRANSFORM_FLAG) || len > MAX_BLOCK_BYTES) {
+            return compressData(plan, new ByteArrayInputStream(data, off, len), out);
+        }
+        return encodeBlock(plan, data, off, len, NO_PREFIX, 0, out);
+    }
+
+    /**
+     * Compress a stream using a plan built from the same data. Neither stream is closed, but
+     * all bits are flushed to out.
+     *
+     * @param plan the plan built by <code>preprocess</code> for this data
+     * @param in the stream being compressed
+     * @param out the stream the compressed bits are written to
+     * @return the number of bits written, not counting padding of the last byte
+     * @throws IOException if an error occurs while reading from the input or writing to the
+     *         output
+     * @throws IllegalArgumentException if a value in the data has no code in the plan
+     */
+    public long compress(CompressionPlan plan, InputStream in, OutputStream out)
+            throws IOException {
+        return compress(plan, in, out, HuffMetrics.DEFAULT);
+    }
+
+    /**
+     * Compress a stream using a plan built from the same data, reporting the header write and
+     * encode phases. Neither stream is closed, but all bits are flushed to out.
+     *
+     * @param plan the plan built by <code>preprocess</code> for this data
+     * @param in the stream being compressed
+     * @param out the stream the compressed bits are written to
+     * @param metrics where phases are reported
+     * @return the number of bits written, not counting padding of the last byte
+     * @throws IOException if an error occurs while reading from the input or writing to the
+     *         output
+     * @throws IllegalArgumentException if a value in the data has no code in the plan
+     */
+    public long compress(CompressionPlan plan, InputStream in, OutputStream out,
+            HuffMetrics metrics) throws IOException {
+        bitsOut = streamBitsOut.attach(out);
+        try {
+            return encodeStream(plan, transformed(plan, in), metrics);
+        } finally {
+            bitsOut.detach();
+        }
+    }
+
+    /**
+     * Compress a block of data held in memory, e.g., a chunk of a larger input, using a plan
+     * built from the same data, reporting the header write and encode phases. The output is
+     * the same as that of compressing the block as a stream, but the codes are written by a
+     * <code>HuffEncodeKernel</code> into a buffer sized exactly from the block's histogram,
+     * then to out in one write. A plan with a seek index or transforms, or a block too large
+     * for the buffer, is compressed as a stream instead. out is flushed but not closed.
+     *
+     * @param plan the plan built by <code>preprocess</code> for this data
+     * @param data the array holding the block
+     * @param off the index of the first byte of the block
+     * @param len the number of bytes in the block
+     * @param out the stream the compressed bits are written to
+     * @param metrics where phases are reported
+     * @return the number of bits written, not counting padding of the last byte
+     * @throws IOException if an error occurs while writing to the output
+     * @throws IllegalArgumentException if a value in the data has no code in the plan
+     */
+    public long compress(CompressionPlan plan, byte[] data, int off, int len, OutputStream out,
+            HuffMetrics metrics) throws IOException {
+        if (plan.hasFlag(INDEX_FLAG) || plan.hasFlag(TRANSFORM_FLAG) || len > MAX_BLOCK_BYTES) {
+            return compress(plan, new ByteArrayInputStream(data, off, len), out, metrics);
+        }
+        long start = metrics.start();
+        headerBytes.reset();
+        bitsOut = streamBitsOut.attach(headerBytes);
+        long headerBits;
+        try {
+            bitsOut.writeBits(BITS_PER_INT, MAGIC_NUMBER);
+            plan.writeHeader(bitsOut);
+            headerBits = bitsOut.getBitsWritten();
+            bitsOut.flush();
+        } finally {
+            bitsOut.detach();
+        }
+        metrics.end(HuffPhase.HEADER_WRITE, start, 0, headerBits / BITS_PER_WORD);
+
+        start = metrics.start();
+        long totalBitsWritten = encodeBlock(plan, data, off, len, headerBytes.toByteArray(),
+                headerBits, out);
+        metrics.end(HuffPhase.ENCODE, start, len,
+                (totalBitsWritten - headerBits + BITS_PER_WORD - 1) / BITS_PER_WORD);
+        return totalBitsWritten;
+    }
+
+    /**
+     * Compress a stream into a bit stream the caller owns, e.g., one that stores the bits
+     * somewhere other than an <code>OutputStream</code>. The bits are flushed but the bit
+     * stream is left attached to wherever it writes.
+     *
+     * @param plan the plan built by <code>preprocess</code> for this data
+     * @param in the stream being compressed
+     * @param out the bit stream the compressed bits are written to
+     * @param metrics where phases are reported
+     * @return the number of bits written, not counting padding of the last byte
+     * @throws IOException if an error occurs while reading from the input or writing to the
+     *         output
+     */
+    long compress(CompressionPlan plan, InputStream in, FastBitOutputStream out,
+            HuffMetrics metrics) throws IOException {
+        bitsOut = out;
+        try {
+            return encodeStream(plan, transformed(plan, in), metrics);
+        } finally {
+            bitsOut = null;
+        }
+    }
+
+    /**
+     * Write the magic number, header, codes and trailer of a stream to bitsOut.
+     *
+     * @param plan the plan built by <code>preprocess</code> for this data
+     * @param in the stream being compressed
+     * @param metrics where phases are reported
+     * @return the number of bits written, not counting padding of the last byte
+     * @throws IOException if an error occurs while reading from the input or writing to the
+     *         output
+     */
+    private long encodeStream(CompressionPlan plan, InputStream in, HuffMetrics metrics)
+            throws IOException {
+        plan.copyCodes(codeValues, codeLengths);
+        pairsFilled = false;
+        long start = metrics.start();
+        bitsOut.writeBits(BITS_PER_INT, MAGIC_NUMBER);
+        plan.writeHeader(bitsOut);
+        long headerBits = bitsOut.getBitsWritten();
+        metrics.end(HuffPhase.HEADER_WRITE, start, 0, headerBits / BITS_PER_WORD);
+
+        start = metrics.start();
+        int interval = plan.getIndexInterval();
+        long nextSync = plan.hasFlag(INDEX_FLAG) ? 0 : Long.MAX_VALUE;
+        indexCount = 0;
+        checksum.reset();
+        long bytesRead = 0;
+        int read = in.read(readBuffer, 0, readBuffer.length);
+        while (read != -1) {
+            int from = 0;
+            // split the chunk at each sync point so the loop below has no index check
+            while (nextSync < bytesRead + read) {
+                int to = (int) (nextSync - bytesRead);
+                encode(from, to);
+                addIndexEntry(nextSync, bitsOut.getBitsWritten());
+                nextSync += interval;
+                from = to;
+            }
+            encode(from, read);
+            checksum.update(readBuffer, 0, read);
+            bytesRead += read;
+            read = in.read(readBuffer, 0, readBuffer.length);
+        }
+        bitsOut.writeBits(codeLengths[PSEUDO_EOF], codeValues[PSEUDO_EOF]);
+
+        if (plan.hasFlag(CHECKSUM_FLAG)) {
+            writeChecksum();
+        }
+        if (plan.hasFlag(INDEX_FLAG)) {
+            bitsOut.alignToByte();
+            SeekIndex.write(bitsOut, interval, indexOffsets, indexBitOffsets, indexCount);
+        }
+
+        long totalBitsWritten = bitsOut.getBitsWritten();
+        bitsOut.flush();
+        metrics.end(HuffPhase.ENCODE, start, bytesRead,
+                (totalBitsWritten - headerBits + BITS_PER_WORD - 1) / BITS_PER_WORD);
+        return totalBitsWritten;
+    }
+
+    /**
+     * Code a block with a <code>HuffEncodeKernel</code> after the bits already written for
+     * it, e.g., its header, followed by PSEUDO_EOF and the checksum if the plan has one, and
+     * write it all to out.
+     *
+     * @param plan the plan whose codes are used
+     * @param data the array holding the block
+     * @param off the index of the first byte of the block
+     * @param len the number of bytes in the block
+     * @param prefix the bits written before the block's codes, the last byte padded with
+     *        zeros
+     * @param prefixBits the number of bits in prefix
+     * @param out the stream the bits are written to
+     * @return the number of bits written, including the prefix but not padding of the last
+     *         byte
+     * @throws IOException if an error occurs while writing to the output
+     */
+    private long encodeBlock(CompressionPlan plan, byte[] data, int off, int len,
+            byte[] prefix, long prefixBits, OutputStream out) throws IOException {
+        if (plan != kernelPlan) {
+            kernel = new HuffEncodeKernel(plan);
+            kernelPlan = plan;
+        }
+        Arrays.fill(histogram, 0);
+        for (int i = off; i < off + len; i++) {
+            histogram[data[i] & 0xFF]++;
+        }
+
+        // the codes continue from the last bits of the prefix if it ends inside a byte
+        int whole = (int) (prefixBits / BITS_PER_WORD);
+        int leadBits = (int) (prefixBits % BITS_PER_WORD);
+        int lead = leadBits == 0 ? 0 : (prefix[whole] & 0xFF) >>> (BITS_PER_WORD - leadBits);
+        long codeBytes = (leadBits + kernel.getEncodedBits(histogram) + BITS_PER_WORD - 1)
+                / BITS_PER_WORD;
+        int size = (int) (whole + codeBytes
+                + (plan.hasFlag(CHECKSUM_FLAG) ? Integer.BYTES : 0));
+        if (blockBuffer.length < size) {
+            blockBuffer = new byte[Math.max(size,
+                    (int) Math.min(2L * blockBuffer.length, MAX_BLOCK_BYTES))];
+        }
+        byte[] block = blockBuffer;
+        System.arraycopy(prefix, 0, block, 0, whole);
+
+        ByteBuffer dst = ByteBuffer.wrap(block, whole, size - whole);
+        long totalBitsWritten = (long) whole * BITS_PER_WORD
+                + kernel.encode(ByteBuffer.wrap(data, off, len), dst, lead, leadBits);
+        int position = dst.position();
+        if (plan.hasFlag(CHECKSUM_FLAG)) {
+            // the checksum starts on the byte after the padded PSEUDO_EOF code
+            checksum.reset();
+            checksum.update(data, off, len);
+            dst.putInt((int) checksum.getValue());
+            totalBitsWritten = (long) dst.position() * BITS_PER_WORD;
+            position = dst.position();
+        }
+        out.write(block, 0, position);
+        out.flush();
+        return totalBitsWritten;
+    }
+
+    /**
+     * Get the data a plan codes from a stream, the stream itself unless the plan has
+     * transforms.
+     *
+     * @param plan the plan
+     * @param in the stream being compressed
+     * @return the stream of values to code
+     */
+    private static InputStream transformed(CompressionPlan plan, InputStream in) {
+        if (!plan.hasFlag(TRANSFORM_FLAG)) {
+            return in;
+        }
+        return new TransformInputStream(in, plan.getTransforms());
+    }
+
+    /**
+     * Write the codes of part of the read buffer, two values per write once enough data has
+     * been seen to pay for the pair table.
+     *
+     * @param from the index of the first byte to code
+     * @param to one past the index of the last byte to code
+     */
+    private void encode(int from, int to) {
+        FastBitOutputStream out = bitsOut;
+        byte[] bytes = readBuffer;
+        int i = from;
+        if (usePairs(to - from)) {
+            int[] pairs = pairCodes;
+            for (; i + 1 < to; i += 2) {
+                int pair = pairs[(bytes[i] & 0xFF) << 8 | (bytes[i + 1] & 0xFF)];
+                if (pair != 0) {
+                    out.writeBits(pair & 0xFF, pair >>> 8);
+                } else {
+                    encodeValue(out, bytes[i] & 0xFF);
+                    encodeValue(out, bytes[i + 1] & 0xFF);
+                }
+            }
+        }
+        for (; i < to; i++) {
+            encodeValue(out, bytes[i] & 0xFF);
+        }
+    }
+
+    private void encodeValue(FastBitOutputStream out, int value) {
+        int length = codeLengths[value];
+        if (length == 0) {
+            // writing no bits would silently drop the value
+            throw new IllegalArgumentException("value " + value + " has no code in the plan");
+        }
+        out.writeBits(length, codeValues[value]);
+    }
+
+    /**
+     * Tells us if a run of bytes should be coded in pairs, filling the pair table for the
+     * current codes the first time a run is long enough for it to pay. Building the table
+     * costs about as much as coding 10 KB a value at a time, so streams that are all small
+     * runs, like the entries of an archive, never build it.
+     *
+     * @param bytes the number of bytes about to be coded
+     * @return true if pairCodes holds the pairs of the current codes
+     */
+    private boolean usePairs(int bytes) {
+        if (!pairsFilled && bytes >= MIN_PAIR_BYTES) {
+            fillPairCodes();
+            pairsFilled = true;
+        }
+        return pairsFilled;
+    }
+
+    /**
+     * Fill pairCodes from codeValues and codeLengths, allocating it the first time.
+     */
+    private void fillPairCodes() {
+        if (pairCodes == null) {
+            pairCodes = new int[ALPH_SIZE * ALPH_SIZE];
+        }
+        int[] pairs = pairCodes;
+        for (int first = 0; first < ALPH_SIZE; first++) {
+            int row = first << 8;
+            int firstLength = codeLengths[first];
+            if (firstLength == 0 || firstLength >= MAX_PAIR_LENGTH) {
+                Arrays.fill(pairs, row, row + ALPH_SIZE, 0);
+                continue;
+            }
+            int firstCode = codeValues[first] & ((1 << firstLength) - 1);
+            for (int second = 0; second < ALPH_SIZE; second++) {
+                int secondLength = codeLengths[second];
+                int length = firstLength + secondLength;
+                if (secondLength == 0 || length > MAX_PAIR_LENGTH) {
+                    pairs[row | second] = 0;
+                } else {
+                    int code = firstCode << secondLength
+                            | codeValues[second] & ((1 << secondLength) - 1);
+                    pairs[row | second] = code << 8 | length;
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the CRC32C of the data coded so far, starting on a byte boundary.
+     */
+    private void writeChecksum() {
+        bitsOut.alignToByte();
+        bitsOut.writeBits(BITS_PER_INT, (int) checksum.getValue());
+    }
+
+    /**
+     * Record a sync point for the seek index.
+     *
+     * @param offset the offset in the original data
+     * @param bitOffset the bit offset of the code for the byte at offset
+     */
+    private void addIndexEntry(long offset, long bitOffset) {
+        if (indexCount == indexOffsets.length) {
+            indexOffsets = Arrays.copyOf(indexOffsets, indexCount * 2);
+            indexBitOffsets = Arrays.copyOf(indexBitOffsets, indexCount * 2);
+        }
+        indexOffsets[indexCount] = offset;
+        indexBitOffsets[indexCount] = bitOffset;
+        indexCount++;
+    }
+}
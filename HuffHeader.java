@@ -0,0 +1,233 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The header of a compressed stream as read back by a decoder: the header format, the
+ * optional feature flags and the tree rebuilt from the stored counts or tree.
+ */
+public final class HuffHeader implements IHuffConstants {
+    // the flags this version knows how to decode
+    private static final int SUPPORTED_FLAGS =
+            LENGTH_FLAG | CHECKSUM_FLAG | INDEX_FLAG | TRANSFORM_FLAG;
+    private static final ByteTransform[] NO_TRANSFORMS = new ByteTransform[0];
+
+    private final int HEADER_FORMAT;
+    private final int FLAGS;
+    private final long ORIGINAL_LENGTH;
+    private final ByteTransform[] TRANSFORMS;
+    private final HuffTree TREE;
+
+    private HuffHeader(int headerFormat, int flags, long originalLength,
+            ByteTransform[] transforms, HuffTree tree) {
+        HEADER_FORMAT = headerFormat;
+        FLAGS = flags;
+        ORIGINAL_LENGTH = originalLength;
+        TRANSFORMS = transforms;
+        TREE = tree;
+    }
+
+    /**
+     * Read the magic number and header of a compressed stream.
+     *
+     * @param bitsIn the stream positioned at the magic number
+     * @param freqs scratch space for ALPH_SIZE counts, so callers can reuse it
+     * @return the header, or null if the stream does not start with the magic number
+     * @throws IOException if the header format is unknown or the header is truncated
+     */
+    public static HuffHeader read(BitInputStream bitsIn, int[] freqs) throws IOException {
+        if (bitsIn.readBits(BITS_PER_INT) != MAGIC_NUMBER) {
+            return null;
+        }
+
+        // read the header format and use STF or SCF to create the tree accordingly
+        int format = bitsIn.readBits(BITS_PER_INT);
+        int headerFormat = format & ~FLAG_MASK;
+        int flags = format & FLAG_MASK;
+        if ((flags & ~SUPPORTED_FLAGS) != 0) {
+            throw new IOException("Error reading compressed file. \n"
+                    + "unsupported header flags " + Integer.toHexString(flags));
+        }
+        long originalLength = (flags & LENGTH_FLAG) == 0 ? -1 : readLength(bitsIn);
+        ByteTransform[] transforms = (flags & TRANSFORM_FLAG) == 0 ? NO_TRANSFORMS
+                : readTransforms(bitsIn);
+
+        if (headerFormat == STORE_TREE) {
+            // the size of the tree representation is not needed to rebuild it
+            if (bitsIn.readBits(BITS_PER_INT) == -1) {
+                throw truncated("tree");
+            }
+            return new HuffHeader(headerFormat, flags, originalLength, transforms,
+                    new HuffTree(bitsIn));
+        } else if (headerFormat == STORE_COUNTS) {
+            for (int k = 0; k < ALPH_SIZE; k++) {
+                freqs[k] = bitsIn.readBits(BITS_PER_INT);
+                if (freqs[k] == -1) {
+                    throw truncated("count");
+                }
+            }
+            return new HuffHeader(headerFormat, flags, originalLength, transforms,
+                    new HuffTree(freqs));
+        } else if (headerFormat == STORE_SPARSE) {
+            readSparseCounts(bitsIn, freqs);
+            return new HuffHeader(headerFormat, flags, originalLength, transforms,
+                    new HuffTree(freqs));
+        } else if (headerFormat == STORE_LZ) {
+            // the trees are stored in each block, and the blocks cannot be indexed or
+            // transformed
+            if ((flags & (INDEX_FLAG | TRANSFORM_FLAG)) != 0) {
+                throw new IOException("Error reading compressed file. \n"
+                        + "unsupported header flags " + Integer.toHexString(flags)
+                        + " for an LZ segment");
+            }
+            return new HuffHeader(headerFormat, flags, originalLength, transforms, null);
+        } else if (headerFormat == STORE_RAW) {
+            int shared = bitsIn.readBits(BITS_PER_WORD);
+            if (shared == -1) {
+                throw truncated("raw");
+            }
+            return new HuffHeader(headerFormat, flags, originalLength, transforms,
+                    HuffTree.createRaw(shared));
+        }
+        throw new IOException("Error reading compressed file. \n"
+                + "unknown header format " + Integer.toHexString(format));
+    }
+
+    /**
+     * Read the values that occur and their counts, as written for STORE_SPARSE.
+     *
+     * @param bitsIn the stream positioned after the header format and length
+     * @param freqs filled with the count of each value, 0 for values not listed
+     * @throws IOException if the header is truncated or malformed
+     */
+    private static void readSparseCounts(BitInputStream bitsIn, int[] freqs)
+            throws IOException {
+        Arrays.fill(freqs, 0);
+        int values = bitsIn.readBits(CompressionPlan.SPARSE_COUNT_BITS);
+        if (values == -1) {
+            throw truncated("sparse count");
+        } else if (values > ALPH_SIZE) {
+            throw new IOException("Error reading compressed file. \n"
+                    + "sparse count header lists " + values + " values.");
+        } else if (values == 0) {
+            return;
+        }
+        int width = bitsIn.readBits(CompressionPlan.SPARSE_WIDTH_BITS);
+        if (width <= 0 || width >= Integer.SIZE) {
+            throw truncated("sparse count");
+        }
+        for (int i = 0; i < values; i++) {
+            int value = bitsIn.readBits(BITS_PER_WORD);
+            int count = bitsIn.readBits(width);
+            if (value == -1 || count == -1) {
+                throw truncated("sparse count");
+            }
+            freqs[value] = count;
+        }
+    }
+
+    /**
+     * Read the chain of transforms stored after the length.
+     *
+     * @param bitsIn the stream positioned after the length
+     * @return the transforms in the order they were applied
+     * @throws IOException if the chain is truncated or names an unknown transform
+     */
+    private static ByteTransform[] readTransforms(BitInputStream bitsIn) throws IOException {
+        int count = bitsIn.readBits(BITS_PER_WORD);
+        if (count == -1) {
+            throw truncated("transform");
+        }
+        ByteTransform[] transforms = new ByteTransform[count];
+        for (int i = 0; i < count; i++) {
+            int id = bitsIn.readBits(BITS_PER_WORD);
+            if (id == -1) {
+                throw truncated("transform");
+            }
+            transforms[i] = ByteTransform.forId(id);
+            if (transforms[i] == null) {
+                throw new IOException("Error reading compressed file. \n"
+                        + "unknown transform " + id);
+            }
+        }
+        return transforms;
+    }
+
+    /**
+     * Read the original length stored after the header format. It is read in 16 bit pieces
+     * since a 32 bit half could be all ones, which <code>readBits</code> cannot tell from
+     * the end of the input.
+     *
+     * @param bitsIn the stream positioned after the header format
+     * @return the length in bytes
+     * @throws IOException if the length is truncated
+     */
+    private static long readLength(BitInputStream bitsIn) throws IOException {
+        long length = 0;
+        for (int i = 0; i < Long.SIZE / Short.SIZE; i++) {
+            int piece = bitsIn.readBits(Short.SIZE);
+            if (piece == -1) {
+                throw truncated("length");
+            }
+            length = (length << Short.SIZE) | piece;
+        }
+        return length;
+    }
+
+    /**
+     * Create the exception for a header that ends early.
+     *
+     * @param kind the kind of header
+     * @return the exception to throw
+     */
+    private static IOException truncated(String kind) {
+        return new IOException("Error reading compressed file. \n"
+                + "unexpected end of input in " + kind + " header.");
+    }
+
+    /**
+     * Get the header format without flags.
+     *
+     * @return STORE_COUNTS, STORE_TREE, STORE_SPARSE, STORE_RAW or STORE_LZ
+     */
+    public int getHeaderFormat() {
+        return HEADER_FORMAT;
+    }
+
+    /**
+     * Tells us if the stream has an optional feature.
+     *
+     * @param flag one of the flag constants, e.g., INDEX_FLAG
+     * @return true if the flag is set in the header format
+     */
+    public boolean hasFlag(int flag) {
+        return (FLAGS & flag) != 0;
+    }
+
+    /**
+     * Get the length of the original data, if the stream stores it.
+     *
+     * @return the length in bytes, or -1 if the stream has no LENGTH_FLAG
+     */
+    public long getOriginalLength() {
+        return ORIGINAL_LENGTH;
+    }
+
+    /**
+     * Get the transforms the data went through before it was coded.
+     *
+     * @return the transforms in the order they were applied, empty if the stream has no
+     *         TRANSFORM_FLAG
+     */
+    public ByteTransform[] getTransforms() {
+        return TRANSFORMS.clone();
+    }
+
+    /**
+     * Get the tree the data was coded with.
+     *
+     * @return the tree, or null for STORE_LZ, whose blocks each have their own trees
+     */
+    public HuffTree getTree() {
+        return TREE;
+    }
+}
@@ -0,0 +1,250 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+import java.util.zip.CRC32C;
+
+/**
+ * An <code>InputStream</code> that uncompresses a compressed stream as it is read, the pull
+ * counterpart of <code>SimpleHuffProcessor.uncompress</code>. Each call to <code>read</code>
+ * decodes only as many values as the caller asked for, straight into the caller's array, so
+ * the memory used is the bit buffer over the compressed input however large the data is,
+ * and the uncompressed data can be handed to a parser or another stream without a temporary
+ * file or a copy of it all.
+ * <P>
+ * Streams of several segments are read through in order. Lengths and checksums are checked
+ * at the end of each segment, so a corrupt segment is reported by the <code>read</code> that
+ * reaches its end, after the bytes before it have been returned. The compressed input is read
+ * ahead in blocks, so it must hold nothing after the compressed stream.
+ * <P>
+ * A segment with transforms is decoded a block at a time and the block's inverse
+ * transformed bytes held until they are read, so memory stays bounded for it too. A
+ * STORE_LZ segment is decoded the same way, a few of its window sizes at a time.
+ * <P>
+ * Like other streams a <code>HuffInputStream</code> is not thread-safe.
+ */
+public class HuffInputStream extends InputStream implements IHuffConstants {
+    private final InputStream IN;
+    private final FastBitInputStream BITS_IN;
+    private final int[] FREQS;
+    private final MultiSymbolTable DECODE_TABLE;
+    private final CRC32C CHECKSUM;
+    private final byte[] SINGLE;
+    // the output of the inverse transforms not yet read
+    private final TransformInputStream.Pending PENDING;
+    private byte[] block;
+
+    // the segment being decoded, null before the first header is read
+    private HuffHeader header;
+    // the inverse transforms of the segment, null if it has none
+    private TransformOutputStream undo;
+    // created the first time a STORE_LZ segment is started
+    private LzHuffDecoder lz;
+    private long segmentBytes;
+    private boolean finished;
+    private boolean closed;
+
+    /**
+     * Create a stream uncompressing in, reading it with the default buffer size.
+     *
+     * @param in the previously compressed data
+     */
+    public HuffInputStream(InputStream in) {
+        this(in, FastBitInputStream.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create a stream uncompressing in. Nothing is read until the first call to
+     * <code>read</code>.
+     *
+     * @param in the previously compressed data
+     * @param bufferSize the number of compressed bytes read from in at a time, > 0
+     */
+    public HuffInputStream(InputStream in, int bufferSize) {
+        if (in == null) {
+            throw new IllegalArgumentException("Input stream cannot be null");
+        }
+        IN = in;
+        BITS_IN = new FastBitInputStream(bufferSize).attach(in);
+        FREQS = new int[ALPH_SIZE];
+        DECODE_TABLE = new MultiSymbolTable();
+        CHECKSUM = new CRC32C();
+        SINGLE = new byte[1];
+        PENDING = new TransformInputStream.Pending();
+    }
+
+    /**
+     * Read the next uncompressed byte.
+     *
+     * @return the byte, 0 to 255, or -1 at the end of the data
+     * @throws IOException if the compressed data is malformed, does not match its checksum
+     *         or cannot be read
+     */
+    @Override
+    public int read() throws IOException {
+        return read(SINGLE, 0, 1) == -1 ? -1 : SINGLE[0] & 0xFF;
+    }
+
+    /**
+     * Decode up to len bytes into b. Blocks until at least one byte is decoded or the data
+     * ends; fewer than len bytes are returned only at the end of a segment or of a block of
+     * transformed data.
+     *
+     * @param b the array the bytes are stored in
+     * @param off the index in b of the first byte stored
+     * @param len the most bytes stored
+     * @return the number of bytes stored, or -1 at the end of the data
+     * @throws IOException if the compressed data is malformed, does not match its checksum
+     *         or cannot be read, or if the stream is closed
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (closed) {
+            throw new IOException("Stream closed");
+        } else if (len == 0) {
+            return 0;
+        }
+        if (header == null && !finished) {
+            startSegment(HuffHeader.read(BITS_IN, FREQS));
+            if (header == null) {
+                throw new IOException("Error reading compressed file. \n"
+                        + "File did not start with the huff magic number.");
+            }
+        }
+        while (true) {
+            if (PENDING.available() > 0) {
+                return PENDING.take(b, off, len);
+            } else if (finished) {
+                return -1;
+            } else if (header.getHeaderFormat() == STORE_LZ) {
+                PENDING.reset();
+                if (!lz.decodeSome(PENDING)) {
+                    segmentBytes = lz.getBytesWritten();
+                    endSegment();
+                }
+            } else if (undo == null) {
+                int n = decode(b, off, len);
+                if (n > 0) {
+                    return n;
+                }
+            } else {
+                PENDING.reset();
+                if (block == null) {
+                    block = new byte[FastBitInputStream.DEFAULT_BUFFER_SIZE];
+                }
+                decode(block, 0, block.length);
+            }
+        }
+    }
+
+    /**
+     * Decode up to len values of the current segment into b, passing them through the
+     * inverse transforms if the segment has them, and end the segment if its PSEUDO_EOF is
+     * reached.
+     *
+     * @param b the array the values are stored in
+     * @param off the index in b of the first value stored
+     * @param len the most values stored
+     * @return the number of values stored
+     * @throws IOException if the compressed data is malformed, does not match its checksum
+     *         or cannot be read
+     */
+    private int decode(byte[] b, int off, int len) throws IOException {
+        int n = DECODE_TABLE.decode(BITS_IN, b, off, len);
+        boolean segmentEnded = n < 0;
+        if (segmentEnded) {
+            n = ~n;
+        }
+        segmentBytes += n;
+        if (header.hasFlag(CHECKSUM_FLAG)) {
+            CHECKSUM.update(b, off, n);
+        }
+        if (undo != null) {
+            undo.write(b, off, n);
+        }
+        if (segmentEnded) {
+            endSegment();
+        }
+        return n;
+    }
+
+    /**
+     * Start decoding the segment whose header has just been read.
+     *
+     * @param next the header, or null if the input did not start with the magic number
+     */
+    private void startSegment(HuffHeader next) {
+        header = next;
+        if (next != null && next.getHeaderFormat() == STORE_LZ) {
+            if (lz == null) {
+                lz = new LzHuffDecoder();
+            }
+            lz.start(BITS_IN);
+            segmentBytes = 0;
+        } else if (next != null) {
+            DECODE_TABLE.fill(next.getTree());
+            ByteTransform[] transforms = next.getTransforms();
+            undo = transforms.length == 0 ? null
+                    : TransformOutputStream.decoding(transforms, PENDING);
+            segmentBytes = 0;
+            CHECKSUM.reset();
+        }
+    }
+
+    /**
+     * Check the segment whose PSEUDO_EOF, or last LZ block, has just been read against its
+     * checksum and length, finish its inverse transforms, skip its seek index, and read the
+     * header of the next segment if there is one.
+     *
+     * @throws IOException if the segment is corrupt or data after it is not a segment
+     */
+    private void endSegment() throws IOException {
+        if (header.hasFlag(CHECKSUM_FLAG)) {
+            BITS_IN.alignToByte();
+            int expected = header.getHeaderFormat() == STORE_LZ ? lz.getChecksum()
+                    : (int) CHECKSUM.getValue();
+            if (BITS_IN.readInt() != expected) {
+                throw new IOException("Error reading compressed file. \n"
+                        + "checksum mismatch, the data is corrupt.");
+            }
+        }
+        if (header.hasFlag(LENGTH_FLAG) && segmentBytes != header.getOriginalLength()) {
+            throw new IOException("Error reading compressed file. \n"
+                    + "decoded " + segmentBytes + " bytes, the header says "
+                    + header.getOriginalLength() + ".");
+        }
+        if (undo != null) {
+            undo.finish();
+            undo = null;
+        }
+        if (header.hasFlag(INDEX_FLAG)) {
+            BITS_IN.alignToByte();
+            SeekIndex.skip(BITS_IN);
+        }
+        // the next segment, if any, starts on a byte boundary
+        BITS_IN.alignToByte();
+        if (BITS_IN.atEnd()) {
+            finished = true;
+            return;
+        }
+        startSegment(HuffHeader.read(BITS_IN, FREQS));
+        if (header == null) {
+            throw new IOException("Error reading compressed file. \n"
+                    + "data after the end of the stream is not a segment.");
+        }
+    }
+
+    /**
+     * Closes this stream and the compressed input.
+     *
+     * @throws IOException if the compressed input cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            BITS_IN.detach();
+            IN.close();
+        }
+    }
+}
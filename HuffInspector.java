@@ -0,0 +1,449 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Shows what a compressed file holds, for debugging files that do not decode or decode
+ * wrongly, without a GUI.
+ * <pre>
+ * java HuffInspector [-q] [-b from:to]... file
+ *
+ *   -q          leave out the counts and code table of each segment
+ *   -b from:to  dump the bits from bit offset from up to, not including, to; to may be
+ *               +n for n bits, or left out for the end of the file
+ * </pre>
+ * For each segment the inspector prints where it starts, its magic number and format word
+ * with the format and flags spelled out, the length and transforms if stored, the counts
+ * stored in the header, and the code of every value in the tree, then decodes the data,
+ * without keeping it, to report the bit offsets where the data, checksum and seek index
+ * start and where the segment ends, and whether the checksum matches. Every offset is in
+ * bits from the start of the file, so a range around one can be dumped with -b.
+ * <P>
+ * Dumps are grouped in bytes of the file and 64 bits to a line, each line starting with the
+ * offset of its first bit. The file is streamed through a buffer and each line is built in
+ * an array before it is written, so dumping megabytes takes a fraction of a second rather
+ * than the minutes printing each bit on its own takes.
+ */
+public final class HuffInspector implements IHuffConstants {
+    /** The number of bits on each line of a dump. */
+    public static final int BITS_PER_LINE = 64;
+
+    // the size of the buffers reading the file and writing the output
+    private static final int BUFFER_SIZE = 1 << 16;
+    // the values on each line of counts
+    private static final int COUNTS_PER_LINE = 8;
+    // the width of the offset starting each line of a dump
+    private static final int OFFSET_WIDTH = 12;
+    // the characters of the bits of each byte value, 8 per value
+    private static final byte[] BYTE_BITS = new byte[ALPH_SIZE * BITS_PER_WORD];
+
+    static {
+        for (int value = 0; value < ALPH_SIZE; value++) {
+            for (int k = 0; k < BITS_PER_WORD; k++) {
+                BYTE_BITS[value * BITS_PER_WORD + k] =
+                        (byte) ('0' + (value >>> (BITS_PER_WORD - 1 - k) & 1));
+            }
+        }
+    }
+
+    private final PrintStream OUT;
+    private final boolean TABLES;
+    private final int[] FREQS;
+    private final int[] TREE;
+    private final byte[] SCRATCH;
+
+    /**
+     * Create an inspector.
+     *
+     * @param out where reports are written
+     * @param tables true to include the counts and code table of each segment
+     */
+    public HuffInspector(PrintStream out, boolean tables) {
+        if (out == null) {
+            throw new IllegalArgumentException("out cannot be null");
+        }
+        OUT = out;
+        TABLES = tables;
+        FREQS = new int[ALPH_SIZE];
+        TREE = new int[2 * (ALPH_SIZE + 1)];
+        SCRATCH = new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Report the segments of a compressed stream, stopping at the first error, which is
+     * reported with the offset it was found at. The stream is read to the end of the last
+     * segment but not closed.
+     *
+     * @param in the compressed stream
+     * @return the number of segments reported in full
+     * @throws IOException if the stream cannot be read
+     */
+    public int inspect(InputStream in) throws IOException {
+        FastBitInputStream bitsIn = new FastBitInputStream(in);
+        int segments = 0;
+        try {
+            while (!bitsIn.atEnd()) {
+                if (!inspectSegment(bitsIn, segments)) {
+                    break;
+                }
+                segments++;
+                bitsIn.alignToByte();
+            }
+        } catch (IOException e) {
+            String message = e.getMessage() == null ? e.toString() : e.getMessage();
+            OUT.printf("error at bit %d: %s%n", bitsIn.getBitPosition(),
+                    message.replace(" \n", " ").replace("\n", " "));
+        }
+        OUT.printf("%d segments, %d bytes%n", segments,
+                (bitsIn.getBitPosition() + BITS_PER_WORD - 1) / BITS_PER_WORD);
+        OUT.flush();
+        return segments;
+    }
+
+    /**
+     * Report one segment.
+     *
+     * @param bitsIn the stream positioned at the segment's magic number
+     * @param number the number of segments before it
+     * @return false if the segment does not start with the magic number
+     */
+    private boolean inspectSegment(FastBitInputStream bitsIn, int number) throws IOException {
+        long start = bitsIn.getBitPosition();
+        int magic = bitsIn.peekBits(BITS_PER_INT);
+        OUT.printf("segment %d at bit %d (byte %d)%n", number, start, start / BITS_PER_WORD);
+        if (magic != MAGIC_NUMBER) {
+            OUT.printf("  magic %08x, not a compressed stream%s%n", magic,
+                    magic == ARCHIVE_MAGIC ? " but a HuffArchive" : "");
+            return false;
+        }
+        HuffHeader header = HuffHeader.read(bitsIn, FREQS);
+        int format = header.getHeaderFormat();
+        for (int flag : new int[] {LENGTH_FLAG, CHECKSUM_FLAG, INDEX_FLAG, TRANSFORM_FLAG}) {
+            format |= header.hasFlag(flag) ? flag : 0;
+        }
+        OUT.printf("  magic %08x, format word %08x: %s%n", magic, format, describe(format));
+        if (header.hasFlag(LENGTH_FLAG)) {
+            OUT.printf("  length %d bytes%n", header.getOriginalLength());
+        }
+        for (ByteTransform transform : header.getTransforms()) {
+            OUT.printf("  transform %d %s%n", transform.getId(),
+                    transform.getClass().getSimpleName());
+        }
+        long data = bitsIn.getBitPosition();
+        OUT.printf("  header bits %d to %d (%d bits)%n", start, data, data - start);
+
+        long values;
+        int checksum;
+        if (header.getHeaderFormat() == STORE_LZ) {
+            LzHuffDecoder decoder = new LzHuffDecoder();
+            values = decoder.decode(bitsIn, OutputStream.nullOutputStream());
+            checksum = decoder.getChecksum();
+        } else {
+            if (TABLES) {
+                printTables(header);
+            }
+            MultiSymbolTable table = new MultiSymbolTable();
+            table.fill(header.getTree());
+            CRC32C crc = new CRC32C();
+            values = 0;
+            while (true) {
+                int decoded = table.decode(bitsIn, SCRATCH, 0, SCRATCH.length);
+                int n = decoded < 0 ? ~decoded : decoded;
+                crc.update(SCRATCH, 0, n);
+                values += n;
+                if (decoded < 0) {
+                    break;
+                }
+            }
+            checksum = (int) crc.getValue();
+        }
+        long end = bitsIn.getBitPosition();
+        OUT.printf("  data bits %d to %d (%d bits, %d values, %.3f bits per value)%n", data,
+                end, end - data, values, values == 0 ? 0.0 : (double) (end - data) / values);
+        if (header.hasFlag(LENGTH_FLAG) && values != header.getOriginalLength()
+                && header.getTransforms().length == 0) {
+            OUT.printf("  decoded %d values, the header says %d%n", values,
+                    header.getOriginalLength());
+        }
+        if (header.hasFlag(CHECKSUM_FLAG)) {
+            bitsIn.alignToByte();
+            long at = bitsIn.getBitPosition();
+            int stored = bitsIn.readInt();
+            OUT.printf("  checksum at bit %d: %08x, %s%n", at, stored,
+                    stored == checksum ? "matches" : String.format("MISMATCH, data gives %08x",
+                            checksum));
+        }
+        if (header.hasFlag(INDEX_FLAG)) {
+            bitsIn.alignToByte();
+            long at = bitsIn.getBitPosition();
+            SeekIndex.skip(bitsIn);
+            OUT.printf("  seek index bits %d to %d%n", at, bitsIn.getBitPosition());
+        }
+        end = (bitsIn.getBitPosition() + BITS_PER_WORD - 1) / BITS_PER_WORD * BITS_PER_WORD;
+        OUT.printf("  end at bit %d (byte %d), %d bytes%n", end, end / BITS_PER_WORD,
+                (end - start) / BITS_PER_WORD);
+        return true;
+    }
+
+    /**
+     * Spell out a format word.
+     */
+    private static String describe(int format) {
+        int headerFormat = format & ~FLAG_MASK;
+        String name;
+        if (headerFormat == STORE_COUNTS) {
+            name = "counts";
+        } else if (headerFormat == STORE_TREE) {
+            name = "tree";
+        } else if (headerFormat == STORE_SPARSE) {
+            name = "sparse";
+        } else if (headerFormat == STORE_RAW) {
+            name = "raw";
+        } else if (headerFormat == STORE_LZ) {
+            name = "lz";
+        } else {
+            name = "unknown " + Integer.toHexString(headerFormat);
+        }
+        String[] flagNames = {"length", "checksum", "index", "transform"};
+        int[] flags = {LENGTH_FLAG, CHECKSUM_FLAG, INDEX_FLAG, TRANSFORM_FLAG};
+        StringBuilder description = new StringBuilder(name);
+        for (int i = 0; i < flags.length; i++) {
+            if ((format & flags[i]) != 0) {
+                description.append(", ").append(flagNames[i]);
+            }
+        }
+        return description.toString();
+    }
+
+    /**
+     * Print the counts a header stores, if it stores counts, and the code of every value in
+     * its tree.
+     */
+    private void printTables(HuffHeader header) {
+        int headerFormat = header.getHeaderFormat();
+        if (headerFormat == STORE_COUNTS || headerFormat == STORE_SPARSE) {
+            List<String> counts = new ArrayList<>();
+            for (int value = 0; value < ALPH_SIZE; value++) {
+                if (FREQS[value] != 0) {
+                    counts.add(String.format("%02x=%d", value, FREQS[value]));
+                }
+            }
+            OUT.printf("  counts of %d values:%n", counts.size());
+            for (int i = 0; i < counts.size(); i += COUNTS_PER_LINE) {
+                OUT.println("    "
+                        + String.join(" ", counts.subList(i, Math.min(i + COUNTS_PER_LINE,
+                                counts.size()))));
+            }
+        }
+        String[] codes = new String[ALPH_SIZE + 1];
+        if (header.getTree().fillDecodeTable(TREE) == 0) {
+            codes[PSEUDO_EOF] = "";
+        } else {
+            listCodes(0, new StringBuilder(), codes);
+        }
+        OUT.println("  codes:");
+        for (int value = 0; value <= PSEUDO_EOF; value++) {
+            if (codes[value] != null) {
+                OUT.printf("    %-4s %3d  %s%n", value == PSEUDO_EOF ? "PEOF"
+                        : String.format("%02x", value), codes[value].length(), codes[value]);
+            }
+        }
+    }
+
+    /**
+     * Find the codes of the leaves below an internal node of the flattened tree. A leaf of
+     * -1, which a corrupt tree can hold, would point back at the root and is skipped.
+     *
+     * @param node the index of the internal node
+     * @param path the bits of the path to node
+     * @param codes filled with the code of each value
+     */
+    private void listCodes(int node, StringBuilder path, String[] codes) {
+        for (int bit = 0; bit <= 1; bit++) {
+            int child = TREE[2 * node + bit];
+            path.append(bit);
+            if (child > 0) {
+                listCodes(child, path, codes);
+            } else if (child < 0 && ~child < codes.length) {
+                codes[~child] = path.toString();
+            }
+            path.setLength(path.length() - 1);
+        }
+    }
+
+    /**
+     * Dump bits of a stream as 0s and 1s, 8 to a group, the groups lining up with the bytes
+     * of the stream. Bits before from on the first line are shown as spaces. The stream is
+     * not closed.
+     *
+     * @param in the stream, positioned at its start
+     * @param from the offset of the first bit dumped
+     * @param to the offset after the last bit dumped, or Long.MAX_VALUE for the end of the
+     *        stream
+     * @param bitsPerLine the bits on each line, a positive multiple of 8
+     * @param offsets true to start each line with the offset of its first bit
+     * @param out where the bits are written; it is flushed at the end
+     * @return the number of bits dumped, fewer than asked for if the stream ends first
+     * @throws IOException if the stream cannot be read
+     */
+    public static long dumpBits(InputStream in, long from, long to, int bitsPerLine,
+            boolean offsets, OutputStream out) throws IOException {
+        if (from < 0 || to < from || bitsPerLine <= 0 || bitsPerLine % BITS_PER_WORD != 0) {
+            throw new IllegalArgumentException("need 0 <= from <= to and bitsPerLine a "
+                    + "positive multiple of 8");
+        }
+        long lineStart = from - from % bitsPerLine;
+        in.skipNBytes(lineStart / BITS_PER_WORD);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        // the offset, and a character for each bit and a space or newline after each group
+        byte[] line = new byte[OFFSET_WIDTH + 2 + bitsPerLine + bitsPerLine / BITS_PER_WORD];
+        int length = 0;
+        int read;
+        long bit = lineStart;
+        outer:
+        while ((read = in.read(buffer, 0, buffer.length)) != -1) {
+            for (int i = 0; i < read; i++) {
+                if (bit >= to) {
+                    break outer;
+                }
+                if (bit % bitsPerLine == 0) {
+                    length = startLine(line, bit, offsets);
+                }
+                int b = buffer[i] & 0xFF;
+                if (bit >= from && bit + BITS_PER_WORD <= to) {
+                    System.arraycopy(BYTE_BITS, b * BITS_PER_WORD, line, length, BITS_PER_WORD);
+                    length += BITS_PER_WORD;
+                    bit += BITS_PER_WORD;
+                } else {
+                    // the first or last byte of the range
+                    for (int k = BITS_PER_WORD - 1; k >= 0; k--, bit++) {
+                        line[length++] = bit < from || bit >= to ? (byte) ' '
+                                : (byte) ('0' + (b >>> k & 1));
+                    }
+                }
+                if (bit % bitsPerLine == 0) {
+                    line[length++] = '\n';
+                    out.write(line, 0, length);
+                    length = 0;
+                } else {
+                    line[length++] = ' ';
+                }
+            }
+        }
+        if (length > 0) {
+            // the last line is partial: end it after its last bit
+            while (line[length - 1] == ' ') {
+                length--;
+            }
+            line[length++] = '\n';
+            out.write(line, 0, length);
+        }
+        out.flush();
+        return Math.max(0, Math.min(bit, to) - from);
+    }
+
+    /**
+     * Start a line of a dump with its offset, if offsets are shown.
+     *
+     * @return the number of bytes of the line so far
+     */
+    private static int startLine(byte[] line, long bit, boolean offsets) {
+        if (!offsets) {
+            return 0;
+        }
+        // the offset right aligned, then two spaces
+        int at = OFFSET_WIDTH - 1;
+        do {
+            line[at--] = (byte) ('0' + bit % 10);
+            bit /= 10;
+        } while (bit > 0 && at >= 0);
+        while (at >= 0) {
+            line[at--] = ' ';
+        }
+        line[OFFSET_WIDTH] = ' ';
+        line[OFFSET_WIDTH + 1] = ' ';
+        return OFFSET_WIDTH + 2;
+    }
+
+    /**
+     * Run the inspector.
+     *
+     * @param args the options and the file
+     */
+    public static void main(String[] args) {
+        boolean tables = true;
+        List<long[]> ranges = new ArrayList<>();
+        String name = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-q")) {
+                    tables = false;
+                } else if (args[i].equals("-b") && i + 1 < args.length) {
+                    ranges.add(range(args[++i]));
+                } else if (name == null && !args[i].startsWith("-")) {
+                    name = args[i];
+                } else {
+                    throw new IllegalArgumentException("unknown option " + args[i]);
+                }
+            }
+            if (name == null) {
+                throw new IllegalArgumentException("no file named");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("usage: HuffInspector [-q] [-b from:to]... file");
+            System.exit(2);
+        }
+
+        Path file = Paths.get(name);
+        PrintStream out = new PrintStream(new BufferedOutputStream(System.out, BUFFER_SIZE));
+        try {
+            if (ranges.isEmpty()) {
+                try (InputStream in = Files.newInputStream(file)) {
+                    new HuffInspector(out, tables).inspect(in);
+                }
+            }
+            for (long[] range : ranges) {
+                out.printf("bits %d to %s%n", range[0], range[1] == Long.MAX_VALUE ? "end"
+                        : Long.toString(range[1]));
+                try (InputStream in = Files.newInputStream(file)) {
+                    dumpBits(in, range[0], range[1], BITS_PER_LINE, true, out);
+                }
+            }
+        } catch (IOException e) {
+            out.flush();
+            System.err.println(name + ": " + e.getMessage());
+            System.exit(1);
+        }
+        out.flush();
+    }
+
+    /**
+     * Parse a range given with -b.
+     *
+     * @param range from:to, from:+n or from:
+     * @return from and to
+     */
+    private static long[] range(String range) {
+        int colon = range.indexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("bad range " + range + ", expected from:to");
+        }
+        long from = Long.parseLong(range.substring(0, colon));
+        String end = range.substring(colon + 1);
+        long to = end.isEmpty() ? Long.MAX_VALUE : end.startsWith("+")
+                ? from + Long.parseLong(end.substring(1)) : Long.parseLong(end);
+        if (from < 0 || to < from) {
+            throw new IllegalArgumentException("bad range " + range);
+        }
+        return new long[] {from, to};
+    }
+}
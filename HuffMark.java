@@ -2,8 +2,6 @@ import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
 
 import java.io.*;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 
 public class HuffMark {
     protected static JFileChooser ourOpenChooser = new JFileChooser(System
@@ -16,7 +14,8 @@ public class HuffMark {
     private long myTotalUncompressedBytes;
     private long myTotalCompressedBytes;
     
-    private IHuffProcessor myHuffer;
+    private SimpleHuffProcessor myHuffer;
+    private MappedHuffProcessor myMapper;
     private static String SUFFIX = ".hf";
     private static boolean FAST_READER = true;
     
@@ -26,11 +25,15 @@ public class HuffMark {
         if (f.isDirectory()) return; // don't read directories
         
         double start = System.currentTimeMillis();
-        myHuffer.preprocessCompress(getFastByteReader(f), IHuffProcessor.STORE_COUNTS);
         File outFile = new File(getCompressedName(f));
-        FileOutputStream out = new FileOutputStream(outFile);
         // System.out.println("compressing to: "+outFile.getCanonicalPath());
-        myHuffer.compress(getFastByteReader(f), out,true);
+        if (FAST_READER) {
+            // map the whole file and the output, however large, and code with no copies
+            myMapper.compressMapped(f.toPath(), outFile.toPath(), IHuffProcessor.STORE_AUTO);
+        } else {
+            myHuffer.preprocessCompress(new FileInputStream(f), IHuffProcessor.STORE_AUTO);
+            myHuffer.compress(new FileInputStream(f), new FileOutputStream(outFile), true);
+        }
         double end = System.currentTimeMillis();
         double time = (end-start)/1000.0;
         
@@ -46,6 +49,9 @@ public class HuffMark {
         if (myHuffer == null){
             myHuffer = new SimpleHuffProcessor();
         }
+        if (myMapper == null){
+            myMapper = new MappedHuffProcessor();
+        }
         int action = ourOpenChooser.showOpenDialog(null);
         if (action == JFileChooser.APPROVE_OPTION){
             File dir = ourOpenChooser.getSelectedFile();
@@ -81,28 +87,4 @@ public class HuffMark {
         return newName;
     }
     
-    
-    private InputStream getFastByteReader(File f) throws FileNotFoundException{
-        
-        if (!FAST_READER){
-            return new FileInputStream(f);
-        }
-        
-        ByteBuffer buffer = null;
-         try {
-             FileChannel channel = new FileInputStream(f).getChannel();
-             buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
-             byte[] barray = new byte[buffer.limit()];
-           
-             if (barray.length != channel.size()){               
-                 System.err.println(String.format("Reading %s error: lengths differ %d %ld\n",f.getName(),barray.length,channel.size()));
-             }
-             buffer.get(barray);
-             return new ByteArrayInputStream(barray);
-         } catch (IOException e) {
-             e.printStackTrace();
-         }
-         return null;
-    }
-    
 }
@@ -0,0 +1,86 @@
+import jdk.jfr.EventType;
+
+/**
+ * Times the phases of compressing and uncompressing and reports them to listeners and to
+ * JDK Flight Recorder as <code>HuffPhaseEvent</code>s. When there are no listeners and no
+ * recording is running, <code>start</code> returns without reading the clock and
+ * <code>end</code> returns immediately, so instrumented code costs a branch per phase.
+ * <P>
+ * A metrics object is immutable and can be shared by any number of threads.
+ */
+public final class HuffMetrics {
+    /** Metrics reporting only to Flight Recorder. */
+    public static final HuffMetrics DEFAULT = new HuffMetrics();
+
+    private static final EventType PHASE_EVENT = EventType.getEventType(HuffPhaseEvent.class);
+
+    // returned by start when nothing is listening
+    private static final long DISABLED = Long.MIN_VALUE;
+
+    private final HuffPhaseListener[] LISTENERS;
+
+    /**
+     * Create metrics that report to the given listeners as well as to Flight Recorder.
+     *
+     * @param listeners the listeners, null entries are ignored
+     */
+    public HuffMetrics(HuffPhaseListener... listeners) {
+        int count = 0;
+        for (HuffPhaseListener listener : listeners) {
+            if (listener != null) {
+                count++;
+            }
+        }
+        LISTENERS = new HuffPhaseListener[count];
+        count = 0;
+        for (HuffPhaseListener listener : listeners) {
+            if (listener != null) {
+                LISTENERS[count++] = listener;
+            }
+        }
+    }
+
+    /**
+     * Tells us if anything is listening for phases.
+     *
+     * @return true if there is a listener or a running recording wants phase events
+     */
+    public boolean isEnabled() {
+        return LISTENERS.length > 0 || PHASE_EVENT.isEnabled();
+    }
+
+    /**
+     * Mark the start of a phase.
+     *
+     * @return a token to pass to <code>end</code>
+     */
+    public long start() {
+        return isEnabled() ? System.nanoTime() : DISABLED;
+    }
+
+    /**
+     * Mark the end of a phase and report it.
+     *
+     * @param phase the phase that finished
+     * @param start the token returned by <code>start</code> at the beginning of the phase
+     * @param bytesIn the number of bytes the phase consumed
+     * @param bytesOut the number of bytes the phase produced
+     */
+    public void end(HuffPhase phase, long start, long bytesIn, long bytesOut) {
+        if (start == DISABLED) {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        for (HuffPhaseListener listener : LISTENERS) {
+            listener.phaseCompleted(phase, nanos, bytesIn, bytesOut);
+        }
+        if (PHASE_EVENT.isEnabled()) {
+            HuffPhaseEvent event = new HuffPhaseEvent();
+            event.phase = phase.name();
+            event.elapsed = nanos;
+            event.bytesIn = bytesIn;
+            event.bytesOut = bytesOut;
+            event.commit();
+        }
+    }
+}
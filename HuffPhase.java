@@ -0,0 +1,18 @@
+/**
+ * The phases of compressing and uncompressing that are timed and reported through
+ * <code>HuffMetrics</code>.
+ */
+public enum HuffPhase {
+    /** Counting the values in the input. */
+    HISTOGRAM,
+    /** Building the Huffman tree from the counts. */
+    TREE_BUILD,
+    /** Walking the tree to assign a code to each value. */
+    CODE_GENERATION,
+    /** Writing the magic number, header format and counts or tree. */
+    HEADER_WRITE,
+    /** Writing the codes of the data. */
+    ENCODE,
+    /** Reading the header and regenerating the original data. */
+    DECODE
+}
@@ -0,0 +1,35 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A JDK Flight Recorder event committed when a phase of compressing or uncompressing
+ * finishes. The event is recorded by any running recording, e.g., one started with
+ * <code>jcmd &lt;pid&gt; JFR.start</code>, which shows which phase dominates without
+ * attaching a profiler. When no recording is running the event is never created.
+ */
+@Name("huff.Phase")
+@Label("Huffman Phase")
+@Category("Huffman")
+@Description("Time and bytes of one phase of Huffman compression or uncompression")
+@StackTrace(false)
+class HuffPhaseEvent extends jdk.jfr.Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("Elapsed")
+    @Timespan(Timespan.NANOSECONDS)
+    long elapsed;
+
+    @Label("Bytes In")
+    @DataAmount
+    long bytesIn;
+
+    @Label("Bytes Out")
+    @DataAmount
+    long bytesOut;
+}
@@ -0,0 +1,18 @@
+/**
+ * Receives the time and byte counts of each phase of compressing and uncompressing. Attach
+ * one to a processor with <code>SimpleHuffProcessor.setPhaseListener</code>. Listeners are
+ * called on the thread doing the work, so they should be quick and, if the processor is
+ * shared, thread-safe.
+ */
+public interface HuffPhaseListener {
+
+    /**
+     * Called when a phase finishes.
+     *
+     * @param phase the phase that finished
+     * @param nanos the wall-clock time spent in the phase, in nanoseconds
+     * @param bytesIn the number of bytes the phase consumed, 0 if it reads no data
+     * @param bytesOut the number of bytes the phase produced, 0 if it writes no data
+     */
+    public void phaseCompleted(HuffPhase phase, long nanos, long bytesIn, long bytesOut);
+}
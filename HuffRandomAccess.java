@@ -0,0 +1,140 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Decompresses arbitrary byte ranges of a compressed file written with a seek index (see
+ * <code>CompressionPlan.withSeekIndex</code>). A read starts decoding at the nearest index
+ * entry at or before the requested offset, so its cost depends on the index interval and the
+ * length read rather than on where in the file the range lies.
+ * <P>
+ * The header and index are read once when the file is opened. Reads use positional I/O on
+ * a shared channel and keep no state between calls, so one instance may serve reads from
+ * any number of threads at once.
+ */
+public class HuffRandomAccess implements IHuffConstants, Closeable {
+    // small reads are the common case, so each read buffers less than a full decoder does
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private final FileChannel CHANNEL;
+    private final int[] DECODE_TABLE;
+    private final int INTERNAL_NODES;
+    private final SeekIndex INDEX;
+
+    /**
+     * Open a compressed file for random access.
+     *
+     * @param file a file compressed with a seek index
+     * @throws IOException if the file cannot be read, is not a compressed file or has no
+     *         seek index
+     */
+    public HuffRandomAccess(Path file) throws IOException {
+        CHANNEL = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            HuffHeader header = HuffHeader.read(
+                    new FastBitInputStream(READ_BUFFER_SIZE).attach(new ChannelInputStream(CHANNEL, 0)),
+                    new int[ALPH_SIZE]);
+            if (header == null) {
+                throw new IOException("Error reading compressed file. \n"
+                        + "File did not start with the huff magic number.");
+            }
+            if (!header.hasFlag(INDEX_FLAG)) {
+                throw new IOException("Error reading compressed file. \n"
+                        + "File was compressed without a seek index.");
+            }
+            if (header.hasFlag(TRANSFORM_FLAG)) {
+                throw new IOException("Error reading compressed file. \n"
+                        + "File was transformed before coding, so it cannot be read from "
+                        + "an index entry.");
+            }
+            DECODE_TABLE = new int[2 * (ALPH_SIZE + 1)];
+            INTERNAL_NODES = header.getTree().fillDecodeTable(DECODE_TABLE);
+            INDEX = SeekIndex.read(CHANNEL, CHANNEL.size());
+        } catch (IOException | RuntimeException e) {
+            CHANNEL.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Decompress a range of the original data.
+     *
+     * @param offset the offset in the original data of the first byte, >= 0
+     * @param length the number of bytes to read, >= 0
+     * @return the bytes read, shorter than length if the data ends first
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    public byte[] read(long offset, int length) throws IOException {
+        byte[] buffer = new byte[length];
+        int read = read(offset, buffer, 0, length);
+        return read == length ? buffer : Arrays.copyOf(buffer, Math.max(read, 0));
+    }
+
+    /**
+     * Decompress a range of the original data into a caller-supplied array.
+     *
+     * @param offset the offset in the original data of the first byte, >= 0
+     * @param dst the array the bytes are stored in
+     * @param dstOffset the index in dst of the first byte
+     * @param length the number of bytes to read, >= 0
+     * @return the number of bytes read, fewer than length if the data ends first, or -1 if
+     *         offset is at or past the end of the data
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    public int read(long offset, byte[] dst, int dstOffset, int length) throws IOException {
+        if (offset < 0 || length < 0 || dstOffset < 0 || dstOffset + length > dst.length) {
+            throw new IndexOutOfBoundsException("bad range: offset " + offset + ", length "
+                    + length);
+        }
+        int entry = INDEX.floorEntry(offset);
+        if (entry == -1 || INTERNAL_NODES == 0) {
+            return -1;
+        }
+
+        // start at the sync point, which may be in the middle of a byte
+        long bitOffset = INDEX.getBitOffset(entry);
+        FastBitInputStream bitsIn = new FastBitInputStream(READ_BUFFER_SIZE)
+                .attach(new ChannelInputStream(CHANNEL, bitOffset / BITS_PER_WORD));
+        if (bitOffset % BITS_PER_WORD != 0) {
+            bitsIn.readBits((int) (bitOffset % BITS_PER_WORD));
+        }
+
+        // decode and drop the bytes between the sync point and the requested offset
+        for (long skip = offset - INDEX.getOffset(entry); skip > 0; skip--) {
+            if (HuffDecoder.decodeSymbol(bitsIn, DECODE_TABLE) == PSEUDO_EOF) {
+                return -1;
+            }
+        }
+
+        int count = 0;
+        while (count < length) {
+            int value = HuffDecoder.decodeSymbol(bitsIn, DECODE_TABLE);
+            if (value == PSEUDO_EOF) {
+                return count == 0 ? -1 : count;
+            }
+            dst[dstOffset + count++] = (byte) value;
+        }
+        return count;
+    }
+
+    /**
+     * Get the seek index of the file.
+     *
+     * @return the index
+     */
+    public SeekIndex getIndex() {
+        return INDEX;
+    }
+
+    /**
+     * Close the file.
+     *
+     * @throws IOException if closing fails
+     */
+    public void close() throws IOException {
+        CHANNEL.close();
+    }
+}
@@ -1,10 +1,54 @@
 
 
 import java.io.IOException;
+import java.util.Arrays;
 
 public class HuffTree {
     private final TreeNode ROOT; // the tree is immutable, so we can use final
 
+    /**
+     * Create a tree with the given root.
+     *
+     * @param root the root node of the tree
+     */
+    private HuffTree(TreeNode root) {
+        ROOT = root;
+    }
+
+    /**
+     * Create the tree of STORE_RAW, which codes each value as itself in 8 bits except that
+     * one value shares its code with PSEUDO_EOF, both getting one more bit.
+     *
+     * @param shared the value that shares its code with PSEUDO_EOF, ideally the rarest
+     * @return the tree
+     */
+    public static HuffTree createRaw(int shared) {
+        return new HuffTree(createRaw(shared, 0, 0));
+    }
+
+    /**
+     * Create the subtree of the raw tree holding the values that start with prefix.
+     *
+     * @param shared the value that shares its code with PSEUDO_EOF
+     * @param prefix the bits of the path to the subtree
+     * @param depth the number of bits in the path
+     * @return the root of the subtree
+     */
+    private static TreeNode createRaw(int shared, int prefix, int depth) {
+        if (depth == IHuffConstants.BITS_PER_WORD) {
+            if (prefix != shared) {
+                return new TreeNode(prefix, -1); // all freq = -1 because they do not matter
+            }
+            return new TreeNode(new TreeNode(prefix, -1), 3,
+                    new TreeNode(IHuffConstants.PSEUDO_EOF, -1));
+        }
+        TreeNode left = createRaw(shared, prefix << 1, depth + 1);
+        TreeNode right = createRaw(shared, (prefix << 1) | 1, depth + 1);
+        // the value of a non-leaf node is the size of the subtrees at the node
+        return new TreeNode(left, (left.isLeaf() ? 1 : left.getValue())
+                + (right.isLeaf() ? 1 : right.getValue()) + 1, right);
+    }
+
     /**
      * Create a tree from the array of frequencies
      * 
@@ -15,64 +59,87 @@ public class HuffTree {
     }
 
     /**
-     * Create a tree using a priority queue with values and frequencies.
+     * Create a tree using a priority queue with values and frequencies. The queue holds the
+     * indexes of the nodes not yet joined, with their frequencies as priorities, and is fair,
+     * so ties are broken the same way on every run and by every version of the queue.
      * 
      * @param freqs array of frequencies
      * @return the root node of the tree
      */
     private TreeNode createTreeFromFreqs(int[] freqs) {
-        // add the frequencies to the queue
-        PQ<TreeNode> queue = new PQ<>();
+        // a leaf for each value with a count and PSEUDO_EOF, and a parent for each join
+        TreeNode[] nodes = new TreeNode[2 * (freqs.length + 1)];
+        LongPQ queue = new LongPQ(freqs.length + 1);
+        int count = 0;
 
+        // add the frequencies to the queue
         for (int i = 0; i < freqs.length; i++) {
             if (freqs[i] > 0) {
-                queue.enqueue(new TreeNode(i, freqs[i]));
+                nodes[count] = new TreeNode(i, freqs[i]);
+                queue.enqueue(freqs[i], count++);
             }
         }
 
         // PEOF added
-        queue.enqueue(new TreeNode(IHuffConstants.PSEUDO_EOF, 1));
+        nodes[count] = new TreeNode(IHuffConstants.PSEUDO_EOF, 1);
+        queue.enqueue(1, count++);
 
         // create a tree from the queue
         while (!queue.isSizeOne()) {
-            TreeNode left = queue.dequeue();
-            TreeNode right = queue.dequeue();
+            TreeNode left = nodes[queue.dequeue()];
+            TreeNode right = nodes[queue.dequeue()];
             // the value of a non-leaf node is the size of the subtrees at the node
             TreeNode parent = new TreeNode(left, (left.isLeaf() ? 1 : left.getValue())
                     + (right.isLeaf() ? 1 : right.getValue()) + 1, right);
-            queue.enqueue(parent);
+            nodes[count] = parent;
+            queue.enqueue(parent.getFrequency(), count++);
         }
 
-        return queue.dequeue(); // only one node left, and it is the root
+        return nodes[queue.dequeue()]; // only one node left, and it is the root
     }
 
     /**
      * Create a tree from an STF representation of a tree in the form of a BitInputStream
      * 
      * @param bitsIn the BitInputStream to read from
+     * @throws IOException if the input ends inside the tree, a leaf's value is not a value or
+     *         PSEUDO_EOF, or the tree has more leaves than there are values
      */
     public HuffTree(BitInputStream bitsIn) throws IOException {
-        ROOT = readSTF(bitsIn);
+        ROOT = readSTF(bitsIn, new int[] {0});
     }
 
     /**
      * Create a tree using STF.
      * 
      * @param bitsIn input stream to read data from
+     * @param count the number of nodes read so far
      * @return the root of the tree represented by the data
-     * @throws IOException
+     * @throws IOException if the tree is malformed
      */
-    private TreeNode readSTF(BitInputStream bitsIn) throws IOException {
+    private TreeNode readSTF(BitInputStream bitsIn, int[] count) throws IOException {
+        // a tree of ALPH_SIZE + 1 leaves has 2 * ALPH_SIZE + 1 nodes, so a corrupt header
+        // cannot build a tree too large for a decode table, or recurse without end
+        if (++count[0] > 2 * IHuffConstants.ALPH_SIZE + 1) {
+            throw new IOException("Error reading compressed file. \n"
+                    + "the tree has more leaves than there are values.");
+        }
+        int bit = bitsIn.readBits(1);
         // if the next bit represents a parent
-        if (bitsIn.readBits(1) == 0) {
+        if (bit == 0) {
             TreeNode node = new TreeNode(-1, -1); // all freq = -1 because they no longer matter
-            node.setLeft(readSTF(bitsIn));
-            node.setRight(readSTF(bitsIn));
+            node.setLeft(readSTF(bitsIn, count));
+            node.setRight(readSTF(bitsIn, count));
             return node;
         }
         // otherwise the bit we read represents a leaf
         else {
-            int val = bitsIn.readBits(IHuffConstants.BITS_PER_WORD + 1);
+            int val = bit == -1 ? -1 : bitsIn.readBits(IHuffConstants.BITS_PER_WORD + 1);
+            if (val < 0 || val > IHuffConstants.PSEUDO_EOF) {
+                throw new IOException("Error reading compressed file. \n"
+                        + (val < 0 ? "unexpected end of input in the tree."
+                                : "the tree has a leaf of value " + val + "."));
+            }
             return new TreeNode(val, -1); // all freq = -1 because they no longer matter
         }
     }
@@ -108,6 +175,94 @@ public class HuffTree {
         return codes;
     }
 
+    /**
+     * Fill parallel arrays with the code of each leaf in the tree. Unlike
+     * <code>createCodes</code> this builds no strings or objects, so a caller can reuse the
+     * arrays for every tree it codes with. Symbols not in the tree get a length of 0.
+     *
+     * @param values filled with the code of each symbol, length > PSEUDO_EOF
+     * @param lengths filled with the number of bits in the code of each symbol, length >
+     *        PSEUDO_EOF
+     */
+    public void fillCodes(int[] values, int[] lengths) {
+        Arrays.fill(values, 0);
+        Arrays.fill(lengths, 0);
+        fillCodes(values, lengths, ROOT, 0, 0);
+    }
+
+    /**
+     * Fill in the codes of the leaves in the subtree at node.
+     *
+     * @param values the code of each symbol
+     * @param lengths the number of bits in the code of each symbol
+     * @param node the node we are at
+     * @param code the bits of the path to node
+     * @param length the number of bits in the path to node
+     */
+    private void fillCodes(int[] values, int[] lengths, TreeNode node, int code, int length) {
+        if (node.isLeaf()) {
+            values[node.getValue()] = code;
+            lengths[node.getValue()] = length;
+        } else {
+            fillCodes(values, lengths, node.getLeft(), code << 1, length + 1);
+            fillCodes(values, lengths, node.getRight(), (code << 1) | 1, length + 1);
+        }
+    }
+
+    /**
+     * Get the length of the longest path from the root to a leaf, the longest code the tree
+     * gives, without filling in any codes.
+     *
+     * @return the height of the tree, 0 if it is a single leaf
+     */
+    public int getHeight() {
+        return getHeight(ROOT);
+    }
+
+    private static int getHeight(TreeNode node) {
+        if (node.isLeaf()) {
+            return 0;
+        }
+        return 1 + Math.max(getHeight(node.getLeft()), getHeight(node.getRight()));
+    }
+
+    /**
+     * Flatten the tree into an array for decoding without following object references.
+     * Internal node i (the root is node 0) stores its children at <code>table[2 * i]</code>
+     * (the 0 branch) and <code>table[2 * i + 1]</code> (the 1 branch). A child that is an
+     * internal node is stored as its index, a child that is a leaf as <code>~value</code>,
+     * which is always negative.
+     *
+     * @param table filled with the children of each internal node, length >= 2 * (ALPH_SIZE + 1)
+     * @return the number of internal nodes, 0 if the tree is a single leaf
+     */
+    public int fillDecodeTable(int[] table) {
+        if (ROOT.isLeaf()) {
+            return 0;
+        }
+        int[] count = {0};
+        fillDecodeTable(table, ROOT, count);
+        return count[0];
+    }
+
+    /**
+     * Flatten the subtree at internal node into the table.
+     *
+     * @param table the children of each internal node
+     * @param node the internal node being stored
+     * @param count the number of internal nodes assigned an index so far
+     * @return the index assigned to node
+     */
+    private int fillDecodeTable(int[] table, TreeNode node, int[] count) {
+        int index = count[0]++;
+        TreeNode left = node.getLeft();
+        TreeNode right = node.getRight();
+        table[2 * index] = left.isLeaf() ? ~left.getValue() : fillDecodeTable(table, left, count);
+        table[2 * index + 1] = right.isLeaf() ? ~right.getValue()
+                : fillDecodeTable(table, right, count);
+        return index;
+    }
+
     /**
      * Write the new tree to the output stream.
      * 
@@ -155,7 +310,7 @@ public class HuffTree {
         int bits = 0; // 1 per node, + 9 per leaf
 
         // # of nodes is size of the tree which is the value of the root
-        bits += ROOT.getValue();
+        bits += ROOT.isLeaf() ? 1 : ROOT.getValue();
 
         // add 9 for every leaf, if freq > 0 --> is a leaf
         for (int freq : freqs) {
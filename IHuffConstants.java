@@ -60,4 +60,97 @@ public interface IHuffConstants {
      * besides Standard Count Format or Standard Tree Format.
      */      
     public static final int STORE_CUSTOM = MAGIC_NUMBER | 4;
+
+    /**
+     * A value in files compressed with a HuffProcessor indicating only the
+     * values that occur are counted. A 9 bit number of values follows this
+     * constant, and if it is not 0 a 5 bit width w, then for each value its
+     * 8 bit value and its count in w bits.
+     */
+    public static final int STORE_SPARSE = MAGIC_NUMBER | 3;
+
+    /**
+     * A value in files compressed with a HuffProcessor indicating the data is
+     * stored almost as is. An 8 bit value follows this constant; every other
+     * value is coded as itself in 8 bits, while that value and PSEUDO_EOF share
+     * its 8 bits followed by a 0 or 1 bit. Used for data that does not compress.
+     */
+    public static final int STORE_RAW = MAGIC_NUMBER | 5;
+
+    /**
+     * A value in files compressed with a HuffProcessor indicating the data is
+     * coded as LZ77 literals and matches, as written by <code>LzHuffEncoder</code>.
+     * No table follows this constant. The data is a series of blocks, each preceded
+     * by a 1 bit, and a 0 bit follows the last. A block holds a literal/length tree
+     * and a distance tree in Standard Tree Format, then codes from the first: 0 to
+     * 255 are literals, PSEUDO_EOF ends the block, and 257 to 285 are match lengths
+     * as in Deflate, each followed by its extra bits, the code of a distance from the
+     * second tree and that distance's extra bits.
+     */
+    public static final int STORE_LZ = MAGIC_NUMBER | 6;
+
+    /**
+     * A header format that is never written to a file. Asking for it makes a
+     * plan work out the size of the stream with each of the formats above from
+     * the counts and use the smallest.
+     */
+    public static final int STORE_AUTO = MAGIC_NUMBER | 0xf;
+
+    /**
+     * The bits of the header format value that hold optional features. A header
+     * format read from a file is one of the STORE_ constants above combined with
+     * any of the flags below, e.g., <code>STORE_TREE | INDEX_FLAG</code>.
+     */
+    public static final int FLAG_MASK = 0x1f0;
+
+    /**
+     * A flag in the header format indicating the length of the original data in
+     * bytes follows the header format, stored as two ints, high half first.
+     */
+    public static final int LENGTH_FLAG = 0x10;
+
+    /**
+     * A flag in the header format indicating a checksum follows the data. After
+     * the PSEUDO_EOF code, padded to a byte boundary, an int holds the CRC32C of
+     * the original data. A seek index, if any, follows the checksum.
+     */
+    public static final int CHECKSUM_FLAG = 0x20;
+
+    /**
+     * A flag in the header format indicating a seek index follows the data. After
+     * the PSEUDO_EOF code, padded to a byte boundary, the index holds an int count
+     * of entries, the int interval in bytes between them, and for each entry the
+     * offset in the original data and the bit offset of the code for that byte from
+     * the start of the stream, each stored as two ints, high half first. It ends with
+     * the int size in bytes of the whole index and <code>INDEX_MAGIC</code>.
+     */
+    public static final int INDEX_FLAG = 0x40;
+
+    /**
+     * A flag in the header format indicating the data was transformed before it was
+     * coded. After the length, if any, an 8 bit count of <code>ByteTransform</code>s
+     * follows and then the 8 bit id of each, in the order they were applied. The codes,
+     * length, checksum and seek index all describe the transformed data; uncompressing
+     * undoes the transforms, the last applied first.
+     */
+    public static final int TRANSFORM_FLAG = 0x80;
+
+    /*
+     * A compressed file may hold several complete streams, or segments, one after
+     * another, each starting on a byte boundary with MAGIC_NUMBER and its own header.
+     * Uncompressing the file writes the data of every segment in order, so new data
+     * can be appended to a file without rewriting what is already there.
+     */
+
+    /**
+     * The last value of a seek index, so the index can be found by reading
+     * backwards from the end of a file.
+     */
+    public static final int INDEX_MAGIC = MAGIC_NUMBER | 0x1000;
+
+    /**
+     * Files holding several compressed entries, as written by
+     * <code>HuffArchive</code>, start and end with this value.
+     */
+    public static final int ARCHIVE_MAGIC = MAGIC_NUMBER | 0x2000;
 }
@@ -37,7 +37,7 @@ public interface IHuffProcessor extends IHuffConstants {
      * reproduce the tree, AND the actual data.
      * @throws IOException if an error occurs while reading from the input file.
      */
-    public int preprocessCompress(InputStream in, int headerFormat) throws IOException;
+    public long preprocessCompress(InputStream in, int headerFormat) throws IOException;
 
 
     /**
@@ -54,7 +54,7 @@ public interface IHuffProcessor extends IHuffConstants {
      * @throws IOException if an error occurs while reading from the input file or
      * writing to the output file.
      */
-    public int compress(InputStream in, OutputStream out, boolean force) throws IOException;
+    public long compress(InputStream in, OutputStream out, boolean force) throws IOException;
 
 
     /**
@@ -66,6 +66,34 @@ public interface IHuffProcessor extends IHuffConstants {
      * @throws IOException if an error occurs while reading from the input file or
      * writing to the output file.
      */
-    public int uncompress(InputStream in, OutputStream out) throws IOException;
+    public long uncompress(InputStream in, OutputStream out) throws IOException;
+
+    /**
+     * Count characters and create the tree and codes for compressing in, returning them as
+     * an immutable plan instead of storing them in this processor. Unlike
+     * <code>preprocessCompress</code> this may be called concurrently from several threads.
+     * @param in is the stream which could be subsequently compressed
+     * @param headerFormat a constant from IHuffProcessor that determines what kind of
+     * header to use
+     * @return the plan for compressing the stream
+     * @throws IOException if an error occurs while reading from the input file.
+     */
+    public CompressionPlan preprocess(InputStream in, int headerFormat) throws IOException;
+
+    /**
+     * Compresses input to output using a plan previously built from the same data by
+     * <code>preprocess</code>. Unlike <code>compress(InputStream, OutputStream, boolean)</code>
+     * this may be called concurrently from several threads.
+     * @param plan is the plan built from the data in <code>in</code>
+     * @param in is the stream being compressed (NOT a BitInputStream)
+     * @param out is bound to a file/stream to which bits are written
+     * for the compressed file (not a BitOutputStream)
+     * @param force if this is true create the output file even if it is larger than the input file.
+     * @return the number of bits written. 
+     * @throws IOException if an error occurs while reading from the input file or
+     * writing to the output file.
+     */
+    public long compress(CompressionPlan plan, InputStream in, OutputStream out, boolean force)
+            throws IOException;
 
 }
@@ -0,0 +1,215 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+public class KernelTest implements IHuffConstants {
+    public static void main(String[] args) throws IOException {
+
+        //Data sets: empty, one value, one value many times, skewed, text-like and random
+        Random random = new Random(42);
+        byte[] skewed = new byte[100000];
+        for (int i = 0; i < skewed.length; i++) {
+            skewed[i] = (byte) (random.nextInt(100) < 90 ? 'e' : random.nextInt(256));
+        }
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 200000) {
+            text.append("the quick brown fox ").append(random.nextInt(1000)).append(" jumps\n");
+        }
+        byte[] noise = new byte[70000];
+        random.nextBytes(noise);
+        byte[][] data = {new byte[0], {7}, new byte[5000], skewed,
+                text.toString().getBytes(), noise};
+        int[] formats = {STORE_COUNTS, STORE_TREE, STORE_SPARSE, STORE_RAW, STORE_AUTO};
+
+        //A block coded by the kernel should be the same bits as the stream coded by writeBits
+        HuffEncoder encoder = new HuffEncoder();
+        HuffDecoder decoder = new HuffDecoder();
+        boolean dataMatches = true;
+        boolean segmentsMatch = true;
+        boolean roundTrips = true;
+        for (byte[] d : data) {
+            for (int format : formats) {
+                CompressionPlan plan = encoder.preprocess(new ByteArrayInputStream(d), format);
+                for (CompressionPlan p : new CompressionPlan[] {plan, plan.withChecksum(),
+                        plan.withLength().withChecksum()}) {
+                    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+                    ByteArrayOutputStream block = new ByteArrayOutputStream();
+                    long streamBits = encoder.compressData(p, new ByteArrayInputStream(d), stream);
+                    long blockBits = encoder.compressData(p, d, 0, d.length, block);
+                    dataMatches &= streamBits == blockBits
+                            && Arrays.equals(stream.toByteArray(), block.toByteArray());
+
+                    stream.reset();
+                    block.reset();
+                    streamBits = encoder.compress(p, new ByteArrayInputStream(d), stream);
+                    blockBits = encoder.compress(p, d, 0, d.length, block, HuffMetrics.DEFAULT);
+                    segmentsMatch &= streamBits == blockBits
+                            && Arrays.equals(stream.toByteArray(), block.toByteArray());
+
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    decoder.uncompress(new ByteArrayInputStream(block.toByteArray()), out);
+                    roundTrips &= Arrays.equals(out.toByteArray(), d);
+                }
+            }
+        }
+        System.out.println("Kernel codes match compressData: " + dataMatches);
+        System.out.println("Kernel segments match compress: " + segmentsMatch);
+        System.out.println("Kernel segments round trip: " + roundTrips);
+
+        //A block in the middle of an array should code only its own bytes
+        byte[] padded = new byte[skewed.length + 20];
+        System.arraycopy(skewed, 0, padded, 10, skewed.length);
+        CompressionPlan plan = encoder.preprocess(new ByteArrayInputStream(skewed), STORE_TREE);
+        ByteArrayOutputStream whole = new ByteArrayOutputStream();
+        ByteArrayOutputStream middle = new ByteArrayOutputStream();
+        encoder.compress(plan, skewed, 0, skewed.length, whole, HuffMetrics.DEFAULT);
+        encoder.compress(plan, padded, 10, skewed.length, middle, HuffMetrics.DEFAULT);
+        System.out.println("Offset block matches: "
+                + Arrays.equals(whole.toByteArray(), middle.toByteArray()));
+
+        //Segments with their length decoded by the kernel should give back the data, whether
+        //the header ends on a byte boundary or not, and so should headerless codes
+        boolean kernelDecodes = true;
+        boolean kernelDecodesData = true;
+        for (byte[] d : data) {
+            for (int format : formats) {
+                CompressionPlan p = encoder.preprocess(new ByteArrayInputStream(d), format)
+                        .withLength().withChecksum();
+                ByteArrayOutputStream segment = new ByteArrayOutputStream();
+                encoder.compress(p, d, 0, d.length, segment, HuffMetrics.DEFAULT);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                long bits = decoder.uncompress(ByteBuffer.wrap(segment.toByteArray()), out,
+                        HuffMetrics.DEFAULT);
+                kernelDecodes &= bits == d.length * 8L && Arrays.equals(out.toByteArray(), d);
+
+                HuffHeader header = HuffHeader.read(new FastBitInputStream(
+                        new ByteArrayInputStream(segment.toByteArray())), new int[ALPH_SIZE]);
+                ByteArrayOutputStream codes = new ByteArrayOutputStream();
+                encoder.compressData(p, d, 0, d.length, codes);
+                out.reset();
+                decoder.uncompressData(header, ByteBuffer.wrap(codes.toByteArray()), d.length,
+                        out);
+                kernelDecodesData &= Arrays.equals(out.toByteArray(), d);
+            }
+        }
+        System.out.println("Kernel decodes segments: " + kernelDecodes);
+        System.out.println("Kernel decodes headerless codes: " + kernelDecodesData);
+
+        //A buffer of segments with and without lengths, a seek index and transforms should
+        //decode the same as a stream
+        ByteArrayOutputStream mixed = new ByteArrayOutputStream();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        CompressionPlan[] plans = {
+            encoder.preprocess(new ByteArrayInputStream(skewed), STORE_TREE).withLength(),
+            encoder.preprocess(new ByteArrayInputStream(noise), STORE_COUNTS),
+            encoder.preprocess(new ByteArrayInputStream(skewed), STORE_SPARSE)
+                    .withLength().withSeekIndex(4096),
+            encoder.preprocess(new ByteArrayInputStream(data[4]), STORE_AUTO,
+                    new ByteTransform[] {ByteTransform.RUN_LENGTH}, HuffMetrics.DEFAULT)
+                    .withChecksum(),
+            encoder.preprocess(new ByteArrayInputStream(data[1]), STORE_AUTO).withLength()};
+        byte[][] parts = {skewed, noise, skewed, data[4], data[1]};
+        for (int i = 0; i < plans.length; i++) {
+            encoder.compress(plans[i], parts[i], 0, parts[i].length, mixed, HuffMetrics.DEFAULT);
+            expected.write(parts[i]);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        decoder.uncompress(ByteBuffer.wrap(mixed.toByteArray()), out, HuffMetrics.DEFAULT);
+        System.out.println("Mixed segments decode: "
+                + Arrays.equals(out.toByteArray(), expected.toByteArray()));
+
+        //A value with no code in the plan should be rejected by the stream, the pair table
+        //and the kernel rather than written as no bits
+        CompressionPlan textPlan = encoder.preprocess(new ByteArrayInputStream(data[4]),
+                STORE_TREE);
+        byte[] stray = Arrays.copyOf(data[4], data[4].length);
+        stray[stray.length / 2] = (byte) 0xFF;
+        boolean uncodedRejected = true;
+        for (int length : new int[] {100, stray.length}) {
+            int off = stray.length / 2 - length / 2;
+            uncodedRejected &= rejectsUncoded(() -> encoder.compressData(textPlan,
+                    new ByteArrayInputStream(stray, off, length), OutputStream.nullOutputStream()));
+            uncodedRejected &= rejectsUncoded(() -> encoder.compressData(textPlan, stray, off,
+                    length, OutputStream.nullOutputStream()));
+            uncodedRejected &= rejectsUncoded(() -> encoder.compress(textPlan, stray, off, length,
+                    OutputStream.nullOutputStream(), HuffMetrics.DEFAULT));
+        }
+        HuffEncodeKernel textKernel = new HuffEncodeKernel(textPlan);
+        ByteBuffer src = ByteBuffer.wrap(stray);
+        ByteBuffer dst = ByteBuffer.allocate(stray.length * 4);
+        uncodedRejected &= rejectsUncoded(() -> textKernel.encode(src, dst))
+                && src.position() == 0 && dst.position() == 0;
+        System.out.println("Uncoded values rejected: " + uncodedRejected);
+
+        //A wrong length, a corrupt checksum, or damaged codes should be rejected
+        CompressionPlan checked = encoder.preprocess(new ByteArrayInputStream(skewed),
+                STORE_TREE).withLength().withChecksum();
+        ByteArrayOutputStream good = new ByteArrayOutputStream();
+        encoder.compress(checked, skewed, 0, skewed.length, good, HuffMetrics.DEFAULT);
+        byte[] badChecksum = good.toByteArray();
+        badChecksum[badChecksum.length - 1] ^= 1;
+        System.out.println("Corrupt checksum rejected: " + rejects(decoder, badChecksum));
+        ByteArrayOutputStream codes = new ByteArrayOutputStream();
+        encoder.compressData(checked, skewed, 0, skewed.length, codes);
+        HuffHeader header = HuffHeader.read(new FastBitInputStream(
+                new ByteArrayInputStream(good.toByteArray())), new int[ALPH_SIZE]);
+        boolean wrongLength = true;
+        for (int length : new int[] {skewed.length - 1, skewed.length + 1}) {
+            try {
+                decoder.uncompressData(header, ByteBuffer.wrap(codes.toByteArray()), length,
+                        OutputStream.nullOutputStream());
+                wrongLength = false;
+            } catch (IOException e) {
+                // expected
+            }
+        }
+        System.out.println("Wrong length rejected: " + wrongLength);
+        int damaged = 0;
+        int unexpected = 0;
+        for (int trial = 0; trial < 2000; trial++) {
+            byte[] copy = good.toByteArray();
+            if (trial % 2 == 0) {
+                copy[4 + random.nextInt(copy.length - 4)] ^= (byte) (1 << random.nextInt(8));
+            } else {
+                copy = Arrays.copyOf(copy, random.nextInt(copy.length));
+            }
+            try {
+                decoder.uncompress(ByteBuffer.wrap(copy), OutputStream.nullOutputStream(),
+                        HuffMetrics.DEFAULT);
+            } catch (IOException e) {
+                damaged++;
+            } catch (RuntimeException e) {
+                unexpected++;
+            }
+        }
+        System.out.println("Damaged segments rejected: " + damaged + " of 2000, "
+                + unexpected + " with an unexpected exception");
+    }
+
+    private interface Coding {
+        long code() throws IOException;
+    }
+
+    private static boolean rejectsUncoded(Coding coding) throws IOException {
+        try {
+            coding.code();
+            return false;
+        } catch (IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    private static boolean rejects(HuffDecoder decoder, byte[] compressed) {
+        try {
+            decoder.uncompress(ByteBuffer.wrap(compressed), OutputStream.nullOutputStream(),
+                    HuffMetrics.DEFAULT);
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A fair priority queue of int values with long priorities, the primitive counterpart of
+ * <code>PQ</code>: values with equal priorities are dequeued in the order they were
+ * enqueued, and it is the same 4-ary heap, but the priorities, values and enqueue numbers
+ * are kept in parallel arrays so nothing is boxed and no <code>compareTo</code> is called.
+ * It suits queues of indexes into an array of nodes, e.g., when building a Huffman tree from
+ * counts.
+ * <P>
+ * A queue is reusable: <code>clear</code> keeps its storage. A queue is not thread-safe.
+ */
+public class LongPQ {
+    // the number of children of each node of the heap
+    private static final int ARITY = 4;
+    private static final int INITIAL_CAPACITY = 16;
+
+    // the heap, in parallel arrays: the children of index i are at ARITY * i + 1 to
+    // ARITY * i + ARITY
+    private long[] priorities;
+    private int[] values;
+    private long[] order;
+    private int size;
+    private long enqueued;
+
+    /**
+     * Create an empty queue.
+     */
+    public LongPQ() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Create an empty queue with room for capacity values before it grows.
+     *
+     * @param capacity the number of values expected, >= 0
+     */
+    public LongPQ(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity cannot be negative");
+        }
+        priorities = new long[Math.max(capacity, 1)];
+        values = new int[priorities.length];
+        order = new long[priorities.length];
+    }
+
+    /**
+     * Adds a value with a priority; the lower the priority the sooner it is dequeued.
+     *
+     * @param priority the priority of the value
+     * @param value the value
+     */
+    public void enqueue(long priority, int value) {
+        if (size == priorities.length) {
+            grow(size + 1);
+        }
+        siftUp(size++, priority, value, enqueued++);
+    }
+
+    /**
+     * Adds values in index order, as if each were enqueued in turn, and rebuilds the heap in
+     * O(n) if the queue is small next to them.
+     *
+     * @param priorities the priority of each value
+     * @param values the values, as many as priorities
+     * @param from the index of the first value added
+     * @param to the index after the last value added
+     */
+    public void enqueueAll(long[] priorities, int[] values, int from, int to) {
+        if (from < 0 || to < from || to > priorities.length || to > values.length) {
+            throw new IllegalArgumentException("bad range " + from + " to " + to);
+        }
+        int added = to - from;
+        if (size + added > this.priorities.length) {
+            grow(size + added);
+        }
+        if (added < size) {
+            for (int i = from; i < to; i++) {
+                siftUp(size++, priorities[i], values[i], enqueued++);
+            }
+            return;
+        }
+        System.arraycopy(priorities, from, this.priorities, size, added);
+        System.arraycopy(values, from, this.values, size, added);
+        for (int i = 0; i < added; i++) {
+            order[size++] = enqueued++;
+        }
+        // sift down every internal node, the last first
+        for (int i = (size - 2) / ARITY; i >= 0; i--) {
+            siftDown(i, this.priorities[i], this.values[i], order[i]);
+        }
+    }
+
+    /**
+     * Removes and returns the value with the lowest priority. Cannot be used on empty queue.
+     *
+     * @return the value with the lowest priority
+     */
+    public int dequeue() {
+        if (size == 0) {
+            throw new NoSuchElementException("Cannot call dequeue on an empty LongPQ");
+        }
+        int result = values[0];
+        size--;
+        if (size > 0) {
+            siftDown(0, priorities[size], values[size], order[size]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the value with the lowest priority without removing it. Cannot be used on empty
+     * queue.
+     *
+     * @return the value with the lowest priority
+     */
+    public int peek() {
+        if (size == 0) {
+            throw new NoSuchElementException("Cannot call peek on an empty LongPQ");
+        }
+        return values[0];
+    }
+
+    /**
+     * Returns the lowest priority in the queue. Cannot be used on empty queue.
+     *
+     * @return the priority of the value <code>peek</code> returns
+     */
+    public long peekPriority() {
+        if (size == 0) {
+            throw new NoSuchElementException("Cannot call peekPriority on an empty LongPQ");
+        }
+        return priorities[0];
+    }
+
+    /**
+     * Tells us if the queue has a size of one.
+     */
+    public boolean isSizeOne() {
+        return size == 1;
+    }
+
+    /**
+     * Tells us if the queue has no values.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the number of values in the queue.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes every value, keeping the storage for reuse.
+     */
+    public void clear() {
+        size = 0;
+        enqueued = 0;
+    }
+
+    /**
+     * Returns a String representation of the queue in the form [value:priority, ...] with the
+     * values in the order they would be dequeued.
+     */
+    @Override
+    public String toString() {
+        Integer[] indexes = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            indexes[i] = i;
+        }
+        Arrays.sort(indexes, (a, b) -> precedes(a, b) ? -1 : precedes(b, a) ? 1 : 0);
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(values[indexes[i]]).append(':').append(priorities[indexes[i]]);
+        }
+        builder.append("]");
+
+        return builder.toString();
+    }
+
+    /**
+     * Tells us if the entry at index a of the heap is dequeued before the one at b.
+     */
+    private boolean precedes(int a, int b) {
+        return priorities[a] < priorities[b]
+                || priorities[a] == priorities[b] && order[a] < order[b];
+    }
+
+    /**
+     * Move an entry up from a hole at index i until its parent comes before it, then store
+     * it there.
+     */
+    private void siftUp(int i, long priority, int value, long number) {
+        while (i > 0) {
+            int parent = (i - 1) / ARITY;
+            long parentPriority = priorities[parent];
+            if (priority > parentPriority
+                    || priority == parentPriority && number > order[parent]) {
+                break;
+            }
+            priorities[i] = parentPriority;
+            values[i] = values[parent];
+            order[i] = order[parent];
+            i = parent;
+        }
+        priorities[i] = priority;
+        values[i] = value;
+        order[i] = number;
+    }
+
+    /**
+     * Move an entry down from a hole at index i until none of its children come before it,
+     * then store it there.
+     */
+    private void siftDown(int i, long priority, int value, long number) {
+        while (true) {
+            int first = ARITY * i + 1;
+            if (first >= size) {
+                break;
+            }
+            // find the child that comes first
+            int least = first;
+            int end = Math.min(first + ARITY, size);
+            for (int child = first + 1; child < end; child++) {
+                if (precedes(child, least)) {
+                    least = child;
+                }
+            }
+            long leastPriority = priorities[least];
+            if (priority < leastPriority
+                    || priority == leastPriority && number < order[least]) {
+                break;
+            }
+            priorities[i] = leastPriority;
+            values[i] = values[least];
+            order[i] = order[least];
+            i = least;
+        }
+        priorities[i] = priority;
+        values[i] = value;
+        order[i] = number;
+    }
+
+    /**
+     * Make room for at least capacity values, at least doubling the storage.
+     */
+    private void grow(int capacity) {
+        int length = Math.max(capacity, 2 * priorities.length);
+        priorities = Arrays.copyOf(priorities, length);
+        values = Arrays.copyOf(values, length);
+        order = Arrays.copyOf(order, length);
+    }
+}
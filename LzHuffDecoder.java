@@ -0,0 +1,248 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * Decodes the blocks of a STORE_LZ stream, as written by <code>LzHuffEncoder</code>. Each
+ * code is found with one lookup of the next MAX_CODE_BITS bits in a table built from the
+ * block's tree, and matches are copied within a history buffer that is written out and slid
+ * down every few window sizes, so the output is written in large pieces and memory does not
+ * depend on the size of the data.
+ * <P>
+ * <code>HuffDecoder</code> and <code>HuffInputStream</code> use a decoder for the segments
+ * with header format STORE_LZ; it is not thread-safe.
+ */
+public class LzHuffDecoder implements IHuffConstants {
+    private static final int WINDOW_SIZE = LzHuffEncoder.WINDOW_SIZE;
+    private static final int MAX_CODE_BITS = LzHuffEncoder.MAX_CODE_BITS;
+    // the history is written out and slid down once this many bytes are in it
+    private static final int FLUSH_AT = 4 * WINDOW_SIZE;
+
+    private final byte[] history;
+    // for each MAX_CODE_BITS bit prefix the symbol of the code it starts with, shifted left
+    // 8 bits and or'ed with the code's length
+    private final int[] literalTable;
+    private final int[] distanceTable;
+    private final CRC32C checksum;
+
+    private FastBitInputStream bitsIn;
+    private int position;
+    private int flushed;
+    private long bytesWritten;
+    private boolean inBlock;
+
+    /**
+     * Create a decoder.
+     */
+    public LzHuffDecoder() {
+        history = new byte[FLUSH_AT + LzHuffEncoder.MAX_MATCH];
+        literalTable = new int[1 << MAX_CODE_BITS];
+        distanceTable = new int[1 << MAX_CODE_BITS];
+        checksum = new CRC32C();
+    }
+
+    /**
+     * Start decoding the blocks of a stream whose header has been read.
+     *
+     * @param in the stream positioned after the header format
+     */
+    public void start(FastBitInputStream in) {
+        bitsIn = in;
+        position = 0;
+        flushed = 0;
+        bytesWritten = 0;
+        inBlock = false;
+        checksum.reset();
+    }
+
+    /**
+     * Decode all the blocks of a stream, writing the data to out.
+     *
+     * @param in the stream positioned after the header format
+     * @param out the stream the uncompressed data is written to
+     * @return the number of bytes written
+     * @throws IOException if the data is malformed or cannot be read or written
+     */
+    public long decode(FastBitInputStream in, OutputStream out) throws IOException {
+        start(in);
+        while (decodeSome(out)) {
+            // each call writes up to a few window sizes
+        }
+        return bytesWritten;
+    }
+
+    /**
+     * Decode the next part of the stream, at most a few window sizes of data, and write it
+     * to out.
+     *
+     * @param out the stream the uncompressed data is written to
+     * @return true if there is more to decode, false once the last block has been decoded
+     *         and written
+     * @throws IOException if the data is malformed or cannot be read or written
+     */
+    public boolean decodeSome(OutputStream out) throws IOException {
+        FastBitInputStream in = bitsIn;
+        byte[] bytes = history;
+        int at = position;
+        while (at < FLUSH_AT) {
+            if (!inBlock) {
+                int more = in.readBits(1);
+                if (more == -1) {
+                    throw truncated();
+                } else if (more == 0) {
+                    position = at;
+                    flush(out);
+                    return false;
+                }
+                readTable(literalTable, LzHuffEncoder.LITERAL_SYMBOLS);
+                readTable(distanceTable, LzHuffEncoder.DISTANCE_SYMBOLS);
+                inBlock = true;
+            }
+            int symbol = decodeSymbol(in, literalTable);
+            if (symbol < PSEUDO_EOF) {
+                bytes[at++] = (byte) symbol;
+            } else if (symbol == PSEUDO_EOF) {
+                inBlock = false;
+            } else {
+                int code = symbol - PSEUDO_EOF - 1;
+                int length = LzHuffEncoder.LENGTH_BASE[code]
+                        + readExtra(in, LzHuffEncoder.LENGTH_EXTRA[code]);
+                code = decodeSymbol(in, distanceTable);
+                if (code >= LzHuffEncoder.DISTANCE_SYMBOLS) {
+                    throw corrupt("distance code " + code);
+                }
+                int distance = LzHuffEncoder.DISTANCE_BASE[code]
+                        + readExtra(in, LzHuffEncoder.DISTANCE_EXTRA[code]);
+                if (distance > at) {
+                    throw corrupt("distance " + distance + " before the start of the data");
+                }
+                int from = at - distance;
+                if (distance >= length) {
+                    System.arraycopy(bytes, from, bytes, at, length);
+                    at += length;
+                } else {
+                    // the match overlaps the bytes it produces
+                    for (int end = at + length; at < end; at++) {
+                        bytes[at] = bytes[at - distance];
+                    }
+                }
+            }
+        }
+        position = at;
+        flush(out);
+        // keep a window of history for the matches that follow
+        System.arraycopy(bytes, position - WINDOW_SIZE, bytes, 0, WINDOW_SIZE);
+        position = WINDOW_SIZE;
+        flushed = WINDOW_SIZE;
+        return true;
+    }
+
+    /**
+     * Get the CRC32C of the data decoded since <code>start</code>.
+     *
+     * @return the checksum
+     */
+    public int getChecksum() {
+        return (int) checksum.getValue();
+    }
+
+    /**
+     * Get the number of bytes decoded and written since <code>start</code>.
+     *
+     * @return the bytes written
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Write the bytes decoded since the last flush.
+     */
+    private void flush(OutputStream out) throws IOException {
+        int length = position - flushed;
+        checksum.update(history, flushed, length);
+        out.write(history, flushed, length);
+        bytesWritten += length;
+        flushed = position;
+    }
+
+    /**
+     * Read a tree in Standard Tree Format and fill a table with its codes.
+     *
+     * @param table filled with the symbol and length of the code each prefix starts with
+     * @param symbols the number of symbols the tree can hold besides PSEUDO_EOF
+     * @throws IOException if the tree is truncated or malformed
+     */
+    private void readTable(int[] table, int symbols) throws IOException {
+        // a tree that is a single leaf has no codes
+        Arrays.fill(table, 0);
+        readCodes(table, symbols, 0, 0);
+    }
+
+    /**
+     * Read the subtree whose path is code in Standard Tree Format, filling in the table
+     * entries of its leaves. Unlike reading a <code>HuffTree</code> no nodes are built, and
+     * a tree deeper than MAX_CODE_BITS is rejected as soon as it is seen.
+     */
+    private void readCodes(int[] table, int symbols, int code, int length)
+            throws IOException {
+        int bit = bitsIn.readBits(1);
+        if (bit == -1) {
+            throw truncated();
+        } else if (bit == 0) {
+            if (length == MAX_CODE_BITS) {
+                throw corrupt("tree");
+            }
+            readCodes(table, symbols, code << 1, length + 1);
+            readCodes(table, symbols, code << 1 | 1, length + 1);
+            return;
+        }
+        int symbol = bitsIn.readBits(BITS_PER_WORD + 1);
+        if (symbol == -1) {
+            throw truncated();
+        } else if (symbol >= symbols && symbol != PSEUDO_EOF) {
+            throw corrupt("tree");
+        }
+        int shift = MAX_CODE_BITS - length;
+        Arrays.fill(table, code << shift, (code + 1) << shift, symbol << 8 | length);
+    }
+
+    /**
+     * Find the code at the start of the input in a table.
+     *
+     * @return the symbol of the code
+     * @throws IOException if the input ends in the middle of a code or has no code there
+     */
+    private static int decodeSymbol(FastBitInputStream in, int[] table) throws IOException {
+        int entry = table[in.peekBits(MAX_CODE_BITS)];
+        int length = entry & 0xFF;
+        if (length == 0) {
+            // only a tree that is a single leaf leaves prefixes without a code
+            throw corrupt("code");
+        }
+        in.skipBits(length);
+        return entry >>> 8;
+    }
+
+    private static int readExtra(FastBitInputStream in, int bits) throws IOException {
+        if (bits == 0) {
+            return 0;
+        }
+        int value = in.readBits(bits);
+        if (value == -1) {
+            throw truncated();
+        }
+        return value;
+    }
+
+    private static IOException truncated() {
+        return new IOException("Error reading compressed file. \n"
+                + "unexpected end of input in an LZ block.");
+    }
+
+    private static IOException corrupt(String what) {
+        return new IOException("Error reading compressed file. \n"
+                + "bad " + what + " in an LZ block, the data is corrupt.");
+    }
+}
@@ -0,0 +1,432 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * A reusable LZ77 compression context. Repeated strings are found with hash chains over a
+ * sliding window of WINDOW_SIZE bytes and replaced by a length and a distance back to the
+ * earlier copy, as in Deflate; literals and lengths are then coded with one Huffman tree
+ * and distances with another, both built per block by <code>HuffTree</code> and stored in
+ * Standard Tree Format. The stream has header format STORE_LZ and is uncompressed by
+ * <code>HuffDecoder</code> like any other.
+ * <P>
+ * The effort level trades time for size the way zlib's does: levels 1 to 3 take the first
+ * match found at each position, following short hash chains, while levels 4 to 9 also try
+ * the next position before taking a match and follow longer chains. An encoder is not
+ * thread-safe.
+ */
+public class LzHuffEncoder implements IHuffConstants {
+    /** The fastest effort level. */
+    public static final int MIN_LEVEL = 1;
+    /** The effort level giving the smallest output. */
+    public static final int MAX_LEVEL = 9;
+    /** The effort level used when none is given. */
+    public static final int DEFAULT_LEVEL = 6;
+
+    /** The number of bytes back a match can reach. */
+    public static final int WINDOW_SIZE = 1 << 15;
+
+    static final int MIN_MATCH = 3;
+    static final int MAX_MATCH = 258;
+    /** The longest code in either tree, so a decoder can find codes in a table. */
+    static final int MAX_CODE_BITS = 15;
+    /** The number of literal/length symbols, PSEUDO_EOF and the 29 length codes included. */
+    static final int LITERAL_SYMBOLS = 286;
+    /** The number of distance symbols. */
+    static final int DISTANCE_SYMBOLS = 30;
+
+    /** The shortest length of each length code from 257, as in Deflate. */
+    static final int[] LENGTH_BASE = {3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+        35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258};
+    /** The number of extra bits after each length code. */
+    static final int[] LENGTH_EXTRA = {0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3,
+        3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+    /** The shortest distance of each distance code, as in Deflate. */
+    static final int[] DISTANCE_BASE = {1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129,
+        193, 257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577};
+    /** The number of extra bits after each distance code. */
+    static final int[] DISTANCE_EXTRA = {0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7,
+        8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13};
+
+    // for each effort level: the match length after which chains are followed a quarter as
+    // far, the longest match still improved on by trying the next position (for levels 1
+    // to 3, the longest match whose strings are added to the chains), the match length that
+    // ends a search, and the most chain links followed
+    private static final int[][] LEVELS = {
+        {4, 4, 8, 4}, {4, 5, 16, 8}, {4, 6, 32, 32}, {4, 4, 16, 16}, {8, 16, 32, 32},
+        {8, 16, 128, 128}, {8, 32, 128, 256}, {32, 128, 258, 1024}, {32, 258, 258, 4096}};
+    // the first level that tries the next position before taking a match
+    private static final int FIRST_LAZY_LEVEL = 4;
+
+    private static final int HASH_BITS = 15;
+    private static final int NIL = -1;
+    // the most bytes of the window not yet looked at that a match needs
+    private static final int MIN_LOOKAHEAD = MAX_MATCH + MIN_MATCH + 1;
+    // a match of MIN_MATCH this far back codes larger than its literals
+    private static final int TOO_FAR = 4096;
+    // the number of literals and matches coded with one pair of trees
+    private static final int BLOCK_TOKENS = 1 << 16;
+
+    private final byte[] window;
+    private final int[] head;
+    private final int[] prev;
+    // literals, and matches as the distance shifted left 9 bits or'ed with the length
+    private final int[] tokens;
+    private final int[] literalCounts;
+    private final int[] distanceCounts;
+    private final int[] literalValues;
+    private final int[] literalLengths;
+    private final int[] distanceValues;
+    private final int[] distanceLengths;
+    // the code of each length and distance, found without a search
+    private final byte[] lengthCode;
+    private final byte[] distanceCode;
+    private final FastBitOutputStream bitsOut;
+    private final CRC32C checksum;
+
+    // the stream being compressed
+    private InputStream source;
+    private boolean sourceEnded;
+    private long bytesRead;
+    private int position;
+    private int lookahead;
+    private int tokenCount;
+    private int matchStart;
+
+    /**
+     * Create an encoder.
+     */
+    public LzHuffEncoder() {
+        window = new byte[2 * WINDOW_SIZE];
+        head = new int[1 << HASH_BITS];
+        prev = new int[WINDOW_SIZE];
+        tokens = new int[BLOCK_TOKENS];
+        literalCounts = new int[LITERAL_SYMBOLS];
+        distanceCounts = new int[DISTANCE_SYMBOLS];
+        literalValues = new int[LITERAL_SYMBOLS];
+        literalLengths = new int[LITERAL_SYMBOLS];
+        distanceValues = new int[LITERAL_SYMBOLS];
+        distanceLengths = new int[LITERAL_SYMBOLS];
+        lengthCode = new byte[MAX_MATCH + 1];
+        for (int code = 0; code < LENGTH_BASE.length; code++) {
+            int end = code + 1 < LENGTH_BASE.length ? LENGTH_BASE[code + 1] : MAX_MATCH + 1;
+            for (int length = LENGTH_BASE[code]; length < end; length++) {
+                lengthCode[length] = (byte) code;
+            }
+        }
+        distanceCode = new byte[WINDOW_SIZE + 1];
+        for (int code = 0; code < DISTANCE_BASE.length; code++) {
+            int end = code + 1 < DISTANCE_BASE.length ? DISTANCE_BASE[code + 1] : WINDOW_SIZE + 1;
+            for (int distance = DISTANCE_BASE[code]; distance < end; distance++) {
+                distanceCode[distance] = (byte) code;
+            }
+        }
+        bitsOut = new FastBitOutputStream(FastBitOutputStream.DEFAULT_BUFFER_SIZE);
+        checksum = new CRC32C();
+    }
+
+    /**
+     * Compress a stream in one pass, writing the magic number, the STORE_LZ header format
+     * with CHECKSUM_FLAG, the blocks and the CRC32C of the data. Neither stream is closed,
+     * but all bits are flushed to out.
+     *
+     * @param in the stream being compressed
+     * @param out the stream the compressed bits are written to
+     * @param level the effort level, MIN_LEVEL to MAX_LEVEL
+     * @return the number of bits written, not counting padding of the last byte
+     * @throws IOException if an error occurs while reading from the input or writing to the
+     *         output
+     */
+    public long compress(InputStream in, OutputStream out, int level) throws IOException {
+        if (level < MIN_LEVEL || level > MAX_LEVEL) {
+            throw new IllegalArgumentException("level must be " + MIN_LEVEL + " to "
+                    + MAX_LEVEL);
+        }
+        source = in;
+        sourceEnded = false;
+        bytesRead = 0;
+        position = 0;
+        lookahead = 0;
+        tokenCount = 0;
+        Arrays.fill(head, NIL);
+        Arrays.fill(literalCounts, 0);
+        Arrays.fill(distanceCounts, 0);
+        checksum.reset();
+        bitsOut.attach(out);
+        try {
+            bitsOut.writeBits(BITS_PER_INT, MAGIC_NUMBER);
+            bitsOut.writeBits(BITS_PER_INT, STORE_LZ | CHECKSUM_FLAG);
+            int[] parameters = LEVELS[level - 1];
+            if (level < FIRST_LAZY_LEVEL) {
+                compressGreedy(parameters);
+            } else {
+                compressLazy(parameters);
+            }
+            if (tokenCount > 0) {
+                writeBlock();
+            }
+            bitsOut.writeBits(1, 0);
+            bitsOut.alignToByte();
+            bitsOut.writeBits(BITS_PER_INT, (int) checksum.getValue());
+            long totalBitsWritten = bitsOut.getBitsWritten();
+            bitsOut.flush();
+            return totalBitsWritten;
+        } finally {
+            bitsOut.detach();
+            source = null;
+        }
+    }
+
+    /**
+     * Get the number of bytes read by the last call to <code>compress</code>.
+     *
+     * @return the bytes compressed
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Take the longest match found at each position, adding the strings inside matches to
+     * the hash chains only for short matches.
+     */
+    private void compressGreedy(int[] parameters) throws IOException {
+        int maxInsert = parameters[1];
+        while (true) {
+            if (lookahead < MIN_LOOKAHEAD && !fillWindow()) {
+                break;
+            }
+            int chainHead = insert(position);
+            int matchLength = 0;
+            if (chainHead != NIL && position - chainHead < WINDOW_SIZE) {
+                matchLength = longestMatch(chainHead, MIN_MATCH - 1, parameters);
+            }
+            if (matchLength >= MIN_MATCH) {
+                addMatch(position - matchStart, matchLength);
+                if (matchLength <= maxInsert) {
+                    for (int i = 1; i < matchLength; i++) {
+                        insert(position + i);
+                    }
+                }
+                lookahead -= matchLength;
+                position += matchLength;
+            } else {
+                addLiteral(window[position] & 0xFF);
+                lookahead--;
+                position++;
+            }
+        }
+    }
+
+    /**
+     * Before taking a match, look for a longer one at the next position and if there is one
+     * code a literal instead, adding every string to the hash chains.
+     */
+    private void compressLazy(int[] parameters) throws IOException {
+        int maxLazy = parameters[1];
+        int matchLength = MIN_MATCH - 1;
+        boolean literalPending = false;
+        while (true) {
+            if (lookahead < MIN_LOOKAHEAD && !fillWindow()) {
+                break;
+            }
+            int chainHead = insert(position);
+            int previousLength = matchLength;
+            int previousMatch = matchStart;
+            matchLength = MIN_MATCH - 1;
+            if (chainHead != NIL && previousLength < maxLazy
+                    && position - chainHead < WINDOW_SIZE) {
+                matchLength = longestMatch(chainHead, previousLength, parameters);
+                if (matchLength == MIN_MATCH && position - matchStart > TOO_FAR) {
+                    matchLength = MIN_MATCH - 1;
+                }
+            }
+            if (previousLength >= MIN_MATCH && matchLength <= previousLength) {
+                // the match at the previous position is at least as long: take it
+                addMatch(position - 1 - previousMatch, previousLength);
+                for (int i = 1; i < previousLength - 1; i++) {
+                    insert(position + i);
+                }
+                lookahead -= previousLength - 1;
+                position += previousLength - 1;
+                literalPending = false;
+                matchLength = MIN_MATCH - 1;
+            } else {
+                if (literalPending) {
+                    addLiteral(window[position - 1] & 0xFF);
+                }
+                literalPending = true;
+                lookahead--;
+                position++;
+            }
+        }
+        if (literalPending) {
+            addLiteral(window[position - 1] & 0xFF);
+        }
+    }
+
+    /**
+     * Make sure at least MIN_LOOKAHEAD bytes not yet looked at are in the window, or all that
+     * are left, sliding the window down when its top half is reached.
+     *
+     * @return true if there is a byte to look at
+     * @throws IOException if the input cannot be read
+     */
+    private boolean fillWindow() throws IOException {
+        if (position >= 2 * WINDOW_SIZE - MIN_LOOKAHEAD) {
+            System.arraycopy(window, WINDOW_SIZE, window, 0, WINDOW_SIZE);
+            position -= WINDOW_SIZE;
+            matchStart -= WINDOW_SIZE;
+            for (int i = 0; i < head.length; i++) {
+                head[i] = head[i] >= WINDOW_SIZE ? head[i] - WINDOW_SIZE : NIL;
+            }
+            for (int i = 0; i < prev.length; i++) {
+                prev[i] = prev[i] >= WINDOW_SIZE ? prev[i] - WINDOW_SIZE : NIL;
+            }
+        }
+        while (lookahead < MIN_LOOKAHEAD && !sourceEnded) {
+            int end = position + lookahead;
+            int read = source.read(window, end, window.length - end);
+            if (read == -1) {
+                sourceEnded = true;
+            } else {
+                checksum.update(window, end, read);
+                bytesRead += read;
+                lookahead += read;
+            }
+        }
+        return lookahead > 0;
+    }
+
+    /**
+     * Add the string at a position to its hash chain, if MIN_MATCH bytes are left there.
+     *
+     * @param at the position of the string in the window
+     * @return the previous position with the same hash, or NIL
+     */
+    private int insert(int at) {
+        if (at + MIN_MATCH > position + lookahead) {
+            return NIL;
+        }
+        int hash = ((window[at] & 0xFF) << 10 ^ (window[at + 1] & 0xFF) << 5
+                ^ (window[at + 2] & 0xFF)) & ((1 << HASH_BITS) - 1);
+        int chainHead = head[hash];
+        prev[at & (WINDOW_SIZE - 1)] = chainHead;
+        head[hash] = at;
+        return chainHead;
+    }
+
+    /**
+     * Follow the hash chain from a position for the longest earlier string matching the one
+     * at the current position, setting matchStart to it.
+     *
+     * @param candidate the first position on the chain
+     * @param bestLength the length a match must beat
+     * @param parameters the parameters of the effort level
+     * @return the length of the longest match, bestLength if none is longer
+     */
+    private int longestMatch(int candidate, int bestLength, int[] parameters) {
+        int chain = bestLength >= parameters[0] ? parameters[3] >> 2 : parameters[3];
+        int maxLength = Math.min(MAX_MATCH, lookahead);
+        int nice = Math.min(parameters[2], maxLength);
+        // chains end at NIL, or at positions too far back to reach
+        int limit = Math.max(position - WINDOW_SIZE, NIL);
+        byte[] bytes = window;
+        while (candidate > limit && chain-- > 0) {
+            if (bestLength < maxLength
+                    && bytes[candidate + bestLength] == bytes[position + bestLength]
+                    && bytes[candidate] == bytes[position]) {
+                int mismatch = Arrays.mismatch(bytes, candidate, candidate + maxLength,
+                        bytes, position, position + maxLength);
+                int length = mismatch < 0 ? maxLength : mismatch;
+                if (length > bestLength) {
+                    bestLength = length;
+                    matchStart = candidate;
+                    if (length >= nice) {
+                        break;
+                    }
+                }
+            }
+            candidate = prev[candidate & (WINDOW_SIZE - 1)];
+        }
+        return bestLength;
+    }
+
+    private void addLiteral(int value) throws IOException {
+        tokens[tokenCount++] = value;
+        literalCounts[value]++;
+        if (tokenCount == BLOCK_TOKENS) {
+            writeBlock();
+        }
+    }
+
+    private void addMatch(int distance, int length) throws IOException {
+        tokens[tokenCount++] = distance << 9 | length;
+        literalCounts[PSEUDO_EOF + 1 + lengthCode[length]]++;
+        distanceCounts[distanceCode[distance]]++;
+        if (tokenCount == BLOCK_TOKENS) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Build the trees for the tokens of a block and write the block.
+     */
+    private void writeBlock() {
+        FastBitOutputStream out = bitsOut;
+        HuffTree literalTree = buildTree(literalCounts, literalValues, literalLengths);
+        HuffTree distanceTree = buildTree(distanceCounts, distanceValues, distanceLengths);
+        out.writeBits(1, 1);
+        literalTree.writeTree(out);
+        distanceTree.writeTree(out);
+        for (int i = 0; i < tokenCount; i++) {
+            int token = tokens[i];
+            int distance = token >>> 9;
+            if (distance == 0) {
+                out.writeBits(literalLengths[token], literalValues[token]);
+                continue;
+            }
+            int length = token & 0x1FF;
+            int code = lengthCode[length];
+            int symbol = PSEUDO_EOF + 1 + code;
+            out.writeBits(literalLengths[symbol], literalValues[symbol]);
+            out.writeBits(LENGTH_EXTRA[code], length - LENGTH_BASE[code]);
+            code = distanceCode[distance];
+            out.writeBits(distanceLengths[code], distanceValues[code]);
+            out.writeBits(DISTANCE_EXTRA[code], distance - DISTANCE_BASE[code]);
+        }
+        out.writeBits(literalLengths[PSEUDO_EOF], literalValues[PSEUDO_EOF]);
+        tokenCount = 0;
+        Arrays.fill(literalCounts, 0);
+        Arrays.fill(distanceCounts, 0);
+    }
+
+    /**
+     * Build a tree from the counts of a block, halving them until no code is longer than
+     * MAX_CODE_BITS.
+     *
+     * @param counts the count of each symbol, PSEUDO_EOF's being 0
+     * @param values filled with the code of each symbol
+     * @param lengths filled with the number of bits in each code
+     * @return the tree
+     */
+    private static HuffTree buildTree(int[] counts, int[] values, int[] lengths) {
+        int[] weights = counts.clone();
+        while (true) {
+            HuffTree tree = new HuffTree(weights);
+            tree.fillCodes(values, lengths);
+            int max = 0;
+            for (int length : lengths) {
+                max = Math.max(max, length);
+            }
+            if (max <= MAX_CODE_BITS) {
+                return tree;
+            }
+            for (int i = 0; i < weights.length; i++) {
+                weights[i] = (weights[i] + 1) >>> 1;
+            }
+        }
+    }
+}
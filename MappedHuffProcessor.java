@@ -0,0 +1,345 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Compresses and uncompresses files by mapping them whole as <code>MemorySegment</code>s,
+ * however large they are. Unlike a <code>MappedByteBuffer</code> a segment is not limited to
+ * 2 GB, and bits are read straight out of the mapped input and stored straight into the
+ * mapped output, so neither file is ever copied whole onto the heap.
+ * <P>
+ * This is the only class that uses <code>java.lang.foreign</code>, a preview API in Java 21,
+ * so only it, and tools that use it, need <code>--enable-preview</code>; the rest of the
+ * codec builds without it. The streams are coded by a <code>HuffEncoder</code> and
+ * <code>HuffDecoder</code> borrowed from a pool, given bit streams over the segments.
+ */
+public class MappedHuffProcessor implements IHuffConstants {
+    // encoders and decoders are borrowed per call so concurrent calls never share buffers
+    private final HuffContextPool pool;
+    // where phases are timed
+    private final HuffMetrics metrics;
+
+    /**
+     * Create a processor with its own pool of encoding and decoding contexts that reports no
+     * phases.
+     */
+    public MappedHuffProcessor() {
+        this(new HuffContextPool(), HuffMetrics.DEFAULT);
+    }
+
+    /**
+     * Create a processor that borrows encoding and decoding contexts from the given pool,
+     * which may be shared with other processors.
+     *
+     * @param pool the pool of contexts
+     * @param metrics where phases are reported
+     */
+    public MappedHuffProcessor(HuffContextPool pool, HuffMetrics metrics) {
+        if (pool == null || metrics == null) {
+            throw new IllegalArgumentException("pool and metrics cannot be null");
+        }
+        this.pool = pool;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Compress a file into another by mapping both whole, however large they are. The bytes
+     * are counted and coded from the mapped input a chunk at a time and the bits stored
+     * straight into the output, mapped at its final size. The output stores the original
+     * length so <code>uncompressMapped</code> can size its own output before decoding. The
+     * output is always written, even if it is larger than the input.
+     *
+     * @param source the file to compress
+     * @param target the compressed file, created or replaced
+     * @param headerFormat STORE_COUNTS, STORE_TREE, STORE_SPARSE, STORE_RAW, or
+     *        STORE_AUTO for the smallest
+     * @return the number of bits written.
+     * @throws IOException if either file cannot be mapped.
+     */
+    public long compressMapped(Path source, Path target, int headerFormat) throws IOException {
+        // check preconditions
+        if (source == null || target == null) {
+            throw new IllegalArgumentException("Source and target files cannot be null");
+        }
+
+        HuffEncoder encoder = pool.acquireEncoder();
+        try (Arena arena = Arena.ofConfined();
+                FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(target, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            MemorySegment src = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size(), arena);
+            CompressionPlan plan = encoder.preprocess(new SegmentInputStream(src), headerFormat,
+                    metrics).withLength();
+            long size = (plan.getCompressedBits() + BITS_PER_WORD - 1) / BITS_PER_WORD;
+            MemorySegment dst = out.map(FileChannel.MapMode.READ_WRITE, 0, size, arena);
+            return encoder.compress(plan, new SegmentInputStream(src),
+                    new SegmentBitOutputStream().attach(dst), metrics);
+        } finally {
+            pool.release(encoder);
+        }
+    }
+
+    /**
+     * Uncompress a file into another by mapping both whole, however large they are. The
+     * input is decoded where it is mapped, by a <code>HuffDecodeKernel</code> for each
+     * segment whose header stores its length if the file is under 2 GB, and the data stored
+     * into the output, mapped at its final size. A file written by
+     * <code>compressMapped</code> is decoded once; a file whose size cannot be read from its
+     * first header, e.g., one with appended segments, is decoded once more to learn it.
+     *
+     * @param source the previously compressed file
+     * @param target the uncompressed file, created or replaced
+     * @return the number of bits written to the uncompressed file, or -1 if the source did
+     *         not start with the magic number
+     * @throws IOException if the data is malformed or either file cannot be mapped.
+     */
+    public long uncompressMapped(Path source, Path target) throws IOException {
+        // check preconditions
+        if (source == null || target == null) {
+            throw new IllegalArgumentException("Source and target files cannot be null");
+        }
+
+        HuffDecoder decoder = pool.acquireDecoder();
+        try (Arena arena = Arena.ofConfined();
+                FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(target, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            MemorySegment src = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size(), arena);
+            SegmentBitInputStream bitsIn = new SegmentBitInputStream();
+            HuffHeader header = HuffHeader.read(bitsIn.attach(src), new int[ALPH_SIZE]);
+            if (header == null) {
+                return -1;
+            }
+            // the decoder reports the whole size even if the data did not fit; the length of
+            // transformed data is not the size of the output, so learn that by decoding
+            long size = header.hasFlag(TRANSFORM_FLAG) ? 0
+                    : Math.max(0, header.getOriginalLength());
+            while (true) {
+                MemorySegment dst = out.map(FileChannel.MapMode.READ_WRITE, 0, size, arena);
+                long bitsWritten = src.byteSize() <= Integer.MAX_VALUE
+                        ? decoder.uncompress(src.asByteBuffer(), new SegmentOutputStream(dst),
+                                metrics)
+                        : decoder.uncompress(bitsIn.attach(src), new SegmentOutputStream(dst),
+                                metrics);
+                if (bitsWritten <= size * BITS_PER_WORD) {
+                    return bitsWritten;
+                }
+                size = bitsWritten / BITS_PER_WORD;
+            }
+        } finally {
+            pool.release(decoder);
+        }
+    }
+
+    /**
+     * Reads the bytes of a segment, copying only as many as each read asks for.
+     */
+    private static final class SegmentInputStream extends InputStream {
+        private final MemorySegment SEGMENT;
+        private long position;
+
+        SegmentInputStream(MemorySegment segment) {
+            SEGMENT = segment;
+        }
+
+        @Override
+        public int read() {
+            if (position == SEGMENT.byteSize()) {
+                return -1;
+            }
+            return SEGMENT.get(ValueLayout.JAVA_BYTE, position++) & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            long left = SEGMENT.byteSize() - position;
+            if (len == 0) {
+                return 0;
+            }
+            if (left == 0) {
+                return -1;
+            }
+            int n = (int) Math.min(len, left);
+            MemorySegment.copy(SEGMENT, ValueLayout.JAVA_BYTE, position, b, off, n);
+            position += n;
+            return n;
+        }
+    }
+
+    /**
+     * Stores the bytes written to it into a segment, counting but dropping those past the end,
+     * so a decode into a segment that is too small still learns the size of the data.
+     */
+    private static final class SegmentOutputStream extends OutputStream {
+        private final MemorySegment SEGMENT;
+        private long position;
+
+        SegmentOutputStream(MemorySegment segment) {
+            SEGMENT = segment;
+        }
+
+        @Override
+        public void write(int b) {
+            if (position < SEGMENT.byteSize()) {
+                SEGMENT.set(ValueLayout.JAVA_BYTE, position, (byte) b);
+            }
+            position++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            int n = (int) Math.max(0, Math.min(len, SEGMENT.byteSize() - position));
+            if (n > 0) {
+                MemorySegment.copy(b, off, SEGMENT, ValueLayout.JAVA_BYTE, position, n);
+            }
+            position += len;
+        }
+    }
+
+    /**
+     * A <code>FastBitInputStream</code> that reads bits straight out of a segment. The bit
+     * register is refilled with one 8 byte load from the segment instead of through a copy
+     * into a buffer. The segment must stay open while bits are read.
+     */
+    private static final class SegmentBitInputStream extends FastBitInputStream {
+        private static final ValueLayout.OfLong BIG_ENDIAN_LONG =
+                ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+
+        private MemorySegment segment;
+        private long offset;
+
+        /**
+         * Start reading bits from the first byte of a new segment, discarding any state left
+         * from the previous one.
+         *
+         * @param segment the segment bits are read from, or null to forget the current one
+         * @return this stream
+         */
+        SegmentBitInputStream attach(MemorySegment segment) {
+            super.attach((InputStream) null);
+            this.segment = segment;
+            offset = 0;
+            return this;
+        }
+
+        /**
+         * Forget the current segment so it can be collected.
+         */
+        @Override
+        public void detach() {
+            attach((MemorySegment) null);
+        }
+
+        /**
+         * Top up the bit register with as many whole bytes as fit, loading 8 bytes at a time
+         * from the segment while at least 8 are left.
+         */
+        @Override
+        protected boolean fill(int needed) {
+            if (bitCount > 56 || segment == null) {
+                return bitCount >= needed;
+            }
+            long remaining = segment.byteSize() - offset;
+            if (remaining >= Long.BYTES) {
+                // the register has room for (64 - bitCount) / 8 bytes, the leading bytes of word
+                int bytes = (Long.SIZE - bitCount) / 8;
+                long word = segment.get(BIG_ENDIAN_LONG, offset);
+                if (bytes == Long.BYTES) {
+                    bitBuffer = word;
+                } else {
+                    bitBuffer = (bitBuffer << (bytes * 8)) | (word >>> (Long.SIZE - bytes * 8));
+                }
+                bitCount += bytes * 8;
+                offset += bytes;
+                bytesConsumed += bytes;
+            } else {
+                // the last few bytes of the segment
+                while (bitCount <= 56 && offset < segment.byteSize()) {
+                    byte b = segment.get(ValueLayout.JAVA_BYTE, offset++);
+                    bitBuffer = (bitBuffer << 8) | (b & 0xFF);
+                    bitCount += 8;
+                    bytesConsumed++;
+                }
+            }
+            return bitCount >= needed;
+        }
+    }
+
+    /**
+     * A <code>FastBitOutputStream</code> that writes bits straight into a preallocated
+     * segment, storing the bit register 4 bytes at a time. The segment must be large enough
+     * for every byte written and must stay open while bits are written.
+     */
+    private static final class SegmentBitOutputStream extends FastBitOutputStream {
+        private static final ValueLayout.OfInt BIG_ENDIAN_INT =
+                ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+
+        private MemorySegment segment;
+        private long offset;
+
+        /**
+         * Start writing bits at the first byte of a new segment, discarding any unflushed
+         * state left from the previous one.
+         *
+         * @param segment the segment bits are written to, or null to forget the current one
+         * @return this stream
+         */
+        SegmentBitOutputStream attach(MemorySegment segment) {
+            super.attach((OutputStream) null);
+            this.segment = segment;
+            offset = 0;
+            return this;
+        }
+
+        /**
+         * Forget the current segment without flushing it so it can be collected.
+         */
+        @Override
+        public void detach() {
+            attach((MemorySegment) null);
+        }
+
+        /**
+         * Write specified number of bits from value.
+         *
+         * @throws IndexOutOfBoundsException if the segment is full
+         */
+        @Override
+        public void writeBits(int howManyBits, int value) {
+            bitBuffer = (bitBuffer << howManyBits) | (value & ((1L << howManyBits) - 1));
+            bitCount += howManyBits;
+            bitsWritten += howManyBits;
+            // fewer than 32 bits were pending, so at most 63 are now
+            if (bitCount >= Integer.SIZE) {
+                bitCount -= Integer.SIZE;
+                segment.set(BIG_ENDIAN_INT, offset, (int) (bitBuffer >>> bitCount));
+                offset += Integer.BYTES;
+            }
+        }
+
+        /**
+         * Stores bits not yet written, padding the last byte with zeros.
+         *
+         * @throws IndexOutOfBoundsException if the segment is full
+         */
+        @Override
+        public void flush() {
+            long written = bitsWritten;
+            alignToByte();
+            bitsWritten = written;
+            while (bitCount > 0) {
+                bitCount -= 8;
+                segment.set(ValueLayout.JAVA_BYTE, offset++, (byte) (bitBuffer >>> bitCount));
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Move-to-front coding: each byte is replaced by its position in a list of all 256 values
+ * kept in order of last use, and then moved to the front of the list. Values used
+ * repeatedly within a short span, as in the output of a run-length or block sorting stage,
+ * become small positions near 0 whatever the values are.
+ */
+public final class MoveToFrontTransform implements ByteTransform {
+    /** The id of this transform in a header. */
+    public static final int ID = 2;
+
+    public int getId() {
+        return ID;
+    }
+
+    public Coder newEncoder() {
+        return new MoveToFrontCoder(true);
+    }
+
+    public Coder newDecoder() {
+        return new MoveToFrontCoder(false);
+    }
+
+    private static final class MoveToFrontCoder implements Coder {
+        private final boolean ENCODE;
+        private final byte[] BUFFER = new byte[FastBitOutputStream.DEFAULT_BUFFER_SIZE];
+        // the values in order of last use, the most recent first
+        private final byte[] LIST = new byte[256];
+
+        MoveToFrontCoder(boolean encode) {
+            ENCODE = encode;
+            for (int i = 0; i < LIST.length; i++) {
+                LIST[i] = (byte) i;
+            }
+        }
+
+        public void update(byte[] b, int off, int len, OutputStream out) throws IOException {
+            byte[] buffer = BUFFER;
+            byte[] list = LIST;
+            while (len > 0) {
+                int n = Math.min(len, buffer.length);
+                for (int i = 0; i < n; i++) {
+                    byte value;
+                    int position;
+                    if (ENCODE) {
+                        value = b[off + i];
+                        position = 0;
+                        while (list[position] != value) {
+                            position++;
+                        }
+                        buffer[i] = (byte) position;
+                    } else {
+                        position = b[off + i] & 0xFF;
+                        value = list[position];
+                        buffer[i] = value;
+                    }
+                    System.arraycopy(list, 0, list, 1, position);
+                    list[0] = value;
+                }
+                out.write(buffer, 0, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        public void finish(OutputStream out) {
+        }
+    }
+}
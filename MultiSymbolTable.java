@@ -0,0 +1,199 @@
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * A decode table that gives every code starting in the next few bits with one lookup. Each
+ * entry of the table, indexed by the next TABLE_BITS bits of the input, holds the values of
+ * up to MAX_SYMBOLS whole codes in those bits and the number of bits they take, so where the
+ * common values have codes of 2 to 4 bits, as in text, one lookup and one 8 byte store give
+ * several bytes of output. An entry with no values sends the decoder to a second table of
+ * single codes, and a code longer than TABLE_BITS on down the tree a bit at a time.
+ * PSEUDO_EOF is never put in an entry with other values, so the end of the data is always
+ * found by the single code path.
+ * <P>
+ * A table is reusable: <code>fill</code> rebuilds it for the tree of each segment from the
+ * flattened tree without allocating, and takes time proportional to the size of the
+ * table, not of the data. A table is not thread-safe.
+ */
+public final class MultiSymbolTable implements IHuffConstants {
+    /** The default number of bits looked up at once. */
+    public static final int TABLE_BITS = 12;
+    /** The most values an entry can hold, 7 so they fit in a long with the entry's lengths. */
+    public static final int MAX_SYMBOLS = 7;
+
+    // stores the values of an entry into a byte array 8 at a time, the first at the lowest
+    // index, with no buffer to wrap around the array on each call
+    private static final VarHandle LONGS =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final int BITS;
+    private final int SYMBOLS;
+    // for each BITS bit prefix: the values of the whole codes it starts with, one per byte
+    // from bit 8 up, their number in bits 4 to 7 and their total length in bits 0 to 3
+    private final long[] MULTI;
+    // for each BITS bit prefix the value of the code it starts with, shifted left 8 bits and
+    // or'ed with the code's length, or 0 if the code is longer than the prefix
+    private final int[] SINGLE;
+    // the flattened tree, see HuffTree.fillDecodeTable
+    private final int[] TREE;
+    private boolean empty;
+
+    /**
+     * Create a table of TABLE_BITS bits holding up to MAX_SYMBOLS values per entry.
+     */
+    public MultiSymbolTable() {
+        this(TABLE_BITS, MAX_SYMBOLS);
+    }
+
+    /**
+     * Create a table that is empty until it is filled.
+     *
+     * @param bits the number of bits looked up at once, 1 to 15
+     * @param maxSymbols the most values decoded per lookup, 1 to MAX_SYMBOLS; 1 gives a plain
+     *        table of single codes
+     */
+    public MultiSymbolTable(int bits, int maxSymbols) {
+        if (bits < 1 || bits > 15 || maxSymbols < 1 || maxSymbols > MAX_SYMBOLS) {
+            throw new IllegalArgumentException("bits must be 1 to 15 and maxSymbols 1 to "
+                    + MAX_SYMBOLS);
+        }
+        BITS = bits;
+        SYMBOLS = maxSymbols;
+        MULTI = new long[1 << bits];
+        SINGLE = new int[1 << bits];
+        TREE = new int[2 * (ALPH_SIZE + 1)];
+        empty = true;
+    }
+
+    /**
+     * Rebuild the table for the codes of a tree.
+     *
+     * @param tree the tree the data was coded with
+     */
+    public void fill(HuffTree tree) {
+        empty = tree.fillDecodeTable(TREE) == 0;
+        if (empty) {
+            return;
+        }
+        int bits = BITS;
+        int[] single = SINGLE;
+        Arrays.fill(single, 0);
+        fillSingle(0, 0, 0);
+        int mask = (1 << bits) - 1;
+        for (int prefix = 0; prefix <= mask; prefix++) {
+            long values = 0;
+            int count = 0;
+            int used = 0;
+            while (count < SYMBOLS) {
+                // the bits after the codes so far, padded with zeros, find the next code
+                int entry = single[(prefix << used) & mask];
+                int length = entry & 0xFF;
+                int value = entry >>> 8;
+                if (length == 0 || used + length > bits || value >= PSEUDO_EOF) {
+                    break;
+                }
+                values |= (long) value << (BITS_PER_WORD * count);
+                count++;
+                used += length;
+            }
+            MULTI[prefix] = values << 8 | count << 4 | used;
+        }
+    }
+
+    /**
+     * Fill in the entries of SINGLE for the codes in the subtree at an internal node of the
+     * flattened tree, down to BITS deep. The tree is walked rather than its codes listed by
+     * <code>HuffTree.fillCodes</code> so that a leaf that is not a value or PSEUDO_EOF, a
+     * 9 bit value past it or -1, gets no entry: its codes are left at 0 for
+     * <code>decodeSingle</code> to walk the tree to and reject.
+     *
+     * @param node the index of the internal node
+     * @param code the bits of the path to node
+     * @param length the number of bits in the path to node
+     */
+    private void fillSingle(int node, int code, int length) {
+        for (int bit = 0; bit <= 1; bit++) {
+            int child = TREE[2 * node + bit];
+            int childCode = code << 1 | bit;
+            if (length + 1 > BITS || child == 0 || ~child > PSEUDO_EOF) {
+                // the code is longer than the table, or the child is a leaf of no value
+                continue;
+            } else if (child > 0) {
+                fillSingle(child, childCode, length + 1);
+            } else {
+                int shift = BITS - length - 1;
+                Arrays.fill(SINGLE, childCode << shift, (childCode + 1) << shift,
+                        ~child << 8 | length + 1);
+            }
+        }
+    }
+
+    /**
+     * Decode up to len values into b, stopping early at PSEUDO_EOF.
+     *
+     * @param in the codes
+     * @param b the array the values are stored in
+     * @param off the index in b of the first value stored
+     * @param len the most values stored; nothing past <code>off + len</code> is written
+     * @return the number of values stored, or its complement, <code>~n</code>, if
+     *         PSEUDO_EOF was read after them
+     * @throws IOException if the input ends before PSEUDO_EOF or a code's leaf has no value
+     */
+    public int decode(FastBitInputStream in, byte[] b, int off, int len) throws IOException {
+        if (empty) {
+            // a tree that is a single leaf can only hold PSEUDO_EOF, coded in no bits
+            return ~0;
+        }
+        int bits = BITS;
+        long[] multi = MULTI;
+        int n = off;
+        int end = off + len;
+        // while 8 bytes can be stored the values of an entry are stored at once
+        while (n + Long.BYTES <= end) {
+            long entry = multi[in.peekBits(bits)];
+            int count = (int) (entry >>> 4) & 0xF;
+            if (count == 0) {
+                int value = decodeSingle(in);
+                if (value == PSEUDO_EOF) {
+                    return ~(n - off);
+                }
+                b[n++] = (byte) value;
+                continue;
+            }
+            in.skipBits((int) entry & 0xF);
+            LONGS.set(b, n, entry >>> 8);
+            n += count;
+        }
+        while (n < end) {
+            int value = decodeSingle(in);
+            if (value == PSEUDO_EOF) {
+                return ~(n - off);
+            }
+            b[n++] = (byte) value;
+        }
+        return n - off;
+    }
+
+    /**
+     * Decode one code with the table of single codes, or the tree if it is longer.
+     *
+     * @return the value of the code, possibly PSEUDO_EOF
+     * @throws IOException if the input ends first or the code's leaf has no value
+     */
+    private int decodeSingle(FastBitInputStream in) throws IOException {
+        int entry = SINGLE[in.peekBits(BITS)];
+        if (entry == 0) {
+            int value = HuffDecoder.decodeSymbol(in, TREE);
+            if (value < 0 || value > PSEUDO_EOF) {
+                throw new IOException("Error reading compressed file. \n"
+                        + "the tree has a leaf of value " + value + ".");
+            }
+            return value;
+        }
+        in.skipBits(entry & 0xFF);
+        return entry >>> 8;
+    }
+}
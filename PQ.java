@@ -1,114 +1,278 @@
-
-
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.NoSuchElementException;
 
+/**
+ * A priority queue that is fair: elements that compare equal are dequeued in the order they
+ * were enqueued. The elements are kept in a 4-ary heap, each with the number of the enqueue
+ * that added it, and ties in <code>compareTo</code> are broken by that number, so the order
+ * elements come out in is exactly that of a stable sort and does not depend on the shape of
+ * the heap. Enqueue and dequeue take O(log n) time, and a queue built from a collection is
+ * heapified in O(n). A 4-ary heap is shallower than a binary one and keeps the children of
+ * a node next to each other, which makes dequeue, the common operation when building a
+ * tree, cheaper.
+ * <P>
+ * <code>LongPQ</code> is the same queue for int values with long priorities, with no boxing.
+ * A queue is not thread-safe.
+ */
 public class PQ<E extends Comparable<E>> {
-    private final Node HEADER;
+    // the number of children of each node of the heap
+    private static final int ARITY = 4;
+    private static final int INITIAL_CAPACITY = 16;
+
+    // the heap: the children of index i are at ARITY * i + 1 to ARITY * i + ARITY; only
+    // elements of type E are stored, read back through elementAt
+    private Object[] elements;
+    // the enqueue number of the element at the same index, to break ties
+    private long[] order;
+    private int size;
+    private long enqueued;
 
     /**
      * Constructor for PQ
      */
     public PQ() {
-        HEADER = new Node(null, null);
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Create an empty queue with room for capacity elements before it grows.
+     *
+     * @param capacity the number of elements expected, >= 0
+     */
+    public PQ(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity cannot be negative");
+        }
+        elements = new Object[Math.max(capacity, 1)];
+        order = new long[elements.length];
+    }
+
+    /**
+     * Create a queue holding the elements of a collection, enqueued in its iteration order,
+     * heapified at once rather than enqueued one at a time.
+     *
+     * @param elements the elements, none null
+     */
+    public PQ(Collection<? extends E> elements) {
+        this(elements.size());
+        addAll(elements);
     }
 
     /**
      * Adds a given element to the priority queue.
-     * 
+     *
      * @param element E to be added, element != null
      */
     public void enqueue(E element) {
         if (element == null) {
             throw new IllegalArgumentException("element cannot be null");
         }
+        if (size == elements.length) {
+            grow(size + 1);
+        }
+        siftUp(size++, element, enqueued++);
+    }
 
-        // search for the target solution, not updating if tied
-        Node curr = HEADER;
-        boolean inserted = false;
+    /**
+     * Adds the elements of a collection in its iteration order, as if each were enqueued in
+     * turn. If the queue is empty or small next to the collection the heap is rebuilt in
+     * O(n) instead.
+     *
+     * @param elements the elements to be added, none null
+     */
+    public void enqueueAll(Collection<? extends E> elements) {
+        addAll(elements);
+    }
 
-        while (!inserted && curr.next != null) {
-            // look for the closest element greater than the given
-            if (curr.next.VALUE.compareTo(element) > 0) {
-                curr.next = new Node(element, curr.next);
-                inserted = true;
+    /**
+     * Adds the elements of a collection as <code>enqueueAll</code> describes, for the
+     * constructor as well, which cannot call a method a subclass may override.
+     */
+    private void addAll(Collection<? extends E> elements) {
+        for (E element : elements) {
+            if (element == null) {
+                throw new IllegalArgumentException("element cannot be null");
             }
-
-            curr = curr.next;
         }
-
-        // !inserted --> insert at end
-        if (!inserted) {
-            curr.next = new Node(element);
+        int added = elements.size();
+        if (size + added > this.elements.length) {
+            grow(size + added);
+        }
+        if (added < size) {
+            for (E element : elements) {
+                siftUp(size++, element, enqueued++);
+            }
+            return;
+        }
+        for (E element : elements) {
+            this.elements[size] = element;
+            order[size++] = enqueued++;
+        }
+        // sift down every internal node, the last first
+        for (int i = (size - 2) / ARITY; i >= 0; i--) {
+            siftDown(i, elementAt(i), order[i]);
         }
     }
 
     /**
      * Removes and returns the element with the lowest priority. Cannot be used on empty queue.
-     * 
+     *
      * @return The element with the lowest priority.
      */
     public E dequeue() {
-        if (HEADER.next.equals(null)) {
+        if (size == 0) {
             throw new NoSuchElementException("Cannot call dequeue on an empty PQ");
         }
 
-        // remove the first element and return it
-        E result = HEADER.next.VALUE;
-        HEADER.next = HEADER.next.next; // fix HEADER reference
-
+        E result = elementAt(0);
+        size--;
+        E last = elementAt(size);
+        elements[size] = null;
+        if (size > 0) {
+            siftDown(0, last, order[size]);
+        }
         return result;
     }
 
+    /**
+     * Returns the element with the lowest priority without removing it. Cannot be used on
+     * empty queue.
+     *
+     * @return The element with the lowest priority.
+     */
+    public E peek() {
+        if (size == 0) {
+            throw new NoSuchElementException("Cannot call peek on an empty PQ");
+        }
+        return elementAt(0);
+    }
+
     /**
      * Tells us if the queue has a size of one.
      */
     public boolean isSizeOne() {
-        // size is one iff HEADER.next.next is null, check if HEADER.next is !null to avoid errors
-        return HEADER.next == null ? false : HEADER.next.next == null;
+        return size == 1;
+    }
+
+    /**
+     * Tells us if the queue has no elements.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the number of elements in the queue.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes every element, keeping the storage for reuse.
+     */
+    public void clear() {
+        Arrays.fill(elements, 0, size, null);
+        size = 0;
     }
 
     /**
      * Returns a String representation of the Priority Queue in the form [item1, item2, ... itemN]
+     * with the items in the order they would be dequeued.
      */
     @Override
     public String toString() {
-        // handle case of empty queue
-        if (HEADER.next == null) {
-            return "[]";
+        // sort a copy of the heap by priority, then enqueue number
+        Integer[] indexes = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            indexes[i] = i;
         }
+        Arrays.sort(indexes, (a, b) -> compare(elementAt(a), order[a], elementAt(b), order[b]));
 
         StringBuilder builder = new StringBuilder();
         builder.append("[");
-        builder.append(HEADER.next.VALUE); // fix fencepost problem
-
-        Node curr = HEADER.next.next;
-
-        // iterate through the rest of the queue adding values
-        while (curr != null) {
-            builder.append(", ");
-            builder.append(curr.VALUE);
-            curr = curr.next;
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(elements[indexes[i]]);
         }
-
         builder.append("]");
 
         return builder.toString();
     }
 
     /**
-     * The internal storage container for our linked list for our priority queue.
+     * Move an element up from a hole at index i until its parent comes before it, then
+     * store it there.
      */
-    private class Node {
-        final E VALUE; // the value never changes after initialization
-        Node next; // however, the next reference does
-
-        Node(E value) {
-            this(value, null);
+    private void siftUp(int i, E element, long number) {
+        while (i > 0) {
+            int parent = (i - 1) / ARITY;
+            if (compare(element, number, elementAt(parent), order[parent]) >= 0) {
+                break;
+            }
+            elements[i] = elements[parent];
+            order[i] = order[parent];
+            i = parent;
         }
+        elements[i] = element;
+        order[i] = number;
+    }
 
-        Node(E value, Node next) {
-            this.VALUE = value;
-            this.next = next;
+    /**
+     * Move an element down from a hole at index i until none of its children come before
+     * it, then store it there.
+     */
+    private void siftDown(int i, E element, long number) {
+        while (true) {
+            int first = ARITY * i + 1;
+            if (first >= size) {
+                break;
+            }
+            // find the child that comes first
+            int least = first;
+            int end = Math.min(first + ARITY, size);
+            for (int child = first + 1; child < end; child++) {
+                if (compare(elementAt(child), order[child], elementAt(least), order[least]) < 0) {
+                    least = child;
+                }
+            }
+            if (compare(element, number, elementAt(least), order[least]) <= 0) {
+                break;
+            }
+            elements[i] = elements[least];
+            order[i] = order[least];
+            i = least;
         }
+        elements[i] = element;
+        order[i] = number;
+    }
+
+    /**
+     * Get the element at an index of the heap.
+     */
+    @SuppressWarnings("unchecked")
+    private E elementAt(int i) {
+        // only enqueue and addAll store elements, and both take an E
+        return (E) elements[i];
+    }
+
+    /**
+     * Compare two elements by priority, then by enqueue number.
+     */
+    private static <E extends Comparable<E>> int compare(E a, long aNumber, E b, long bNumber) {
+        int result = a.compareTo(b);
+        return result != 0 ? result : Long.compare(aNumber, bNumber);
+    }
+
+    /**
+     * Make room for at least capacity elements, at least doubling the storage.
+     */
+    private void grow(int capacity) {
+        int length = Math.max(capacity, 2 * elements.length);
+        elements = Arrays.copyOf(elements, length);
+        order = Arrays.copyOf(order, length);
     }
 }
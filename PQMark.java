@@ -0,0 +1,187 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times building a Huffman tree with each priority queue: the sorted linked list
+ * <code>PQ</code> used to be, <code>PQ</code> filled one element at a time and heapified
+ * from a collection, and <code>LongPQ</code>. Queue sizes run from 257, the values and
+ * PSEUDO_EOF, to more than 65536, the size of a table of pairs of values. Every queue must
+ * merge the same nodes in the same order, since a fair queue gives the same tree however
+ * it is built. The linked list takes O(n^2) time, so it is left out past 65537 elements.
+ */
+public class PQMark {
+    // the largest queue the linked list is timed on
+    private static final int MAX_LINKED_SIZE = 65537;
+
+    public static void main(String[] args) {
+        Random random = new Random(1);
+        for (int size : new int[] {257, 286, 1024, 4096, 65536, 65537, 262144}) {
+            //Skewed weights, so there are many ties, as in real histograms
+            long[] weights = new long[size];
+            for (int i = 0; i < size; i++) {
+                weights[i] = 1 + (long) (Math.pow(random.nextDouble(), 4) * 1000);
+            }
+
+            long merges = buildHeap(weights);
+            boolean same = merges == buildBulk(weights) && merges == buildLong(weights)
+                    && (size > MAX_LINKED_SIZE || merges == buildLinked(weights));
+            StringBuilder line = new StringBuilder();
+            line.append(String.format("%7d elements, same tree %b:", size, same));
+            for (int queue = 0; queue < 4; queue++) {
+                if (queue == 0 && size > MAX_LINKED_SIZE) {
+                    line.append(String.format(" %s=%12s", "linked", "skipped"));
+                    continue;
+                }
+                // about the same amount of work for each size, and less for the linked list
+                int reps = Math.max(1, 2_000_000 / size
+                        / (queue == 0 ? Math.max(1, size / 64) : 1));
+                long best = Long.MAX_VALUE;
+                for (int round = 0; round < 5; round++) {
+                    long start = System.nanoTime();
+                    for (int i = 0; i < reps; i++) {
+                        build(queue, weights);
+                    }
+                    best = Math.min(best, (System.nanoTime() - start) / reps);
+                }
+                line.append(String.format(" %s=%10.1fus",
+                        new String[] {"linked", "heap", "bulk", "long"}[queue], best / 1e3));
+            }
+            System.out.println(line);
+        }
+    }
+
+    private static long build(int queue, long[] weights) {
+        switch (queue) {
+            case 0:
+                return buildLinked(weights);
+            case 1:
+                return buildHeap(weights);
+            case 2:
+                return buildBulk(weights);
+            default:
+                return buildLong(weights);
+        }
+    }
+
+    //Each build merges the two lightest nodes until one is left, as HuffTree does, and
+    //returns a hash of the order the nodes were merged in
+
+    private static long buildLinked(long[] weights) {
+        LinkedPQ<Node> queue = new LinkedPQ<>();
+        for (int i = 0; i < weights.length; i++) {
+            queue.enqueue(new Node(weights[i], i));
+        }
+        long hash = 0;
+        int id = weights.length;
+        while (!queue.isSizeOne()) {
+            Node first = queue.dequeue();
+            Node second = queue.dequeue();
+            hash = hash * 31 + first.ID * 7 + second.ID;
+            queue.enqueue(new Node(first.WEIGHT + second.WEIGHT, id++));
+        }
+        return hash;
+    }
+
+    private static long buildHeap(long[] weights) {
+        PQ<Node> queue = new PQ<>();
+        for (int i = 0; i < weights.length; i++) {
+            queue.enqueue(new Node(weights[i], i));
+        }
+        return merge(queue, weights.length);
+    }
+
+    private static long buildBulk(long[] weights) {
+        List<Node> nodes = new ArrayList<>(weights.length);
+        for (int i = 0; i < weights.length; i++) {
+            nodes.add(new Node(weights[i], i));
+        }
+        return merge(new PQ<>(nodes), weights.length);
+    }
+
+    private static long merge(PQ<Node> queue, int id) {
+        long hash = 0;
+        while (!queue.isSizeOne()) {
+            Node first = queue.dequeue();
+            Node second = queue.dequeue();
+            hash = hash * 31 + first.ID * 7 + second.ID;
+            queue.enqueue(new Node(first.WEIGHT + second.WEIGHT, id++));
+        }
+        return hash;
+    }
+
+    private static long buildLong(long[] weights) {
+        LongPQ queue = new LongPQ(weights.length);
+        int[] ids = new int[weights.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i;
+        }
+        queue.enqueueAll(weights, ids, 0, weights.length);
+        long[] merged = new long[2 * weights.length];
+        System.arraycopy(weights, 0, merged, 0, weights.length);
+        long hash = 0;
+        int id = weights.length;
+        while (!queue.isSizeOne()) {
+            int first = queue.dequeue();
+            int second = queue.dequeue();
+            hash = hash * 31 + first * 7 + second;
+            merged[id] = merged[first] + merged[second];
+            queue.enqueue(merged[id], id++);
+        }
+        return hash;
+    }
+
+    /**
+     * A node of the tree being built, ordered by weight alone so ties are left to the queue.
+     */
+    private static final class Node implements Comparable<Node> {
+        final long WEIGHT;
+        final int ID;
+
+        Node(long weight, int id) {
+            WEIGHT = weight;
+            ID = id;
+        }
+
+        public int compareTo(Node other) {
+            return Long.compare(WEIGHT, other.WEIGHT);
+        }
+    }
+
+    /**
+     * The fair queue PQ was before it became a heap: a sorted linked list, with each element
+     * inserted after those that compare equal to it. Enqueue takes O(n) time.
+     */
+    private static final class LinkedPQ<E extends Comparable<E>> {
+        private final ListNode<E> HEADER = new ListNode<>(null, null);
+
+        void enqueue(E element) {
+            // insert before the first element greater than the given, after any ties
+            ListNode<E> curr = HEADER;
+            while (curr.next != null && curr.next.VALUE.compareTo(element) <= 0) {
+                curr = curr.next;
+            }
+            curr.next = new ListNode<>(element, curr.next);
+        }
+
+        E dequeue() {
+            E result = HEADER.next.VALUE;
+            HEADER.next = HEADER.next.next;
+            return result;
+        }
+
+        boolean isSizeOne() {
+            return HEADER.next != null && HEADER.next.next == null;
+        }
+    }
+
+    private static final class ListNode<E> {
+        final E VALUE;
+        ListNode<E> next;
+
+        ListNode(E value, ListNode<E> next) {
+            VALUE = value;
+            this.next = next;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongConsumer;
+
+/**
+ * Counts the bytes read through it, reports the count at most a few times per second and
+ * stops the reader when a job is cancelled. Unlike
+ * <code>javax.swing.ProgressMonitorInputStream</code> it does not touch Swing components, so
+ * it is safe on a worker thread, and reporting costs a clock read per chunk rather than a
+ * monitor update per byte. Readers should read in large chunks, as the Huffman encoders and
+ * decoders do.
+ */
+public class ProgressInputStream extends FilterInputStream {
+    /** The default minimum time between progress reports, in milliseconds. */
+    public static final long DEFAULT_REPORT_MILLIS = 200;
+
+    private final LongConsumer PROGRESS;
+    private final BooleanSupplier CANCELLED;
+    private final long REPORT_NANOS;
+    private long bytesRead;
+    private long lastReport;
+
+    /**
+     * Wrap a stream so reading it reports progress and honors cancellation.
+     *
+     * @param in the stream being read
+     * @param progress receives the total number of bytes read so far, called on the reading
+     *        thread no more often than every <code>DEFAULT_REPORT_MILLIS</code>
+     * @param cancelled tells us if the job was cancelled, checked on every read
+     */
+    public ProgressInputStream(InputStream in, LongConsumer progress, BooleanSupplier cancelled) {
+        super(in);
+        if (progress == null || cancelled == null) {
+            throw new IllegalArgumentException("progress and cancelled cannot be null");
+        }
+        PROGRESS = progress;
+        CANCELLED = cancelled;
+        REPORT_NANOS = DEFAULT_REPORT_MILLIS * 1_000_000;
+        lastReport = System.nanoTime();
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkCancelled();
+        int b = super.read();
+        if (b != -1) {
+            counted(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkCancelled();
+        int read = super.read(b, off, len);
+        if (read > 0) {
+            counted(read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        checkCancelled();
+        long skipped = super.skip(n);
+        counted(skipped);
+        return skipped;
+    }
+
+    /**
+     * Get the number of bytes read or skipped so far.
+     *
+     * @return the byte count
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Add to the count and report it if enough time has passed since the last report.
+     *
+     * @param n the number of bytes just read
+     */
+    private void counted(long n) {
+        bytesRead += n;
+        long now = System.nanoTime();
+        if (now - lastReport >= REPORT_NANOS) {
+            lastReport = now;
+            PROGRESS.accept(bytesRead);
+        }
+    }
+
+    /**
+     * Stop the reader if the job was cancelled.
+     *
+     * @throws InterruptedIOException if the job was cancelled
+     */
+    private void checkCancelled() throws InterruptedIOException {
+        if (CANCELLED.getAsBoolean()) {
+            InterruptedIOException e = new InterruptedIOException("cancelled");
+            e.bytesTransferred = (int) Math.min(bytesRead, Integer.MAX_VALUE);
+            throw e;
+        }
+    }
+}
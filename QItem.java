@@ -61,19 +61,19 @@ class QItem<E extends Comparable<? super E>> implements Comparable<QItem<E>> {
      * pre: list != null
      * post: A list with QItems with proper ranks, for insertion into Priority Queue
      */
-    static public List<QItem> ranker(List<?> list) {
+    static public <E extends Comparable<? super E>> List<QItem<E>> ranker(List<E> list) {
         if(list == null) {
             throw new IllegalArgumentException("Ranker cannot rank a list that doesn't exist, " +
                     "input list must not be null.");
         }
         //The output
-        List<QItem> result = new ArrayList();
+        List<QItem<E>> result = new ArrayList<>();
 
         //A map to track how the current rank for each object in the list
-        HashMap<Object, Integer> seen = new HashMap();
+        HashMap<E, Integer> seen = new HashMap<>();
 
 
-        for (Object o : list) {
+        for (E o : list) {
             int rank = 0;
             //If we've seen this object before, get it's rank
             if (seen.containsKey(o)) {
@@ -86,7 +86,7 @@ class QItem<E extends Comparable<? super E>> implements Comparable<QItem<E>> {
             //Update the map with the new rank
             seen.put(o, rank);
             //Add a QItem to the output with the correct value and rank
-            result.add(new QItem((Comparable) o, rank));
+            result.add(new QItem<>(o, rank));
         }
 
         return result;
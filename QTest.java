@@ -1,5 +1,6 @@
 import java.util.ArrayList;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 public class QTest {
     public static void main(String[] args) {
@@ -18,9 +19,9 @@ public class QTest {
         //This results in a list 'sorted' by rank (ascending).
         //Because it is sorted by rank, when you add, all the ranks should be ascending
         //But not all the values are in prioritized order, so it also tests correct prioritization
-        List<QItem> rankedList = QItem.ranker(list);
+        List<QItem<Integer>> rankedList = QItem.ranker(list);
 
-        for (QItem item : rankedList) {
+        for (QItem<Integer> item : rankedList) {
             System.out.println(item);
             pq.enqueue(item);
         }
@@ -32,6 +33,36 @@ public class QTest {
         System.out.println("\nAll values should be together, and all sub_ numbers should be in " +
                 "order.");
 
+        //A queue heapified from the whole list at once should be just as fair
+        PQ<QItem<Integer>> bulk = new PQ<>(rankedList);
+        System.out.println("\nHeapified queue matches: " + bulk.toString().equals(pq.toString()));
+
+        //Dequeue everything, checking the order against a stable sort of the insertions
+        List<QItem<Integer>> sorted = new ArrayList<>(rankedList);
+        sorted.sort(null);
+        boolean fair = pq.size() == sorted.size();
+        for (QItem<Integer> item : sorted) {
+            fair &= pq.dequeue() == item && bulk.dequeue() == item;
+        }
+        System.out.println("Dequeued in fair order: " + fair);
+
+        try {
+            pq.dequeue();
+            System.out.println("Dequeue on an empty queue did not throw");
+        } catch (NoSuchElementException e) {
+            System.out.println("Dequeue on an empty queue threw: " + e.getMessage());
+        }
+
+        //The primitive queue should break ties the same way
+        LongPQ longs = new LongPQ();
+        for (int i = 0; i < list.size(); i++) {
+            longs.enqueue(list.get(i), i);
+        }
+        boolean longsFair = true;
+        for (QItem<Integer> item : sorted) {
+            longsFair &= rankedList.get(longs.dequeue()) == item;
+        }
+        System.out.println("LongPQ dequeued in fair order: " + longsFair);
     }
 
 
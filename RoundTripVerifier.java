@@ -0,0 +1,333 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks that compressing data and uncompressing the result gives the data back, with no
+ * temporary files. The compressor runs on its own thread and writes into a bounded
+ * <code>BytePipe</code>; the decoder reads from the pipe on the calling thread and compares
+ * each chunk it decodes with the original data as it streams, so memory use is constant and
+ * the check runs at about the speed of the slower of the two sides.
+ */
+public class RoundTripVerifier {
+    private final SimpleHuffProcessor PROCESSOR;
+    private final int PIPE_CAPACITY;
+    private final ExecutorService EXECUTOR;
+
+    /**
+     * The outcome of one round trip.
+     */
+    public static final class Result {
+        private final long ORIGINAL_BYTES;
+        private final long DECODED_BYTES;
+        private final long COMPRESSED_BYTES;
+        private final long FIRST_MISMATCH;
+        private final long NANOS;
+
+        private Result(long originalBytes, long decodedBytes, long compressedBytes,
+                long firstMismatch, long nanos) {
+            ORIGINAL_BYTES = originalBytes;
+            DECODED_BYTES = decodedBytes;
+            COMPRESSED_BYTES = compressedBytes;
+            FIRST_MISMATCH = firstMismatch;
+            NANOS = nanos;
+        }
+
+        /**
+         * Tells us if the decoded data is identical to the original.
+         *
+         * @return true if the round trip succeeded
+         */
+        public boolean isMatch() {
+            return FIRST_MISMATCH == -1;
+        }
+
+        /**
+         * Get the offset of the first decoded byte that differs from the original. If one
+         * is a prefix of the other this is the length of the shorter.
+         *
+         * @return the offset, or -1 if the data matches
+         */
+        public long getFirstMismatch() {
+            return FIRST_MISMATCH;
+        }
+
+        /**
+         * Get the size of the original data.
+         *
+         * @return the size in bytes
+         */
+        public long getOriginalBytes() {
+            return ORIGINAL_BYTES;
+        }
+
+        /**
+         * Get the size of the decoded data.
+         *
+         * @return the size in bytes
+         */
+        public long getDecodedBytes() {
+            return DECODED_BYTES;
+        }
+
+        /**
+         * Get the size of the compressed data that went through the pipe.
+         *
+         * @return the size in bytes
+         */
+        public long getCompressedBytes() {
+            return COMPRESSED_BYTES;
+        }
+
+        /**
+         * Get the time taken to compress, uncompress and compare, not counting the plan.
+         *
+         * @return the elapsed time in nanoseconds
+         */
+        public long getNanos() {
+            return NANOS;
+        }
+
+        /**
+         * Get the rate at which original data was verified.
+         *
+         * @return the throughput in megabytes (2^20 bytes) per second
+         */
+        public double getMegabytesPerSecond() {
+            return NANOS == 0 ? 0 : ORIGINAL_BYTES / (1024.0 * 1024.0) / (NANOS / 1e9);
+        }
+
+        public String toString() {
+            String result = ORIGINAL_BYTES + " -> " + COMPRESSED_BYTES + " -> " + DECODED_BYTES
+                    + String.format(" bytes, %.1f MB/s, ", getMegabytesPerSecond());
+            return result + (isMatch() ? "round trip OK"
+                    : "first mismatch at byte " + FIRST_MISMATCH);
+        }
+    }
+
+    /**
+     * Create a verifier with its own processor and the default pipe capacity.
+     */
+    public RoundTripVerifier() {
+        this(new SimpleHuffProcessor(), BytePipe.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a verifier.
+     *
+     * @param processor compresses and uncompresses the data
+     * @param pipeCapacity the most compressed bytes held in memory at once, > 0
+     */
+    public RoundTripVerifier(SimpleHuffProcessor processor, int pipeCapacity) {
+        if (processor == null) {
+            throw new IllegalArgumentException("processor cannot be null");
+        }
+        if (pipeCapacity <= 0) {
+            throw new IllegalArgumentException("pipe capacity must be positive");
+        }
+        PROCESSOR = processor;
+        PIPE_CAPACITY = pipeCapacity;
+        EXECUTOR = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "round-trip compressor");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Compress a file, uncompress it and compare the result with the file.
+     *
+     * @param file the file to check
+     * @param headerFormat STORE_COUNTS, STORE_TREE, STORE_SPARSE, STORE_RAW, or
+     *        STORE_AUTO for the smallest
+     * @return the outcome
+     * @throws IOException if the file cannot be read or the compressed data is malformed
+     */
+    public Result verify(Path file, int headerFormat) throws IOException {
+        CompressionPlan plan = PROCESSOR.preprocess(Files.newInputStream(file), headerFormat);
+        return verify(plan, Files.newInputStream(file), Files.newInputStream(file));
+    }
+
+    /**
+     * Compress data with a plan, uncompress it and compare the result with the data. The
+     * two streams must supply the same data, e.g., two streams over one file; both are
+     * closed.
+     *
+     * @param plan the plan built from the data
+     * @param source the data to compress
+     * @param expected the data to compare the decoded data with
+     * @return the outcome
+     * @throws IOException if the data cannot be read or the compressed data is malformed
+     */
+    public Result verify(CompressionPlan plan, InputStream source, InputStream expected)
+            throws IOException {
+        BytePipe pipe = new BytePipe(PIPE_CAPACITY);
+        long start = System.nanoTime();
+        Future<Long> compressor = EXECUTOR.submit(
+                () -> PROCESSOR.compress(plan, source, pipe.getOutputStream(), true));
+        ComparingOutputStream comparer = new ComparingOutputStream(expected);
+        try {
+            PROCESSOR.uncompress(pipe.getInputStream(), comparer);
+        } catch (IOException | RuntimeException e) {
+            // closing the pipe stops the compressor; if it had failed first, that is the cause
+            pipe.getInputStream().close();
+            try {
+                awaitCompressor(compressor);
+            } catch (IOException | RuntimeException compressorFailure) {
+                e.addSuppressed(compressorFailure);
+            }
+            expected.close();
+            throw e;
+        }
+        long firstMismatch;
+        try {
+            awaitCompressor(compressor);
+            firstMismatch = comparer.finish();
+        } finally {
+            expected.close();
+        }
+        return new Result(comparer.originalBytes, comparer.decodedBytes,
+                pipe.getBytesWritten(), firstMismatch, System.nanoTime() - start);
+    }
+
+    /**
+     * Wait for the compressor, rethrowing its failure.
+     *
+     * @param compressor the compressing task
+     * @throws IOException if compressing failed or the wait was interrupted
+     */
+    private static void awaitCompressor(Future<Long> compressor) throws IOException {
+        try {
+            compressor.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while compressing");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Compares the bytes written to it with the bytes of the expected data.
+     */
+    private static class ComparingOutputStream extends OutputStream {
+        private final InputStream EXPECTED;
+        private final byte[] buffer = new byte[FastBitInputStream.DEFAULT_BUFFER_SIZE];
+        private final byte[] single = new byte[1];
+        private int position;
+        private int limit;
+        private long originalBytes;
+        private long decodedBytes;
+        private long firstMismatch = -1;
+
+        ComparingOutputStream(InputStream expected) {
+            EXPECTED = expected;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            single[0] = (byte) b;
+            write(single, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (position == limit && !fill()) {
+                    // the decoded data is longer than the original
+                    mismatchAt(originalBytes);
+                    decodedBytes += len;
+                    return;
+                }
+                int n = Math.min(len, limit - position);
+                if (firstMismatch == -1) {
+                    int mismatch = Arrays.mismatch(b, off, off + n, buffer, position,
+                            position + n);
+                    if (mismatch != -1) {
+                        mismatchAt(decodedBytes + mismatch);
+                    }
+                }
+                position += n;
+                decodedBytes += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        /**
+         * Read the rest of the expected data once decoding is done.
+         *
+         * @return the offset of the first mismatch, or -1 if the data matches
+         * @throws IOException if the expected data cannot be read
+         */
+        long finish() throws IOException {
+            position = limit;
+            if (fill()) {
+                // the decoded data is shorter than the original
+                mismatchAt(decodedBytes);
+                while (fill()) {
+                    position = limit;
+                }
+            }
+            return firstMismatch;
+        }
+
+        /**
+         * Read the next chunk of the expected data.
+         *
+         * @return false at the end of the expected data
+         */
+        private boolean fill() throws IOException {
+            int read = EXPECTED.read(buffer, 0, buffer.length);
+            if (read == -1) {
+                return false;
+            }
+            position = 0;
+            limit = read;
+            originalBytes += read;
+            return true;
+        }
+
+        private void mismatchAt(long offset) {
+            if (firstMismatch == -1) {
+                firstMismatch = offset;
+            }
+        }
+    }
+
+    /**
+     * Check that each file named on the command line survives a round trip.
+     *
+     * @param args the files to check
+     * @throws IOException if a file cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: RoundTripVerifier file...");
+            System.exit(2);
+        }
+        RoundTripVerifier verifier = new RoundTripVerifier();
+        boolean allMatch = true;
+        for (String name : args) {
+            Result result = verifier.verify(Paths.get(name), IHuffConstants.STORE_COUNTS);
+            System.out.println(name + ": " + result);
+            allMatch &= result.isMatch();
+        }
+        System.exit(allMatch ? 0 : 1);
+    }
+}
@@ -0,0 +1,114 @@
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Run-length coding: after two equal bytes a count byte follows holding how many more times,
+ * 0 to 255, the byte repeats. A run of n equal bytes therefore takes 3 bytes for each 257 of
+ * it, while data without runs passes through unchanged but for the rare count of 0 after a
+ * pair. Long runs, as in bitmaps and idle sensor channels, are reduced before counting so
+ * the Huffman code is built from the rest of the data.
+ */
+public final class RunLengthTransform implements ByteTransform {
+    /** The id of this transform in a header. */
+    public static final int ID = 1;
+
+    // the most repeats a count byte holds
+    private static final int MAX_REPEATS = 255;
+
+    public int getId() {
+        return ID;
+    }
+
+    public Coder newEncoder() {
+        return new RunLengthEncoder();
+    }
+
+    public Coder newDecoder() {
+        return new RunLengthDecoder();
+    }
+
+    private static final class RunLengthEncoder implements Coder {
+        private final byte[] BUFFER = new byte[FastBitOutputStream.DEFAULT_BUFFER_SIZE];
+        // the last byte written and how many times in a row, 0 to 2; at 2 a count is pending
+        private int last = -1;
+        private int equal;
+        private int repeats;
+
+        public void update(byte[] b, int off, int len, OutputStream out) throws IOException {
+            byte[] buffer = BUFFER;
+            int position = 0;
+            for (int i = off; i < off + len; i++) {
+                int value = b[i] & 0xFF;
+                if (equal == 2) {
+                    if (value == last && repeats < MAX_REPEATS) {
+                        repeats++;
+                        continue;
+                    }
+                    buffer[position++] = (byte) repeats;
+                    equal = 0;
+                    last = -1;
+                }
+                buffer[position++] = (byte) value;
+                if (value == last) {
+                    equal++;
+                    repeats = 0;
+                } else {
+                    last = value;
+                    equal = 1;
+                }
+                // each byte adds at most a count and a literal
+                if (position > buffer.length - 2) {
+                    out.write(buffer, 0, position);
+                    position = 0;
+                }
+            }
+            out.write(buffer, 0, position);
+        }
+
+        public void finish(OutputStream out) throws IOException {
+            if (equal == 2) {
+                out.write(repeats);
+                equal = 0;
+            }
+        }
+    }
+
+    private static final class RunLengthDecoder implements Coder {
+        private final byte[] BUFFER = new byte[FastBitOutputStream.DEFAULT_BUFFER_SIZE];
+        private int last = -1;
+        private int equal;
+
+        public void update(byte[] b, int off, int len, OutputStream out) throws IOException {
+            byte[] buffer = BUFFER;
+            int position = 0;
+            for (int i = off; i < off + len; i++) {
+                int value = b[i] & 0xFF;
+                if (equal == 2) {
+                    // a count: the last byte repeats value more times
+                    for (int k = 0; k < value; k++) {
+                        buffer[position++] = (byte) last;
+                    }
+                    equal = 0;
+                    last = -1;
+                } else {
+                    buffer[position++] = (byte) value;
+                    if (value == last) {
+                        equal++;
+                    } else {
+                        last = value;
+                        equal = 1;
+                    }
+                }
+                // each byte adds at most MAX_REPEATS bytes
+                if (position > buffer.length - MAX_REPEATS) {
+                    out.write(buffer, 0, position);
+                    position = 0;
+                }
+            }
+            out.write(buffer, 0, position);
+        }
+
+        public void finish(OutputStream out) {
+        }
+    }
+}
@@ -0,0 +1,226 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The sync points of a compressed stream written with <code>INDEX_FLAG</code>. Each entry
+ * pairs an offset in the original data with the bit offset, from the start of the stream,
+ * of the code for the byte at that offset, so decoding can begin at the entry nearest a
+ * requested byte instead of at the start of the data. See <code>INDEX_FLAG</code> for the
+ * layout.
+ */
+public final class SeekIndex implements IHuffConstants {
+    // count, interval, index size and INDEX_MAGIC
+    private static final int FIXED_BYTES = 4 * (BITS_PER_INT / 8);
+    // an original offset and a bit offset, each a long
+    private static final int ENTRY_BYTES = 2 * Long.BYTES;
+
+    private final int INTERVAL;
+    private final long[] OFFSETS;
+    private final long[] BIT_OFFSETS;
+
+    private SeekIndex(int interval, long[] offsets, long[] bitOffsets) {
+        INTERVAL = interval;
+        OFFSETS = offsets;
+        BIT_OFFSETS = bitOffsets;
+    }
+
+    /**
+     * Get the number of bytes an index with the given number of entries takes.
+     *
+     * @param count the number of entries
+     * @return the size of the index in bytes
+     */
+    public static long sizeInBytes(int count) {
+        return FIXED_BYTES + (long) ENTRY_BYTES * count;
+    }
+
+    /**
+     * Write an index. The caller must have padded the stream to a byte boundary.
+     *
+     * @param bitsOut the stream the index is written to
+     * @param interval the number of original bytes between entries
+     * @param offsets the original offset of each entry
+     * @param bitOffsets the bit offset of each entry
+     * @param count the number of entries
+     * @return the number of bits written
+     */
+    public static int write(BitOutputStream bitsOut, int interval, long[] offsets,
+            long[] bitOffsets, int count) {
+        bitsOut.writeBits(BITS_PER_INT, count);
+        bitsOut.writeBits(BITS_PER_INT, interval);
+        for (int i = 0; i < count; i++) {
+            writeLong(bitsOut, offsets[i]);
+            writeLong(bitsOut, bitOffsets[i]);
+        }
+        int bytes = (int) sizeInBytes(count);
+        bitsOut.writeBits(BITS_PER_INT, bytes);
+        bitsOut.writeBits(BITS_PER_INT, INDEX_MAGIC);
+        return bytes * 8;
+    }
+
+    /**
+     * Write a long as two ints, high half first.
+     *
+     * @param bitsOut the stream to write to
+     * @param value the value to write
+     */
+    private static void writeLong(BitOutputStream bitsOut, long value) {
+        bitsOut.writeBits(BITS_PER_INT, (int) (value >>> BITS_PER_INT));
+        bitsOut.writeBits(BITS_PER_INT, (int) value);
+    }
+
+    /**
+     * Read past an index that starts at the current position of a stream, checking that it
+     * is well formed.
+     *
+     * @param bitsIn the stream positioned at the start of the index
+     * @throws IOException if the index is truncated or malformed
+     */
+    public static void skip(BitInputStream bitsIn) throws IOException {
+        int count = bitsIn.readBits(BITS_PER_INT);
+        // the size of the index, which write gives as an int, bounds the count
+        if (count < 0 || count > (Integer.MAX_VALUE - FIXED_BYTES) / ENTRY_BYTES
+                || bitsIn.readBits(BITS_PER_INT) <= 0) {
+            throw malformed();
+        }
+        // entries are read in halves of ints, since an int can read as -1 without the
+        // stream having ended
+        for (long i = 0; i < 8L * count; i++) {
+            if (bitsIn.readBits(BITS_PER_INT / 2) == -1) {
+                throw malformed();
+            }
+        }
+        if (bitsIn.readBits(BITS_PER_INT) != sizeInBytes(count)
+                || bitsIn.readBits(BITS_PER_INT) != INDEX_MAGIC) {
+            throw malformed();
+        }
+    }
+
+    /**
+     * Read the index that ends at a given position of a file.
+     *
+     * @param channel the file
+     * @param end the position just past the index, e.g., the size of the file
+     * @return the index
+     * @throws IOException if there is no well formed index ending at end
+     */
+    public static SeekIndex read(FileChannel channel, long end) throws IOException {
+        ByteBuffer tail = ByteBuffer.allocate(2 * Integer.BYTES);
+        readFully(channel, tail, end - tail.capacity());
+        int bytes = tail.getInt(0);
+        if (tail.getInt(Integer.BYTES) != INDEX_MAGIC || bytes < FIXED_BYTES
+                || (bytes - FIXED_BYTES) % ENTRY_BYTES != 0 || bytes > end) {
+            throw malformed();
+        }
+
+        ByteBuffer index = ByteBuffer.allocate(bytes - tail.capacity());
+        readFully(channel, index, end - bytes);
+        index.flip();
+        int count = index.getInt();
+        int interval = index.getInt();
+        if (count != (bytes - FIXED_BYTES) / ENTRY_BYTES || interval <= 0) {
+            throw malformed();
+        }
+        long[] offsets = new long[count];
+        long[] bitOffsets = new long[count];
+        for (int i = 0; i < count; i++) {
+            offsets[i] = index.getLong();
+            bitOffsets[i] = index.getLong();
+        }
+        return new SeekIndex(interval, offsets, bitOffsets);
+    }
+
+    /**
+     * Fill a buffer from a file without moving the channel's position, so concurrent readers
+     * can share the channel.
+     *
+     * @param channel the file
+     * @param buffer the buffer to fill
+     * @param position the file position of the first byte
+     * @throws IOException if the file ends before the buffer is full
+     */
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        if (position < 0) {
+            throw malformed();
+        }
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read == -1) {
+                throw malformed();
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Create the exception for an index that is not well formed.
+     *
+     * @return the exception to throw
+     */
+    private static IOException malformed() {
+        return new IOException("Error reading compressed file. \nmissing or malformed seek index.");
+    }
+
+    /**
+     * Find the last entry at or before an original offset.
+     *
+     * @param offset an offset in the original data, >= 0
+     * @return the index of the entry, or -1 if there are no entries
+     */
+    public int floorEntry(long offset) {
+        int low = 0;
+        int high = OFFSETS.length - 1;
+        int result = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (OFFSETS[mid] <= offset) {
+                result = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the number of original bytes between entries.
+     *
+     * @return the interval
+     */
+    public int getInterval() {
+        return INTERVAL;
+    }
+
+    /**
+     * Get the number of entries.
+     *
+     * @return the entry count
+     */
+    public int size() {
+        return OFFSETS.length;
+    }
+
+    /**
+     * Get the original offset of an entry.
+     *
+     * @param entry the index of the entry
+     * @return the offset in the original data
+     */
+    public long getOffset(int entry) {
+        return OFFSETS[entry];
+    }
+
+    /**
+     * Get the bit offset of an entry.
+     *
+     * @param entry the index of the entry
+     * @return the bit offset of the code for the byte at the entry's offset, from the start of
+     *         the stream
+     */
+    public long getBitOffset(int entry) {
+        return BIT_OFFSETS[entry];
+    }
+}
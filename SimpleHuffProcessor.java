@@ -1,26 +1,53 @@
 
 
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 public class SimpleHuffProcessor implements IHuffProcessor {
-    private static final boolean DISPLAY_UPDATES_TO_VIEWER = true;
+    private volatile IHuffViewer myViewer;
 
-    private IHuffViewer myViewer;
+    // the listener set by setPhaseListener, reported to along with the viewer
+    private HuffPhaseListener phaseListener;
 
-    // instance variables for precompress/compress
-    private int[] freqs;
-    private HuffTree tree;
-    private HuffCode[] codes;
-    private int headerFormat;
-    private int bitsSaved;
+    // where phases are timed, rebuilt when the viewer or listener changes
+    private volatile HuffMetrics metrics = HuffMetrics.DEFAULT;
+
+    // encoders and decoders are borrowed per call so concurrent calls never share buffers
+    private final HuffContextPool pool;
+
+    // the plan from the last call to preprocessCompress, used by the next call to compress
+    private volatile CompressionPlan plan;
+
+    /**
+     * Create a processor with its own pool of encoding and decoding contexts.
+     */
+    public SimpleHuffProcessor() {
+        this(new HuffContextPool());
+    }
+
+    /**
+     * Create a processor that borrows encoding and decoding contexts from the given pool,
+     * which may be shared with other processors.
+     *
+     * @param pool the pool of contexts
+     */
+    public SimpleHuffProcessor(HuffContextPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("pool cannot be null");
+        }
+        this.pool = pool;
+    }
 
     /**
      * Preprocess data so that compression is possible --- count characters/create tree/store state
      * so that a subsequent call to compress will work. The InputStream is <em>not</em> a
      * BitInputStream, so wrap it int one as needed.
-     * 
+     *
      * @param in is the stream which could be subsequently compressed
      * @param headerFormat a constant from IHuffProcessor that determines what kind of header to
      *        use, standard count format, standard tree format, or possibly some format added in the
@@ -31,93 +58,71 @@ public class SimpleHuffProcessor implements IHuffProcessor {
      *         the tree, AND the actual data.
      * @throws IOException if an error occurs while reading from the input file.
      */
-    public int preprocessCompress(InputStream in, int headerFormat) throws IOException {
+    public long preprocessCompress(InputStream in, int headerFormat) throws IOException {
+        plan = preprocess(in, headerFormat);
+        return plan.getBitsSaved();
+    }
+
+    /**
+     * Count characters and create the tree and codes for compressing in, returning them as an
+     * immutable plan. The stream is closed.
+     *
+     * @param in is the stream which could be subsequently compressed
+     * @param headerFormat STORE_COUNTS, STORE_TREE, STORE_SPARSE, STORE_RAW, or
+     *        STORE_AUTO for the smallest
+     * @return the plan for compressing the stream
+     * @throws IOException if an error occurs while reading from the input file.
+     */
+    public CompressionPlan preprocess(InputStream in, int headerFormat) throws IOException {
         // check preconditions
         if (in == null) {
             throw new IllegalArgumentException("Input stream cannot be null");
         }
 
-        if (DISPLAY_UPDATES_TO_VIEWER) {
-            myViewer.update("Running preprocessCompress");
+        HuffEncoder encoder = pool.acquireEncoder();
+        try {
+            return encoder.preprocess(in, headerFormat, metrics);
+        } finally {
+            pool.release(encoder);
+            in.close();
         }
-
-        // find frequencies of each 8 bit chunk
-        BitInputStream bitsIn = new BitInputStream(in);
-        freqs = new int[ALPH_SIZE];
-        int readBits = bitsIn.readBits(BITS_PER_WORD);
-
-        while (readBits != -1) {
-            freqs[readBits]++;
-            readBits = bitsIn.readBits(BITS_PER_WORD);
-        }
-
-        if (DISPLAY_UPDATES_TO_VIEWER) {
-            myViewer.update("found freqs");
-        }
-
-        // create HuffTree from the freqs
-        tree = new HuffTree(freqs);
-
-        if (DISPLAY_UPDATES_TO_VIEWER) {
-            myViewer.update("created tree");
-        }
-
-        // store the codes of each character
-        codes = tree.createCodes();
-
-        if (DISPLAY_UPDATES_TO_VIEWER) {
-            myViewer.update("created codes");
-        }
-
-        // save headerFormat for later use ;P
-        this.headerFormat = headerFormat;
-
-        bitsIn.close();
-
-        // find out how many bits will be saved by compression
-        bitsSaved = calculateSavedBits(headerFormat);
-        return bitsSaved;
     }
 
     /**
-     * Find out how many bits will be saved by compression
-     * 
-     * @param headerFormat constant representing SCF or STF
-     * @return the number of bits saved
+     * Count characters in the data after it goes through a chain of transforms, e.g.,
+     * <code>ByteTransform.RUN_LENGTH</code>, and create the tree and codes for compressing
+     * the transformed data. The plan records the chain, so <code>compress</code> applies it
+     * again and uncompressing undoes it. The stream is closed.
+     *
+     * @param in is the stream which could be subsequently compressed
+     * @param headerFormat STORE_COUNTS, STORE_TREE, STORE_SPARSE, STORE_RAW, or
+     *        STORE_AUTO for the smallest
+     * @param transforms the transforms, the first applied first
+     * @return the plan for compressing the stream, whose bits saved are measured against
+     *         the data before the transforms
+     * @throws IOException if an error occurs while reading from the input file.
      */
-    private int calculateSavedBits(int headerFormat) {
-        int compressedBits = BITS_PER_INT * 2; // store magic num and header format
-
-        if (headerFormat == STORE_TREE) {
-            // store size of tree
-            compressedBits += BITS_PER_INT;
-            // store size of tree representation
-            compressedBits += tree.bitsOfTreeRepresentation(freqs);
-        } else if (headerFormat == STORE_COUNTS) {
-            // each number 0 to ALPHSIZE is stored as a 32 bit int
-            compressedBits += BITS_PER_INT * ALPH_SIZE;
-        }
-        int uncompressedBits = 0;
-        // count bits used in compressed version
-        for (int i = 0; i < freqs.length; i++) {
-            // we have a code iff the freq > 0
-            if (freqs[i] > 0) {
-                compressedBits += freqs[i] * codes[i].getNumBits();
-                uncompressedBits += freqs[i] * BITS_PER_WORD;
-            }
+    public CompressionPlan preprocess(InputStream in, int headerFormat,
+            ByteTransform... transforms) throws IOException {
+        // check preconditions
+        if (in == null || transforms == null) {
+            throw new IllegalArgumentException("Input stream and transforms cannot be null");
         }
 
-        // add in the bits used to store the PEOF
-        compressedBits += codes[PSEUDO_EOF].getNumBits();
-
-        return uncompressedBits - compressedBits;
+        HuffEncoder encoder = pool.acquireEncoder();
+        try {
+            return encoder.preprocess(in, headerFormat, transforms, metrics);
+        } finally {
+            pool.release(encoder);
+            in.close();
+        }
     }
 
     /**
      * Compresses input to output, where the same InputStream has previously been pre-processed via
      * <code>preprocessCompress</code> storing state used by this call. <br>
      * pre: <code>preprocessCompress</code> must be called before this method
-     * 
+     *
      * @param in is the stream being compressed (NOT a BitInputStream)
      * @param out is bound to a file/stream to which bits are written for the compressed file (not a
      *        BitOutputStream)
@@ -127,237 +132,291 @@ public class SimpleHuffProcessor implements IHuffProcessor {
      * @throws IOException if an error occurs while reading from the input file or writing to the
      *         output file.
      */
-    public int compress(InputStream in, OutputStream out, boolean force) throws IOException {
-        // check preconditions
-        if (in == null || out == null) {
-            throw new IllegalArgumentException("Input and output streams cannot be null");
+    public long compress(InputStream in, OutputStream out, boolean force) throws IOException {
+        CompressionPlan current = plan;
+        if (current == null) {
+            throw new IllegalStateException("preprocessCompress must be called before compress");
         }
+        return compress(current, in, out, force);
+    }
 
-        if (DISPLAY_UPDATES_TO_VIEWER) {
-            myViewer.update("Running compress");
+    /**
+     * Compresses input to output using a plan built from the same data. Both streams are closed.
+     *
+     * @param plan is the plan built by <code>preprocess</code> from the data in <code>in</code>
+     * @param in is the stream being compressed (NOT a BitInputStream)
+     * @param out is bound to a file/stream to which bits are written for the compressed file
+     * @param force if this is true create the output file even if it is larger than the input file.
+     * @return the number of bits written.
+     * @throws IOException if an error occurs while reading from the input file or writing to the
+     *         output file.
+     */
+    public long compress(CompressionPlan plan, InputStream in, OutputStream out, boolean force)
+            throws IOException {
+        // check preconditions
+        if (plan == null || in == null || out == null) {
+            throw new IllegalArgumentException("Plan, input and output streams cannot be null");
         }
 
         // if not forcing --> ensure we will save bits before compressing
-        if (!force && bitsSaved <= 0) {
-            if (DISPLAY_UPDATES_TO_VIEWER) {
+        if (!force && plan.getBitsSaved() <= 0) {
+            if (myViewer != null) {
                 myViewer.update("Not compressing since no bits will be saved.");
             }
-
+            in.close();
+            out.close();
             return 0;
         }
 
-        BitInputStream bitsIn = new BitInputStream(in);
-        BitOutputStream bitsOut = new BitOutputStream(out);
-
-        // write the magic number
-        bitsOut.writeBits(BITS_PER_INT, MAGIC_NUMBER);
-
-        if (DISPLAY_UPDATES_TO_VIEWER) {
-            myViewer.update("Wrote magic number");
-        }
-
-        // write format (SCF vs STF)
-        bitsOut.writeBits(BITS_PER_INT, headerFormat);
-
-        if (DISPLAY_UPDATES_TO_VIEWER) {
-            myViewer.update("Wrote const for the format of tree data");
+        HuffEncoder encoder = pool.acquireEncoder();
+        try {
+            return encoder.compress(plan, in, out, metrics);
+        } finally {
+            pool.release(encoder);
+            in.close();
+            out.close();
         }
-
-        // keep track of bits written --> BITS_PER_INT * 2 for magic number and header format
-        int totalBitsWritten = BITS_PER_INT * 2;
-
-        // write counts/tree according to format
-        totalBitsWritten += writeHeaderData(bitsOut);
-
-        // write data
-        totalBitsWritten += writeCompressedData(bitsIn, bitsOut);
-
-        bitsIn.close();
-        bitsOut.close();
-
-        return totalBitsWritten;
     }
 
     /**
-     * Write the header data to the output stream.
-     * 
-     * @param bitsOut the BitOutputStream to write to
-     * @param totalBitsWritten the number of bits written so far
-     * @return
+     * Compresses a block of data held in memory, e.g., a chunk of a larger input, to output
+     * using a plan built from the same data. The output is the same as compressing the block
+     * as a stream, but the codes are packed 64 bits at a time by a
+     * <code>HuffEncodeKernel</code>. The output stream is closed.
+     *
+     * @param plan is the plan built by <code>preprocess</code> from the block
+     * @param data the array holding the block
+     * @param off the index of the first byte of the block
+     * @param len the number of bytes in the block
+     * @param out is bound to a file/stream to which bits are written for the compressed file
+     * @param force if this is true create the output file even if it is larger than the input file.
+     * @return the number of bits written.
+     * @throws IOException if an error occurs while writing to the output file.
      */
-    private int writeHeaderData(BitOutputStream bitsOut) {
-        int totalBitsWritten = 0;
-
-        // write tree data
-        if (headerFormat == STORE_TREE) {
-            bitsOut.writeBits(BITS_PER_INT, tree.bitsOfTreeRepresentation(freqs));
-
-            if (DISPLAY_UPDATES_TO_VIEWER) {
-                myViewer.update("Wrote bits of tree representation: "
-                        + tree.bitsOfTreeRepresentation(freqs));
-            }
-
-            // the size is stored in a 32 bit int
-            totalBitsWritten += BITS_PER_INT + tree.writeTree(bitsOut);
-
-            if (DISPLAY_UPDATES_TO_VIEWER) {
-                myViewer.update("Wrote tree");
-            }
-
+    public long compress(CompressionPlan plan, byte[] data, int off, int len, OutputStream out,
+            boolean force) throws IOException {
+        // check preconditions
+        if (plan == null || data == null || out == null) {
+            throw new IllegalArgumentException("Plan, data and output stream cannot be null");
+        }
+        if (off < 0 || len < 0 || len > data.length - off) {
+            throw new IllegalArgumentException("bad block " + off + " to " + (off + len));
         }
-        // write counts data
-        else if (headerFormat == STORE_COUNTS) {
-            // write the counts for each value 0 to ALPH_SIZE
-            for (int i = 0; i < ALPH_SIZE; i++) {
-                bitsOut.writeBits(BITS_PER_INT, freqs[i]);
-            }
-
-            // each number 0 to ALPHSIZE is stored as a 32 bit int
-            totalBitsWritten += BITS_PER_INT * ALPH_SIZE;
 
-            if (DISPLAY_UPDATES_TO_VIEWER) {
-                myViewer.update("Wrote all freqs");
+        // if not forcing --> ensure we will save bits before compressing
+        if (!force && plan.getBitsSaved() <= 0) {
+            if (myViewer != null) {
+                myViewer.update("Not compressing since no bits will be saved.");
             }
+            out.close();
+            return 0;
         }
 
-        return totalBitsWritten;
+        HuffEncoder encoder = pool.acquireEncoder();
+        try {
+            return encoder.compress(plan, data, off, len, out, metrics);
+        } finally {
+            pool.release(encoder);
+            out.close();
+        }
     }
 
     /**
-     * Convert data from the inputstream to compressed data in the output stream.
-     * 
-     * @param bitsIn the BitInputStream to read from
-     * @param bitsOut the BitOutputStream to write to
-     * @return the number of bits written
-     * @throws IOException
+     * Compress input to output in one pass as segments, each with its own table, split where
+     * the statistics of the data change enough for a new table to pay for its header, as
+     * done by <code>AdaptiveHuffEncoder</code>. No preprocessing is needed and the output is
+     * always written. Both streams are closed.
+     *
+     * @param in is the stream being compressed (NOT a BitInputStream)
+     * @param out is bound to a file/stream to which bits are written for the compressed file
+     * @param headerFormat STORE_COUNTS, STORE_TREE, STORE_SPARSE, STORE_RAW, or STORE_AUTO
+     *        for the smallest for each segment
+     * @return the number of bits written.
+     * @throws IOException if an error occurs while reading from the input file or writing to the
+     *         output file.
      */
-    private int writeCompressedData(BitInputStream bitsIn, BitOutputStream bitsOut)
+    public long compressAdaptive(InputStream in, OutputStream out, int headerFormat)
             throws IOException {
-        int totalBitsWritten = 0;
-        int bitsRead = bitsIn.readBits(BITS_PER_WORD);
-
-        while (bitsRead != -1) {
-            HuffCode code = codes[bitsRead];
-            bitsOut.writeBits(code.getNumBits(), code.getValue());
-            totalBitsWritten += code.getNumBits();
+        // check preconditions
+        if (in == null || out == null) {
+            throw new IllegalArgumentException("Input and output streams cannot be null");
+        }
 
-            bitsRead = bitsIn.readBits(BITS_PER_WORD);
+        HuffEncoder encoder = pool.acquireEncoder();
+        try {
+            return new AdaptiveHuffEncoder(encoder).compress(in, out, headerFormat, metrics);
+        } finally {
+            pool.release(encoder);
+            in.close();
+            out.close();
         }
+    }
 
-        if (DISPLAY_UPDATES_TO_VIEWER) {
-            myViewer.update("Wrote all data using the codes");
+    /**
+     * Compress input to output in one pass with <code>LzHuffEncoder</code>, replacing repeated
+     * strings with references to earlier copies before Huffman coding, for data whose
+     * redundancy is in repeated strings rather than skewed byte counts. No preprocessing is
+     * needed and the output is always written. Both streams are closed.
+     *
+     * @param in is the stream being compressed (NOT a BitInputStream)
+     * @param out is bound to a file/stream to which bits are written for the compressed file
+     * @param level the effort level, LzHuffEncoder.MIN_LEVEL, fastest, to
+     *        LzHuffEncoder.MAX_LEVEL, smallest
+     * @return the number of bits written.
+     * @throws IOException if an error occurs while reading from the input file or writing to the
+     *         output file.
+     */
+    public long compressLz(InputStream in, OutputStream out, int level) throws IOException {
+        // check preconditions
+        if (in == null || out == null) {
+            throw new IllegalArgumentException("Input and output streams cannot be null");
         }
 
-        // write PEOF
-        HuffCode PEOFCode = codes[PSEUDO_EOF];
-        bitsOut.writeBits(PEOFCode.getNumBits(), PEOFCode.getValue());
-        totalBitsWritten += PEOFCode.getNumBits();
+        LzHuffEncoder encoder = new LzHuffEncoder();
+        long start = metrics.start();
+        try {
+            long bitsWritten = encoder.compress(in, out, level);
+            metrics.end(HuffPhase.ENCODE, start, encoder.getBytesRead(),
+                    (bitsWritten + BITS_PER_WORD - 1) / BITS_PER_WORD);
+            return bitsWritten;
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
 
-        if (DISPLAY_UPDATES_TO_VIEWER) {
-            myViewer.update("Wrote PEOF - compressing complete :)");
+    /**
+     * Compress new data as a segment appended to a compressed file, leaving the segments
+     * already in the file untouched. The segment has its own table, length and checksum and
+     * uncompressing the file yields the data of every segment in order, so the cost of
+     * keeping a growing file compressed depends only on the data added. A file whose first
+     * segment has a seek index cannot be appended to, since <code>HuffRandomAccess</code>
+     * reads the index from the end of the file. The input stream is closed.
+     *
+     * @param plan is the plan built by <code>preprocess</code> from the data in <code>in</code>;
+     *        it may not have a seek index, since only a file's first segment can have one
+     * @param in is the stream being compressed (NOT a BitInputStream)
+     * @param compressed the compressed file, created if it does not exist
+     * @return the number of bits written.
+     * @throws IOException if the file is not a compressed file, its first segment has a
+     *         seek index, or an error occurs while reading from the input or writing to the
+     *         file.
+     */
+    public long append(CompressionPlan plan, InputStream in, Path compressed) throws IOException {
+        // check preconditions
+        if (plan == null || in == null || compressed == null) {
+            throw new IllegalArgumentException("Plan, input stream and file cannot be null");
+        }
+        if (plan.hasFlag(INDEX_FLAG)) {
+            throw new IllegalArgumentException("appended segments cannot have a seek index");
         }
 
-        return totalBitsWritten;
+        if (Files.exists(compressed) && Files.size(compressed) > 0) {
+            try (DataInputStream existing = new DataInputStream(
+                    Files.newInputStream(compressed))) {
+                if (Files.size(compressed) < Integer.BYTES
+                        || existing.readInt() != MAGIC_NUMBER) {
+                    in.close();
+                    throw new IOException("Error appending to compressed file. \n"
+                            + "File did not start with the huff magic number.");
+                }
+                // the seek index of the first segment is found at the end of the file
+                if (Files.size(compressed) < 2 * Integer.BYTES
+                        || (existing.readInt() & INDEX_FLAG) != 0) {
+                    in.close();
+                    throw new IOException("Error appending to compressed file. \n"
+                            + "File has a seek index, which must stay at the end of the file.");
+                }
+            }
+        }
+        return compress(plan.withLength().withChecksum(), in, Files.newOutputStream(compressed,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND), true);
     }
 
     /**
      * Uncompress a previously compressed stream in, writing the uncompressed bits/data to out.
-     * 
+     *
      * @param in is the previously compressed data (not a BitInputStream)
      * @param out is the uncompressed file/stream
      * @return the number of bits written to the uncompressed file/stream
      * @throws IOException if an error occurs while reading from the input file or writing to the
      *         output file.
      */
-    public int uncompress(InputStream in, OutputStream out) throws IOException {
+    public long uncompress(InputStream in, OutputStream out) throws IOException {
         // check preconditions
         if (in == null || out == null) {
             throw new IllegalArgumentException("Input and output streams cannot be null");
         }
 
-        BitInputStream bitsIn = new BitInputStream(in);
-        BitOutputStream bitsOut = new BitOutputStream(out);
+        HuffDecoder decoder = pool.acquireDecoder();
+        try {
+            long bitsWritten = decoder.uncompress(in, out, metrics);
 
-        // check if the file is 'valid' by confirming the magic number
-        if (!(bitsIn.readBits(BITS_PER_INT) == MAGIC_NUMBER)) {
-            if (DISPLAY_UPDATES_TO_VIEWER) {
+            // check if the file is 'valid' by confirming the magic number
+            if (bitsWritten == -1 && myViewer != null) {
                 myViewer.showError("Error reading compressed file. \n"
                         + "File did not start with the huff magic number.");
             }
-
-            bitsIn.close();
-            bitsOut.close();
-            return -1;
+            return bitsWritten;
+        } finally {
+            pool.release(decoder);
+            in.close();
+            out.close();
         }
+    }
 
-        if (DISPLAY_UPDATES_TO_VIEWER) {
-            myViewer.update("Read and verified magic number");
+    /**
+     * Check a previously compressed stream by decoding it without writing the data anywhere.
+     * If the stream was compressed with a checksum the decoded data is compared with it,
+     * otherwise only the structure of the stream is checked. The stream is closed.
+     *
+     * @param in is the previously compressed data (not a BitInputStream)
+     * @return the number of bytes the stream uncompresses to, or -1 if it did not start with
+     *         the magic number
+     * @throws IOException if the stream is truncated, malformed or does not match its checksum
+     */
+    public long verify(InputStream in) throws IOException {
+        if (in == null) {
+            throw new IllegalArgumentException("Input stream cannot be null");
         }
 
-        // check if we are using SCF or STF and create the appropriate tree
-        HuffTree newTree = createTreeFromData(bitsIn);
-
-        // read bits and use the tree to convert to original data
-
-        int bitsWritten = newTree.decode(bitsIn, bitsOut);
-
-        if (DISPLAY_UPDATES_TO_VIEWER) {
-            myViewer.update("Read codes and regenerated the original - uncompressing complete :)");
+        HuffDecoder decoder = pool.acquireDecoder();
+        try {
+            return decoder.verify(in);
+        } finally {
+            pool.release(decoder);
+            in.close();
         }
-
-        bitsIn.close();
-        bitsOut.close();
-        return bitsWritten;
     }
 
     /**
-     * Create a HuffTree from the data in the input stream.
-     * 
-     * @param bitsIn the BitInputStream to read from
-     * @return the HuffTree created from the data in the input stream
-     * @throws IOException
+     * Attach a listener that receives the time and byte counts of each phase, in addition to
+     * the viewer and any Flight Recorder recording.
+     *
+     * @param listener the listener, or null to remove it
      */
-    private HuffTree createTreeFromData(BitInputStream bitsIn) throws IOException {
-        HuffTree newTree = null;
-
-        // read the header format and use STF or SCF to create the tree accordingly
-        int format = bitsIn.readBits(BITS_PER_INT);
-        if (format == STORE_TREE) {
-            // read # of bits val from data
-            int numOfBitsForTreeRepresentation = bitsIn.readBits(BITS_PER_INT);
-
-            if (DISPLAY_UPDATES_TO_VIEWER) {
-                myViewer.update("Read num bits of uncompressing tree representation "
-                        + numOfBitsForTreeRepresentation);
-            }
-
-            // create HuffTree from the data
-            newTree = new HuffTree(bitsIn);
-
-            if (DISPLAY_UPDATES_TO_VIEWER) {
-                myViewer.update("Read and created tree from STF data");
-            }
-
-        } else if (format == STORE_COUNTS) {
-            // create a new tree based on the frequencies of the values
-            int[] tempFreqs = new int[ALPH_SIZE];
-
-            for (int k = 0; k < IHuffConstants.ALPH_SIZE; k++) {
-                tempFreqs[k] = bitsIn.readBits(BITS_PER_INT);
-            }
-
-            // create HuffTree from freqs
-            newTree = new HuffTree(tempFreqs);
-
-            if (DISPLAY_UPDATES_TO_VIEWER) {
-                myViewer.update("Read freqs and created tree from SCF data");
-            }
-        }
-
-        return newTree;
+    public synchronized void setPhaseListener(HuffPhaseListener listener) {
+        phaseListener = listener;
+        updateMetrics();
     }
 
-    public void setViewer(IHuffViewer viewer) {
+    /**
+     * Make sure this model communicates with some view. Each phase is shown in the view as
+     * it finishes.
+     *
+     * @param viewer is the view for communicating, or null for none.
+     */
+    public synchronized void setViewer(IHuffViewer viewer) {
         myViewer = viewer;
+        updateMetrics();
+    }
+
+    /**
+     * Rebuild the metrics so they report to the current viewer and listener.
+     */
+    private void updateMetrics() {
+        HuffPhaseListener viewerListener = myViewer == null ? null
+                : new ViewerPhaseListener(myViewer);
+        metrics = new HuffMetrics(viewerListener, phaseListener);
     }
 }
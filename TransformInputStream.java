@@ -0,0 +1,116 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+
+/**
+ * An <code>InputStream</code> reading the output of a chain of <code>ByteTransform</code>s
+ * applied to another stream, so the transformed data can be counted and coded by anything
+ * that reads a stream. The source is read a buffer at a time and pushed through the chain,
+ * and only the output of one buffer is held until it is read.
+ */
+public class TransformInputStream extends InputStream {
+    private final InputStream IN;
+    private final byte[] BUFFER;
+    private final Pending PENDING;
+    private final TransformOutputStream CHAIN;
+    private final byte[] SINGLE;
+    private long bytesRead;
+    private boolean finished;
+
+    /**
+     * Create a stream applying transforms to in.
+     *
+     * @param in the original data
+     * @param transforms the transforms, the first applied first
+     */
+    public TransformInputStream(InputStream in, ByteTransform[] transforms) {
+        if (in == null || transforms == null) {
+            throw new IllegalArgumentException("Input stream and transforms cannot be null");
+        }
+        IN = in;
+        BUFFER = new byte[FastBitInputStream.DEFAULT_BUFFER_SIZE];
+        PENDING = new Pending();
+        CHAIN = TransformOutputStream.encoding(transforms, PENDING);
+        SINGLE = new byte[1];
+    }
+
+    /**
+     * Get the number of bytes read from the original data so far.
+     *
+     * @return the bytes read from the source
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(SINGLE, 0, 1) == -1 ? -1 : SINGLE[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        while (PENDING.available() == 0) {
+            if (finished) {
+                return -1;
+            }
+            PENDING.reset();
+            int read = IN.read(BUFFER, 0, BUFFER.length);
+            if (read == -1) {
+                finished = true;
+                CHAIN.finish();
+            } else {
+                bytesRead += read;
+                CHAIN.write(BUFFER, 0, read);
+            }
+        }
+        return PENDING.take(b, off, len);
+    }
+
+    /**
+     * Closes the original data.
+     *
+     * @throws IOException if it cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        IN.close();
+    }
+
+    /**
+     * Holds the output of the chain until it is read.
+     */
+    static class Pending extends ByteArrayOutputStream {
+        private int position;
+
+        /**
+         * Get the number of bytes written but not yet taken.
+         */
+        int available() {
+            return count - position;
+        }
+
+        /**
+         * Move up to len of the bytes not yet taken into b.
+         *
+         * @return the number of bytes moved
+         */
+        int take(byte[] b, int off, int len) {
+            int n = Math.min(len, count - position);
+            System.arraycopy(buf, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            position = 0;
+        }
+    }
+}
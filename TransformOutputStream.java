@@ -0,0 +1,156 @@
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An <code>OutputStream</code> that passes the bytes written to it through one stage of a
+ * chain of <code>ByteTransform</code>s to the next stage, or to the final stream after the
+ * last. The static methods build a whole chain, forwards for compressing or backwards for
+ * uncompressing, in front of a stream.
+ * <P>
+ * <code>finish</code> writes what the stages hold back at the end of the data without
+ * closing the final stream, so a chain can end in the middle of a stream, e.g., at the end
+ * of one segment of many.
+ */
+public class TransformOutputStream extends OutputStream {
+    private final ByteTransform.Coder CODER;
+    private final OutputStream OUT;
+    private final byte[] SINGLE;
+    private boolean finished;
+
+    private TransformOutputStream(ByteTransform.Coder coder, OutputStream out) {
+        CODER = coder;
+        OUT = out;
+        SINGLE = new byte[1];
+    }
+
+    /**
+     * Build a chain applying transforms in order, the output of each going to the next.
+     *
+     * @param transforms the transforms, the first applied first; may be empty
+     * @param out where the output of the last transform is written
+     * @return the stream to write the data to, counting what reaches out
+     */
+    public static TransformOutputStream encoding(ByteTransform[] transforms, OutputStream out) {
+        OutputStream next = new Counter(out);
+        for (int i = transforms.length - 1; i >= 0; i--) {
+            next = new TransformOutputStream(transforms[i].newEncoder(), next);
+        }
+        return next instanceof TransformOutputStream ? (TransformOutputStream) next
+                : new TransformOutputStream(null, next);
+    }
+
+    /**
+     * Build a chain undoing transforms, the last applied undone first.
+     *
+     * @param transforms the transforms as passed to <code>encoding</code>
+     * @param out where the original data is written
+     * @return the stream to write the transformed data to, counting what reaches out
+     */
+    public static TransformOutputStream decoding(ByteTransform[] transforms, OutputStream out) {
+        OutputStream next = new Counter(out);
+        for (ByteTransform transform : transforms) {
+            next = new TransformOutputStream(transform.newDecoder(), next);
+        }
+        return next instanceof TransformOutputStream ? (TransformOutputStream) next
+                : new TransformOutputStream(null, next);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        SINGLE[0] = (byte) b;
+        write(SINGLE, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished) {
+            throw new IOException("write after finish");
+        }
+        if (CODER == null) {
+            OUT.write(b, off, len);
+        } else {
+            CODER.update(b, off, len, OUT);
+        }
+    }
+
+    /**
+     * Write what this stage and those after it hold back at the end of the data, leaving the
+     * final stream open. Nothing more can be written afterwards.
+     *
+     * @throws IOException if the final stream cannot be written
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (CODER != null) {
+            CODER.finish(OUT);
+        }
+        if (OUT instanceof TransformOutputStream) {
+            ((TransformOutputStream) OUT).finish();
+        }
+    }
+
+    /**
+     * Get the number of bytes the last stage of the chain has written to the final stream.
+     *
+     * @return the bytes written so far
+     */
+    public long getBytesWritten() {
+        if (OUT instanceof TransformOutputStream) {
+            return ((TransformOutputStream) OUT).getBytesWritten();
+        }
+        return ((Counter) OUT).count;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        OUT.flush();
+    }
+
+    /**
+     * Finish the chain and close the final stream.
+     *
+     * @throws IOException if the final stream cannot be written or closed
+     */
+    @Override
+    public void close() throws IOException {
+        finish();
+        OUT.close();
+    }
+
+    /**
+     * Counts the bytes written to the final stream.
+     */
+    private static class Counter extends OutputStream {
+        private final OutputStream OUT;
+        private long count;
+
+        Counter(OutputStream out) {
+            OUT = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            OUT.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            OUT.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            OUT.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            OUT.close();
+        }
+    }
+}
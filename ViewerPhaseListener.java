@@ -0,0 +1,24 @@
+/**
+ * Shows a line in a viewer for each phase that finishes, replacing the fixed progress
+ * strings the processor used to send. Strings are only built when a viewer is attached.
+ */
+public class ViewerPhaseListener implements HuffPhaseListener {
+    private final IHuffViewer VIEWER;
+
+    /**
+     * Create a listener that reports to viewer.
+     *
+     * @param viewer the view lines are shown in, != null
+     */
+    public ViewerPhaseListener(IHuffViewer viewer) {
+        if (viewer == null) {
+            throw new IllegalArgumentException("viewer cannot be null");
+        }
+        VIEWER = viewer;
+    }
+
+    public void phaseCompleted(HuffPhase phase, long nanos, long bytesIn, long bytesOut) {
+        VIEWER.update(String.format("%-15s %10.3f ms %,14d bytes in %,14d bytes out",
+                phase.name().toLowerCase(), nanos / 1e6, bytesIn, bytesOut));
+    }
+}